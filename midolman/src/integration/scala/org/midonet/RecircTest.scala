@@ -183,7 +183,8 @@ class RecircTest extends FeatureSpec
             numHandlers = 1,
             index = 0,
             channelFactory,
-            new PacketExecutorMetrics(new MetricRegistry, 1))
+            new PacketExecutorMetrics(new MetricRegistry, 1),
+            new DatapathMetrics(new MetricRegistry))
     }
 
     override def afterAll(): Unit = {
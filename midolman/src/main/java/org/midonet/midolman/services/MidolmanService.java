@@ -18,6 +18,7 @@ package org.midonet.midolman.services;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.codahale.metrics.JmxReporter;
@@ -28,7 +29,10 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.midonet.midolman.config.MidolmanConfig;
 import org.midonet.midolman.host.services.HostService;
+import org.midonet.midolman.monitoring.SharedStatsFile;
+import org.midonet.midolman.monitoring.SharedStatsReporter;
 import org.midonet.midolman.state.PeerResolver;
 import org.midonet.midolman.topology.VirtualToPhysicalMapper;
 import org.midonet.midolman.topology.VirtualTopology;
@@ -56,6 +60,12 @@ public class MidolmanService extends AbstractService {
     @Inject
     MetricRegistry metrics;
 
+    @Inject
+    MidolmanConfig config;
+
+    @Inject(optional = true)
+    SharedStatsFile sharedStats;
+
     @Inject(optional = true)
     HostService hostService;
 
@@ -69,6 +79,7 @@ public class MidolmanService extends AbstractService {
     PeerResolver resolver;
 
     private JmxReporter jmxReporter = null;
+    private SharedStatsReporter sharedStatsReporter = null;
 
     @Override
     protected void doStart() {
@@ -94,6 +105,18 @@ public class MidolmanService extends AbstractService {
             doStop();
         }
 
+        if (sharedStats != null) {
+            try {
+                sharedStatsReporter =
+                    new SharedStatsReporter(metrics, sharedStats);
+                sharedStatsReporter.start(
+                    config.sharedStats().publishInterval(),
+                    TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.error("Cannot start shared statistics reporter", e);
+            }
+        }
+
         try {
             resolver.start();
         } catch (Exception e) {
@@ -117,6 +140,10 @@ public class MidolmanService extends AbstractService {
             notifyFailed(e);
         }
 
+        if (sharedStatsReporter != null) {
+            sharedStatsReporter.stop();
+        }
+
         List<Service> services = services();
         Collections.reverse(services);
         log.info("Stopping services");
@@ -136,13 +163,24 @@ public class MidolmanService extends AbstractService {
 
         log.info("Stopping executors");
         try {
+            List<ExecutorService> partitionExecutors =
+                virtualTopology.partitionExecutorList();
             virtualTopology.vtExecutor().shutdown();
+            for (ExecutorService executor : partitionExecutors) {
+                executor.shutdown();
+            }
             virtualTopology.ioExecutor().shutdown();
             if (!virtualTopology.vtExecutor()
                 .awaitTermination(5, TimeUnit.SECONDS)) {
                 log.warn("Stopping the VT executor timed out");
                 virtualTopology.vtExecutor().shutdownNow();
             }
+            for (ExecutorService executor : partitionExecutors) {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Stopping a VT partition executor timed out");
+                    executor.shutdownNow();
+                }
+            }
             if (!virtualTopology.ioExecutor()
                                 .awaitTermination(5, TimeUnit.SECONDS)) {
                 log.warn("Stopping the I/O executor timed out");
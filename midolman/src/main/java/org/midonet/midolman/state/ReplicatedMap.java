@@ -17,6 +17,8 @@
 package org.midonet.midolman.state;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -103,15 +105,14 @@ public abstract class ReplicatedMap<K, V> {
         }
 
         /**
-         * Takes the curPaths set and populates the given newMap with them,
+         * Takes the given paths and populates the given newMap with them,
          * using only the highest versioned entry for each key, and adding to
          * cleanupPaths all that need to be purged.
          */
         void populateNewMap(final Map<K, MapValue> newMap,
-                            final Set<String> curPaths,
+                            final Collection<Path> paths,
                             final List<Path> cleanupPaths) {
-            for (String path : curPaths) {
-                Path p = decodePath(path);
+            for (Path p : paths) {
                 MapValue mv = newMap.get(p.key);
                 if (mv == null) {
                     newMap.put(p.key, new MapValue(p.value, p.version));
@@ -129,9 +130,8 @@ public abstract class ReplicatedMap<K, V> {
                     newMap.put(p.key, new MapValue(p.value, p.version));
 
                     if (ownedVersions.contains(mv.version)) {
-                        p.value = mv.value;
-                        p.version = mv.version;
-                        cleanupPaths.add(p);
+                        cleanupPaths.add(
+                            new Path(p.key, mv.value, mv.version));
                     }
                 } else if (mv.version > p.version &&
                            ownedVersions.contains(p.version)) {
@@ -175,7 +175,7 @@ public abstract class ReplicatedMap<K, V> {
          * @param notifications where to accumulate the notifications
          * @param newMap the new map generated from the last set of paths
          */
-        void collectNotifications(final Set<Notification<K, V>> notifications,
+        void collectNotifications(final List<Notification<K, V>> notifications,
                                   final Map<K, MapValue> newMap) {
 
             Set<K> oldKeys = new HashSet<>(localMap.keySet());
@@ -187,20 +187,104 @@ public abstract class ReplicatedMap<K, V> {
             }
 
             for (Map.Entry<K, MapValue> entry : newMap.entrySet()) {
-                K key = entry.getKey();
-                V value = entry.getValue().value;
-                MapValue mv = localMap.get(key);
-                if (mv == null) {
-                    notifications.add(new Notification<>(
-                        key, null, value));
-                } else if (mv.version != entry.getValue().version) {
-                    // We compare versions because the 'value' members
-                    // might not implement .equals accurately.
-                    notifications.add(new Notification<>(
-                        key, mv.value, value));
-                } // else mv == entry:  No notification.
+                collectNotification(notifications, entry.getKey(),
+                                    localMap.get(entry.getKey()),
+                                    entry.getValue());
+            }
+
+        }
+
+        /**
+         * Compiles the notification for a key, if its value has changed.
+         */
+        void collectNotification(final List<Notification<K, V>> notifications,
+                                 final K key, final MapValue oldValue,
+                                 final MapValue newValue) {
+            if (oldValue == null && newValue != null) {
+                notifications.add(new Notification<>(key, null, newValue.value));
+            } else if (oldValue != null && newValue == null) {
+                notifications.add(new Notification<>(key, oldValue.value, null));
+            } else if (oldValue != null &&
+                       oldValue.version != newValue.version) {
+                // We compare versions because the 'value' members
+                // might not implement .equals accurately.
+                notifications.add(new Notification<>(
+                    key, oldValue.value, newValue.value));
+            } // else oldValue == newValue:  No notification.
+        }
+
+        /**
+         * Rebuilds the local map from all the given paths, notifying the
+         * changes for all keys.
+         */
+        void fullSync(final Set<String> curPaths,
+                      final List<Notification<K, V>> notifications,
+                      final List<Path> cleanupPaths) {
+            List<Path> paths = new ArrayList<>(curPaths.size());
+            for (String path : curPaths) {
+                paths.add(decodePath(path));
+            }
+            ConcurrentMap<K,MapValue> newMap = new ConcurrentHashMap<>();
+            populateNewMap(newMap, paths, cleanupPaths);
+            collectNotifications(notifications, newMap);
+            localMap = newMap;
+        }
+
+        /**
+         * Updates the local map with the difference between the given paths
+         * and the paths of the previous listing. Only the added and removed
+         * paths are decoded, and only the keys of those paths are resolved
+         * again, such that the cost of an update does not depend on the
+         * number of entries, except for the comparison of the path names.
+         */
+        void incrementalSync(final Set<String> curPaths,
+                             final List<Notification<K, V>> notifications,
+                             final List<Path> cleanupPaths) {
+            Set<K> changedKeys = new HashSet<>();
+            for (String name : knownPaths) {
+                if (!curPaths.contains(name)) {
+                    Path p = decodePath(name);
+                    Map<String, Path> paths = keyPaths.get(p.key);
+                    if (paths != null) {
+                        paths.remove(name);
+                        if (paths.isEmpty()) {
+                            keyPaths.remove(p.key);
+                        }
+                    }
+                    changedKeys.add(p.key);
+                }
+            }
+            for (String name : curPaths) {
+                if (!knownPaths.contains(name)) {
+                    Path p = decodePath(name);
+                    Map<String, Path> paths = keyPaths.get(p.key);
+                    if (paths == null) {
+                        paths = new HashMap<>(4);
+                        keyPaths.put(p.key, paths);
+                    }
+                    paths.put(name, p);
+                    changedKeys.add(p.key);
+                }
             }
 
+            Map<K, MapValue> keyMap = new HashMap<>(4);
+            for (K key : changedKeys) {
+                Map<String, Path> paths = keyPaths.get(key);
+                MapValue newValue = null;
+                if (paths != null) {
+                    keyMap.clear();
+                    populateNewMap(keyMap, paths.values(), cleanupPaths);
+                    newValue = keyMap.get(key);
+                }
+                MapValue oldValue = localMap.get(key);
+                collectNotification(notifications, key, oldValue, newValue);
+                if (newValue == null) {
+                    localMap.remove(key);
+                } else if (oldValue == null ||
+                           oldValue.version != newValue.version) {
+                    localMap.put(key, newValue);
+                }
+            }
         }
 
         public void run() {
@@ -212,16 +296,18 @@ public abstract class ReplicatedMap<K, V> {
                 return;
 
             List<Path> cleanupPaths = new LinkedList<>();
-            Set<Notification<K,V>> notifications = new HashSet<>();
+            List<Notification<K,V>> notifications = new ArrayList<>();
 
             synchronized(ReplicatedMap.this) {
                 if (!running.get()) {
                     return;
                 }
-                ConcurrentMap<K,MapValue> newMap = new ConcurrentHashMap<>();
-                populateNewMap(newMap, curPaths, cleanupPaths);
-                collectNotifications(notifications, newMap);
-                localMap = newMap;
+                if (incremental) {
+                    incrementalSync(curPaths, notifications, cleanupPaths);
+                    knownPaths = curPaths;
+                } else {
+                    fullSync(curPaths, notifications, cleanupPaths);
+                }
             }
 
             for (Notification<K,V> notice : notifications) {
@@ -239,6 +325,11 @@ public abstract class ReplicatedMap<K, V> {
     private Set<Watcher<K, V>> watchers;
     private DirectoryWatcher myWatcher;
     private boolean createsEphemeralNode;
+    private final boolean incremental;
+    /* The paths of the last directory listing, and the decoded paths for each
+       key, used by the incremental synchronization. */
+    private Set<String> knownPaths = Collections.emptySet();
+    private final Map<K, Map<String, Path>> keyPaths = new HashMap<>();
 
     public ReplicatedMap(Directory dir) {
         this(dir, true);
@@ -254,6 +345,24 @@ public abstract class ReplicatedMap<K, V> {
      * 'put' to this map be made an ephemeral / persistent ZooKeeper node.
      */
     public ReplicatedMap(Directory dir, boolean ephemeral) {
+        this(dir, ephemeral, true);
+    }
+
+    /**
+     * Creates a ReplicatedMap that, when <pre>incremental</pre> is true,
+     * applies only the difference between consecutive directory listings to
+     * the local map after the initial snapshot. Otherwise, the map rebuilds
+     * the local map from the full listing for every change.
+     * @param dir A ZooKeeper directory (node) under which key-value pairs are
+     * stored.
+     * @param ephemeral A boolean indicating whether a key-value pair that's
+     * 'put' to this map be made an ephemeral / persistent ZooKeeper node.
+     * @param incremental A boolean indicating whether the map applies the
+     * directory changes incrementally.
+     */
+    public ReplicatedMap(Directory dir, boolean ephemeral,
+                         boolean incremental) {
+        this.incremental = incremental;
         this.dir = dir;
         this.running = new AtomicBoolean(false);
         this.localMap = new ConcurrentHashMap<>();
@@ -279,6 +388,8 @@ public abstract class ReplicatedMap<K, V> {
 
     public synchronized void stop() {
         running.set(false);
+        knownPaths = Collections.emptySet();
+        keyPaths.clear();
         Map<K, MapValue> oldMap = localMap;
         localMap = new ConcurrentHashMap<>();
         oldMap.clear();
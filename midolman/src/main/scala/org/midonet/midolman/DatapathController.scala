@@ -37,6 +37,7 @@ import org.slf4j.LoggerFactory
 
 import rx.{Observer, Subscription}
 
+import org.midonet.midolman.PacketWorkflow.DpPortRemoved
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.DatapathPortEntangler
 import org.midonet.midolman.host.interfaces.InterfaceDescription
@@ -339,7 +340,9 @@ class DatapathController @Inject() (val driver: DatapathStateDriver,
 
     override def removeFromDatapath(port: DpPort): Future[_] = {
         log.debug(s"Removing port ${port.getName}")
-        upcallConnManager.deleteDpPort(driver.datapath, port)
+        upcallConnManager.deleteDpPort(driver.datapath, port) andThen {
+            case _ => backChannel.tell(DpPortRemoved(port.getPortNo))
+        }
     }
 
     override def setVportStatus(port: DpPort, vport: UUID, tunnelKey: Long,
@@ -68,7 +68,8 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         Util.findNextPositivePowerOfTwo(maxFlows))
     private var mask = indexToFlow.length - 1
 
-    val meters = new MeterRegistry(maxFlows)
+    val meters = new MeterRegistry(maxFlows, metrics.sharedStats,
+                                   metrics.workerTag)
     Metering.registerAsMXBean(meters)
 
     private val managedFlowPool = new ArrayObjectPool[ManagedFlow](
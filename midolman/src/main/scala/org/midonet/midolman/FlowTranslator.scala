@@ -20,6 +20,7 @@ import java.lang.{Integer => JInteger}
 import java.util.UUID
 
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.monitoring.SimulationProfiler.TranslationStage
 import org.midonet.midolman.simulation.{VxLanPort, PacketContext}
 import org.midonet.midolman.simulation.Simulator.ToPortAction
 import org.midonet.midolman.topology.{VirtualTopology, VxLanPortMappingService}
@@ -58,6 +59,9 @@ trait FlowTranslator {
      * FlowActions expressed in physical references.
      */
     def translateActions(context: PacketContext): Unit = {
+        val profiler = context.simulationProfiler
+        val stage =
+            if (profiler ne null) profiler.enter(TranslationStage) else 0
         context.outPorts.clear()
         var i = 0
         val virtualActions = context.virtualFlowActions
@@ -93,6 +97,9 @@ trait FlowTranslator {
             i += 1
         }
         context.log.debug(s"Translated actions to: ${context.flowActions}")
+        if (profiler ne null) {
+            profiler.exit(stage)
+        }
     }
 
     private val addAction: AddFlowAction = (c: PacketContext, a: FlowAction) => {
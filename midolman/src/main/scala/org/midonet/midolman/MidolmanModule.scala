@@ -16,12 +16,14 @@
 
 package org.midonet.midolman
 
+import java.io.File
 import java.nio.channels.spi.SelectorProvider
 import java.util.UUID
 import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy
 import java.util.concurrent.atomic.AtomicLong
 
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.control.NonFatal
 
 import akka.actor.{ActorSystem, OneForOneStrategy, SupervisorStrategy}
 
@@ -153,9 +155,27 @@ class MidolmanModule(injector: Injector,
         val resolver = peerResolver(host, vt)
         bind(classOf[PeerResolver]).toInstance(resolver)
 
+        for (statsFile <- sharedStatsFile()) {
+            bind(classOf[SharedStatsFile]).toInstance(statsFile)
+        }
+
         bind(classOf[MidolmanService]).asEagerSingleton()
     }
 
+    protected def sharedStatsFile(): Option[SharedStatsFile] = {
+        if (!config.sharedStats.enabled)
+            return None
+        try {
+            Some(SharedStatsFile.create(new File(config.sharedStats.path),
+                                        config.sharedStats.maxEntries))
+        } catch {
+            case NonFatal(e) =>
+                log.error("Cannot create the shared statistics file " +
+                          s"${config.sharedStats.path}", e)
+                None
+        }
+    }
+
     protected def hostId() =
         HostIdGenerator.getHostId
 
@@ -234,7 +254,10 @@ class MidolmanModule(injector: Injector,
                 new EventPollerHandlerAdapter(
                     new PacketExecutor(
                         dpState, families, 1, 0, channelFactory,
-                        new PacketExecutorMetrics(metricRegistry, 0))))
+                        new PacketExecutorMetrics(metricRegistry, 0),
+                        new DatapathMetrics(metricRegistry),
+                        config.datapath.packetExecutionBatching,
+                        config.datapath.flowStateAggregation)))
             processors(0) = new BackChannelEventProcessor(
                 ringBuffer, fpHandler, flowProcessor)
         } else {
@@ -242,7 +265,10 @@ class MidolmanModule(injector: Injector,
             for (i <- 0 until numPacketHandlers) {
                 val pexec = new PacketExecutor(
                     dpState, families, numPacketHandlers, i, channelFactory,
-                    new PacketExecutorMetrics(metricRegistry, i))
+                    new PacketExecutorMetrics(metricRegistry, i),
+                    new DatapathMetrics(metricRegistry),
+                    config.datapath.packetExecutionBatching,
+                    config.datapath.flowStateAggregation)
                 processors(i) = new BatchEventProcessor(ringBuffer, barrier, pexec)
             }
             processors(numPacketHandlers) = new BackChannelEventProcessor(
@@ -352,7 +378,7 @@ class MidolmanModule(injector: Injector,
             FlowTracingSchema.KEYSPACE_NAME,
             FlowTracingSchema.SCHEMA,
             FlowTracingSchema.SCHEMA_TABLE_NAMES)
-        new FlowTracingAppender(cass.connect())
+        new FlowTracingAppender(cass.connect(), metricRegistry)
     }
 
     protected def natAllocator(): NatBlockAllocator = {
@@ -385,6 +411,11 @@ class MidolmanModule(injector: Injector,
                 vtThread.get == Thread.currentThread().getId
             }
         }
+        val partitionExecutors =
+            for (index <- 1 until config.topologyThreads) yield
+                Executors.singleThreadScheduledExecutor(
+                    s"devices-service-$index", isDaemon = true,
+                    Executors.CallerRunsPolicy)
         new VirtualTopology(
             injector.getInstance(classOf[MidonetBackend]),
             config,
@@ -393,7 +424,8 @@ class MidolmanModule(injector: Injector,
             metricRegistry,
             vtExecutor,
             ioExecutor,
-            vtExecutorCheck
+            vtExecutorCheck,
+            partitionExecutors
             )
     }
 
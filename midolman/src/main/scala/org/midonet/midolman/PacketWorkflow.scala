@@ -18,7 +18,7 @@ package org.midonet.midolman
 
 import java.lang.{Integer => JInteger}
 import java.util.UUID
-import java.util.ArrayDeque
+import java.util.{ArrayDeque, HashMap, IdentityHashMap}
 import java.util.concurrent.TimeUnit
 
 import scala.concurrent.duration._
@@ -36,8 +36,9 @@ import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
 import org.midonet.midolman.flows.FlowExpirationIndexer
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.logging.{ActorLogWithoutPath, FlowTracingContext}
-import org.midonet.midolman.management.PacketTracing
-import org.midonet.midolman.monitoring.FlowRecorder
+import org.midonet.midolman.management.{PacketTracing, RuleProfiling, SimulationProfiling}
+import org.midonet.midolman.monitoring.{FlowRecorder, RuleProfiler, SimulationProfiler}
+import org.midonet.midolman.monitoring.SimulationProfiler._
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.openstack.metadata.MetadataServiceWorkflow
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
@@ -63,11 +64,14 @@ import org.midonet.util.logging.Logger
 
 object PacketWorkflow {
     case class HandlePackets(packet: Array[Packet])
+    case object ScheduleUpcalls
     case class RestartWorkflow(context: PacketContext, error: Throwable)
         extends BackChannelMessage
 
     case class DuplicateFlow(index: Int) extends BackChannelMessage with Broadcast
 
+    case class DpPortRemoved(portNo: Int) extends BackChannelMessage with Broadcast
+
     sealed trait GeneratedPacket extends BackChannelMessage {
         val eth: Ethernet
         val cookie: Long
@@ -94,6 +98,16 @@ object PacketWorkflow {
     case object UserspaceFlow extends SimulationResult
     case object FlowCreated extends SimulationResult
     case object GeneratedPacket extends SimulationResult
+
+    /**
+     * A flow whose first packet is postponed, together with the packets of
+     * the same flow that arrived in the meantime and that are queued behind
+     * it.
+     */
+    private final class PendingFlow(val key: FlowMatch,
+                                    val leader: PacketContext) {
+        val followers = new ArrayDeque[PacketContext]()
+    }
 }
 
 class CookieGenerator(val start: Int, val increment: Int) {
@@ -204,6 +218,28 @@ class PacketWorkflow(
     private val contextPool = new ArrayDeque[PacketContext](maxPooledContexts)
     private val processingRoom = new ArrayDeque[PacketContext]()
 
+    protected val coalescePostponedPackets = config.coalescePostponedPackets
+    private val pendingFlows = new HashMap[FlowMatch, PendingFlow]()
+    private val pendingLeaders = new IdentityHashMap[PacketContext, PendingFlow]()
+
+    private val upcallScheduler =
+        if (config.upcallFairQueuing)
+            new UpcallScheduler(config.upcallQuantum, config.upcallMaxQueueDelay,
+                                metrics)
+        else null
+    private var upcallsScheduled = false
+    private val upcallHandler = new UpcallScheduler.Handler {
+        override def process(packet: Packet): Unit = processPacket(packet)
+        override def shed(packet: Packet): Unit = packetOut(1)
+    }
+
+    val ruleProfiler = new RuleProfiler(metrics.chainEvaluation)
+    RuleProfiling.registerAsMXBean(ruleProfiler)
+
+    val simulationProfiler = new SimulationProfiler(
+        metrics, config.simulationProfilingSampleRate)
+    SimulationProfiling.registerAsMXBean(simulationProfiler)
+
     protected val connTrackTx = new FlowStateTransaction(connTrackStateTable)
     protected val natTx = new FlowStateTransaction(natStateTable)
     protected val traceStateTx = new FlowStateTransaction(traceStateTable)
@@ -246,6 +282,12 @@ class PacketWorkflow(
                 handlePacket(packets(i))
                 i += 1
             }
+            scheduleUpcalls()
+            process()
+
+        case ScheduleUpcalls =>
+            upcallsScheduled = false
+            scheduleUpcalls()
             process()
 
         case CheckBackchannels =>
@@ -285,6 +327,9 @@ class PacketWorkflow(
         case m: GeneratedPacket => startWorkflow(generatedPacketContext(m))
         case m: FlowStateBatch => replicator.importFromStorage(m)
         case DuplicateFlow(index) => duplicateFlow(index)
+        case DpPortRemoved(portNo) =>
+            if (upcallScheduler ne null)
+                upcallScheduler.portRemoved(portNo)
     }
 
     override def process(): Unit = {
@@ -332,6 +377,7 @@ class PacketWorkflow(
                         backChannel, arpBroker)
         context.initialize(connTrackTx, natTx, natLeaser, traceStateTx)
         context.log = PacketTracing.loggerFor(fmatch)
+        context.ruleProfiler = ruleProfiler
         context
     }
 
@@ -368,6 +414,90 @@ class PacketWorkflow(
         }(ExecutionContext.callingThread)
         metrics.packetPostponed()
         waitingRoom enter pktCtx
+        if (coalescePostponedPackets && pktCtx.ingressed &&
+            !pendingLeaders.containsKey(pktCtx)) {
+            // The postponed context has its original match restored.
+            val key = new FlowMatch()
+            key.reset(pktCtx.origMatch)
+            if (!pendingFlows.containsKey(key)) {
+                val pending = new PendingFlow(key, pktCtx)
+                pendingFlows.put(key, pending)
+                pendingLeaders.put(pktCtx, pending)
+            }
+        }
+    }
+
+    /**
+     * Queues a packet behind the postponed packet of the same flow, instead
+     * of simulating it: the packet reuses the result of that simulation.
+     */
+    private def coalesce(pending: PendingFlow, context: PacketContext): Unit = {
+        context.log.debug("Queuing packet behind postponed packet " +
+                          s"${pending.leader.cookieStr} of the same flow")
+        pending.followers.offerLast(context)
+        metrics.packetCoalesced()
+    }
+
+    private def removePendingFlow(leader: PacketContext): PendingFlow = {
+        val pending = pendingLeaders.remove(leader)
+        if (pending ne null)
+            pendingFlows.remove(pending.key)
+        pending
+    }
+
+    /**
+     * Releases the packets queued behind a postponed packet that completed
+     * its simulation. If the simulation created a flow, the queued packets
+     * are executed with the same packet actions. Otherwise, for instance
+     * when the result depends on the packet or on userspace fields, every
+     * queued packet is simulated on its own.
+     */
+    private def releaseFollowers(leader: PacketContext,
+                                 simRes: SimulationResult): Unit = {
+        val pending = removePendingFlow(leader)
+        if (pending eq null)
+            return
+
+        val replay = (simRes eq FlowCreated) && !leader.isRecirc &&
+                     !leader.tracingEnabled
+        while (!pending.followers.isEmpty) {
+            val follower = pending.followers.poll()
+            if (replay) {
+                metrics.packetsOnHold.dec()
+                follower.log.debug("Executing packet with the actions of " +
+                                   s"packet ${leader.cookieStr}")
+                follower.inputPort = leader.inputPort
+                follower.packetActions.addAll(leader.packetActions)
+                follower.flowTags.addAll(leader.flowTags)
+                handoff(follower)
+                val latency = NanoClock.DEFAULT.tick - follower.packet.startTimeNanos
+                metrics.packetsProcessed.update(latency.toInt,
+                                                TimeUnit.NANOSECONDS)
+                meters.recordPacket(follower.packet.packetLen,
+                                    follower.flowTags)
+            } else {
+                backChannel.tell(RestartWorkflow(follower, null))
+            }
+        }
+    }
+
+    /**
+     * Drops the packets queued behind a postponed packet that was dropped.
+     * The dropped packet already installed the drop flow.
+     */
+    private def dropFollowers(leader: PacketContext): Unit = {
+        val pending = removePendingFlow(leader)
+        if (pending eq null)
+            return
+
+        while (!pending.followers.isEmpty) {
+            val follower = pending.followers.poll()
+            metrics.packetsOnHold.dec()
+            follower.log.debug("Dropping packet")
+            follower.prepareForDrop()
+            handoff(follower)
+            metrics.packetsDropped.mark()
+        }
     }
 
     private def restart(pktCtx: PacketContext, error: Throwable): Unit =
@@ -405,6 +535,8 @@ class PacketWorkflow(
         } finally {
             MDC.remove("cookie")
             metrics.packetsDropped.mark()
+            if (!pendingLeaders.isEmpty)
+                dropFollowers(context)
         }
 
     private def complete(pktCtx: PacketContext, simRes: SimulationResult): Unit = {
@@ -414,6 +546,9 @@ class PacketWorkflow(
 
         handoff(pktCtx)
 
+        if (!pendingLeaders.isEmpty)
+            releaseFollowers(pktCtx, simRes)
+
         if (pktCtx.ingressed) {
             simRes match {
                 case StateMessage =>
@@ -430,12 +565,17 @@ class PacketWorkflow(
     }
 
     private def handoff(context: PacketContext): Unit = {
+        val profiler = context.simulationProfiler
+        val stage = if (profiler ne null) profiler.enter(HandoffStage) else 0
         val seq = dpChannel.handoff(context)
         if (context.flow ne null) {
             context.flow.assignSequence(seq)
         }
         metrics.contextsBeingProcessed.inc()
         processingRoom.offerLast(context)
+        if (profiler ne null) {
+            profiler.exit(stage)
+        }
     }
 
     /**
@@ -483,18 +623,59 @@ class PacketWorkflow(
                 postponeOn(pktCtx, f)
             case NonFatal(ex) =>
                 handleErrorOn(pktCtx, ex)
+        } finally {
+            endProfiling(pktCtx)
         }
 
+    /**
+     * Completes the profiling of the packet, if the packet was sampled by
+     * the simulation profiler.
+     */
+    private def endProfiling(context: PacketContext): Unit = {
+        val profiler = context.simulationProfiler
+        if (profiler ne null) {
+            profiler.end()
+            context.simulationProfiler = null
+        }
+    }
+
     private def handlePacket(packet: Packet): Unit =
         if (FlowState.isStateMessage(packet.getMatch)) {
             handleStateMessage(packetContext(packet))
             packetOut(1)
+        } else if (upcallScheduler ne null) {
+            if (!upcallScheduler.enqueue(packet))
+                packetOut(1)
         } else {
             processPacket(packet)
         }
 
-    private def processPacket(packet: Packet): Unit =
-        startWorkflow(packetContext(packet))
+    /**
+     * Runs a round of the upcall scheduler, and schedules another round
+     * after the messages already in the mailbox if packets remain queued,
+     * such that the packets received meanwhile are queued before the
+     * following round.
+     */
+    private def scheduleUpcalls(): Unit =
+        if ((upcallScheduler ne null) && !upcallScheduler.isEmpty) {
+            upcallScheduler.schedule(upcallHandler)
+            if (!upcallScheduler.isEmpty && !upcallsScheduled) {
+                upcallsScheduled = true
+                self ! ScheduleUpcalls
+            }
+        }
+
+    private def processPacket(packet: Packet): Unit = {
+        val pending =
+            if (pendingFlows.isEmpty) null
+            else pendingFlows.get(packet.getMatch)
+        if (pending ne null) {
+            coalesce(pending, packetContext(packet))
+            packetOut(1)
+        } else {
+            startWorkflow(packetContext(packet))
+        }
+    }
 
     private def flushTransactions(): Unit = {
         connTrackTx.flush()
@@ -503,6 +684,11 @@ class PacketWorkflow(
     }
 
     def start(context: PacketContext): SimulationResult = {
+        endProfiling(context)
+        if (simulationProfiler.sample()) {
+            context.simulationProfiler = simulationProfiler
+            simulationProfiler.begin()
+        }
         context.prepareForSimulation()
         context.log.debug(s"Initiating processing, attempt: ${context.runs}")
         if (context.ingressed)
@@ -531,10 +717,17 @@ class PacketWorkflow(
         }
 
     private def applyState(context: PacketContext): Unit = {
+        val profiler = context.simulationProfiler
+        val stage = if (profiler ne null) profiler.enter(StateStage) else 0
         context.log.debug("Applying connection state")
+        if ((upcallScheduler ne null) && context.conntrackTx.size() > 0)
+            upcallScheduler.connectionTracked(context.origMatch)
         replicator.accumulateNewKeys(context)
         replicator.touchState(context)
         context.commitStateTransactions()
+        if (profiler ne null) {
+            profiler.exit(stage)
+        }
     }
 
     private def handlePacketIngress(context: PacketContext): SimulationResult = {
@@ -585,6 +778,10 @@ class PacketWorkflow(
 
     def processSimulationResult(context: PacketContext,
                                 result: SimulationResult): SimulationResult = {
+        val profiler = context.simulationProfiler
+        if (profiler ne null) {
+            profiler.switchTo(FlowStage)
+        }
         val res = result match {
             case AddVirtualWildcardFlow =>
                 concludeSimulation(context)
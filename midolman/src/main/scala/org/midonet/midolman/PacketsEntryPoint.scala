@@ -32,7 +32,7 @@ import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
 import org.midonet.midolman.logging.ActorLogWithoutPath
-import org.midonet.midolman.monitoring.FlowRecorder
+import org.midonet.midolman.monitoring.{FlowRecorder, SharedStatsFile}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.services.HostIdProvider
 import org.midonet.midolman.simulation.DhcpConfigFromNsdb
@@ -117,6 +117,9 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath {
     @Inject
     var peerResolver: PeerResolver = _
 
+    @Inject(optional = true)
+    var sharedStats: SharedStatsFile = _
+
     var connTrackStateTable: ShardedFlowStateTable[ConnTrackKey, ConnTrackValue] = _
     var natStateTable: ShardedFlowStateTable[NatKey, NatBinding] = _
     var natLeaser: NatLeaser = _
@@ -182,7 +185,7 @@ class PacketsEntryPoint extends Actor with ActorLogWithoutPath {
             traceShard,
             peerResolver,
             natLeaser,
-            new PacketPipelineMetrics(metricsRegistry, index),
+            new PacketPipelineMetrics(metricsRegistry, index, sharedStats),
             flowRecorder,
             vt,
             counter.addAndGet(index, _: Int)))
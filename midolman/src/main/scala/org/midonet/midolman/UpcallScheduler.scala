@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.lang.{Integer => JInteger}
+import java.util.{ArrayDeque, HashMap => JHashMap}
+
+import com.codahale.metrics.{Histogram, Meter}
+
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.odp.{FlowMatch, Packet}
+import org.midonet.util.concurrent.NanoClock
+
+object UpcallScheduler {
+
+    /* Maximum number of packets queued for each input port, and for the
+     * priority queue. */
+    private[midolman] val MaxQueuedPackets = 4096
+
+    /* Number of connections remembered as having connection tracking state.
+     * Must be a power of two. */
+    private[midolman] val KnownConnections = 16384
+
+    /**
+     * Handles the packets released by the scheduler.
+     */
+    trait Handler {
+        /** Simulates a packet. */
+        def process(packet: Packet): Unit
+        /** Discards a packet shed by the scheduler. */
+        def shed(packet: Packet): Unit
+    }
+
+    /* The packets queued for an input port. */
+    private final class PortQueue(val portNo: Int,
+                                  metrics: PacketPipelineMetrics) {
+        val packets = new ArrayDeque[Packet]()
+        var deficit = 0L
+        var removed = false
+        val dropped: Meter = metrics.upcallPortDropped(portNo)
+        val queueDelay: Histogram = metrics.upcallPortQueueDelay(portNo)
+    }
+
+    /**
+     * Computes a hash of the addresses, ports and protocol of the packet that
+     * is the same for both directions of a connection, without marking the
+     * fields as seen. Returns 0 for non-IP packets.
+     */
+    private[midolman] def connectionKey(fmatch: FlowMatch): Int = {
+        if (!fmatch.isUsed(Field.NetworkSrc) || !fmatch.isUsed(Field.NetworkDst))
+            return 0
+        withoutTracking(fmatch) {
+            var src = fmatch.getNetworkSrcIP.hashCode()
+            var dst = fmatch.getNetworkDstIP.hashCode()
+            if (fmatch.isUsed(Field.SrcPort) && fmatch.isUsed(Field.DstPort)) {
+                src = src * 31 + fmatch.getSrcPort
+                dst = dst * 31 + fmatch.getDstPort
+            }
+            var h = (src + dst) * 31 + (src ^ dst)
+            if (fmatch.isUsed(Field.NetworkProto))
+                h = h * 31 + fmatch.getNetworkProto
+            h ^= h >>> 16
+            h *= 0x85ebca6b
+            h ^= h >>> 13
+            h *= 0xc2b2ae35
+            h ^= h >>> 16
+            if (h == 0) 1 else h
+        }
+    }
+
+    /**
+     * Evaluates `f` without marking the fields read from the match as seen,
+     * and then restores the previous tracking state of the match.
+     */
+    @inline
+    private def withoutTracking[T](fmatch: FlowMatch)(f: => T): T = {
+        val tracking = fmatch.isTrackingSeenFields
+        fmatch.doNotTrackSeenFields()
+        try f finally if (tracking) fmatch.doTrackSeenFields()
+    }
+}
+
+/**
+ * Schedules the simulation of the packets received by a packet processing
+ * worker, such that a port receiving a flood of new flows does not delay the
+ * simulation of the packets received from other ports.
+ *
+ * Packets are queued per input port, and the queues are served with deficit
+ * round robin: on every round, each port with queued packets receives a
+ * quantum of simulation time, and its packets are simulated until the time
+ * measured for their simulation exceeds the deficit of the port. Packets
+ * from the overlay or VTEP tunnels and packets of connections known to have
+ * connection tracking state are queued in a priority queue, which is served
+ * first on every round, with its own quantum, such that a flood of
+ * prioritized packets does not starve the port queues.
+ *
+ * The queue of a port, and its metrics, are removed when the datapath port
+ * is removed and the queue is empty.
+ *
+ * When the time a packet spent queued exceeds the maximum queue delay, the
+ * packet is shed instead of simulated. Since the ports are served fairly,
+ * only the queues of the ports receiving more packets than their share
+ * build up such delays.
+ *
+ * This class is not thread safe, and instances are expected to be confined
+ * to a packet processing worker.
+ *
+ * @param quantum The simulation time, in nanoseconds, given to each port on
+ *                every round.
+ * @param maxQueueDelay The maximum time, in nanoseconds, that a packet may
+ *                      wait for simulation, or zero to never shed packets.
+ */
+class UpcallScheduler(quantum: Long, maxQueueDelay: Long,
+                      metrics: PacketPipelineMetrics,
+                      clock: NanoClock = NanoClock.DEFAULT) {
+
+    import UpcallScheduler._
+
+    private val priority = new ArrayDeque[Packet]()
+    private var priorityDeficit = 0L
+    private val ports = new JHashMap[JInteger, PortQueue]()
+    private val active = new ArrayDeque[PortQueue]()
+    private var queued = 0
+
+    private val knownConnections = new Array[Int](KnownConnections)
+
+    /**
+     * The number of packets waiting for simulation.
+     */
+    def size: Int = queued
+
+    def isEmpty: Boolean = queued == 0
+
+    /**
+     * Queues a packet for simulation.
+     *
+     * @return False if the queue of the packet is full, in which case the
+     *         packet is not queued.
+     */
+    def enqueue(packet: Packet): Boolean = {
+        val fmatch = packet.getMatch
+        if (fmatch.isFromTunnel || isKnownConnection(fmatch)) {
+            if (priority.size >= MaxQueuedPackets) {
+                metrics.upcallsShed.mark()
+                return false
+            }
+            priority.offerLast(packet)
+            metrics.upcallsPrioritized.mark()
+        } else {
+            val portNo =
+                if (fmatch.isUsed(Field.InputPortNumber)) {
+                    withoutTracking(fmatch) { fmatch.getInputPortNumber }
+                } else -1
+            var queue = ports.get(portNo)
+            if (queue eq null) {
+                queue = new PortQueue(portNo, metrics)
+                ports.put(portNo, queue)
+            }
+            queue.removed = false
+            if (queue.packets.size >= MaxQueuedPackets) {
+                queue.dropped.mark()
+                metrics.upcallsShed.mark()
+                return false
+            }
+            if (queue.packets.isEmpty)
+                active.offerLast(queue)
+            queue.packets.offerLast(packet)
+        }
+        queued += 1
+        true
+    }
+
+    /**
+     * Runs a scheduling round: releases the packets in the priority queue, up
+     * to the quantum of the priority queue, and then the packets of every port
+     * with queued packets, up to the quantum of the port.
+     */
+    def schedule(handler: Handler): Unit = {
+        if (!priority.isEmpty) {
+            priorityDeficit += quantum
+            while (!priority.isEmpty && priorityDeficit > 0) {
+                val packet = priority.pollFirst()
+                queued -= 1
+                val start = clock.tick
+                handler.process(packet)
+                priorityDeficit -= clock.tick - start
+            }
+            if (priority.isEmpty)
+                priorityDeficit = 0L
+        }
+
+        var remaining = active.size
+        while (remaining > 0) {
+            remaining -= 1
+            val queue = active.pollFirst()
+            queue.deficit += quantum
+            while (!queue.packets.isEmpty && queue.deficit > 0) {
+                val packet = queue.packets.pollFirst()
+                queued -= 1
+                val start = clock.tick
+                val delay = start - packet.startTimeNanos
+                queue.queueDelay.update(delay)
+                if (maxQueueDelay > 0 && delay > maxQueueDelay) {
+                    queue.dropped.mark()
+                    metrics.upcallsShed.mark()
+                    handler.shed(packet)
+                } else {
+                    handler.process(packet)
+                    queue.deficit -= clock.tick - start
+                }
+            }
+            if (queue.packets.isEmpty) {
+                queue.deficit = 0L
+                if (queue.removed)
+                    evict(queue)
+            } else {
+                active.offerLast(queue)
+            }
+        }
+    }
+
+    /**
+     * Removes the queue of a datapath port that was removed from the
+     * datapath, and unregisters its metrics. If the queue still has packets,
+     * it is removed when it becomes empty, unless the port number is reused
+     * in the meantime.
+     */
+    def portRemoved(portNo: Int): Unit = {
+        val queue = ports.get(portNo)
+        if (queue ne null) {
+            if (queue.packets.isEmpty) evict(queue)
+            else queue.removed = true
+        }
+    }
+
+    /** The number of ports with a queue. */
+    def portCount: Int = ports.size
+
+    private def evict(queue: PortQueue): Unit = {
+        ports.remove(queue.portNo)
+        metrics.removeUpcallPortMetrics(queue.portNo)
+    }
+
+    /**
+     * Remembers that the connection of the given packet has connection
+     * tracking state, such that the packets of the connection in either
+     * direction are prioritized. The connections are remembered in a fixed
+     * size table indexed by their hash, where a collision replaces a
+     * previous connection.
+     */
+    def connectionTracked(fmatch: FlowMatch): Unit = {
+        val key = connectionKey(fmatch)
+        if (key != 0)
+            knownConnections(key & (KnownConnections - 1)) = key
+    }
+
+    private def isKnownConnection(fmatch: FlowMatch): Boolean = {
+        val key = connectionKey(fmatch)
+        key != 0 && knownConnections(key & (KnownConnections - 1)) == key
+    }
+}
@@ -79,7 +79,14 @@ class MidolmanConfig(_conf: Config, val schema: Config = ConfigFactory.empty())
 
     def dhcpMtu: Short = getInt(s"$PREFIX.midolman.dhcp_mtu").toShort
     def simulationThreads = getInt(s"$PREFIX.midolman.simulation_threads")
+    def topologyThreads = getInt(s"$PREFIX.midolman.topology_threads")
     def maxPooledContexts = getInt(s"$PREFIX.midolman.max_pooled_contexts")
+    def coalescePostponedPackets = getBoolean(s"$PREFIX.midolman.coalesce_postponed_packets")
+    def chainRuleInvalidation = getBoolean(s"$PREFIX.midolman.chain_rule_invalidation")
+    def simulationProfilingSampleRate = getInt(s"$PREFIX.midolman.simulation_profiling_sample_rate")
+    def upcallFairQueuing = getBoolean(s"$PREFIX.midolman.upcall_fair_queuing")
+    def upcallQuantum = getDuration(s"$PREFIX.midolman.upcall_quantum", TimeUnit.NANOSECONDS)
+    def upcallMaxQueueDelay = getDuration(s"$PREFIX.midolman.upcall_max_queue_delay", TimeUnit.NANOSECONDS)
     def outputChannels = getInt(s"$PREFIX.midolman.output_channels")
     def inputChannelThreading = getString(s"$PREFIX.midolman.input_channel_threading")
     def datapathName = Try(getString(s"$PREFIX.midolman.datapath")).getOrElse("midonet")
@@ -97,6 +104,7 @@ class MidolmanConfig(_conf: Config, val schema: Config = ConfigFactory.empty())
     val neutron = new NeutronConfig(conf, schema)
     val openstack = new OpenStackConfig(conf, schema)
     val flowHistory = new FlowHistoryConfig(conf, schema)
+    val sharedStats = new SharedStatsConfig(conf, schema)
     val containers = new ContainerConfig(conf, schema)
     val services = new ServicesConfig(conf, schema)
     val flowState = new FlowStateConfig(conf, schema)
@@ -116,6 +124,7 @@ class RouterConfig(val conf: Config, val schema: Config) extends TypeFailureFall
     val PREFIX = "agent.router"
     def maxBgpPeerRoutes = conf.getInt(s"$PREFIX.max_bgp_peer_routes")
     def bgpZookeeperHoldtime = conf.getDuration(s"$PREFIX.bgp_zookeeper_holdtime", TimeUnit.SECONDS)
+    def ecmpBuckets = conf.getInt(s"$PREFIX.ecmp_buckets")
 }
 
 class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -141,6 +150,10 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def vtepIncomingBurstCapacity = getInt(s"$PREFIX.vtep_incoming_burst_capacity")
 
     def controlPacketTos: Byte = getInt(s"$PREFIX.control_packet_tos").toByte
+
+    def packetExecutionBatching = getBoolean(s"$PREFIX.packet_execution_batching")
+
+    def flowStateAggregation = getBoolean(s"$PREFIX.flow_state_aggregation")
 }
 
 class RecircConfig(recircCidr: IPv4Subnet) {
@@ -175,6 +188,8 @@ class HealthMonitorConfig(val conf: Config, val schema: Config) extends TypeFail
     def enable = getBoolean(s"$PREFIX.health_monitor_enable")
     def namespaceCleanup = getBoolean(s"$PREFIX.namespace_cleanup")
     def haproxyFileLoc = getString(s"$PREFIX.haproxy_file_loc")
+    def persistentStatsConnection =
+        getBoolean(s"$PREFIX.persistent_stats_connection")
 }
 
 
@@ -194,6 +209,13 @@ class MetadataConfig(val conf: Config, val schema: Config)
     def nova_metadata_url =
         getString("agent.openstack.metadata.nova_metadata_url")
     def shared_secret = getString("agent.openstack.metadata.shared_secret")
+    def proxy_async = getBoolean("agent.openstack.metadata.proxy_async")
+    def proxy_threads = getInt("agent.openstack.metadata.proxy_threads")
+    def proxy_timeout = getDuration("agent.openstack.metadata.proxy_timeout",
+                                    TimeUnit.MILLISECONDS)
+    def cache_ttl = getDuration("agent.openstack.metadata.cache_ttl",
+                                TimeUnit.MILLISECONDS)
+    def cache_size = getInt("agent.openstack.metadata.cache_size")
 }
 
 class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -202,6 +224,15 @@ class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailur
     def udpEndpoint = getString("agent.flow_history.udp_endpoint")
 }
 
+class SharedStatsConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
+    val prefix = "agent.shared_stats"
+    def enabled = getBoolean(s"$prefix.enabled")
+    def path = getString(s"$prefix.path")
+    def maxEntries = getInt(s"$prefix.max_entries")
+    def publishInterval = getDuration(s"$prefix.publish_interval",
+                                      TimeUnit.MILLISECONDS)
+}
+
 class ContainerConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     val prefix = "agent.containers"
     def enabled = getBoolean(s"$prefix.enabled")
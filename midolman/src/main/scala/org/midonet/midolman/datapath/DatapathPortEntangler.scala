@@ -15,7 +15,7 @@
  */
 package org.midonet.midolman.datapath
 
-import java.util.{UUID, HashSet => JHashSet, Set => JSet}
+import java.util.{UUID, HashMap => JHashMap, HashSet => JHashSet, Set => JSet}
 
 import scala.concurrent.Future
 import scala.util.Random
@@ -91,6 +91,10 @@ trait DatapathPortEntangler {
         /* errors are logged elsewhere */
     })
     private val random = new Random()
+    // The latest status of the interfaces with a scheduled update. While an
+    // update is waiting in the conveyor, newer updates for the same interface
+    // replace its status instead of scheduling another update.
+    private val pendingInterfaces = new JHashMap[String, InterfaceDescription]()
 
     def addToDatapath(interfaceName: String): Future[(DpPort, Int)]
     def removeFromDatapath(port: DpPort): Future[_]
@@ -115,7 +119,10 @@ trait DatapathPortEntangler {
         })
 
     /**
-     * Register new interfaces, update their status or delete them.
+     * Register new interfaces, update their status or delete them. Since the
+     * interface scanner notifies the full set of interfaces on every change,
+     * updates that do not change an interface are ignored, and the pending
+     * updates of an interface are coalesced into its latest status.
      */
     def updateInterfaces(interfaces: JSet[InterfaceDescription]): Unit = {
         val interfacesToDelete = new JHashSet(interfaceToTriad.keySet())
@@ -124,19 +131,12 @@ trait DatapathPortEntangler {
         while (iterator.hasNext) {
             val interface = iterator.next()
             interfacesToDelete.remove(interface.getName)
-            conveyor.handle(interface.getName, () =>
-                processInterface(interface))
+            scheduleInterface(interface.getName, interface)
         }
 
         val toDelete = interfacesToDelete.iterator()
         while (toDelete.hasNext) {
-            val interfaceName = toDelete.next()
-            conveyor.handle(interfaceName, () =>
-                if (interfaceToTriad.containsKey(interfaceName)) {
-                    deleteInterface(interfaceToTriad.get(interfaceName))
-                } else {
-                    Future.successful(null)
-                })
+            scheduleInterface(toDelete.next(), null)
         }
     }
 
@@ -165,6 +165,51 @@ trait DatapathPortEntangler {
         }
     }
 
+    /**
+     * Schedules the processing of the interface status, where a `null`
+     * interface means the interface was deleted. If an update for the same
+     * interface is already scheduled, that update will process this status
+     * instead. An update that would not change the interface is skipped only
+     * when no task is running for the interface, since a running task may
+     * still change the triad, such as a pending port removal.
+     */
+    private def scheduleInterface(name: String,
+                                  interface: InterfaceDescription): Unit = {
+        if (pendingInterfaces.containsKey(name)) {
+            pendingInterfaces.put(name, statusOf(name, interface))
+        } else if (!conveyor.isIdle(name) ||
+                   !isUnchanged(name, (interface ne null) && interface.isUp)) {
+            pendingInterfaces.put(name, statusOf(name, interface))
+            conveyor.handle(name, () =>
+                processInterface(pendingInterfaces.remove(name)))
+        }
+    }
+
+    /**
+     * Returns the status to process for an interface, where a deleted
+     * interface is processed as an interface that is down.
+     */
+    private def statusOf(name: String, interface: InterfaceDescription)
+    : InterfaceDescription = {
+        if (interface ne null) interface else new InterfaceDescription(name)
+    }
+
+    /**
+     * Indicates whether processing the interface status would leave the
+     * interface unchanged: the interface is up and its triad is up, or the
+     * interface is down and either there is no triad, or the triad is down
+     * and must be kept because it is bound or internal.
+     */
+    private def isUnchanged(name: String, isUp: Boolean): Boolean = {
+        val triad = interfaceToTriad.get(name)
+        if (isUp) {
+            (triad ne null) && triad.isUp
+        } else {
+            (triad eq null) ||
+            (!triad.isUp && ((triad.vport ne null) || isInternal(triad)))
+        }
+    }
+
     /**
      * Updates the status of the interface. Updates the state of the port if a
      * datapath port exists or else it tries to create one. A particular case
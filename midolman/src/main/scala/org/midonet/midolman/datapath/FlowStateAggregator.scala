@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.datapath
+
+import java.util.{ArrayDeque, ArrayList => JArrayList, HashMap => JHashMap}
+
+import org.midonet.cluster.flowstate.proto.{FlowState => FlowStateSbe, MessageHeader}
+import org.midonet.midolman.monitoring.metrics.DatapathMetrics
+import org.midonet.odp.flows.FlowAction
+import org.midonet.packets.FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH
+import org.midonet.packets.SbeEncoder
+
+object FlowStateAggregator {
+
+    /* Maximum number of entries in an SBE group. */
+    private[datapath] val MaxGroupEntries = 255
+
+    private val ConntrackLength = FlowStateSbe.Conntrack.sbeBlockLength()
+    private val NatLength = FlowStateSbe.Nat.sbeBlockLength()
+
+    /* Length of a message without conntrack and NAT entries: the header, the
+     * sender and the headers of the five groups. */
+    private val EmptyMessageLength =
+        new MessageHeader().size() + FlowStateSbe.BLOCK_LENGTH +
+        5 * FlowStateSbe.Conntrack.sbeHeaderSize()
+
+    /**
+     * Receives an aggregated flow state message, which must be sent to the
+     * peers with the given actions.
+     */
+    trait Emitter {
+        def emit(message: Array[Byte], length: Int,
+                 actions: JArrayList[FlowAction]): Unit
+    }
+
+    /* The entries accumulated for a set of peers. */
+    private final class Aggregate {
+        val actions = new JArrayList[FlowAction]()
+        val conntrack = new Array[Byte](
+            Math.min(MaxGroupEntries,
+                     FLOW_STATE_MAX_PAYLOAD_LENGTH / ConntrackLength) *
+            ConntrackLength)
+        val nat = new Array[Byte](
+            Math.min(MaxGroupEntries,
+                     FLOW_STATE_MAX_PAYLOAD_LENGTH / NatLength) * NatLength)
+        var senderMsb = 0L
+        var senderLsb = 0L
+        var conntrackCount = 0
+        var natCount = 0
+
+        def fits(conntrack: Int, nat: Int): Boolean = {
+            val c = conntrackCount + conntrack
+            val n = natCount + nat
+            c <= MaxGroupEntries && n <= MaxGroupEntries &&
+            EmptyMessageLength + c * ConntrackLength + n * NatLength <=
+                FLOW_STATE_MAX_PAYLOAD_LENGTH
+        }
+
+        def isEmpty = conntrackCount == 0 && natCount == 0
+
+        def clear(): Unit = {
+            conntrackCount = 0
+            natCount = 0
+        }
+    }
+}
+
+/**
+ * Aggregates the conntrack and NAT entries of the flow state messages sent
+ * to the same set of peers into multi-entry messages, such that a burst of
+ * new connections replicated to the same peers results in one tunnelled
+ * state packet per peer for several flows, instead of one per flow.
+ *
+ * The entries are copied from the encoded messages as they are, since every
+ * entry of a group has the same length. Messages with tracing state are not
+ * aggregated, because the trace request ids apply to the whole message. The
+ * aggregated messages do not include the port ids, which only the local
+ * flow state service uses.
+ *
+ * The caller must emit the aggregated messages with `drain` before executing
+ * the packets whose state was aggregated, such that the state reaches the
+ * peers before any return traffic.
+ *
+ * This class is not thread-safe.
+ */
+class FlowStateAggregator(metrics: DatapathMetrics) {
+
+    import FlowStateAggregator._
+
+    private val decoder = new SbeEncoder
+    private val encoder = new SbeEncoder
+    private val message = new Array[Byte](FLOW_STATE_MAX_PAYLOAD_LENGTH)
+
+    private val aggregates = new JHashMap[JArrayList[FlowAction], Aggregate]()
+    private val pool = new ArrayDeque[Aggregate]()
+
+    /**
+     * Adds the conntrack and NAT entries of the given encoded flow state
+     * message to the entries sent to the peers with the given actions. If
+     * the message does not fit in the entries accumulated for these peers,
+     * they are emitted first.
+     *
+     * @return False if the message cannot be aggregated and must be sent as
+     *         it is.
+     */
+    def aggregate(bytes: Array[Byte], actions: JArrayList[FlowAction],
+                  emitter: Emitter): Boolean = {
+        val msg = try decoder.decodeFrom(bytes) catch {
+            case _: IllegalArgumentException => return false
+        }
+
+        val conntrack = msg.conntrack()
+        val conntrackOffset = msg.limit()
+        val conntrackCount = conntrack.count()
+        if (conntrack.actingBlockLength() != ConntrackLength)
+            return false
+        msg.limit(conntrackOffset + conntrackCount * ConntrackLength)
+
+        val nat = msg.nat()
+        val natOffset = msg.limit()
+        val natCount = nat.count()
+        if (nat.actingBlockLength() != NatLength)
+            return false
+        msg.limit(natOffset + natCount * NatLength)
+
+        if (msg.trace().count() > 0)
+            return false
+
+        if (conntrackCount == 0 && natCount == 0)
+            return true
+
+        var aggregate = aggregates.get(actions)
+        if (aggregate eq null) {
+            aggregate = pool.poll()
+            if (aggregate eq null)
+                aggregate = new Aggregate
+            aggregate.actions.addAll(actions)
+            aggregates.put(aggregate.actions, aggregate)
+        } else if (!aggregate.fits(conntrackCount, natCount)) {
+            emit(aggregate, emitter)
+        }
+
+        aggregate.senderMsb = msg.sender(0)
+        aggregate.senderLsb = msg.sender(1)
+        System.arraycopy(bytes, conntrackOffset, aggregate.conntrack,
+                         aggregate.conntrackCount * ConntrackLength,
+                         conntrackCount * ConntrackLength)
+        aggregate.conntrackCount += conntrackCount
+        System.arraycopy(bytes, natOffset, aggregate.nat,
+                         aggregate.natCount * NatLength,
+                         natCount * NatLength)
+        aggregate.natCount += natCount
+        metrics.flowStateMessagesAggregated.mark()
+        true
+    }
+
+    /**
+     * Emits the messages with the entries accumulated for every set of
+     * peers.
+     */
+    def drain(emitter: Emitter): Unit = {
+        if (!aggregates.isEmpty) {
+            val it = aggregates.values().iterator()
+            while (it.hasNext) {
+                val aggregate = it.next()
+                emit(aggregate, emitter)
+                aggregate.actions.clear()
+                pool.offer(aggregate)
+            }
+            aggregates.clear()
+        }
+    }
+
+    def isEmpty: Boolean = aggregates.isEmpty
+
+    private def emit(aggregate: Aggregate, emitter: Emitter): Unit = {
+        if (aggregate.isEmpty)
+            return
+
+        val msg = encoder.encodeTo(message)
+        msg.sender(0, aggregate.senderMsb)
+        msg.sender(1, aggregate.senderLsb)
+
+        msg.conntrackCount(aggregate.conntrackCount)
+        System.arraycopy(aggregate.conntrack, 0, message, msg.limit(),
+                         aggregate.conntrackCount * ConntrackLength)
+        msg.limit(msg.limit() + aggregate.conntrackCount * ConntrackLength)
+
+        msg.natCount(aggregate.natCount)
+        System.arraycopy(aggregate.nat, 0, message, msg.limit(),
+                         aggregate.natCount * NatLength)
+        msg.limit(msg.limit() + aggregate.natCount * NatLength)
+
+        msg.traceCount(0)
+        msg.traceRequestIdsCount(0)
+        msg.portIdsCount(0)
+
+        metrics.flowStateEntriesPerMessage.update(
+            aggregate.conntrackCount + aggregate.natCount)
+        emitter.emit(message, encoder.encodedLength(), aggregate.actions)
+        aggregate.clear()
+    }
+}
@@ -18,7 +18,7 @@ package org.midonet.midolman.datapath
 
 import java.nio.BufferOverflowException
 import java.nio.channels.AsynchronousCloseException
-import java.util.{ArrayList => JArrayList}
+import java.util.{ArrayList => JArrayList, LinkedHashMap => JLinkedHashMap, Map => JMap}
 import java.util.concurrent.TimeUnit
 
 import com.lmax.disruptor.{EventHandler, LifecycleAware}
@@ -26,7 +26,7 @@ import com.typesafe.scalalogging.Logger
 
 import org.midonet.midolman.DatapathState
 import org.midonet.midolman.datapath.DisruptorDatapathChannel._
-import org.midonet.midolman.monitoring.metrics.PacketExecutorMetrics
+import org.midonet.midolman.monitoring.metrics.{DatapathMetrics, PacketExecutorMetrics}
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.netlink._
 import org.midonet.odp._
@@ -64,6 +64,13 @@ trait StatePacketExecutor {
 
 object PacketExecutor {
     private val MAX_BUF_CAPACITY = 4 * 1024 * 1024
+    private val MAX_ACTIONS_SIZE = 4 * 1024
+
+    /* Maximum number of packet execute messages sent with a single write. */
+    private[datapath] val MaxBatchSize = 256
+
+    /* Maximum number of encoded action lists cached by each executor. */
+    private[datapath] val MaxCachedActions = 64
 
     private[datapath] def clampMss(ctx: PacketContext, log: Logger): Unit = {
         // Don't do MSS clamping on packet tunneled here from another Midolman
@@ -139,7 +146,10 @@ sealed class PacketExecutor(dpState: DatapathState,
                             families: OvsNetlinkFamilies,
                             numHandlers: Int, index: Int,
                             channelFactory: NetlinkChannelFactory,
-                            metrics: PacketExecutorMetrics)
+                            metrics: PacketExecutorMetrics,
+                            datapathMetrics: DatapathMetrics,
+                            batching: Boolean = false,
+                            aggregateFlowState: Boolean = false)
     extends EventHandler[PacketContextHolder]
     with LifecycleAware with StatePacketExecutor {
     import PacketExecutor._
@@ -162,6 +172,51 @@ sealed class PacketExecutor(dpState: DatapathState,
     private val writer = new NetlinkBlockingWriter(channel)
     private val reader = new NetlinkReader(channel)
 
+    /*
+     * When batching, the packet execute messages are accumulated in the
+     * write buffer until the end of the ring buffer batch, and sent to the
+     * datapath with a single write. The datapath processes every netlink
+     * message contained in the buffer.
+     */
+    private var batchSize = 0
+    private var batchPackets = 0
+    private val batchStartTimes = new Array[Long](MaxBatchSize)
+
+    /*
+     * Encoded actions attributes for the most recently used action lists,
+     * such that packets with the same actions, like the packets generated
+     * for a given port, do not encode them again.
+     */
+    private val actionsBuf = BytesUtil.instance.allocate(MAX_ACTIONS_SIZE)
+    private val encodedActions =
+        new JLinkedHashMap[JArrayList[FlowAction], Array[Byte]](
+            MaxCachedActions * 2, 0.75f, true) {
+            override def removeEldestEntry(
+                    eldest: JMap.Entry[JArrayList[FlowAction], Array[Byte]])
+            : Boolean = size() > MaxCachedActions
+        }
+
+    /*
+     * When aggregating the flow state, the flow state messages of the packets
+     * in a batch are merged per set of peers, and the resulting state packets
+     * are accumulated in the state buffer. The state buffer is written before
+     * the write buffer, such that the flow state reaches the peers before the
+     * packets that created it.
+     */
+    private val aggregator =
+        if (batching && aggregateFlowState)
+            new FlowStateAggregator(datapathMetrics)
+        else null
+    private val stateWriteBuf =
+        if (aggregator ne null) BytesUtil.instance.allocateDirect(64 * 1024)
+        else null
+    private var stateBatchSize = 0
+    private val stateEmitter = new FlowStateAggregator.Emitter {
+        override def emit(message: Array[Byte], length: Int,
+                          actions: JArrayList[FlowAction]): Unit =
+            batchStatePacket(prepareStatePacket(message, length), actions)
+    }
+
     override def onEvent(event: PacketContextHolder, sequence: Long,
                          endOfBatch: Boolean): Unit = {
         val context = event.packetExecRef
@@ -174,26 +229,44 @@ sealed class PacketExecutor(dpState: DatapathState,
                     clampMss(context, log)
                     maybeExecuteStatePacket(datapathId, context)
                     executePacket(datapathId, packet, actions)
-                    val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
-                    metrics.packetsExecuted.update(latency.toInt,
-                                                   TimeUnit.NANOSECONDS)
-                    context.log.debug(s"Executed packet")
+                    if (batching) {
+                        batchStartTimes(batchPackets) = packet.startTimeNanos
+                        batchPackets += 1
+                        if (batchSize >= MaxBatchSize) {
+                            flushBatch()
+                        }
+                        context.log.debug(s"Batched packet for execution")
+                    } else {
+                        val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
+                        metrics.packetsExecuted.update(latency.toInt,
+                                                       TimeUnit.NANOSECONDS)
+                        context.log.debug(s"Executed packet")
+                    }
                 } catch { case t: Throwable =>
                     context.log.error(s"Failed to execute packet", t)
                 }
             }
             context.setPacketProcessed()
         }
+        if (endOfBatch && batching) {
+            flushBatch()
+        }
     }
 
     private def maybeExecuteStatePacket(datapathId: Int, context: PacketContext): Unit = {
         val actions = context.stateActions
         if (actions.size > 0) {
             try {
-                val statePacket = prepareStatePacket(context.stateMessage,
-                                                     context.stateMessageLength)
-                executePacket(datapathId, statePacket, actions)
-                context.log.debug(s"Executed flow state message")
+                if ((aggregator ne null) &&
+                    aggregator.aggregate(context.stateMessage, actions,
+                                         stateEmitter)) {
+                    context.log.debug(s"Aggregated flow state message")
+                } else {
+                    val statePacket = prepareStatePacket(
+                        context.stateMessage, context.stateMessageLength)
+                    executePacket(datapathId, statePacket, actions)
+                    context.log.debug(s"Executed flow state message")
+                }
             } finally {
                 context.stateMessageLength = 0
                 context.stateActions.clear()
@@ -203,6 +276,11 @@ sealed class PacketExecutor(dpState: DatapathState,
 
     private def executePacket(datapathId: Int, packet: Packet,
                               actions: JArrayList[FlowAction]): Unit =
+        if (batching) batchPacket(datapathId, packet, actions)
+        else writePacket(datapathId, packet, actions)
+
+    private def writePacket(datapathId: Int, packet: Packet,
+                            actions: JArrayList[FlowAction]): Unit =
         try {
             protocol.preparePacketExecute(datapathId, packet, actions, writeBuf)
             writer.write(writeBuf)
@@ -213,11 +291,135 @@ sealed class PacketExecutor(dpState: DatapathState,
             val newCapacity = capacity * 2
             writeBuf = BytesUtil.instance.allocateDirect(newCapacity)
             log.debug(s"Increasing buffer size to $newCapacity")
-            executePacket(datapathId, packet, actions)
+            writePacket(datapathId, packet, actions)
         } finally {
             writeBuf.clear()
         }
 
+    /**
+     * Appends the packet execute message to the current batch, flushing the
+     * batch first if the message does not fit in the write buffer.
+     */
+    @tailrec
+    private def batchPacket(datapathId: Int, packet: Packet,
+                            actions: JArrayList[FlowAction]): Unit = {
+        val encoded = encodeActions(actions)
+        val buf = writeBuf.slice().order(writeBuf.order())
+        val written = try {
+            if (encoded ne null)
+                protocol.preparePacketExecute(datapathId, packet, encoded, buf)
+            else
+                protocol.preparePacketExecute(datapathId, packet, actions, buf)
+            true
+        } catch { case e: BufferOverflowException =>
+            if (batchSize > 0) {
+                flushBatch()
+            } else {
+                val capacity = writeBuf.capacity()
+                if (capacity >= PacketExecutor.MAX_BUF_CAPACITY)
+                    throw e
+                val newCapacity = capacity * 2
+                writeBuf = BytesUtil.instance.allocateDirect(newCapacity)
+                log.debug(s"Increasing buffer size to $newCapacity")
+            }
+            false
+        }
+        if (written) {
+            writeBuf.position(writeBuf.position() + buf.limit())
+            batchSize += 1
+        } else {
+            batchPacket(datapathId, packet, actions)
+        }
+    }
+
+    /**
+     * Appends the packet execute message of an aggregated state packet to
+     * the state buffer, writing the buffer first if the message does not
+     * fit. Writing the state packets ahead of the batch is always safe.
+     */
+    @tailrec
+    private def batchStatePacket(packet: Packet,
+                                 actions: JArrayList[FlowAction]): Unit = {
+        val buf = stateWriteBuf.slice().order(stateWriteBuf.order())
+        val written = try {
+            protocol.preparePacketExecute(datapathId, packet, actions, buf)
+            true
+        } catch { case e: BufferOverflowException =>
+            if (stateBatchSize == 0)
+                throw e
+            flushStateBatch()
+            false
+        }
+        if (written) {
+            stateWriteBuf.position(stateWriteBuf.position() + buf.limit())
+            stateBatchSize += 1
+        } else {
+            batchStatePacket(packet, actions)
+        }
+    }
+
+    private def flushStateBatch(): Unit = {
+        if (stateBatchSize > 0) {
+            try {
+                stateWriteBuf.flip()
+                writer.write(stateWriteBuf)
+            } catch { case NonFatal(e) =>
+                log.error(s"Failed to execute $stateBatchSize flow state " +
+                          "packets", e)
+            } finally {
+                stateWriteBuf.clear()
+                stateBatchSize = 0
+            }
+        }
+    }
+
+    private def encodeActions(actions: JArrayList[FlowAction]): Array[Byte] = {
+        var encoded = encodedActions.get(actions)
+        if (encoded eq null) {
+            try {
+                protocol.preparePacketExecuteActions(actions, actionsBuf)
+                encoded = new Array[Byte](actionsBuf.remaining())
+                actionsBuf.get(encoded)
+                encodedActions.put(new JArrayList(actions), encoded)
+            } catch { case e: BufferOverflowException =>
+                // The actions are encoded with the message.
+            } finally {
+                actionsBuf.clear()
+            }
+        } else {
+            datapathMetrics.packetExecuteActionsCached.mark()
+        }
+        encoded
+    }
+
+    private def flushBatch(): Unit = {
+        if (aggregator ne null) {
+            aggregator.drain(stateEmitter)
+            flushStateBatch()
+        }
+        if (batchSize > 0) {
+            try {
+                writeBuf.flip()
+                writer.write(writeBuf)
+                datapathMetrics.packetExecuteBatchSize.update(batchSize)
+                val now = NanoClock.DEFAULT.tick
+                var i = 0
+                while (i < batchPackets) {
+                    val latency = now - batchStartTimes(i)
+                    metrics.packetsExecuted.update(latency.toInt,
+                                                   TimeUnit.NANOSECONDS)
+                    i += 1
+                }
+            } catch { case NonFatal(e) =>
+                log.error(s"Failed to execute a batch of $batchSize packets", e)
+            } finally {
+                writeBuf.clear()
+                batchSize = 0
+                batchPackets = 0
+            }
+        }
+    }
+
     private def processError(): Unit =
         try {
            if (reader.read(readBuf) > 0) {
@@ -31,6 +31,7 @@ import rx.{Observable, Observer, Subscription}
 
 import org.midonet.Util
 import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfacesUpdate
 import org.midonet.netlink._
 import org.midonet.netlink.rtnetlink._
 import org.midonet.util.concurrent.NanoClock
@@ -222,19 +223,46 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
     private def filteredIfDescSet: Set[InterfaceDescription] =
         interfaceDescriptions.values.filter(_.getMac != null).toSet
 
+    /*
+     * Sets or removes the interface description for an ifindex, and returns
+     * the corresponding update of the interfaces with MAC addresses, which
+     * is empty if the change concerns an interface without MAC address.
+     */
+    private def setIfDesc(index: Int,
+                          desc: InterfaceDescription): InterfacesUpdate = {
+        val previous =
+            if (desc eq null) interfaceDescriptions.remove(index)
+            else interfaceDescriptions.put(index, desc)
+        val prev = previous.filter(_.getMac ne null).orNull
+        val curr = if ((desc ne null) && (desc.getMac ne null)) desc else null
+        if (prev eq null) {
+            if (curr eq null) InterfacesUpdate.Empty
+            else InterfacesUpdate(Set(curr), Set.empty, Set.empty)
+        } else if (curr eq null) {
+            InterfacesUpdate(Set.empty, Set.empty, Set(prev))
+        } else if (prev.getName != curr.getName) {
+            InterfacesUpdate(Set(curr), Set.empty, Set(prev))
+        } else if (prev == curr) {
+            InterfacesUpdate.Empty
+        } else {
+            InterfacesUpdate(Set.empty, Set(curr), Set.empty)
+        }
+    }
+
     private def isAddrNotification(nlType: Short): Boolean = nlType match {
         case Rtnetlink.Type.NEWADDR | Rtnetlink.Type.DELADDR => true
         case _ => false
     }
 
     /*
-     * This exposes interfaces concerned by MidoNet, interfaces with MAC
-     * addresses as Observables to Observers subscribing them. Linux interfaces
-     * without MAC addresses are filtered out when they're published, but please
-     * note they are held internally.
+     * This exposes the changes to the interfaces concerned by MidoNet,
+     * interfaces with MAC addresses, as Observables to Observers subscribing
+     * them. Linux interfaces without MAC addresses are filtered out when
+     * they're published, but please note they are held internally: a change
+     * to these interfaces results in an empty update.
      */
     private
-    def toObservable(buf: ByteBuffer): Observable[Set[InterfaceDescription]] = {
+    def toObservable(buf: ByteBuffer): Observable[InterfacesUpdate] = {
         val seq = buf.getInt(NetlinkMessage.NLMSG_SEQ_OFFSET)
         val nlType = buf.getShort(NetlinkMessage.NLMSG_TYPE_OFFSET)
         if (seq != NotificationSeq && !isAddrNotification(nlType)) {
@@ -250,14 +278,13 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                     val link = Link.buildFrom(buf)
                     links.get(link.ifi.index) match {
                         case Some(previous: Link) if link == previous =>
-                            Observable.empty[Set[InterfaceDescription]]
+                            Observable.empty[InterfacesUpdate]
                         case _ =>
                             log.debug("Received NEWLINK notification with a " +
                                           s"new link $link")
                             links += (link.ifi.index -> link)
-                            interfaceDescriptions += (link.ifi.index ->
-                                linkToIntefaceDescription(link))
-                            Observable.just(filteredIfDescSet)
+                            Observable.just(setIfDesc(link.ifi.index,
+                                linkToIntefaceDescription(link)))
                     }
                 case Rtnetlink.Type.DELLINK =>
                     log.trace("Received DELLINK notification")
@@ -266,32 +293,30 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                         log.debug("Received DELLINK notification with the " +
                                       s"existing link $link")
                         links -= link.ifi.index
-                        interfaceDescriptions -= link.ifi.index
-                        Observable.just(filteredIfDescSet)
+                        Observable.just(setIfDesc(link.ifi.index, null))
                     } else {
-                        Observable.empty[Set[InterfaceDescription]]
+                        Observable.empty[InterfacesUpdate]
                     }
                 case Rtnetlink.Type.NEWADDR =>
                     log.trace("Received NEWADDR notification")
                     val addr = Addr.buildFrom(buf)
                     if (!interfaceDescriptions.containsKey(addr.ifa.index)) {
                         addrs -= addr.ifa.index
-                        Observable.empty[Set[InterfaceDescription]]
+                        Observable.empty[InterfacesUpdate]
                     } else {
 
                         addrs.get(addr.ifa.index) match {
                             case Some(addrSet: mutable.Set[Addr])
                                 if addrSet.contains(addr) =>
-                                Observable.empty[Set[InterfaceDescription]]
+                                Observable.empty[InterfacesUpdate]
                             case _ =>
                                 log.debug("Received NEWADDR notification " +
                                     "with a new address")
                                 addrs(addr.ifa.index) =
                                     addrs.getOrElse(addr.ifa.index,
                                         mutable.Set.empty) + addr
-                                interfaceDescriptions += (addr.ifa.index ->
-                                    addAddr(addr))
-                                Observable.just(filteredIfDescSet)
+                                Observable.just(setIfDesc(addr.ifa.index,
+                                                          addAddr(addr)))
                         }
                     }
                 case Rtnetlink.Type.DELADDR =>
@@ -299,7 +324,7 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                     val addr = Addr.buildFrom(buf)
                     if (!interfaceDescriptions.containsKey(addr.ifa.index)) {
                         addrs -= addr.ifa.index
-                        Observable.empty[Set[InterfaceDescription]]
+                        Observable.empty[InterfacesUpdate]
                     } else {
                         addrs.get(addr.ifa.index) match {
                             case Some(addrSet: mutable.Set[Addr])
@@ -307,14 +332,15 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                                 log.debug("Received DELADDR notification " +
                                     "with the existing address")
                                 addrSet -= addr
-                                val descOption = removeAddr(addr)
-                                if (descOption.isDefined) {
-                                    interfaceDescriptions += (addr.ifa.index ->
-                                        descOption.get)
+                                removeAddr(addr) match {
+                                    case Some(desc) =>
+                                        Observable.just(
+                                            setIfDesc(addr.ifa.index, desc))
+                                    case None =>
+                                        Observable.just(InterfacesUpdate.Empty)
                                 }
-                                Observable.just(filteredIfDescSet)
                             case _ =>
-                                Observable.empty[Set[InterfaceDescription]]
+                                Observable.empty[InterfacesUpdate]
                         }
                     }
                 case t: Short => // Ignore other notifications.
@@ -327,9 +353,9 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
     private val initialScan = BehaviorSubject.create[Set[InterfaceDescription]]
 
     private
-    val notifications: ConnectableObservable[Set[InterfaceDescription]] =
+    val updates: ConnectableObservable[InterfacesUpdate] =
         notificationSubject.flatMap(
-            makeFunc1[ByteBuffer, Observable[Set[InterfaceDescription]]] {
+            makeFunc1[ByteBuffer, Observable[InterfacesUpdate]] {
                 buf => try {
                     log.trace("Got a notification from the kernel")
                     toObservable(buf)
@@ -337,18 +363,34 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                     case ex: Exception =>
                         log.error("Error occurred on composing interface" +
                             "descriptions", ex)
-                        Observable.empty[Set[InterfaceDescription]]
+                        Observable.empty[InterfacesUpdate]
                 }
-            }).mergeWith(initialScan).publish()
-    notifications.subscribe(new ErrorReporter[Set[InterfaceDescription]])
+            }).mergeWith(initialScan.map(
+                makeFunc1[Set[InterfaceDescription], InterfacesUpdate] {
+                    InterfacesUpdate(_, Set.empty, Set.empty)
+                })).publish()
+    updates.subscribe(new ErrorReporter[InterfacesUpdate])
+
+    // The set of all interfaces is only composed for the subscribers of the
+    // sets, once per update.
+    private
+    val notifications: Observable[Set[InterfaceDescription]] =
+        updates.map[Set[InterfaceDescription]](
+            makeFunc1[InterfacesUpdate, Set[InterfaceDescription]] {
+                _ => filteredIfDescSet
+            }).share()
 
-    override
-    def subscribe(obs: Observer[Set[InterfaceDescription]]): Subscription = {
-        val subscription = notifications.subscribe(obs)
+    private def connect(): Unit = {
         if (!isSubscribed) {
             isSubscribed = true
-            notifications.connect()
+            updates.connect()
         }
+    }
+
+    override
+    def subscribe(obs: Observer[Set[InterfaceDescription]]): Subscription = {
+        val subscription = notifications.subscribe(obs)
+        connect()
         // Push the current statuses of interfaces to the observer.
         val currentState: Set[InterfaceDescription] = filteredIfDescSet
         if (currentState.nonEmpty) {
@@ -357,6 +399,27 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
         subscription
     }
 
+    override
+    def subscribeUpdates(obs: Observer[InterfacesUpdate]): Subscription = {
+        val subscription = updates.filter(
+            makeFunc1[InterfacesUpdate, java.lang.Boolean] { _.nonEmpty })
+            .subscribe(obs)
+        connect()
+        // Push the current statuses of interfaces to the observer.
+        val currentState: Set[InterfaceDescription] = filteredIfDescSet
+        if (currentState.nonEmpty) {
+            obs.onNext(InterfacesUpdate(currentState, Set.empty, Set.empty))
+        }
+        subscription
+    }
+
+    /*
+     * Processes a notification as if it was read from the rtnetlink
+     * notification channel.
+     */
+    private[scanner] def processNotification(buf: ByteBuffer): Unit =
+        notificationSubject.onNext(buf)
+
     private def composeIfDesc(links: Set[Link],
                               addrs: Set[Addr]): Set[InterfaceDescription] = {
         links.foreach { link =>
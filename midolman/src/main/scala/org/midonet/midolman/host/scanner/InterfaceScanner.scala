@@ -19,8 +19,48 @@ package org.midonet.midolman.host.scanner
 import rx.{Observer, Subscription}
 
 import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfacesUpdate
 import org.midonet.netlink.rtnetlink.AbstractRtnetlinkConnection
 
+object InterfaceScanner {
+
+    /**
+     * A change to the interfaces of the host: the interfaces that were added,
+     * the interfaces that changed and the interfaces that were removed since
+     * the previous update. A renamed interface is reported as removed with
+     * its previous name and added with the new one.
+     */
+    case class InterfacesUpdate(added: Set[InterfaceDescription],
+                                changed: Set[InterfaceDescription],
+                                removed: Set[InterfaceDescription]) {
+        def isEmpty: Boolean = added.isEmpty && changed.isEmpty &&
+                               removed.isEmpty
+        def nonEmpty: Boolean = !isEmpty
+    }
+
+    object InterfacesUpdate {
+        val Empty = InterfacesUpdate(Set.empty, Set.empty, Set.empty)
+
+        /** Computes the update between two sets of interfaces, identifying
+          * the interfaces by name. */
+        def diff(previous: Map[String, InterfaceDescription],
+                 current: Map[String, InterfaceDescription])
+        : InterfacesUpdate = {
+            InterfacesUpdate(
+                current.collect {
+                    case (name, desc) if !previous.contains(name) => desc
+                }.toSet,
+                current.collect {
+                    case (name, desc) if previous.contains(name) &&
+                                         previous(name) != desc => desc
+                }.toSet,
+                previous.collect {
+                    case (name, desc) if !current.contains(name) => desc
+                }.toSet)
+        }
+    }
+}
+
 /**
  * Interface data scanning API. It's job is scan and find out the
  * current list of interface data from the local system and notify
@@ -37,6 +77,43 @@ trait InterfaceScanner extends AbstractRtnetlinkConnection {
      *         from InterfaceScanner.
      */
     def subscribe(obs: Observer[Set[InterfaceDescription]]): Subscription
+
+    /**
+     * Let an Observer subscribe to the changes of the interfaces of the
+     * host. The first update contains the current interfaces as added, and
+     * the following updates only the interfaces that were added, changed or
+     * removed, such that the cost of an update does not depend on the number
+     * of interfaces of the host.
+     *
+     * The default implementation computes the updates from the sets of
+     * interfaces published by `subscribe`.
+     *
+     * @param obs an Observer to subscribe to the updates of the L2 Ethernet
+     *            interfaces on the host.
+     * @return Subscription object through which users can unsubscribe events
+     *         from InterfaceScanner.
+     */
+    def subscribeUpdates(obs: Observer[InterfacesUpdate]): Subscription = {
+        subscribe(new Observer[Set[InterfaceDescription]] {
+            private var previous: Map[String, InterfaceDescription] = null
+            override def onCompleted(): Unit = obs.onCompleted()
+            override def onError(e: Throwable): Unit = obs.onError(e)
+            override def onNext(set: Set[InterfaceDescription]): Unit = {
+                val current = set.map(desc => desc.getName -> desc).toMap
+                if (previous eq null) {
+                    previous = current
+                    obs.onNext(InterfacesUpdate(set, Set.empty, Set.empty))
+                } else {
+                    val update = InterfacesUpdate.diff(previous, current)
+                    previous = current
+                    if (update.nonEmpty) {
+                        obs.onNext(update)
+                    }
+                }
+            }
+        })
+    }
+
     /**
      * Start scanning and notifying the interfaces on the host.
      */
@@ -18,7 +18,7 @@ package org.midonet.midolman.host.services
 
 import java.net.{InetAddress, UnknownHostException}
 import java.util.concurrent.atomic.AtomicReference
-import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit, TimeoutException}
 import java.util.{UUID, ConcurrentModificationException}
 import javax.annotation.Nullable
 
@@ -47,6 +47,7 @@ import org.midonet.midolman.Midolman
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.host.interfaces.InterfaceDescription
 import org.midonet.midolman.host.scanner.InterfaceScanner
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfacesUpdate
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.serialization.SerializationException
 import org.midonet.packets.MAC
@@ -78,6 +79,11 @@ object HostService {
  *
  * The host ownership also indicates whether the host is active.
  *
+ * The service subscribes to the updates of the interface scanner, and only
+ * converts the interfaces that were added or changed. The interfaces of the
+ * host are written to the state storage only when the converted interfaces
+ * have changed.
+ *
  * In MidoNet 2.x, the [[HostService]] also monitors the host ownership to
  * detect topology changes. If the ownership is lost, the service will attempt
  * to reacquire ownership using the same retry policy as the one specified in
@@ -101,8 +107,12 @@ class HostService (config: MidolmanConfig,
     @volatile private var hostName: String = "UNKNOWN"
 
     private val interfacesLatch = new CountDownLatch(1)
-    @volatile private var currentInterfaces: Set[InterfaceDescription] = null
-    @volatile private var oldInterfaces: Set[InterfaceDescription] = null
+    // The current interfaces of the host, and their protocol buffers messages
+    // written to the state storage, by interface name.
+    private val currentInterfaces =
+        new ConcurrentHashMap[String, InterfaceDescription]
+    private val interfaceProtos =
+        new ConcurrentHashMap[String, State.HostState.Interface]
     @volatile private var scannerSubscription: Subscription = null
 
     private val aliveState = new AtomicReference(OwnershipState.Released)
@@ -143,20 +153,19 @@ class HostService (config: MidolmanConfig,
         log.info("Starting MidoNet agent host service")
         try {
             scanner.start()
-            scanner.subscribe(new Observer[Set[InterfaceDescription]] {
+            scanner.subscribeUpdates(new Observer[InterfacesUpdate] {
                 override def onCompleted(): Unit = {
                     log.debug("Interface updating is completed.")
                 }
                 override def onError(t: Throwable): Unit = {
                     log.error("Got the error: {}", t)
                 }
-                override def onNext(data: Set[InterfaceDescription]): Unit = {
-                    oldInterfaces = currentInterfaces
-                    currentInterfaces = data
+                override def onNext(update: InterfacesUpdate): Unit = {
+                    val changed = applyUpdate(update)
                     interfacesLatch.countDown()
                     // Do not update if the interfaces have not changed or if the
                     // service has not yet acquired the host ownership.
-                    if ((oldInterfaces == currentInterfaces) ||
+                    if (!changed ||
                         (aliveState.get != OwnershipState.Acquired)) {
                         return
                     }
@@ -371,19 +380,44 @@ class HostService (config: MidolmanConfig,
             .subscribe(aliveObserver)
     }
 
+    /**
+     * Applies an update of the interface scanner to the current interfaces,
+     * converting only the added and changed interfaces. Returns whether the
+     * interfaces written to storage have changed.
+     */
+    private def applyUpdate(update: InterfacesUpdate): Boolean = {
+        def describe(ifaces: Set[InterfaceDescription]) = ifaces map { i =>
+            val upOrDown = if (i.isUp) "UP" else "DOWN"
+            val pluggedOrNot = if (i.isUp) "LINK" else "NO_LINK"
+            s"${i.getName}<$upOrDown,$pluggedOrNot,${i.getMtu}>"
+        } mkString ", "
+
+        log.debug(s"Network interfaces added: [${describe(update.added)}] " +
+                  s"changed: [${describe(update.changed)}] removed: " +
+                  s"[${update.removed.map(_.getName).mkString(", ")}]")
+
+        var changed = false
+        for (iface <- update.removed) {
+            currentInterfaces.remove(iface.getName)
+            changed |= interfaceProtos.remove(iface.getName) ne null
+        }
+        def put(iface: InterfaceDescription): Unit = {
+            currentInterfaces.put(iface.getName, iface)
+            val proto = ZoomConvert.toProto(iface,
+                                            classOf[State.HostState.Interface])
+            changed |= interfaceProtos.put(iface.getName, proto) != proto
+        }
+        update.added foreach put
+        update.changed foreach put
+        changed
+    }
+
     /**
      * Updates the host with the current set of interfaces in V2.x storage.
      */
     private def updateInterfaces(): Unit = {
-        def upOrDown(iface: InterfaceDescription) =
-                if (iface.isUp) "UP" else "DOWN"
-        def pluggedOrNot(iface: InterfaceDescription) =
-                if (iface.isUp) "LINK" else "NO_LINK"
-
-        val ifdescs = currentInterfaces map { i =>
-            s"${i.getName}<${upOrDown(i)},${pluggedOrNot(i)},${i.getMtu}>"
-        }
-        log.debug("Updating network interfaces: {}", ifdescs.mkString(", "))
+        log.debug("Updating {} network interfaces",
+                  Int.box(interfaceProtos.size))
 
         try {
             stateStore.addValue(classOf[Host], hostId, HostKey, getInterfaces)
@@ -424,10 +458,7 @@ class HostService (config: MidolmanConfig,
     private def getInterfaces: String = {
         State.HostState.newBuilder()
             .setHostId(UUIDUtil.toProto(hostId))
-            .addAllInterfaces(
-                currentInterfaces.map(
-                    ZoomConvert.toProto(_, classOf[State.HostState.Interface]))
-                    .asJava)
+            .addAllInterfaces(interfaceProtos.values())
             .build()
             .toString
     }
@@ -443,9 +474,9 @@ class HostService (config: MidolmanConfig,
             return false
         }
         if (currentState ne null) {
-            val currentMacs = currentInterfaces
+            val currentMacs = currentInterfaces.values.asScala
                 .filter(i => (i.getMac ne null) && i.getMac.asLong() != 0L)
-                .map(_.getMac)
+                .map(_.getMac).toSet
             val interfaces = currentState.getInterfacesList.asScala
             for (interface <- interfaces) {
                 try {
@@ -20,6 +20,7 @@ import java.nio.ByteBuffer
 import java.nio.channels.IllegalSelectorException
 import java.nio.channels.spi.SelectorProvider
 import java.util.UUID
+import java.util.concurrent.TimeUnit.NANOSECONDS
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable
@@ -28,6 +29,8 @@ import scala.util.control.NonFatal
 
 import akka.actor._
 
+import com.codahale.metrics.MetricRegistry
+
 import org.midonet.cluster.ZookeeperLockFactory
 import org.midonet.cluster.data.storage._
 import org.midonet.cluster.models.Commons.LBStatus
@@ -39,6 +42,7 @@ import org.midonet.cluster.util.{SequenceDispenser, IPAddressUtil, IPSubnetUtil}
 import org.midonet.cluster.util.SequenceDispenser.OverlayTunnelKey
 import org.midonet.midolman.l4lb.HaproxyHealthMonitor.{CheckHealth, ConfigUpdate, _}
 import org.midonet.midolman.logging.ActorLogWithoutPath
+import org.midonet.midolman.monitoring.metrics.HealthMonitorMetrics
 import org.midonet.netlink.{NetlinkSelectorProvider, UnixDomainChannel}
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
 import org.midonet.util.AfUnix
@@ -56,6 +60,11 @@ import org.midonet.util.process.ProcessHelper
  * acquiring a ZooKeeper lock. This is to prevent races with the
  * cluster which is meant to be the only component writing to the
  * topology.
+ *
+ * With persistent stats enabled, the actor keeps a connection to the stats
+ * socket of haproxy open in interactive mode, parses the statistics as they
+ * are read, and only takes the lock and writes to the topology when the
+ * status of a member changes.
   *
  * TODO: the agent should never write to topology elements.  All code
  * violating this principle will be refactored out of here shortly (MNA-1068).
@@ -63,10 +72,12 @@ import org.midonet.util.process.ProcessHelper
 object HaproxyHealthMonitor {
     def props(config: PoolConfig, manager: ActorRef, routerId: UUID,
               store: Storage, hostId: UUID, lockFactory: ZookeeperLockFactory,
-              sequenceDispenser: SequenceDispenser):
+              sequenceDispenser: SequenceDispenser,
+              persistentStats: Boolean, metrics: HealthMonitorMetrics):
         Props = Props(new HaproxyHealthMonitor(config, manager, routerId,
                                                store, hostId, lockFactory,
-                                               sequenceDispenser))
+                                               sequenceDispenser,
+                                               persistentStats, metrics))
 
     sealed trait HHMMessage
     // This is a way of alerting the manager that setup has failed
@@ -107,7 +118,10 @@ class HaproxyHealthMonitor(var config: PoolConfig,
                            val store: Storage,
                            val hostId: UUID,
                            val lockFactory: ZookeeperLockFactory,
-                           val seqDispenser: SequenceDispenser)
+                           val seqDispenser: SequenceDispenser,
+                           val persistentStats: Boolean = false,
+                           val metrics: HealthMonitorMetrics =
+                               new HealthMonitorMetrics(new MetricRegistry))
     extends Actor with ActorLogWithoutPath with Stash {
 
 
@@ -121,6 +135,8 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     private var routerPortId: UUID = null
     private var routeId: UUID = null
     private var namespaceName: String = null
+    private val statsChannel = new HaproxyStatsChannel(
+        () => connectChannel(config.haproxySockFileLoc))
 
     val ipCommand = HealthMonitor.ipCommand
 
@@ -168,6 +184,7 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     }
 
     override def postStop(): Unit = {
+        statsChannel.close()
         unhookNamespaceFromRouter()
         HealthMonitor.cleanAndDeleteNamespace(healthMonitorName,
                                               config.nsPostFix,
@@ -178,6 +195,8 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     def receive = {
         case ConfigUpdate(conf) =>
             try {
+                // Haproxy is restarted or stopped, closing its stats socket.
+                statsChannel.close()
                 writeConf(conf)
                 if (conf.isConfigurable){
                     restartHaproxy(healthMonitorName,
@@ -216,16 +235,21 @@ class HaproxyHealthMonitor(var config: PoolConfig,
 
         case CheckHealth =>
             try {
-                val statusInfo = getHaproxyStatus(config.haproxySockFileLoc)
-                val (upNodes, downNodes) = parseResponse(statusInfo)
+                val (upNodes, downNodes) = pollHaproxyStatus()
                 val newUpNodes = upNodes diff currentUpNodes
                 val newDownNodes = downNodes diff currentDownNodes
 
-                setMembersStatus(newUpNodes, newDownNodes)
+                metrics.statusTransitions.mark(newUpNodes.size +
+                                               newDownNodes.size)
+                if (!persistentStats || newUpNodes.nonEmpty ||
+                    newDownNodes.nonEmpty) {
+                    setMembersStatus(newUpNodes, newDownNodes)
+                }
                 currentUpNodes = upNodes
                 currentDownNodes = downNodes
             } catch {
                 case NonFatal(e) =>
+                    metrics.statsErrors.mark()
                     log.info("Unable to retrieve health information for "
                               + config.haproxySockFileLoc)
                     setPoolMappingStatus(config.id, ERROR)
@@ -257,22 +281,51 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     }
 
     /**
-      * Sets the health status of active and inactive pool members.
+      * Polls haproxy for the up and down members of the pool.
+      */
+    private def pollHaproxyStatus(): (Set[UUID], Set[UUID]) = {
+        val startTime = System.nanoTime()
+        val (upNodes, downNodes, bytes) =
+            if (persistentStats) {
+                if (!statsChannel.isConnected)
+                    metrics.statsConnections.mark()
+                statsChannel.showStat()
+            } else {
+                metrics.statsConnections.mark()
+                val statusInfo = getHaproxyStatus(config.haproxySockFileLoc)
+                val (up, down) = parseResponse(statusInfo)
+                (up, down, if (statusInfo eq null) 0 else statusInfo.length)
+            }
+        metrics.statsPollLatency.update(System.nanoTime() - startTime,
+                                        NANOSECONDS)
+        metrics.statsBytesRead.mark(bytes)
+        (upNodes, downNodes)
+    }
+
+    /**
+      * Sets the health status of active and inactive pool members. With
+      * persistent stats, the members already in the given status are not
+      * written.
       */
     protected def setMembersStatus(activeMemberIds: Set[UUID],
                                    inactiveMemberIds: Set[UUID]) = {
+        def needsUpdate(member: PoolMember, status: LBStatus): Boolean =
+            !persistentStats || member.getStatus != status
+
         val ops = new mutable.MutableList[PersistenceOp]()
         HealthMonitor.zkLock(lockFactory) {
             val upMembers = store.getAll(classOf[PoolMember], activeMemberIds.toSeq).await()
-            ops ++= upMembers.map { member =>
+            ops ++= upMembers.filter(needsUpdate(_, LBStatus.ACTIVE)).map { member =>
                 UpdateOp(member.toBuilder.setStatus(LBStatus.ACTIVE).build)
             }
             val downMembers = store.getAll(classOf[PoolMember], inactiveMemberIds.toSeq).await()
-            ops ++= downMembers.map { member =>
+            ops ++= downMembers.filter(needsUpdate(_, LBStatus.INACTIVE)).map { member =>
                 UpdateOp(member.toBuilder.setStatus(LBStatus.INACTIVE).build)
             }
-            store.multi(ops)
+            if (ops.nonEmpty)
+                store.multi(ops)
         }
+        metrics.statusUpdatesWritten.mark(ops.size)
     }
 
     /*
@@ -437,17 +490,22 @@ class HaproxyHealthMonitor(var config: PoolConfig,
           throw new IllegalSelectorException
     }
 
-    /*
-     * Asks the given socket for haproxy info. This creates a new channel
-     * Everytime because Haproxy will close the connection after a write/read
-     * If necessary, we can get around this by maintaining a connection
-     * by operation in "command line mode" for haproxy.
-     */
-    def getHaproxyStatus(path: String) : String = {
+    def connectChannel(path: String): UnixDomainChannel = {
         val socketFile = new File(path)
         val socketAddress = new AfUnix.Address(socketFile.getAbsolutePath)
         val chan = makeChannel()
         chan.connect(socketAddress)
+        chan
+    }
+
+    /*
+     * Asks the given socket for haproxy info. This creates a new channel
+     * Everytime because Haproxy will close the connection after a write/read.
+     * The persistent stats mode uses a HaproxyStatsChannel instead, which
+     * maintains a connection in "command line mode".
+     */
+    def getHaproxyStatus(path: String) : String = {
+        val chan = connectChannel(path)
         val wb = ByteBuffer.wrap(ShowStat.getBytes)
         while(wb.hasRemaining)
             chan.write(wb)
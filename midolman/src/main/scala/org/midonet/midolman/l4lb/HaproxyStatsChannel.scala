@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.l4lb
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ByteChannel
+import java.nio.charset.StandardCharsets.US_ASCII
+import java.util.{Arrays, UUID}
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import org.midonet.midolman.l4lb.HaproxyHealthMonitor._
+
+object HaproxyStatsChannel {
+    // Enters the interactive mode of the haproxy command line.
+    val Prompt = "prompt\n"
+}
+
+/**
+ * Incremental parser of the CSV output of the haproxy "show stat" command.
+ * The bytes are consumed as they are read from the stats socket, and only
+ * the name and status fields of each line are decoded, such that the output
+ * is never accumulated into a string.
+ *
+ * The parser returns the same member sets as the string based
+ * `HaproxyHealthMonitor.parseResponse`: the lines with at least StatusPos + 1
+ * fields whose name is not BACKEND, FRONTEND or the field header, and
+ * whose status is exactly UP or DOWN.
+ */
+class HaproxyStatsParser {
+
+    private val Up = StatusUp.getBytes(US_ASCII)
+    private val Down = StatusDown.getBytes(US_ASCII)
+
+    private var line = new Array[Byte](256)
+    private var length = 0
+
+    private val upNodes = new mutable.HashSet[UUID]()
+    private val downNodes = new mutable.HashSet[UUID]()
+
+    def reset(): Unit = {
+        length = 0
+        upNodes.clear()
+        downNodes.clear()
+    }
+
+    /** Consumes the remaining bytes of the buffer. */
+    def parse(buf: ByteBuffer): Unit = {
+        while (buf.hasRemaining) {
+            val b = buf.get()
+            if (b == '\n') {
+                parseLine()
+                length = 0
+            } else {
+                if (length == line.length)
+                    line = Arrays.copyOf(line, length * 2)
+                line(length) = b
+                length += 1
+            }
+        }
+    }
+
+    /** Completes the parsing of the current response, and returns the sets
+      * of up and down members. */
+    def result(): (Set[UUID], Set[UUID]) = {
+        parseLine()
+        length = 0
+        (upNodes.toSet, downNodes.toSet)
+    }
+
+    private def parseLine(): Unit = {
+        var field = 0
+        var nameStart = -1
+        var nameEnd = -1
+        var statusStart = -1
+        var statusEnd = -1
+        var start = 0
+        var index = 0
+        while (index <= length) {
+            if (index == length || line(index) == ',') {
+                if (field == NamePos) {
+                    nameStart = start
+                    nameEnd = index
+                } else if (field == StatusPos) {
+                    statusStart = start
+                    statusEnd = index
+                }
+                field += 1
+                start = index + 1
+            }
+            index += 1
+        }
+        if (field <= StatusPos)
+            return
+
+        val name = new String(line, nameStart, nameEnd - nameStart, US_ASCII)
+        if (name == Backend || name == Frontend || name == FieldName)
+            return
+
+        if (matches(statusStart, statusEnd, Up))
+            upNodes add UUID.fromString(name)
+        else if (matches(statusStart, statusEnd, Down))
+            downNodes add UUID.fromString(name)
+    }
+
+    private def matches(start: Int, end: Int, value: Array[Byte]): Boolean = {
+        if (end - start != value.length)
+            return false
+        var index = 0
+        while (index < value.length) {
+            if (line(start + index) != value(index))
+                return false
+            index += 1
+        }
+        true
+    }
+}
+
+/**
+ * A persistent connection to the stats socket of an haproxy instance.
+ *
+ * By default, haproxy closes the stats socket after answering a single
+ * command, such that every poll must open a new connection. This channel
+ * instead switches the connection to the interactive mode of the command
+ * line, where haproxy keeps the connection open and terminates every
+ * response with the "\n> " prompt, and reuses the connection for every
+ * "show stat" command. The connection is closed on any error, and opened
+ * again by the next poll.
+ */
+class HaproxyStatsChannel(openChannel: () => ByteChannel,
+                          bufferSize: Int = 4096) {
+
+    import HaproxyStatsChannel._
+
+    private val parser = new HaproxyStatsParser
+    private val buf = ByteBuffer.allocate(bufferSize)
+    private var channel: ByteChannel = null
+    private var tail = 0
+
+    def isConnected: Boolean = channel ne null
+
+    /**
+     * Requests the statistics of the haproxy instance, and returns the sets
+     * of up and down members together with the number of bytes read. This
+     * call blocks until haproxy replies.
+     */
+    @throws[IOException]
+    def showStat(): (Set[UUID], Set[UUID], Int) = {
+        try {
+            if (channel eq null) {
+                channel = openChannel()
+                command(Prompt, null)
+            }
+            parser.reset()
+            val bytes = command(ShowStat, parser)
+            val (upNodes, downNodes) = parser.result()
+            (upNodes, downNodes, bytes)
+        } catch {
+            case NonFatal(e) =>
+                close()
+                throw e
+        }
+    }
+
+    def close(): Unit = {
+        if (channel ne null) {
+            try channel.close() catch { case e: IOException => }
+            channel = null
+        }
+    }
+
+    /* Writes a command and reads its response until the prompt, passing
+     * the response bytes to the parser, if any. */
+    private def command(cmd: String, parser: HaproxyStatsParser): Int = {
+        val wb = ByteBuffer.wrap(cmd.getBytes(US_ASCII))
+        while (wb.hasRemaining)
+            channel.write(wb)
+
+        var bytes = 0
+        tail = 0
+        while (!promptReceived) {
+            buf.clear()
+            val read = channel.read(buf)
+            if (read < 0)
+                throw new IOException("Haproxy stats socket closed")
+            buf.flip()
+            bytes += read
+            updateTail()
+            if (parser ne null)
+                parser.parse(buf)
+        }
+        bytes
+    }
+
+    /* Keeps the last three bytes read in an integer. */
+    private def updateTail(): Unit = {
+        var index = buf.position()
+        while (index < buf.limit()) {
+            tail = (tail << 8) | (buf.get(index) & 0xff)
+            index += 1
+        }
+    }
+
+    private def promptReceived: Boolean =
+        (tail & 0xffffff) == (('\n' << 16) | ('>' << 8) | ' ')
+}
@@ -25,6 +25,7 @@ import scala.util.control.NonFatal
 
 import akka.actor.{Actor, ActorRef, Props}
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 
 import org.apache.curator.framework.CuratorFramework
@@ -45,6 +46,7 @@ import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.l4lb.HaproxyHealthMonitor.{ConfigUpdate, RouterAdded, RouterRemoved, SetupFailure, SockReadFailure}
 import org.midonet.midolman.l4lb.HealthMonitorConfigWatcher.BecomeHaproxyNode
 import org.midonet.midolman.logging.ActorLogWithoutPath
+import org.midonet.midolman.monitoring.metrics.HealthMonitorMetrics
 import org.midonet.util.concurrent.toFutureOps
 
 object HealthMonitor extends Referenceable {
@@ -216,7 +218,8 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
                                backend: MidonetBackend,
                                lockFactory: ZookeeperLockFactory,
                                curator: CuratorFramework,
-                               backendCfg: MidonetBackendConfig)
+                               backendCfg: MidonetBackendConfig,
+                               metricRegistry: MetricRegistry)
     extends Actor with ActorLogWithoutPath {
 
     import HealthMonitor._
@@ -227,6 +230,10 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
 
     val seqDispenser = new SequenceDispenser(curator, backendCfg)
 
+    private val persistentStats =
+        config.healthMonitor.persistentStatsConnection
+    private val metrics = new HealthMonitorMetrics(metricRegistry)
+
     private var watcher: ActorRef = null
 
     val ipCom = HealthMonitor.ipCommand
@@ -361,8 +368,9 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
                                  routerId: UUID) = {
         context.actorOf(
             Props(
-                new HaproxyHealthMonitor(config, self, routerId, store, hostId,
-                                         lockFactory, seqDispenser)
+                new HaproxyHealthMonitor(
+                    config, self, routerId, store, hostId, lockFactory,
+                    seqDispenser, persistentStats, metrics)
             ).withDispatcher(context.props.dispatcher),
             config.id.toString)
     }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.util.concurrent.{Semaphore, TimeUnit}
+import java.util.{LinkedHashMap, UUID}
+
+import scala.util.control.NonFatal
+
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.{BatchStatement, Statement}
+import com.google.common.util.concurrent.{FutureCallback, Futures, ListenableFuture, MoreExecutors}
+import org.jctools.queues.MpscArrayQueue
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.monitoring.metrics.FlowTracingMetrics
+import org.midonet.util.concurrent.WakerUpper.Parkable
+
+object FlowTraceWriter {
+
+    /** The partition key of the flow events table. */
+    private final case class Partition(traceRequestId: UUID,
+                                       flowTraceId: UUID)
+
+    /** The statements written for a flow trace log event. */
+    private final class TraceEvent(val partition: Partition,
+                                   val flowStatement: Statement,
+                                   val dataStatement: Statement)
+
+    /** The statements pending for an events partition: the insert of the
+      * flow, which is the same for all events of the flow trace, and an
+      * unlogged batch with the inserts of the events. */
+    private final class PendingWrite(val flowStatement: Statement) {
+        val batch = new BatchStatement(BatchStatement.Type.UNLOGGED)
+    }
+
+}
+
+/**
+ * Writes the statements of the flow trace log events to Cassandra from a
+ * dedicated thread.
+ *
+ * The simulation threads enqueue the events in a bounded queue, and the
+ * event is dropped when the queue is full. The writer thread drains the
+ * queue and groups the events by the partition key of the flow events
+ * table, the trace request and flow trace identifiers. For every partition,
+ * the writer executes the flow insert once, since all events of a flow
+ * trace insert the same row in the flows table, and the event inserts in
+ * a single-partition unlogged batch, preserving the order of the events.
+ * The statements are executed asynchronously, and the number of writes in
+ * flight is bounded: when the limit is reached the writer thread waits for
+ * a write to complete, and the queue absorbs the events emitted in the
+ * meantime.
+ */
+class FlowTraceWriter(execute: Statement => ListenableFuture[_],
+                      registry: MetricRegistry,
+                      queueSize: Int = 100000,
+                      maxBatchSize: Int = 16,
+                      maxInFlight: Int = 16) {
+
+    import FlowTraceWriter._
+
+    private val log = LoggerFactory.getLogger(classOf[FlowTraceWriter])
+
+    private val queue = new MpscArrayQueue[TraceEvent](queueSize)
+    private val inFlight = new Semaphore(maxInFlight)
+    private val pending = new LinkedHashMap[Partition, PendingWrite]()
+
+    val metrics = new FlowTracingMetrics(registry, this)
+
+    @volatile private var running = false
+    @volatile private var dropping = false
+
+    private val sender = new Thread("flow-tracing-appender") with Parkable {
+        override def run(): Unit = while (running) {
+            try {
+                if (queue.isEmpty) park()
+                else writeEvents()
+            } catch {
+                case e: InterruptedException =>
+                    log.warn("Interrupted")
+                    running = false
+                case NonFatal(e) =>
+                    log.error("Unexpected error", e)
+            }
+        }
+        override def shouldWakeUp(): Boolean = !running || !queue.isEmpty
+    }
+    sender.setDaemon(true)
+
+    def start(): Unit = {
+        running = true
+        sender.start()
+    }
+
+    def stop(): Unit = {
+        running = false
+        sender.interrupt()
+    }
+
+    /** Enqueues the statements of a log event, and returns `false` if the
+      * queue is full and the event was dropped. */
+    def write(traceRequestId: UUID, flowTraceId: UUID,
+              flowStatement: Statement, dataStatement: Statement): Boolean = {
+        if (queue.offer(new TraceEvent(Partition(traceRequestId, flowTraceId),
+                                       flowStatement, dataStatement))) {
+            if (dropping) {
+                dropping = false
+            }
+            true
+        } else {
+            metrics.eventsDropped.mark()
+            if (!dropping) {
+                dropping = true
+                log.info("Backpressure triggered on queue of flow tracing " +
+                         s"events emitted to Cassandra (curr. bound: " +
+                         s"$queueSize): dropping events")
+            }
+            false
+        }
+    }
+
+    /** The number of events waiting to be written. */
+    def queueDepth: Int = queue.size()
+
+    /** The number of statements being written. */
+    def writesInFlight: Int = maxInFlight - inFlight.availablePermits()
+
+    private def writeEvents(): Unit = {
+        var count = 0
+        var event = queue.poll()
+        while (event ne null) {
+            var write = pending.get(event.partition)
+            if (write eq null) {
+                write = new PendingWrite(event.flowStatement)
+                pending.put(event.partition, write)
+            }
+            write.batch.add(event.dataStatement)
+            count += 1
+            if (write.batch.size >= maxBatchSize) {
+                pending.remove(event.partition)
+                writePartition(write)
+            }
+            event = if (count < maxBatchSize * maxInFlight) queue.poll()
+                    else null
+        }
+
+        val iterator = pending.values.iterator()
+        while (iterator.hasNext) {
+            writePartition(iterator.next())
+        }
+        pending.clear()
+    }
+
+    private def writePartition(write: PendingWrite): Unit = {
+        writeStatement(write.flowStatement, 0)
+        val events = write.batch.size
+        if (events == 1) {
+            writeStatement(write.batch.getStatements.iterator.next(), events)
+        } else {
+            writeStatement(write.batch, events)
+        }
+    }
+
+    private def writeStatement(statement: Statement, events: Int): Unit = {
+        inFlight.acquire()
+        val startTime = System.nanoTime()
+        val callback = new FutureCallback[Any] {
+            override def onSuccess(result: Any): Unit = {
+                inFlight.release()
+                metrics.writeLatency.update(System.nanoTime() - startTime,
+                                            TimeUnit.NANOSECONDS)
+                if (events > 0) {
+                    metrics.eventsWritten.mark(events)
+                }
+            }
+            override def onFailure(e: Throwable): Unit = {
+                inFlight.release()
+                metrics.writeErrors.mark()
+                log.warn(s"Failed to send log messages to Cassandra " +
+                         s"${e.getMessage}")
+            }
+        }
+        try {
+            val future = execute(statement).asInstanceOf[ListenableFuture[Any]]
+            Futures.addCallback(future, callback,
+                                MoreExecutors.sameThreadExecutor())
+        } catch {
+            case NonFatal(e) => callback.onFailure(e)
+        }
+    }
+}
@@ -19,21 +19,19 @@ package org.midonet.midolman.logging
 import java.util.UUID
 
 import scala.concurrent.Future
-import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
 import ch.qos.logback.classic.spi.ILoggingEvent
 import ch.qos.logback.core.AppenderBase
-import com.datastax.driver.core.exceptions.DriverException
-import com.datastax.driver.core.{Session, Statement}
-import org.jctools.queues.SpmcArrayQueue
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.Session
 import org.slf4j.LoggerFactory
 
 import org.midonet.conf.HostIdGenerator
 import org.midonet.util.concurrent.CallingThreadExecutionContext
-import org.midonet.util.concurrent.WakerUpper.Parkable
 
-class FlowTracingAppender(sessionFuture: Future[Session])
+class FlowTracingAppender(sessionFuture: Future[Session],
+                          metricRegistry: MetricRegistry = new MetricRegistry)
         extends AppenderBase[ILoggingEvent] {
 
     val log = LoggerFactory.getLogger(classOf[FlowTracingAppender])
@@ -50,46 +48,28 @@ class FlowTracingAppender(sessionFuture: Future[Session])
 
     var schema: FlowTracingSchema = null
 
-    /* Dedicated thread that sends messages to Cassandra in the same order as
-     * they are emitted by the simulation thread (within a given simulation).
-     */
-    private val sender = new Thread("flow-tracing-appender") with Parkable {
-        override def run(): Unit = while (true) {
-            try {
-                queue.poll() match {
-                    case null => park()
-                    case st => session execute st
-                }
-            } catch {
-                case NonFatal(t: InterruptedException) =>
-                    log.warn("Interrupted")
-                    interrupt()
-                case NonFatal(t: DriverException) =>
-                    log.warn("Failed to send log message to Cassandra " +
-                             s"${t.getMessage}")
-                case NonFatal(t) =>
-                    log.error("Unexpected error", t)
-            }
-        }
-        override def shouldWakeUp(): Boolean = queue.peek() != null
-    }
-
-    val QueueSize = 100000
-    private val queue = new SpmcArrayQueue[Statement](QueueSize)
+    /* Writes the statements to Cassandra in batches per flow trace, from
+     * a dedicated thread. */
+    val writer = new FlowTraceWriter(st => session.executeAsync(st),
+                                     metricRegistry)
 
     override def start(): Unit = {
-        sender.setDaemon(true)
         sessionFuture.onComplete {
             case Success(s) =>
                 schema = new FlowTracingSchema(s)
                 session = s
-                sender.start()
+                writer.start()
             case Failure(t) =>
                 log.warn("Failed to start session to Cassandra", t)
         }(CallingThreadExecutionContext)
         super.start()
     }
 
+    override def stop(): Unit = {
+        writer.stop()
+        super.stop()
+    }
+
     override def append(event: ILoggingEvent): Unit = {
         import FlowTracingContext._
         val mdc = event.getMDCPropertyMap
@@ -116,11 +96,7 @@ class FlowTracingAppender(sessionFuture: Future[Session])
                     traceId, flowTraceId,
                     hostId, event.getFormattedMessage)
 
-                if (!queue.offer(st1) || !queue.offer(st2)) {
-                    log.info("Backpressure triggered on queue of flow " +
-                             "tracing events emitted to Cassandra (curr. " +
-                             s"bound: $QueueSize)")
-                }
+                writer.write(traceId, flowTraceId, st1, st2)
             } catch {
                 case e: Throwable =>
                     log.error("Error building statements", e)
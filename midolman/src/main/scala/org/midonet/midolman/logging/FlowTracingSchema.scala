@@ -17,6 +17,7 @@ package org.midonet.midolman.logging
 
 import java.util.{Date, UUID}
 import com.datastax.driver.core.{BoundStatement, PreparedStatement, Session}
+import com.datastax.driver.core.utils.UUIDs
 
 object FlowTracingSchema {
     val KEYSPACE_NAME = "MidonetFlowTracing"
@@ -46,7 +47,7 @@ object FlowTracingSchema {
     val dataInsertCQL = s"""
         INSERT INTO ${FLOW_EVENTS_TABLE}
         (traceRequestId, flowTraceId, time, host, data)
-        VALUES(?,?, now(), ?, ?)"""
+        VALUES(?, ?, ?, ?, ?)"""
     val flowInsertCQL = s"""
         INSERT INTO ${FLOWS_TABLE}
         (traceRequestId, flowTraceId, ethSrc, ethDst, etherType,
@@ -113,10 +114,15 @@ class FlowTracingSchema(session: Session) {
                                                  srcPort, dstPort)
     }
 
+    /** Binds the insert statement of trace data. The time of the data is
+      * bound when the statement is created rather than when it is executed,
+      * such that the data keeps the order in which it was logged even when
+      * the statements are executed out of order. */
     def bindDataInsertStatement(traceRequestId: UUID, flowTraceId: UUID,
-                                host: UUID, data: String): BoundStatement = {
+                                host: UUID, data: String,
+                                time: UUID = UUIDs.timeBased()): BoundStatement = {
         new BoundStatement(dataInsertStatement).bind(traceRequestId, flowTraceId,
-                                                     host, data)
+                                                     time, host, data)
     }
 
     def bindFlowCountStatement(traceRequestId: UUID,
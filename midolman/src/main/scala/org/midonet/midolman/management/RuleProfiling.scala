@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.management
+
+import java.lang.management._
+import java.util.{HashMap => JHashMap, UUID}
+import javax.management._
+
+import scala.collection.JavaConversions._
+
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.management.{ChainStats, RuleProfilingMXBean, RuleStats}
+import org.midonet.midolman.monitoring.RuleProfiler
+
+object RuleProfiling extends RuleProfilingMXBean {
+    val log = Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
+
+    @volatile private var profilers = List[RuleProfiler]()
+
+    override def getHottestRules(count: Int): Array[RuleStats] = {
+        aggregateRules().sortBy(-_.getHits).take(count).toArray
+    }
+
+    override def getDeadRules: Array[RuleStats] = {
+        aggregateRules().filter(_.getHits == 0)
+                        .sortBy(-_.getEvaluations).toArray
+    }
+
+    override def getChainStats: Array[ChainStats] = {
+        val chains = new JHashMap[UUID, ChainStats]
+        for (profiler <- profilers; counter <- profiler.chains.values()) {
+            val histogram = counter.histogram.clone()
+            val stats = chains.get(counter.chainId)
+            if (stats eq null) {
+                chains.put(counter.chainId, new ChainStats(
+                    counter.chainId.toString, counter.name, counter.traversals,
+                    counter.evaluations, counter.totalNanos, histogram))
+            } else {
+                var index = 0
+                while (index < histogram.length) {
+                    histogram(index) += stats.getHistogram()(index)
+                    index += 1
+                }
+                chains.put(counter.chainId, new ChainStats(
+                    stats.getChainId,
+                    if (stats.getName ne null) stats.getName else counter.name,
+                    stats.getTraversals + counter.traversals,
+                    stats.getEvaluations + counter.evaluations,
+                    stats.getTotalNanos + counter.totalNanos, histogram))
+            }
+        }
+        chains.values().toArray(new Array[ChainStats](chains.size()))
+    }
+
+    private def aggregateRules(): Seq[RuleStats] = {
+        val rules = new JHashMap[UUID, RuleStats]
+        for (profiler <- profilers; counter <- profiler.rules.values()) {
+            val stats = rules.get(counter.ruleId)
+            rules.put(counter.ruleId,
+                if (stats eq null) {
+                    new RuleStats(counter.ruleId.toString,
+                                  counter.chainId.toString,
+                                  counter.evaluations, counter.hits)
+                } else {
+                    new RuleStats(stats.getRuleId, stats.getChainId,
+                                  stats.getEvaluations + counter.evaluations,
+                                  stats.getHits + counter.hits)
+                })
+        }
+        rules.values().toSeq
+    }
+
+    def registerAsMXBean(profiler: RuleProfiler) = this.synchronized {
+        try {
+            profilers :+= profiler
+            if (profilers.size == 1) {
+                ManagementFactory.getPlatformMBeanServer.registerMBean(this,
+                    new ObjectName(RuleProfilingMXBean.NAME))
+            }
+        } catch {
+            case e: Exception =>
+                log.error("Failed to register rule profiling JMX bean", e)
+        }
+    }
+}
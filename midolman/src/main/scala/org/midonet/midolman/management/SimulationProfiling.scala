@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.lang.management._
+import java.util.{HashMap => JHashMap, UUID}
+import javax.management._
+
+import scala.collection.JavaConversions._
+
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.management.{DeviceStats, SimulationProfilingMXBean, StageStats}
+import org.midonet.midolman.monitoring.SimulationProfiler
+import org.midonet.midolman.monitoring.SimulationProfiler.StageNames
+
+object SimulationProfiling extends SimulationProfilingMXBean {
+    val log = Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
+
+    @volatile private var profilers = List[SimulationProfiler]()
+
+    override def getSampleRate: Int = {
+        profilers.headOption.map(_.sampleRate).getOrElse(0)
+    }
+
+    override def setSampleRate(rate: Int): Unit = {
+        if (rate < 0)
+            throw new IllegalArgumentException(s"Invalid sample rate $rate")
+        log.info(s"Setting the simulation profiling sample rate to $rate")
+        for (profiler <- profilers) {
+            profiler.sampleRate = rate
+        }
+    }
+
+    override def getStageStats: Array[StageStats] = {
+        val packets = new Array[Long](StageNames.length)
+        val nanos = new Array[Long](StageNames.length)
+        for (profiler <- profilers; index <- StageNames.indices) {
+            packets(index) += profiler.stagePackets(index)
+            nanos(index) += profiler.stageNanos(index)
+        }
+        StageNames.indices.map(index =>
+            new StageStats(StageNames(index), packets(index), nanos(index)))
+            .toArray
+    }
+
+    override def getDeviceStats: Array[DeviceStats] = {
+        val devices = new JHashMap[UUID, DeviceStats]
+        for (profiler <- profilers; counter <- profiler.devices.values()) {
+            val histogram = counter.histogram.clone()
+            val stats = devices.get(counter.deviceId)
+            if (stats eq null) {
+                devices.put(counter.deviceId, new DeviceStats(
+                    counter.deviceId.toString, StageNames(counter.stage),
+                    counter.visits, counter.totalNanos, histogram))
+            } else {
+                var index = 0
+                while (index < histogram.length) {
+                    histogram(index) += stats.getHistogram()(index)
+                    index += 1
+                }
+                devices.put(counter.deviceId, new DeviceStats(
+                    stats.getDeviceId, stats.getType,
+                    stats.getVisits + counter.visits,
+                    stats.getTotalNanos + counter.totalNanos, histogram))
+            }
+        }
+        devices.values().toArray(new Array[DeviceStats](devices.size()))
+    }
+
+    def registerAsMXBean(profiler: SimulationProfiler) = this.synchronized {
+        try {
+            profilers :+= profiler
+            if (profilers.size == 1) {
+                ManagementFactory.getPlatformMBeanServer.registerMBean(this,
+                    new ObjectName(SimulationProfilingMXBean.NAME))
+            }
+        } catch {
+            case e: Exception =>
+                log.error("Failed to register simulation profiling JMX bean",
+                          e)
+        }
+    }
+}
@@ -28,7 +28,32 @@ import org.midonet.util.collection.ArrayObjectPool
 
 import org.midonet.management.{FlowStats => JmxFlowStats}
 
-class MeterRegistry(val maxFlows: Int) {
+object MeterRegistry {
+
+    /**
+      * Meter statistics that are also published to a slot of a shared
+      * statistics file. The statistics are updated by the thread owning the
+      * registry.
+      */
+    private class SharedFlowStats(file: SharedStatsFile, slot: Int)
+        extends JmxFlowStats {
+        override def add(deltaPackets: Long, deltaBytes: Long): Unit = {
+            super.add(deltaPackets, deltaBytes)
+            file.set(slot, packets, bytes)
+        }
+    }
+
+}
+
+/**
+  * Tracks the packets and bytes of the flow meters for a simulation thread.
+  * If a shared statistics file is provided, the registry also publishes the
+  * meters to the file, prefixing the meter names with the given owner.
+  */
+class MeterRegistry(val maxFlows: Int, statsFile: SharedStatsFile = null,
+                    owner: String = null) {
+    import MeterRegistry._
+
     val log = Logger(LoggerFactory.getLogger("org.midonet.metering"))
 
     class FlowData {
@@ -67,7 +92,7 @@ class MeterRegistry(val maxFlows: Int) {
                     if (meters.containsKey(meter.meterName)) {
                         log.debug(s"tracking a new flow for meter ${meter.meterName}")
                     } else {
-                        meters.put(meter.meterName, new JmxFlowStats())
+                        meters.put(meter.meterName, newMeter(meter.meterName))
                         log.debug(s"discovered a new meter: ${meter.meterName}")
                     }
                 case _ => // Do nothing
@@ -94,7 +119,9 @@ class MeterRegistry(val maxFlows: Int) {
                         log.debug(s"adding a packet to meter: ${meter.meterName}")
                         meters.get(meter.meterName).add(DELTA.packets, DELTA.bytes)
                     } else {
-                        meters.put(meter.meterName, new JmxFlowStats(DELTA.packets, DELTA.bytes))
+                        val stats = newMeter(meter.meterName)
+                        stats.add(DELTA.packets, DELTA.bytes)
+                        meters.put(meter.meterName, stats)
                         log.debug(s"discovered a new meter: ${meter.meterName}")
                     }
                 case _ => // Do nothing
@@ -127,4 +154,18 @@ class MeterRegistry(val maxFlows: Int) {
         if (metadata ne null)
             metadataPool.offer(metadata)
     }
+
+    private def newMeter(meterName: String): JmxFlowStats = {
+        if (statsFile eq null)
+            return new JmxFlowStats()
+        val slot = statsFile.allocate(s"meters.$owner.$meterName",
+                                      SharedStatsFile.KindFlowMeter)
+        if (slot < 0) {
+            log.warn(s"Shared statistics file is full: meter $meterName " +
+                     "is not published")
+            new JmxFlowStats()
+        } else {
+            new SharedFlowStats(statsFile, slot)
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.monitoring
+
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.{HashSet => JHashSet, List => JList, UUID}
+
+import com.codahale.metrics.Timer
+
+import org.midonet.midolman.rules.Rule
+import org.midonet.midolman.simulation.Chain
+
+object RuleProfiler {
+
+    final val HistogramBuckets = 32
+
+    final class RuleCounter(val ruleId: UUID, val chainId: UUID) {
+        var evaluations = 0L
+        var hits = 0L
+    }
+
+    final class ChainCounter(val chainId: UUID) {
+        var name: String = null
+        var traversals = 0L
+        var evaluations = 0L
+        var totalNanos = 0L
+        val histogram = new Array[Long](HistogramBuckets)
+
+        // The rule counters, in the order of the rules of the last chain
+        // version that was traversed.
+        private[RuleProfiler] var rules: JList[Rule] = null
+        private[RuleProfiler] var ruleCounters = new Array[RuleCounter](0)
+    }
+
+    /** Returns the histogram bucket for the specified duration, such that
+      * bucket i counts the durations in the interval [2^(i-1), 2^i).
+      */
+    @inline
+    def bucketOf(nanos: Long): Int = {
+        val bucket = 64 - java.lang.Long.numberOfLeadingZeros(nanos)
+        if (bucket < HistogramBuckets) bucket else HistogramBuckets - 1
+    }
+}
+
+/**
+ * Profiles the evaluation of the rule chains by a packet worker. For every
+ * rule, the profiler counts the number of times the rule was evaluated and
+ * the number of times the rule condition matched the packet (hits). For
+ * every chain, the profiler counts the number of traversals, and it records
+ * the duration of the evaluation of the chain when it is applied directly
+ * by a device, including the time spent in its jump targets, in a log2
+ * histogram and in the worker's chain evaluation timer.
+ *
+ * There is one profiler per packet worker, such that the counters have a
+ * single writer and are updated without synchronization. As for the
+ * [[MeterRegistry]], the readers, which aggregate the counters of all
+ * workers via JMX, may observe slightly stale values.
+ */
+class RuleProfiler(chainEvaluation: Timer) {
+
+    import RuleProfiler._
+
+    val rules = new ConcurrentHashMap[UUID, RuleCounter]
+    val chains = new ConcurrentHashMap[UUID, ChainCounter]
+
+    /** Records the traversal of the specified chain, and returns the rule
+      * counters for the chain's rules, indexed by the rule position.
+      */
+    def chainTraversed(chain: Chain): Array[RuleCounter] = {
+        var counter = chains.get(chain.id)
+        if (counter eq null) {
+            counter = new ChainCounter(chain.id)
+            chains.put(chain.id, counter)
+        }
+        if (counter.rules ne chain.rules) {
+            updateRules(counter, chain)
+        }
+        counter.traversals += 1
+        counter.ruleCounters
+    }
+
+    /** Records the evaluation of the specified rule counter.
+      */
+    @inline
+    def ruleEvaluated(counter: RuleCounter, matched: Boolean): Unit = {
+        counter.evaluations += 1
+        if (matched) {
+            counter.hits += 1
+        }
+    }
+
+    /** Records the duration of the evaluation of the specified chain.
+      */
+    def chainEvaluated(chain: Chain, nanos: Long): Unit = {
+        val counter = chains.get(chain.id)
+        if (counter ne null) {
+            counter.evaluations += 1
+            counter.totalNanos += nanos
+            counter.histogram(bucketOf(nanos)) += 1
+        }
+        chainEvaluation.update(nanos, TimeUnit.NANOSECONDS)
+    }
+
+    /** Updates the rule counters of a chain when the chain changes, keeping
+      * the counters of the existing rules, and removing the counters of the
+      * rules that no longer belong to the chain.
+      */
+    private def updateRules(counter: ChainCounter, chain: Chain): Unit = {
+        val ruleCounters = new Array[RuleCounter](chain.rules.size())
+        val ruleIds = new JHashSet[UUID](ruleCounters.length)
+        var index = 0
+        while (index < ruleCounters.length) {
+            val ruleId = chain.rules.get(index).id
+            var ruleCounter = if (ruleId ne null) rules.get(ruleId) else null
+            if ((ruleCounter eq null) || (ruleCounter.chainId != chain.id)) {
+                ruleCounter = new RuleCounter(ruleId, chain.id)
+                if (ruleId ne null) {
+                    rules.put(ruleId, ruleCounter)
+                }
+            }
+            ruleCounters(index) = ruleCounter
+            ruleIds.add(ruleId)
+            index += 1
+        }
+
+        index = 0
+        while (index < counter.ruleCounters.length) {
+            val ruleCounter = counter.ruleCounters(index)
+            if ((ruleCounter.ruleId ne null) &&
+                !ruleIds.contains(ruleCounter.ruleId)) {
+                rules.remove(ruleCounter.ruleId, ruleCounter)
+            }
+            index += 1
+        }
+
+        counter.name = chain.name
+        counter.rules = chain.rules
+        counter.ruleCounters = ruleCounters
+    }
+}
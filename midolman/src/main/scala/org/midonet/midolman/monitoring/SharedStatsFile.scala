@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.io.{File, RandomAccessFile}
+import java.nio.channels.FileChannel.MapMode
+import java.nio.charset.StandardCharsets
+import java.nio.{ByteBuffer, ByteOrder}
+
+import scala.collection.mutable.ArrayBuffer
+
+import org.midonet.midolman.monitoring.SharedStatsFile._
+
+object SharedStatsFile {
+
+    final val Magic = 0x54534e4d // "MNST" in little-endian order
+    final val Version = 1
+
+    final val HeaderSize = 64
+    final val SlotSize = 128
+    final val MaxNameLength = SlotSize - 24
+
+    // Header offsets
+    final val MagicOffset = 0
+    final val VersionOffset = 4
+    final val HeaderSizeOffset = 8
+    final val SlotSizeOffset = 12
+    final val MaxSlotsOffset = 16
+    final val SlotCountOffset = 20
+    final val CreatedOffset = 24
+    final val UpdatedOffset = 32
+
+    // Slot offsets
+    final val Value0Offset = 0
+    final val Value1Offset = 8
+    final val KindOffset = 16
+    final val NameLengthOffset = 20
+    final val NameOffset = 24
+
+    // Slot kinds
+    final val KindCounter = 1
+    final val KindGauge = 2
+    final val KindMeter = 3
+    final val KindTimer = 4
+    final val KindHistogram = 5
+    final val KindFlowMeter = 6
+
+    /** An entry read from a statistics file. */
+    case class Entry(name: String, kind: Int, value0: Long, value1: Long)
+
+    /**
+      * Creates a statistics file at the given path with room for the given
+      * number of slots, replacing any existing file.
+      */
+    def create(file: File, maxSlots: Int): SharedStatsFile = {
+        if (maxSlots < 0)
+            throw new IllegalArgumentException(s"Invalid slots $maxSlots")
+        val parent = file.getAbsoluteFile.getParentFile
+        if ((parent ne null) && !parent.exists())
+            parent.mkdirs()
+        file.delete()
+        val size = HeaderSize.toLong + maxSlots.toLong * SlotSize
+        val raf = new RandomAccessFile(file, "rw")
+        try {
+            raf.setLength(size)
+            val buffer = raf.getChannel.map(MapMode.READ_WRITE, 0, size)
+            new SharedStatsFile(buffer, maxSlots)
+        } finally {
+            raf.close()
+        }
+    }
+
+    /**
+      * Reads the entries published in a statistics file. The values of
+      * each entry are read independently, therefore a reader may observe
+      * the first value of an entry before an update and the second value
+      * after the update.
+      */
+    def read(buffer: ByteBuffer): Seq[Entry] = {
+        val buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+        if (buf.getInt(MagicOffset) != Magic)
+            throw new IllegalArgumentException("Not a statistics file")
+        if (buf.getInt(VersionOffset) != Version)
+            throw new IllegalArgumentException(
+                s"Unsupported version ${buf.getInt(VersionOffset)}")
+        val headerSize = buf.getInt(HeaderSizeOffset)
+        val slotSize = buf.getInt(SlotSizeOffset)
+        val count = buf.getInt(SlotCountOffset)
+        val entries = new ArrayBuffer[Entry](count)
+        var index = 0
+        while (index < count) {
+            val offset = headerSize + index * slotSize
+            val name = new Array[Byte](buf.getInt(offset + NameLengthOffset))
+            var i = 0
+            while (i < name.length) {
+                name(i) = buf.get(offset + NameOffset + i)
+                i += 1
+            }
+            entries += Entry(new String(name, StandardCharsets.UTF_8),
+                             buf.getInt(offset + KindOffset),
+                             buf.getLong(offset + Value0Offset),
+                             buf.getLong(offset + Value1Offset))
+            index += 1
+        }
+        entries
+    }
+
+    /** Reads the entries published in the statistics file at the path. */
+    def read(file: File): Seq[Entry] = {
+        val raf = new RandomAccessFile(file, "r")
+        try {
+            read(raf.getChannel.map(MapMode.READ_ONLY, 0, raf.length()))
+        } finally {
+            raf.close()
+        }
+    }
+
+    private def encode(name: String): Array[Byte] = {
+        var bytes = name.getBytes(StandardCharsets.UTF_8)
+        var length = name.length
+        while (bytes.length > MaxNameLength) {
+            length -= 1
+            bytes = name.substring(0, length).getBytes(StandardCharsets.UTF_8)
+        }
+        bytes
+    }
+
+}
+
+/**
+  * A statistics file shared with external monitoring tools, which can sample
+  * the agent counters by mapping the file into memory, without connecting
+  * to the agent JVM. All numbers are little-endian, and the file has the
+  * following layout:
+  *
+  * {{{
+  * Header (64 bytes):
+  *   0  int32  magic: 0x54534e4d ("MNST")
+  *   4  int32  version: 1
+  *   8  int32  header size: 64
+  *   12 int32  slot size: 128
+  *   16 int32  maximum number of slots
+  *   20 int32  number of published slots
+  *   24 int64  creation time, in milliseconds since the epoch
+  *   32 int64  last publish time, in milliseconds since the epoch
+  *   40        reserved
+  * Slot (128 bytes, starting at header size + index * slot size):
+  *   0  int64  first value: count, gauge value or flow meter packets
+  *   8  int64  second value: flow meter bytes, otherwise 0
+  *   16 int32  kind: 1 counter, 2 gauge, 3 meter, 4 timer, 5 histogram,
+  *             6 flow meter
+  *   20 int32  name length in bytes, at most 104
+  *   24 byte[] name, UTF-8
+  * }}}
+  *
+  * Slots are allocated once and never released. A slot is fully written
+  * before the number of published slots is incremented, such that readers
+  * never observe a partially allocated slot.
+  *
+  * The values of a slot must be updated by a single writer, which uses
+  * plain aligned stores without any locking. Readers may therefore observe
+  * stale values, but each value is read atomically on 64-bit platforms.
+  */
+class SharedStatsFile private[monitoring](buffer: ByteBuffer,
+                                          val maxSlots: Int) {
+
+    private val buf = buffer.order(ByteOrder.LITTLE_ENDIAN)
+    @volatile private var slots = 0
+
+    buf.putInt(VersionOffset, Version)
+    buf.putInt(HeaderSizeOffset, HeaderSize)
+    buf.putInt(SlotSizeOffset, SlotSize)
+    buf.putInt(MaxSlotsOffset, maxSlots)
+    buf.putInt(SlotCountOffset, 0)
+    buf.putLong(CreatedOffset, System.currentTimeMillis())
+    buf.putInt(MagicOffset, Magic)
+
+    /**
+      * Allocates a new slot with the given name and kind, and returns its
+      * index, or -1 if the file is full. Names longer than 104 bytes are
+      * truncated.
+      */
+    def allocate(name: String, kind: Int): Int = synchronized {
+        if (slots >= maxSlots)
+            return -1
+        val index = slots
+        val offset = HeaderSize + index * SlotSize
+        val bytes = encode(name)
+        buf.putLong(offset + Value0Offset, 0L)
+        buf.putLong(offset + Value1Offset, 0L)
+        buf.putInt(offset + KindOffset, kind)
+        buf.putInt(offset + NameLengthOffset, bytes.length)
+        var i = 0
+        while (i < bytes.length) {
+            buf.put(offset + NameOffset + i, bytes(i))
+            i += 1
+        }
+        // The slot count in the header is written before the volatile
+        // publication of the slots, such that it is visible to any reader
+        // of the new slot.
+        buf.putInt(SlotCountOffset, index + 1)
+        slots = index + 1
+        index
+    }
+
+    /** Sets the first value of a slot. */
+    @inline
+    def set(slot: Int, value: Long): Unit = {
+        buf.putLong(HeaderSize + slot * SlotSize + Value0Offset, value)
+    }
+
+    /** Sets both values of a slot. */
+    @inline
+    def set(slot: Int, value0: Long, value1: Long): Unit = {
+        val offset = HeaderSize + slot * SlotSize
+        buf.putLong(offset + Value0Offset, value0)
+        buf.putLong(offset + Value1Offset, value1)
+    }
+
+    /** Sets the last publish time in the header. */
+    def published(time: Long): Unit = {
+        buf.putLong(UpdatedOffset, time)
+    }
+
+    /** @return The number of allocated slots. */
+    def size: Int = slots
+
+    /** @return A read-only view of the file contents. */
+    def contents: ByteBuffer = buf.asReadOnlyBuffer()
+
+}
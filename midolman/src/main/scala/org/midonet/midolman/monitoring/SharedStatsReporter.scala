@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.concurrent.TimeUnit
+import java.util.{SortedMap, HashMap => JHashMap}
+
+import com.codahale.metrics._
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.monitoring.SharedStatsFile._
+
+/**
+  * A metrics reporter that periodically copies the counts of the metrics in
+  * a metric registry, such as the packet pipeline, the datapath and the flow
+  * table metrics, into a shared statistics file. The reporter is the single
+  * writer of the slots it allocates. Gauges are published only when their
+  * value is a number, and meters, timers and histograms publish their count.
+  */
+class SharedStatsReporter(registry: MetricRegistry, file: SharedStatsFile)
+    extends ScheduledReporter(registry, "shared-stats-reporter",
+                              MetricFilter.ALL, TimeUnit.SECONDS,
+                              TimeUnit.MILLISECONDS) {
+
+    private val log =
+        Logger(LoggerFactory.getLogger("org.midonet.midolman.monitoring"))
+
+    private val slots = new JHashMap[String, Integer]()
+    private var full = false
+
+    override def report(gauges: SortedMap[String, Gauge[_]],
+                        counters: SortedMap[String, Counter],
+                        histograms: SortedMap[String, Histogram],
+                        meters: SortedMap[String, Meter],
+                        timers: SortedMap[String, Timer]): Unit = {
+        val gaugeIterator = gauges.entrySet().iterator()
+        while (gaugeIterator.hasNext) {
+            val entry = gaugeIterator.next()
+            entry.getValue.getValue match {
+                case value: Number =>
+                    publish(entry.getKey, KindGauge, value.longValue())
+                case _ =>
+            }
+        }
+        val counterIterator = counters.entrySet().iterator()
+        while (counterIterator.hasNext) {
+            val entry = counterIterator.next()
+            publish(entry.getKey, KindCounter, entry.getValue.getCount)
+        }
+        val histogramIterator = histograms.entrySet().iterator()
+        while (histogramIterator.hasNext) {
+            val entry = histogramIterator.next()
+            publish(entry.getKey, KindHistogram, entry.getValue.getCount)
+        }
+        val meterIterator = meters.entrySet().iterator()
+        while (meterIterator.hasNext) {
+            val entry = meterIterator.next()
+            publish(entry.getKey, KindMeter, entry.getValue.getCount)
+        }
+        val timerIterator = timers.entrySet().iterator()
+        while (timerIterator.hasNext) {
+            val entry = timerIterator.next()
+            publish(entry.getKey, KindTimer, entry.getValue.getCount)
+        }
+        file.published(System.currentTimeMillis())
+    }
+
+    private def publish(name: String, kind: Int, value: Long): Unit = {
+        var slot = slots.get(name)
+        if (slot eq null) {
+            slot = file.allocate(s"metrics.$name", kind)
+            slots.put(name, slot)
+            if (slot < 0 && !full) {
+                log.warn("Shared statistics file is full: some metrics are " +
+                         "not published")
+                full = true
+            }
+        }
+        if (slot >= 0) {
+            file.set(slot, value)
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.{Arrays, UUID}
+
+import com.codahale.metrics.Timer
+
+import org.midonet.midolman.monitoring.RuleProfiler.{HistogramBuckets, bucketOf}
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.simulation.{Bridge, RouterBase}
+
+object SimulationProfiler {
+
+    final val IngressStage = 0
+    final val PortStage = 1
+    final val BridgeStage = 2
+    final val RouterStage = 3
+    final val DeviceStage = 4
+    final val ChainStage = 5
+    final val StateStage = 6
+    final val TranslationStage = 7
+    final val FlowStage = 8
+    final val HandoffStage = 9
+
+    final val StageNames = Array("ingress", "port", "bridge", "router",
+                                 "device", "chain", "state", "translation",
+                                 "flow", "handoff")
+
+    final class DeviceCounter(val deviceId: UUID, val stage: Int) {
+        var visits = 0L
+        var totalNanos = 0L
+        val histogram = new Array[Long](HistogramBuckets)
+    }
+
+    /** Returns the profiling stage for the specified forwarding device.
+      */
+    def stageOf(device: AnyRef): Int = device match {
+        case _: Bridge => BridgeStage
+        case _: RouterBase[_] => RouterStage
+        case _ => DeviceStage
+    }
+}
+
+/**
+ * Profiles the time spent by the simulated packets in each stage of the
+ * packet workflow and in each simulated device. The profiler samples one in
+ * every `sampleRate` packets, and a packet that is not sampled is not
+ * profiled at all, such that the overhead is limited to a null check per
+ * stage.
+ *
+ * For a profiled packet, the time elapsed since the beginning of the
+ * workflow is split in consecutive slices, and every slice is charged to
+ * the current stage. The workflow switches the current stage when the
+ * simulation enters a port or a device, and when the simulation completes.
+ * The chain evaluation, the state application, the flow translation and the
+ * handoff are nested stages, restoring the previous stage upon exit. When
+ * the packet completes, the time of every stage is recorded in the stage
+ * timer of the packet worker, which is registered in the metrics registry
+ * when the stage is first recorded.
+ *
+ * The profiler also counts the visits of every port and device, where a
+ * visit lasts until the simulation enters the next port or device, and
+ * includes the time spent in the nested stages, such as the evaluation of
+ * the device chains.
+ *
+ * As for the [[RuleProfiler]], there is one profiler per packet worker, such
+ * that the counters have a single writer and are updated without
+ * synchronization, and the readers may observe slightly stale values.
+ */
+class SimulationProfiler(metrics: PacketPipelineMetrics,
+                         initialSampleRate: Int) {
+
+    import SimulationProfiler._
+
+    @volatile var sampleRate = initialSampleRate
+
+    val devices = new ConcurrentHashMap[UUID, DeviceCounter]
+    val stagePackets = new Array[Long](StageNames.length)
+    val stageNanos = new Array[Long](StageNames.length)
+    private val stageTimers = new Array[Timer](StageNames.length)
+
+    private var skipped = 0
+
+    private var active = false
+    private var stage = IngressStage
+    private var device: DeviceCounter = null
+    private var mark = 0L
+    private var visitNanos = 0L
+    private val packetNanos = new Array[Long](StageNames.length)
+
+    /** Returns whether the next packet should be profiled.
+      */
+    def sample(): Boolean = {
+        val rate = sampleRate
+        if (rate <= 0) {
+            false
+        } else {
+            skipped += 1
+            if (skipped >= rate) {
+                skipped = 0
+                true
+            } else false
+        }
+    }
+
+    /** Begins profiling a packet in the ingress stage. If the profiler was
+      * already profiling a packet, it completes it first.
+      */
+    def begin(): Unit = {
+        if (active) {
+            end()
+        }
+        active = true
+        stage = IngressStage
+        device = null
+        visitNanos = 0L
+        Arrays.fill(packetNanos, 0L)
+        mark = System.nanoTime()
+    }
+
+    /** Switches the current stage, ending the current device visit.
+      */
+    def switchTo(stage: Int): Unit = {
+        charge(System.nanoTime())
+        endVisit()
+        this.stage = stage
+    }
+
+    /** Switches the current stage when the simulation enters a port or a
+      * device, beginning a new visit of the device.
+      */
+    def enterDevice(stage: Int, deviceId: UUID): Unit = {
+        switchTo(stage)
+        var counter = devices.get(deviceId)
+        if (counter eq null) {
+            counter = new DeviceCounter(deviceId, stage)
+            devices.put(deviceId, counter)
+        }
+        device = counter
+    }
+
+    /** Enters a nested stage, and returns the previous stage, which must be
+      * passed to `exit`.
+      */
+    def enter(stage: Int): Int = {
+        charge(System.nanoTime())
+        val previous = this.stage
+        this.stage = stage
+        previous
+    }
+
+    /** Exits a nested stage, restoring the previous stage.
+      */
+    def exit(previous: Int): Unit = {
+        charge(System.nanoTime())
+        stage = previous
+    }
+
+    /** Completes the profiling of the current packet, and records the time
+      * of every stage.
+      */
+    def end(): Unit = {
+        if (!active)
+            return
+        charge(System.nanoTime())
+        endVisit()
+        active = false
+        var index = 0
+        while (index < packetNanos.length) {
+            val nanos = packetNanos(index)
+            if (nanos > 0) {
+                stagePackets(index) += 1
+                stageNanos(index) += nanos
+                stageTimer(index).update(nanos, TimeUnit.NANOSECONDS)
+            }
+            index += 1
+        }
+    }
+
+    private def stageTimer(index: Int): Timer = {
+        var timer = stageTimers(index)
+        if (timer eq null) {
+            timer = metrics.simulationStage(StageNames(index))
+            stageTimers(index) = timer
+        }
+        timer
+    }
+
+    private def charge(now: Long): Unit = {
+        val elapsed = now - mark
+        packetNanos(stage) += elapsed
+        visitNanos += elapsed
+        mark = now
+    }
+
+    private def endVisit(): Unit = {
+        if (device ne null) {
+            device.visits += 1
+            device.totalNanos += visitNanos
+            device.histogram(bucketOf(visitNanos)) += 1
+            device = null
+        }
+        visitNanos = 0L
+    }
+}
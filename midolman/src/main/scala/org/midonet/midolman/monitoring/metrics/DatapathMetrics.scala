@@ -20,6 +20,7 @@ import com.codahale.metrics.MetricRegistry
 import com.codahale.metrics.MetricRegistry.name
 
 trait DatapathMeter
+trait DatapathHistogram
 
 class DatapathMetrics(val registry: MetricRegistry) {
 
@@ -38,5 +39,17 @@ class DatapathMetrics(val registry: MetricRegistry) {
     val flowDeleteErrors = registry.meter(
         name(classOf[DatapathMeter], "flows", "deleteErrors"))
 
+    val packetExecuteBatchSize = registry.histogram(
+        name(classOf[DatapathHistogram], "packets", "executeBatchSize"))
+
+    val packetExecuteActionsCached = registry.meter(
+        name(classOf[DatapathMeter], "packets", "executeActionsCached"))
+
+    val flowStateEntriesPerMessage = registry.histogram(
+        name(classOf[DatapathHistogram], "flowState", "entriesPerMessage"))
+
+    val flowStateMessagesAggregated = registry.meter(
+        name(classOf[DatapathMeter], "flowState", "messagesAggregated"))
+
 }
 
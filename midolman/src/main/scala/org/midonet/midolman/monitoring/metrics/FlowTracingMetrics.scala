@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring.metrics
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
+import com.codahale.metrics.MetricRegistry.name
+
+import org.midonet.midolman.logging.FlowTraceWriter
+import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
+
+trait FlowTracingMeter
+
+class FlowTracingMetrics(val registry: MetricRegistry, writer: FlowTraceWriter) {
+
+    val eventsWritten = registry.meter(
+        name(classOf[FlowTracingMeter], "events", "written"))
+
+    val eventsDropped = registry.meter(
+        name(classOf[FlowTracingMeter], "events", "dropped"))
+
+    val writeErrors = registry.meter(
+        name(classOf[FlowTracingMeter], "writes", "errors"))
+
+    val writeLatency = registry.register(
+        name(classOf[FlowTracingMeter], "writes", "latency"),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+
+    val queueDepth = registry.register(
+        name(classOf[FlowTracingMeter], "queue", "depth"),
+        new Gauge[Int] {
+            override def getValue: Int = writer.queueDepth
+        })
+
+    val writesInFlight = registry.register(
+        name(classOf[FlowTracingMeter], "writes", "inFlight"),
+        new Gauge[Int] {
+            override def getValue: Int = writer.writesInFlight
+        })
+}
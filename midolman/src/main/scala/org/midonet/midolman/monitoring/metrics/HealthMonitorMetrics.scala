@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring.metrics
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.{Clock, MetricRegistry, Timer}
+import com.codahale.metrics.MetricRegistry.name
+
+import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
+
+trait HealthMonitorMeter
+
+class HealthMonitorMetrics(val registry: MetricRegistry) {
+
+    val statsPollLatency = timer(
+        name(classOf[HealthMonitorMeter], "stats", "poll", "latency"))
+
+    val statsBytesRead = registry.meter(
+        name(classOf[HealthMonitorMeter], "stats", "bytes", "read"))
+
+    val statsConnections = registry.meter(
+        name(classOf[HealthMonitorMeter], "stats", "connections"))
+
+    val statsErrors = registry.meter(
+        name(classOf[HealthMonitorMeter], "stats", "errors"))
+
+    val statusTransitions = registry.meter(
+        name(classOf[HealthMonitorMeter], "status", "transitions"))
+
+    val statusUpdatesWritten = registry.meter(
+        name(classOf[HealthMonitorMeter], "status", "updates", "written"))
+
+    /* The health monitor actor may be restarted with the same registry. */
+    private def timer(timerName: String): Timer = {
+        val existing = registry.getTimers.get(timerName)
+        if (existing ne null) existing
+        else registry.register(timerName, new Timer(
+            new HdrHistogramSlidingTimeWindowReservoir(
+                5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                Clock.defaultClock)))
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring.metrics
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
+import com.codahale.metrics.MetricRegistry.name
+
+import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
+
+trait MetadataProxyMeter
+
+class MetadataProxyMetrics(val registry: MetricRegistry) {
+
+    val requests = registry.meter(
+        name(classOf[MetadataProxyMeter], "requests"))
+
+    val cacheHits = registry.meter(
+        name(classOf[MetadataProxyMeter], "cache", "hits"))
+
+    val cacheMisses = registry.meter(
+        name(classOf[MetadataProxyMeter], "cache", "misses"))
+
+    val cacheHitRatio = registry.register(
+        name(classOf[MetadataProxyMeter], "cache", "hitRatio"),
+        new Gauge[Double] {
+            override def getValue: Double = {
+                val hits = cacheHits.getCount
+                val total = hits + cacheMisses.getCount
+                if (total == 0) 0.0 else hits.toDouble / total
+            }
+        })
+
+    val requestsCoalesced = registry.meter(
+        name(classOf[MetadataProxyMeter], "requests", "coalesced"))
+
+    val upstreamErrors = registry.meter(
+        name(classOf[MetadataProxyMeter], "upstream", "errors"))
+
+    val upstreamLatency = registry.register(
+        name(classOf[MetadataProxyMeter], "upstream", "latency"),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+}
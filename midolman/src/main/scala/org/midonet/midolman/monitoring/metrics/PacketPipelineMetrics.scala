@@ -18,12 +18,14 @@ package org.midonet.midolman.monitoring.metrics
 
 import java.util.concurrent.TimeUnit
 
-import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
+import com.codahale.metrics.{Clock, Gauge, Histogram, Meter, MetricRegistry, Timer}
 import com.codahale.metrics.MetricRegistry.name
 
+import org.midonet.midolman.monitoring.SharedStatsFile
 import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
 
-class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
+class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int,
+                            val sharedStats: SharedStatsFile = null) {
     val workerTag = s"worker-$workerId"
 
     val packetsOnHold = registry.counter(
@@ -33,6 +35,10 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
         name(classOf[PacketPipelineMeter], workerTag,
              "packetsPostponed", "packets"))
 
+    val packetsCoalesced = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag,
+             "packetsCoalesced", "packets"))
+
     val contextsAllocated = registry.counter(name(
         classOf[PacketPipelineCounter], "contextsAllocated", "contexts"))
 
@@ -56,6 +62,12 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
                       5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
                       Clock.defaultClock)))
 
+    val chainEvaluation = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "chainEvaluation"),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+
     val currentDpFlowsMetric = registry.register(
         name(classOf[FlowTablesGauge], workerTag, "currentDatapathFlows"),
         new Gauge[Long] {
@@ -71,10 +83,49 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
         name(classOf[FlowTablesMeter], workerTag,
              "datapathFlowsRemoved", "datapathFlowsRemoved"))
 
+    val upcallsPrioritized = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag,
+             "upcallsPrioritized", "packets"))
+
+    val upcallsShed = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag,
+             "upcallsShed", "packets"))
+
+    def upcallPortDropped(portNo: Int): Meter =
+        registry.meter(upcallPortDroppedName(portNo))
+
+    def upcallPortQueueDelay(portNo: Int): Histogram =
+        registry.histogram(upcallPortQueueDelayName(portNo))
+
+    def removeUpcallPortMetrics(portNo: Int): Unit = {
+        registry.remove(upcallPortDroppedName(portNo))
+        registry.remove(upcallPortQueueDelayName(portNo))
+    }
+
+    private def upcallPortDroppedName(portNo: Int): String =
+        name(classOf[PacketPipelineMeter], workerTag, s"port-$portNo",
+             "upcallsDropped", "packets")
+
+    private def upcallPortQueueDelayName(portNo: Int): String =
+        name(classOf[PacketPipelineHistogram], workerTag, s"port-$portNo",
+             "upcallQueueDelay")
+
+    def simulationStage(stage: String): Timer = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "simulationStage",
+             stage),
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock)))
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
     }
+
+    def packetCoalesced() {
+        packetsCoalesced.mark()
+        packetsOnHold.inc()
+    }
 }
 
 class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
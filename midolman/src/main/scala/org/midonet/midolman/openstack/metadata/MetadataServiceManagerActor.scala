@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.openstack.metadata
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 
 import rx.Subscription
@@ -38,7 +39,8 @@ class MetadataServiceManagerActor @Inject() (
             private val backend: MidonetBackend,
             private val config: MidolmanConfig,
             private val plumber: Plumber,
-            private val datapathInterface: DatapathInterface
+            private val datapathInterface: DatapathInterface,
+            private val metricRegistry: MetricRegistry
         ) extends ReactiveActor[LocalPortActive] with ActorLogWithoutPath {
     import context.system
 
@@ -53,7 +55,7 @@ class MetadataServiceManagerActor @Inject() (
         store = new StorageClient(backend.store)
         mdInfo = datapathInterface.init
         MetadataServiceWorkflow.mdInfo = mdInfo
-        Proxy start config
+        Proxy start (config, metricRegistry)
     }
 
     override def postStop(): Unit = {
@@ -59,18 +59,23 @@ object NovaMetadataClient {
 
     import Conv._
 
-    private def signInstanceId(shared_secret: String,
-                               instanceId: String): String =
+    private[metadata] def signInstanceId(shared_secret: String,
+                                         instanceId: String): String =
         Hmac.hmac(shared_secret, instanceId)
 
     def getMetadata(path: String, remoteAddr: String,
                     nova_metadata_url: String,
                     shared_secret: String): String = {
         log debug s"Forwarding a request from ${remoteAddr}"
+        getMetadata(path, instanceInfo(remoteAddr), nova_metadata_url,
+                    shared_secret)
+    }
+
+    def instanceInfo(remoteAddr: String): InstanceInfo = {
         InstanceInfoMap getByAddr remoteAddr match {
             case Some(info) =>
                 log debug s"InstanceInfo ${info}"
-                getMetadata(path, info, nova_metadata_url, shared_secret)
+                info
             case None =>
                 /*
                  * This shouldn't happen normally as datapath flows are
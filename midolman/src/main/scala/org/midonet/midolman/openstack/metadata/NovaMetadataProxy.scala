@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.util.concurrent.{ConcurrentHashMap, ExecutionException, Executors, TimeUnit}
+import java.util.concurrent.{Future => JFuture}
+
+import scala.concurrent.{Future, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
+
+import com.google.common.cache.{Cache, CacheBuilder}
+import com.sun.jersey.api.client.async.TypeListener
+import com.sun.jersey.api.client.config.{ClientConfig, DefaultClientConfig}
+import com.sun.jersey.api.client.{Client, UniformInterfaceException}
+import org.slf4j.Logger
+
+import org.midonet.midolman.config.MetadataConfig
+import org.midonet.midolman.monitoring.metrics.MetadataProxyMetrics
+import org.midonet.util.concurrent.NamedThreadFactory
+
+object NovaMetadataProxy {
+    /*
+     * Metadata paths whose content may change during the lifetime of an
+     * instance, and which are therefore never cached.  Everything else
+     * (instance identifiers, keys, user data, network data) is fixed when
+     * the instance is created.
+     */
+    private val MutablePaths = Seq("password", "vendor_data2.json")
+
+    def isCacheable(path: String): Boolean =
+        (path ne null) && !MutablePaths.exists(path.endsWith)
+
+    def apply(config: MetadataConfig,
+              metrics: MetadataProxyMetrics): NovaMetadataProxy =
+        new NovaMetadataProxy(config.nova_metadata_url,
+                              config.shared_secret,
+                              config.proxy_threads,
+                              config.proxy_timeout,
+                              config.cache_ttl,
+                              config.cache_size,
+                              metrics)
+}
+
+/*
+ * Asynchronous Nova Metadata API client
+ *
+ * Unlike NovaMetadataClient, which creates a client and blocks the calling
+ * thread for every request, all requests share one Jersey client whose
+ * connections are kept alive, and are executed by a bounded pool of threads.
+ *
+ * Identical requests, that is requests for the same path from the same
+ * instance, are coalesced while in flight: only the first one is forwarded
+ * to Nova, and all of them complete with its response.  The responses for
+ * immutable paths are cached for a short time, such that the bursts of
+ * requests made by cloud-init when an instance boots are served locally.
+ */
+class NovaMetadataProxy(novaMetadataUrl: String,
+                        sharedSecret: String,
+                        threads: Int,
+                        timeoutMillis: Long,
+                        cacheTtlMillis: Long,
+                        cacheSize: Int,
+                        metrics: MetadataProxyMetrics) {
+    import NovaMetadataProxy._
+
+    private val log: Logger = MetadataService.getLogger
+
+    private type RequestKey = (String, String)
+
+    private val executor = Executors.newFixedThreadPool(
+        threads, new NamedThreadFactory("metadata-proxy", isDaemon = true))
+
+    private val client = {
+        val clientConfig = new DefaultClientConfig
+        clientConfig.getProperties.put(ClientConfig.PROPERTY_CONNECT_TIMEOUT,
+                                       Int.box(timeoutMillis.toInt))
+        clientConfig.getProperties.put(ClientConfig.PROPERTY_READ_TIMEOUT,
+                                       Int.box(timeoutMillis.toInt))
+        val c = Client.create(clientConfig)
+        c.setExecutorService(executor)
+        c
+    }
+
+    private val inFlight = new ConcurrentHashMap[RequestKey, Future[String]]
+
+    private val cache: Cache[RequestKey, String] =
+        if (cacheTtlMillis > 0)
+            CacheBuilder.newBuilder()
+                        .maximumSize(cacheSize)
+                        .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                        .build[RequestKey, String]()
+        else null
+
+    def getMetadata(path: String, info: InstanceInfo): Future[String] = {
+        metrics.requests.mark()
+        val key = (info.instanceId, path)
+        val cacheable = (cache ne null) && isCacheable(path)
+        if (cacheable) {
+            val cached = cache getIfPresent key
+            if (cached ne null) {
+                metrics.cacheHits.mark()
+                return Future.successful(cached)
+            }
+            metrics.cacheMisses.mark()
+        }
+
+        val promise = Promise[String]()
+        val existing = inFlight.putIfAbsent(key, promise.future)
+        if (existing ne null) {
+            log debug s"Coalescing request for ${path} from ${info}"
+            metrics.requestsCoalesced.mark()
+            return existing
+        }
+
+        forward(key, info, cacheable, promise)
+        promise.future
+    }
+
+    def close(): Unit = {
+        client.destroy()
+        executor.shutdownNow()
+    }
+
+    private def forward(key: RequestKey, info: InstanceInfo,
+                        cacheable: Boolean, promise: Promise[String]): Unit = {
+        val url = novaMetadataUrl + key._2
+        val startTime = System.nanoTime()
+        try {
+            client.asyncResource(url)
+                .header("X-Tenant-ID", info.tenantId)
+                .header("X-Instance-ID", info.instanceId)
+                .header("X-Instance-ID-Signature",
+                        NovaMetadataClient.signInstanceId(sharedSecret,
+                                                          info.instanceId))
+                .header("X-Forwarded-For", info.addr)
+                .get(new TypeListener[String](classOf[String]) {
+                    override def onComplete(f: JFuture[String]): Unit = {
+                        metrics.upstreamLatency.update(
+                            System.nanoTime() - startTime, TimeUnit.NANOSECONDS)
+                        val result = Try(f.get()) recoverWith {
+                            case e: ExecutionException if e.getCause ne null =>
+                                Failure(e.getCause)
+                        }
+                        complete(key, info, cacheable, promise, result)
+                    }
+                })
+        } catch {
+            case NonFatal(e) =>
+                complete(key, info, cacheable, promise, Failure(e))
+        }
+    }
+
+    private def complete(key: RequestKey, info: InstanceInfo,
+                         cacheable: Boolean, promise: Promise[String],
+                         result: Try[String]): Unit = {
+        result match {
+            case Success(response) if cacheable =>
+                cache.put(key, response)
+            case Success(_) =>
+            case Failure(e: UniformInterfaceException) =>
+                metrics.upstreamErrors.mark()
+                log error s"Unexpected HTTP response: ${e} for request: " +
+                          s"${novaMetadataUrl + key._2} ${info}"
+            case Failure(e) =>
+                metrics.upstreamErrors.mark()
+                log error s"Request ${novaMetadataUrl + key._2} ${info} " +
+                          s"failed: ${e}"
+        }
+        inFlight.remove(key, promise.future)
+        promise complete result
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.openstack.metadata
 
+import com.codahale.metrics.MetricRegistry
 import org.eclipse.jetty.server.Server
 import org.slf4j.{Logger, LoggerFactory}
 import scala.util.control.NonFatal
@@ -23,6 +24,7 @@ import java.net.InetSocketAddress
 import java.net.InetAddress
 
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.monitoring.metrics.MetadataProxyMetrics
 
 /*
  * Metadata proxy server; a http proxy running on the hypervisor.
@@ -34,18 +36,28 @@ object Proxy {
     private val ip = InetAddress getByName MetadataApi.address
     val port = 9697  // REVISIT(yamamoto): should be a config?
     private var server: Server = _
+    private var proxy: NovaMetadataProxy = _
 
-    def start(config: MidolmanConfig) = {
+    def start(config: MidolmanConfig, metricRegistry: MetricRegistry) = {
         val sa = new InetSocketAddress(ip, port)
         log info s"Starting metadata proxy on ${sa}"
         val s = new Server(sa)
-        s.setHandler(new ProxyHandler(config))
+        val p = if (config.openstack.metadata.proxy_async) {
+            NovaMetadataProxy(config.openstack.metadata,
+                              new MetadataProxyMetrics(metricRegistry))
+        } else {
+            null
+        }
+        s.setHandler(new ProxyHandler(config, p))
         try {
             s.start
             server = s
+            proxy = p
         } catch {
             case NonFatal(e) =>
                 log error s"Failed to start metadata proxy: ${e}"
+                if (p ne null)
+                    p.close()
         }
     }
 
@@ -56,5 +68,9 @@ object Proxy {
             server.join
             server = null
         }
+        if (proxy != null) {
+            proxy.close()
+            proxy = null
+        }
     }
 }
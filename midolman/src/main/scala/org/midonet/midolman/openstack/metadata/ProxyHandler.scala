@@ -22,14 +22,35 @@ import org.eclipse.jetty.server.handler.AbstractHandler
 import org.slf4j.{Logger, LoggerFactory}
 import javax.servlet.http.{HttpServletResponse, HttpServletRequest}
 
+import scala.concurrent.ExecutionContext
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success}
+
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.util.concurrent._
 
-class ProxyHandler(val config: MidolmanConfig) extends AbstractHandler {
+/*
+ * When a NovaMetadataProxy is given, requests are handled asynchronously:
+ * the Jetty thread is released while the request is forwarded to Nova,
+ * and the response is written when the proxy completes it.
+ */
+class ProxyHandler(val config: MidolmanConfig,
+                   val proxy: NovaMetadataProxy = null)
+        extends AbstractHandler {
     private val log: Logger = MetadataService.getLogger
 
     def handle(target: String, baseReq: Request, req: HttpServletRequest,
                res: HttpServletResponse) = {
         baseReq setHandled true
+        if (proxy ne null) {
+            handleAsync(req, res)
+        } else {
+            handleSync(req, res)
+        }
+    }
+
+    private def handleSync(req: HttpServletRequest,
+                           res: HttpServletResponse) = {
         try {
             val result = NovaMetadataClient.getMetadata(
                                 req getPathInfo,
@@ -44,4 +65,40 @@ class ProxyHandler(val config: MidolmanConfig) extends AbstractHandler {
                 res.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage)
         }
     }
+
+    private def handleAsync(req: HttpServletRequest,
+                            res: HttpServletResponse) = {
+        try {
+            val info = NovaMetadataClient instanceInfo (req getRemoteAddr)
+            val context = req.startAsync()
+            proxy.getMetadata(req getPathInfo, info).onComplete { result =>
+                try {
+                    result match {
+                        case Success(response) =>
+                            res.getWriter print response
+                        case Failure(e: UniformInterfaceException) =>
+                            res.sendError(e.getResponse.getStatus,
+                                          e.getMessage)
+                        case Failure(e) =>
+                            res.sendError(HttpServletResponse.SC_BAD_GATEWAY,
+                                          e.getMessage)
+                    }
+                } catch {
+                    case NonFatal(e) =>
+                        // The request may have already timed out.
+                        log debug s"Failed to write response: ${e}"
+                } finally {
+                    try {
+                        context.complete()
+                    } catch {
+                        case NonFatal(e) =>
+                            log debug s"Failed to complete request: ${e}"
+                    }
+                }
+            }(ExecutionContext.callingThread)
+        } catch {
+            case e: UnknownRemoteAddressException =>
+                res.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage)
+        }
+    }
 }
@@ -22,6 +22,7 @@ import java.util.{Map => JMap, List => JList}
 
 import com.google.common.annotations.VisibleForTesting
 
+import org.midonet.midolman.monitoring.SimulationProfiler.ChainStage
 import org.midonet.midolman.rules.JumpRule
 import org.midonet.midolman.rules.Rule
 import org.midonet.midolman.rules.RuleResult
@@ -44,11 +45,30 @@ case class Chain(id: UUID,
                  jumpTargets: JMap[UUID, Chain],
                  name: String,
                  metadata: String = "",
-                 ruleLoggers: Seq[RuleLogger] = Seq())
+                 ruleLoggers: Seq[RuleLogger] = Seq(),
+                 ruleTagging: Boolean = false)
     extends VirtualDevice with SimDevice {
     import Chain._
 
     override val deviceTag: FlowTagger.FlowTag = FlowTagger.tagForChain(id)
+
+    // When rule tagging is enabled, flows are also tagged with the rule where
+    // the evaluation of the chain stopped, or with the chain end tag if they
+    // evaluated all rules, such that rule changes only need to invalidate the
+    // flows that evaluated the changed rules.
+    private val ruleTags: Array[FlowTagger.FlowTag] =
+        if (ruleTagging) {
+            val tags = new Array[FlowTagger.FlowTag](rules.size())
+            var i = 0
+            while (i < tags.length) {
+                tags(i) = FlowTagger.tagForChainRule(id, rules.get(i).id)
+                i += 1
+            }
+            tags
+        } else null
+
+    private val endTag: FlowTagger.FlowTag =
+        if (ruleTagging) FlowTagger.tagForChainEnd(id) else null
     override def adminStateUp = true
 
     def getJumpTarget(to: UUID): Chain = jumpTargets.get(to)
@@ -58,9 +78,21 @@ case class Chain(id: UUID,
     def process(context: PacketContext): RuleResult = {
         context.log.debug(s"Testing against ${asList(0, recursive = false)}")
 
+        val profiler = context.ruleProfiler
+        val start = if (profiler ne null) System.nanoTime() else 0L
+        val simProfiler = context.simulationProfiler
+        val stage =
+            if (simProfiler ne null) simProfiler.enter(ChainStage) else 0
+
         val traversedChains = Chain.traversedChainsTL.get()
         traversedChains.clear()
         val res = apply(context, traversedChains)
+        if (profiler ne null) {
+            profiler.chainEvaluated(this, System.nanoTime() - start)
+        }
+        if (simProfiler ne null) {
+            simProfiler.exit(stage)
+        }
         if (traversedChains.size > 25) {
             context.log.warn(s"Traversed ${traversedChains.size} chains " +
                              s"when applying chain $id.")
@@ -76,12 +108,18 @@ case class Chain(id: UUID,
             traversedChains: ArrayList[UUID]): RuleResult = {
         context.addFlowTag(deviceTag)
         traversedChains.add(id)
+        val profiler = context.ruleProfiler
+        val ruleCounters =
+            if (profiler ne null) profiler.chainTraversed(this) else null
         var i = 0
         var res = CONTINUE
         while ((i < rules.size()) && (res.action eq Action.CONTINUE)) {
             val rule = rules.get(i)
-            i += 1
             res = rule.process(context)
+            if (profiler ne null) {
+                profiler.ruleEvaluated(ruleCounters(i), context.lastRuleMatched)
+            }
+            i += 1
 
             res.action match {
                 case Action.ACCEPT | Action.RETURN =>
@@ -110,6 +148,10 @@ case class Chain(id: UUID,
                 res = jump(context, res.jumpToChain, traversedChains)
         }
         assert(res.action ne Action.JUMP)
+        if (ruleTagging) {
+            context.addFlowTag(if (res.action eq Action.CONTINUE) endTag
+                               else ruleTags(i - 1))
+        }
         res
     }
 
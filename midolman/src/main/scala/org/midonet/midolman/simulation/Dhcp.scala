@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.midolman.simulation.Dhcp.DhcpHost
+import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.packets.{DHCPOption, MAC}
+
+object Dhcp {
+
+    /** A DHCP host, including its extra DHCP options encoded when the host
+      * configuration is loaded, such that they are not parsed for every DHCP
+      * request. */
+    class DhcpHost(val extraOptions: Seq[DHCPOption]) extends Host
+
+}
+
+/**
+ * The DHCP configuration for a bridge subnet, as a virtual topology device.
+ * The hosts of the subnet are indexed by their MAC address.
+ */
+class Dhcp(val id: UUID, val subnet: Subnet, val hosts: Map[MAC, DhcpHost])
+    extends Device {
+
+    /** Returns the static DHCP host for the specified MAC. */
+    def host(mac: MAC): Option[DhcpHost] = hosts.get(mac)
+
+    override def toString =
+        s"Dhcp [id=$id subnet=${subnet.getSubnetAddr} hosts=${hosts.size}]"
+}
@@ -13,108 +13,70 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.midonet.midolman.simulation
 
-import java.util.UUID
-
-import scala.collection.JavaConversions._
-import scala.concurrent.duration._
-import scala.concurrent.{Await, ExecutionContext, Future}
-
-import akka.actor.ActorSystem
+import java.lang.{Boolean => JBoolean}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.{Collections, UUID}
 
-import com.google.common.annotations.VisibleForTesting
+import scala.concurrent.ExecutionContext
 
-import org.midonet.cluster.data.dhcp.{ExtraDhcpOpt, Host, Opt121, Subnet}
-import org.midonet.cluster.models.Topology
-import org.midonet.cluster.util.IPAddressUtil._
-import org.midonet.cluster.util.IPSubnetUtil._
-import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.cluster.data.storage.NotFoundException
+import org.midonet.midolman.NotYetException
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.midolman.topology.VirtualTopology._
-import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.packets.MAC
+import org.midonet.util.concurrent._
 
-/** This class enables access to DHCP resources.
-  *
-  * TODO: integrate with the VTA so that Subnets are cached.
+/** This class enables access to DHCP resources. The DHCP configurations of
+  * the bridge subnets are [[Dhcp]] devices of the virtual topology, such that
+  * the requests are answered from memory. If a configuration is not yet
+  * available, the methods throw a [[NotYetException]] and the packet is
+  * postponed until the configuration is loaded. A configuration that does
+  * not exist, such as for a subnet deleted before the bridge is updated, is
+  * ignored.
   */
-class DhcpConfigFromNsdb(vt: VirtualTopology)
-                        (implicit val as: ActorSystem, val ec: ExecutionContext)
-    extends DhcpConfig {
+class DhcpConfigFromNsdb(vt: VirtualTopology) extends DhcpConfig {
 
-    private final val timeout = 3 seconds
+    // The DHCP configurations found not to exist while a packet was
+    // postponed, which the restarted packet ignores instead of loading them
+    // again.
+    private val missing =
+        Collections.newSetFromMap(new ConcurrentHashMap[UUID, JBoolean])
 
+    @throws[NotYetException]
     override def bridgeDhcpSubnets(deviceId: UUID): Seq[Subnet] = {
-        val f = Future.sequence (
-            tryGet(classOf[Bridge], deviceId).subnetIds.map {
-                vt.store.get(classOf[Topology.Dhcp], _) map toSubnet
-            }
-        ) recover { case _ => Seq.empty[Subnet] }
-        Await.result(f, timeout)
+        tryGet(classOf[Bridge], deviceId).subnetIds.flatMap {
+            tryGetDhcp(_).map(_.subnet)
+        }
     }
 
+    @throws[NotYetException]
     override def dhcpHost(deviceId: UUID, subnet: Subnet, srcMac: String)
     : Option[Host] = {
-        val f = vt.store.get(classOf[Topology.Dhcp], subnet.getId) map {
-            _.getHostsList.find(_.getMac == srcMac).map(toHost)
-        } recover { case _ => None }
-        Await.result(f, timeout)
-    }
-
-    @VisibleForTesting
-    private[simulation] def toHost(protoHost: Topology.Dhcp.Host): Host = {
-        val h = new Host()
-        h.setId(h.getId)
-        if (protoHost.hasIpAddress)
-            h.setIp(protoHost.getIpAddress.asIPv4Address)
-        if (protoHost.hasMac)
-            h.setMAC(MAC.fromString(protoHost.getMac))
-        if (protoHost.hasName)
-            h.setName(protoHost.getName)
-        h.setExtraDhcpOpts(protoHost.getExtraDhcpOptsList map { opt =>
-            new ExtraDhcpOpt(opt.getName, opt.getValue)
-        })
+        // Only look up the subnets that belong to the bridge.
+        tryGet(classOf[Bridge], deviceId).subnetIds
+            .find(_.toString == subnet.getId)
+            .flatMap(tryGetDhcp)
+            .flatMap(_.host(MAC.fromString(srcMac)))
     }
 
-    /** Converts a DHCP Proto object into a legacy cluster Subnet, as used by
-      * the Agent.
-      */
-    @VisibleForTesting
-    private[simulation] def toSubnet(dhcp: Topology.Dhcp): Subnet = {
-        val subnet = new Subnet
-        // Mandatory fields.
-        subnet.setId(dhcp.getId.asJava.toString)
-        subnet.setSubnetAddr(fromV4Proto(dhcp.getSubnetAddress))
-
-        // Optional fields
-        if (dhcp.hasDefaultGateway)
-            subnet.setDefaultGateway(dhcp.getDefaultGateway.asIPv4Address)
-        if (dhcp.hasEnabled)
-            subnet.setEnabled(dhcp.getEnabled)
-        if (dhcp.hasInterfaceMtu)
-            subnet.setInterfaceMTU(dhcp.getInterfaceMtu.toShort)
-        if (dhcp.hasServerAddress) {
-            subnet.setServerAddr(dhcp.getServerAddress.asIPv4Address)
-        } else if (dhcp.hasDefaultGateway) {
-            // If the server address is not set, use the default gateway.
-            subnet.setServerAddr(dhcp.getDefaultGateway.asIPv4Address)
-        } else {
-            // Or else, the network broadcast address minus 1.
-            subnet.setServerAddr(
-                IPv4Addr(subnet.getSubnetAddr.toBroadcastAddress.toInt - 1))
+    /** Returns the DHCP configuration with the specified identifier, or
+      * `None` if the configuration does not exist. If the configuration is
+      * not yet loaded, the method throws a [[NotYetException]], whose future
+      * also completes successfully when the configuration does not exist,
+      * such that the packet is restarted instead of dropped. */
+    @throws[NotYetException]
+    private[simulation] def tryGetDhcp(id: UUID): Option[Dhcp] = {
+        if (missing.remove(id)) {
+            return None
+        }
+        try Some(tryGet(classOf[Dhcp], id)) catch {
+            case NotYetException(future, msg) =>
+                throw NotYetException(future.recover {
+                    case e: NotFoundException => missing.add(id)
+                }(ExecutionContext.callingThread), msg)
         }
-        subnet.setOpt121Routes(dhcp.getOpt121RoutesList.map(opt121 => {
-            val o = new Opt121
-            if (opt121.hasGateway)
-                o.setGateway(opt121.getGateway.asIPv4Address)
-            if (opt121.hasDstSubnet)
-                o.setRtDstSubnet(fromV4Proto(opt121.getDstSubnet))
-            o
-        }))
-        subnet.setDnsServerAddrs(dhcp.getDnsServerAddressList.map(toIPv4Addr))
-        subnet
     }
 }
-
-
@@ -23,7 +23,8 @@ import scala.collection.JavaConverters._
 import scala.collection.mutable
 import scala.concurrent.duration._
 
-import org.midonet.cluster.data.dhcp.{Host, Opt121, Subnet}
+import org.midonet.cluster.data.dhcp.{ExtraDhcpOpt, Host, Opt121, Subnet}
+import org.midonet.midolman.simulation.Dhcp.DhcpHost
 import org.midonet.packets._
 import org.midonet.util.logging.Logger
 
@@ -34,13 +35,14 @@ import org.midonet.util.logging.Logger
 object DhcpValueParser {
     import DHCPOption._
 
-    val CodeToOption: Map[Byte, DHCPOption.Code] = CODE_TO_OPTION.asScala.map({
-            case (k, v) => (Byte2byte(k), v)
-    }).toMap
+    // The DHCPOption maps are populated by the Code constructors, and are
+    // empty if this object is initialized before the Code enum is loaded.
+    // Build the maps from the enum values instead.
+    val CodeToOption: Map[Byte, DHCPOption.Code] =
+        Code.values.map(code => (code.value, code)).toMap
 
-    val NameToCode: Map[String, Byte] = NAME_TO_CODE.asScala.map({
-        case (k, v) => (k, Byte2byte(v))
-    }).toMap
+    val NameToCode: Map[String, Byte] =
+        Code.values.map(code => (code.getName, code.value)).toMap
 
     type SimpleParser = String => Option[Array[Byte]]
 
@@ -477,6 +479,15 @@ object DhcpValueParser {
             NameToCode.get(canonicalName)
 
     }
+
+    /** Encodes an extra DHCP option as a [[DHCPOption]], or returns `None`
+      * if the option name or value is not valid. */
+    def encodeExtraDhcpOption(opt: ExtraDhcpOpt): Option[DHCPOption] = for {
+        code <- parseDhcpOptionCode(opt.optName)
+        option <- CodeToOption.get(code)
+        value <- parseDhcpOptionValue(code, opt.optValue)
+        if (value.length != 0) && (value.length % option.length == 0)
+    } yield new DHCPOption(code, value.length.toByte, value)
 }
 
 object DhcpImpl {
@@ -540,7 +551,8 @@ class DhcpImpl(val dhcpConfig: DhcpConfig,
 
     private
     def getHostAndAssignedSubnet(port: BridgePort): HostAndSubnetOptPair = {
-        // TODO(pino): use an async API
+        // The DHCP configuration is read from the virtual topology, which
+        // throws a NotYetException if it is not yet loaded.
         val subnets = dhcpConfig.bridgeDhcpSubnets(port.deviceId)
 
         // Look for the DHCP's source MAC in the list of hosts in each subnet
@@ -574,7 +586,8 @@ class DhcpImpl(val dhcpConfig: DhcpConfig,
                 dnsServerAddrsBytes =
                     Option(sub.getDnsServerAddrs).map{ _.toList}.getOrElse(Nil)
                         .map { _.toBytes }
-                opt121Routes = sub.getOpt121Routes
+                // Copy the routes, since the subnet is shared by all requests.
+                opt121Routes = sub.getOpt121Routes.asScala.toBuffer
 
                 // NOTES on MTU:
                 // - We should never send a DHCP offer MTU option higher than the underlayMtu.
@@ -861,15 +874,21 @@ class DhcpImpl(val dhcpConfig: DhcpConfig,
     private
     def setExtraDhcpOptions(host: Host,
                             optMap: mutable.Map[Byte, DHCPOption]): Unit =
+        host match {
+            case dhcpHost: DhcpHost =>
+                // The options have been encoded when the host was loaded.
+                for (dhcpOption <- dhcpHost.extraOptions) {
+                    optMap.put(dhcpOption.getCode, dhcpOption)
+                }
+            case _ =>
+                parseExtraDhcpOptions(host, optMap)
+        }
+
+    private
+    def parseExtraDhcpOptions(host: Host,
+                              optMap: mutable.Map[Byte, DHCPOption]): Unit =
         for (opt <- host.getExtraDhcpOpts if host != null) {
-            val dhcpOptOption: Option[DHCPOption] = for {
-                code <- parseDhcpOptionCode(opt.optName)
-                option <- CodeToOption.get(code)
-                value <- parseDhcpOptionValue(code, opt.optValue)
-                if (value.length != 0) &&
-                    (value.length % option.length == 0)
-            } yield new DHCPOption(
-                    code, value.length.toByte, value)
+            val dhcpOptOption = encodeExtraDhcpOption(opt)
             if (dhcpOptOption.isDefined) {
                 log.debug(s"Add extra DHCP Option ${opt.optName} " +
                     s"with value ${opt.optValue}")
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util
+import java.util.{HashMap => JHashMap, Map => JMap}
+
+import org.midonet.midolman.layer3.Route
+
+object EcmpBuckets {
+
+    /** Identifies a group of equal-cost routes: the routes with the same
+      * destination prefix and weight, which the routing table returns together
+      * for a lookup. */
+    case class GroupKey(dstNetworkAddr: Int, dstNetworkLength: Int,
+                        weight: Int)
+
+    @inline
+    def keyOf(route: Route): GroupKey =
+        GroupKey(route.dstNetworkAddr, route.dstNetworkLength, route.weight)
+
+    private class Group(bucketCount: Int) {
+        var buckets = new Array[Route](bucketCount)
+        var shared = false
+        val members = new util.LinkedHashMap[Route, Integer]
+
+        /** Returns the buckets for modification, copying them if they have
+          * been shared with a routing table snapshot. */
+        def writableBuckets: Array[Route] = {
+            if (shared) {
+                buckets = buckets.clone()
+                shared = false
+            }
+            buckets
+        }
+    }
+
+    val EmptyBuckets: JMap[GroupKey, Array[Route]] =
+        util.Collections.emptyMap[GroupKey, Array[Route]]()
+}
+
+/**
+ * Maintains the resilient hashing bucket tables for the groups of equal-cost
+ * routes of a router. Each group has a fixed number of buckets, where every
+ * bucket is assigned to one member route, and a flow is routed via the member
+ * of the bucket selected by its connection hash.
+ *
+ * Unlike selecting the route with the hash modulo the number of routes, which
+ * remaps most flows when the number of routes changes, the bucket table only
+ * remaps the flows of the buckets that change owner:
+ * - when a route is removed, only its buckets are reassigned to the remaining
+ *   routes with the fewest buckets;
+ * - when a route is added, it takes over buckets from the routes with the most
+ *   buckets, until it owns its fair share.
+ *
+ * The bucket tables are updated incrementally by the router mapper for every
+ * routing table update, and a [[snapshot]] is taken once per routing table
+ * version. Snapshots are immutable and can be read by the simulation threads.
+ * This class is not thread-safe and must be used from the virtual topology
+ * thread.
+ */
+class EcmpBuckets(val bucketCount: Int) {
+
+    import EcmpBuckets._
+
+    private val groups = new JHashMap[GroupKey, Group]
+    private var current: JMap[GroupKey, Array[Route]] = EmptyBuckets
+
+    /** Adds a route to its group of equal-cost routes. */
+    def add(route: Route): Unit = {
+        val key = keyOf(route)
+        var group = groups.get(key)
+        if (group eq null) {
+            group = new Group(bucketCount)
+            groups.put(key, group)
+        }
+        if (group.members.containsKey(route)) {
+            return
+        }
+
+        val buckets = group.writableBuckets
+        if (group.members.isEmpty) {
+            util.Arrays.fill(buckets.asInstanceOf[Array[AnyRef]], route)
+            group.members.put(route, bucketCount)
+        } else {
+            // Take over buckets from the members with more buckets than the
+            // fair share, until the new route has its fair share.
+            val share = bucketCount / (group.members.size + 1)
+            var count = 0
+            var index = 0
+            while (count < share && index < bucketCount) {
+                val owner = buckets(index)
+                val ownerCount = group.members.get(owner).intValue()
+                if (ownerCount > share) {
+                    group.members.put(owner, ownerCount - 1)
+                    buckets(index) = route
+                    count += 1
+                }
+                index += 1
+            }
+            group.members.put(route, count)
+        }
+        invalidate()
+    }
+
+    /** Removes a route from its group of equal-cost routes. */
+    def remove(route: Route): Unit = {
+        val key = keyOf(route)
+        val group = groups.get(key)
+        if ((group eq null) || (group.members.remove(route) eq null)) {
+            return
+        }
+        if (group.members.isEmpty) {
+            groups.remove(key)
+            invalidate()
+            return
+        }
+
+        // Reassign the buckets of the removed route to the members with the
+        // fewest buckets.
+        val buckets = group.writableBuckets
+        var index = 0
+        while (index < bucketCount) {
+            if (buckets(index) == route) {
+                val owner = leastMember(group)
+                group.members.put(owner, group.members.get(owner) + 1)
+                buckets(index) = owner
+            }
+            index += 1
+        }
+        invalidate()
+    }
+
+    /** Returns an immutable snapshot of the bucket tables for the groups with
+      * at least two routes. The snapshot is only recomputed when the groups
+      * change. */
+    def snapshot: JMap[GroupKey, Array[Route]] = {
+        if (current eq null) {
+            val map = new JHashMap[GroupKey, Array[Route]]()
+            val iterator = groups.entrySet().iterator()
+            while (iterator.hasNext) {
+                val entry = iterator.next()
+                val group = entry.getValue
+                if (group.members.size > 1) {
+                    group.shared = true
+                    map.put(entry.getKey, group.buckets)
+                }
+            }
+            current = if (map.isEmpty) EmptyBuckets
+                      else util.Collections.unmodifiableMap(map)
+        }
+        current
+    }
+
+    private def leastMember(group: Group): Route = {
+        var least: Route = null
+        var leastCount = Int.MaxValue
+        val iterator = group.members.entrySet().iterator()
+        while (iterator.hasNext) {
+            val entry = iterator.next()
+            if (entry.getValue < leastCount) {
+                least = entry.getKey
+                leastCount = entry.getValue
+            }
+        }
+        least
+    }
+
+    private def invalidate(): Unit = {
+        current = null
+    }
+}
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory
 import org.midonet.midolman._
 import org.midonet.midolman.flows.ManagedFlow
 import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.monitoring.{RuleProfiler, SimulationProfiler}
 import org.midonet.midolman.PacketWorkflow.{GeneratedLogicalPacket, GeneratedPhysicalPacket}
 import org.midonet.midolman.state.{ArpRequestBroker, FlowStateAgentPackets => FlowStatePackets}
 import org.midonet.midolman.rules.RuleResult
@@ -303,6 +304,10 @@ trait RecordedContext extends Clearable {
     val traversedRulesMatched = new ArrayList[Boolean]
     val traversedRulesApplied = new ArrayList[Boolean]
 
+    // The rule profiler of the packet worker, if any.
+    var ruleProfiler: RuleProfiler = null
+    var simulationProfiler: SimulationProfiler = null
+
     def recordTraversedRule(rule: UUID, result: RuleResult)
     : Unit = {
         traversedRules.add(rule)
@@ -313,6 +318,10 @@ trait RecordedContext extends Clearable {
         traversedRulesMatched.add(matched)
     }
 
+    def lastRuleMatched: Boolean = {
+        traversedRulesMatched.get(traversedRulesMatched.size() - 1)
+    }
+
     def recordAppliedRule(rule: UUID, applied: Boolean): Unit = {
         traversedRulesApplied.add(applied)
     }
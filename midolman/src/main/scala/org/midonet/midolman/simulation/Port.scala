@@ -26,9 +26,11 @@ import org.midonet.cluster.data.ZoomConvert.ConvertException
 import org.midonet.cluster.models.Topology
 import org.midonet.cluster.state.PortStateStorage.PortState
 import org.midonet.cluster.util.{IPAddressUtil, IPSubnetUtil, UUIDUtil}
+import org.midonet.midolman.NotYetException
+import org.midonet.midolman.monitoring.SimulationProfiler
 import org.midonet.midolman.PacketWorkflow.{AddVirtualWildcardFlow, Drop, ErrorDrop, SimStep, SimulationResult}
 import org.midonet.midolman.simulation.Simulator.{ContinueWith, SimHook, ToPortAction}
-import org.midonet.midolman.topology.VirtualTopology.{VirtualDevice, tryGet}
+import org.midonet.midolman.topology.VirtualTopology.{DeviceRef, VirtualDevice, tryGet}
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
 import org.midonet.sdn.flows.FlowTagger
 
@@ -183,6 +185,13 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
 
     protected def device: ForwardingDevice
 
+    private[this] val peerRef =
+        if (peerId ne null) new DeviceRef(classOf[Port], peerId) else null
+
+    /** Returns the peer of an interior port. */
+    @throws[NotYetException]
+    def peer: Port = peerRef.tryGet
+
     private[this] val emit = ContinueWith(
         if (isExterior) {
             context =>
@@ -193,7 +202,7 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
                 AddVirtualWildcardFlow
         } else if (isInterior) {
             context =>
-                tryGet(classOf[Port], peerId).ingress(context)
+                peerRef.tryGet.ingress(context)
         } else {
             context =>
                 context.log.warn("Port {} is unplugged", id)
@@ -208,6 +217,10 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
             ErrorDrop
         } else {
             context.devicesTraversed += 1
+            val profiler = context.simulationProfiler
+            if (profiler ne null) {
+                profiler.enterDevice(SimulationProfiler.PortStage, id)
+            }
             context.addFlowTag(deviceTag)
             context.addFlowTag(rxTag)
             context.inPortId = id
@@ -220,6 +233,10 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
     protected def egressCommon(context: PacketContext,
                                next: SimStep): SimulationResult = {
         context.log.debug(s"Egressing port $id")
+        val profiler = context.simulationProfiler
+        if (profiler ne null) {
+            profiler.enterDevice(SimulationProfiler.PortStage, id)
+        }
         context.addFlowTag(deviceTag)
         context.addFlowTag(txTag)
         context.outPortId = id
@@ -233,6 +250,10 @@ trait Port extends VirtualDevice with InAndOutFilters with MirroringDevice with
 
     private[this] val ingressDevice: SimStep = context => {
         val dev = device
+        val profiler = context.simulationProfiler
+        if (profiler ne null) {
+            profiler.enterDevice(SimulationProfiler.stageOf(dev), deviceId)
+        }
         dev.continue(context, dev.process(context))
     }
 
@@ -296,7 +317,9 @@ class BridgePort(override val id: UUID,
 
     override def deviceId = networkId
 
-    protected def device = tryGet(classOf[Bridge], networkId)
+    private[this] val bridgeRef = new DeviceRef(classOf[Bridge], networkId)
+
+    protected def device = bridgeRef.tryGet
 
     override def egressCommon(context: PacketContext,
                               next: SimStep): SimulationResult = {
@@ -412,7 +435,9 @@ case class RouterPort(override val id: UUID,
 
     def isL2 = vni != 0
 
-    protected def device = tryGet(classOf[Router], routerId)
+    private[this] val routerRef = new DeviceRef(classOf[Router], routerId)
+
+    protected def device = routerRef.tryGet
 
     override def deviceId = routerId
 
@@ -474,7 +499,9 @@ case class VxLanPort(override val id: UUID,
     override def isActive = true
     override def servicePorts: JList[UUID] = emptyList()
 
-    protected def device = tryGet(classOf[Bridge], networkId)
+    private[this] val bridgeRef = new DeviceRef(classOf[Bridge], networkId)
+
+    protected def device = bridgeRef.tryGet
 
     override def toString =
         s"VxLanPort [${super.toString} networkId=$networkId vtepId=$vtepId]"
@@ -23,7 +23,11 @@ import org.midonet.util.logging.Logger
 
 /**
  * Handles lookups on the routing table. If multiple routes match, chooses
- * one based on the flow's hash.
+ * one based on the flow's hash: if the routing table provides resilient
+ * hashing buckets for the matching routes, the route is the one of the bucket
+ * selected by the hash, such that changes to the set of equal-cost routes
+ * only remap the flows of the changed buckets. Otherwise, the route is
+ * selected with the hash modulo the number of routes.
  */
 class RouteBalancer(val rTable: RoutingTable) extends AnyVal {
 
@@ -35,7 +39,19 @@ class RouteBalancer(val rTable: RoutingTable) extends AnyVal {
                 logger.debug("routing to {}", routes.get(0))
                 routes.get(0)
             case size =>
-                val ret = routes.get(Math.abs(fmatch.connectionHash()) % size)
+                val hash = fmatch.connectionHash()
+                val buckets = rTable.ecmpBuckets(routes.get(0))
+                var ret: Route = null
+                if (buckets ne null) {
+                    // The bucket route may not be among the matching routes
+                    // when some routes of the group do not match the source
+                    // address.
+                    ret = buckets((hash & Int.MaxValue) % buckets.length)
+                    if (!routes.contains(ret))
+                        ret = null
+                }
+                if (ret eq null)
+                    ret = routes.get(Math.abs(hash) % size)
                 logger.debug("got multiple routes: {}, selected {}",
                              routes, ret)
                 ret
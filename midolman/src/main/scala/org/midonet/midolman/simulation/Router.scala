@@ -69,6 +69,13 @@ object Router {
     trait RoutingTable {
         def lookup(flowMatch: FlowMatch): java.util.List[Route]
         def lookup(flowMatch: FlowMatch, log: Logger): java.util.List[Route]
+
+        /**
+         * Returns the resilient hashing buckets for the group of equal-cost
+         * routes of the given route, or `null` if the routing table does not
+         * use resilient hashing for that group.
+         */
+        def ecmpBuckets(route: Route): Array[Route] = null
     }
 
     private val connTrackTxNoOp = new FlowStateTransaction(
@@ -329,8 +336,7 @@ class Router(override val id: UUID,
 
         val hasNextHop = rt.nextHopGateway != 0 && rt.nextHopGateway != -1
         val ip = if (hasNextHop) IPv4Addr(rt.nextHopGateway) else ipDest
-        val peer = if (outPort.isInterior) tryGet(classOf[Port], outPort.peerId)
-                   else null
+        val peer = if (outPort.isInterior) outPort.peer else null
         var mac = getPeerMac(peer, ip)
 
         if (mac eq null) {
@@ -22,7 +22,7 @@ import org.midonet.midolman.PacketWorkflow.{SimStep, SimulationResult => Result,
 import org.midonet.midolman.simulation.SimulationStashes._
 import org.midonet.midolman.rules.RuleResult
 import org.midonet.midolman.rules.RuleResult.Action
-import org.midonet.midolman.topology.VirtualTopology.tryGet
+import org.midonet.midolman.topology.VirtualTopology.{DeviceRef, tryGet}
 import org.midonet.sdn.flows.VirtualActions.VirtualFlowAction
 
 import scala.annotation.tailrec
@@ -160,6 +160,10 @@ trait InAndOutFilters extends SimDevice {
 
     def infilters: JList[UUID]
     def outfilters: JList[UUID]
+
+    private[this] lazy val infilterRefs = chainRefs(infilters)
+    private[this] lazy val outfilterRefs = chainRefs(outfilters)
+
     protected def reject(context: PacketContext): Unit = {}
 
     protected def preIn: SimHook = NOOP_HOOK
@@ -177,7 +181,8 @@ trait InAndOutFilters extends SimDevice {
             }
         } else if (infilters.size > 0) {
             (context, continue) => {
-                doFilters(context, infilters, preIn, postIn, continue, dropIn)
+                doFilters(context, infilterRefs, preIn, postIn, continue,
+                          dropIn)
             }
         } else {
             (context, continue) => {
@@ -196,7 +201,8 @@ trait InAndOutFilters extends SimDevice {
         } else if (outfilters.size > 0) {
             (context, continue) =>
                 context.log.debug(s"Applying outbound chain $outfilters")
-                doFilters(context, outfilters, preOut, postOut, continue, dropOut)
+                doFilters(context, outfilterRefs, preOut, postOut, continue,
+                          dropOut)
         } else {
             (context, continue) => {
                 preOut(context)
@@ -207,7 +213,7 @@ trait InAndOutFilters extends SimDevice {
 
     private[this] final def doFilters(
             context: PacketContext,
-            filters: JList[UUID],
+            filters: Array[DeviceRef[Chain]],
             preFilter: SimHook,
             postFilter: SimHook,
             continue: SimStep,
@@ -232,7 +238,7 @@ trait InAndOutFilters extends SimDevice {
             case a =>
                 context.log.error("Filters {} returned {} which was " +
                                       "not ACCEPT, DROP, REJECT or REDIRECT.",
-                                  filters, a)
+                                  filters.mkString(", "), a)
                 ErrorDrop
         }
     }
@@ -249,6 +255,28 @@ trait InAndOutFilters extends SimDevice {
         Chain.ACCEPT
     }
 
+    def applyAllFilters(context: PacketContext,
+                        filters: Array[DeviceRef[Chain]]): RuleResult = {
+        var i = 0
+        while (i < filters.length) {
+            val ruleResult = filters(i).tryGet.process(context)
+            if (ruleResult.action ne Action.ACCEPT)
+                return ruleResult
+            i += 1
+        }
+        Chain.ACCEPT
+    }
+
+    private def chainRefs(ids: JList[UUID]): Array[DeviceRef[Chain]] = {
+        val refs = new Array[DeviceRef[Chain]](ids.size())
+        var i = 0
+        while (i < refs.length) {
+            refs(i) = new DeviceRef(classOf[Chain], ids.get(i))
+            i += 1
+        }
+        refs
+    }
+
     def redirect(context: PacketContext, ruleResult: RuleResult): Result = {
         val targetPort = tryGet(classOf[Port], ruleResult.redirectPort)
 
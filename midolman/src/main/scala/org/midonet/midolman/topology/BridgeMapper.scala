@@ -315,7 +315,7 @@ final class BridgeMapper(bridgeId: UUID, implicit override val vt: VirtualTopolo
             vt.config.bridge.macPortMappingExpiry, // Initial delay
             2000L, // Update interval
             MILLISECONDS, // Time unit
-            vt.vtScheduler)
+            vtScheduler)
         .subscribe(makeAction1(onMacExpirationTimer), makeAction1(onThrow))
     // A subject that emits updates when a storage connection was
     // re-established.
@@ -344,7 +344,7 @@ final class BridgeMapper(bridgeId: UUID, implicit override val vt: VirtualTopolo
     // Obs[Obs[MacTableUpdate]]->| subscribe(macUpdated) |
     //                           +-----------------------+
     private lazy val connectionObservable = connectionSubject
-        .observeOn(vt.vtScheduler)
+        .observeOn(vtScheduler)
     private lazy val portsObservable = Observable
         .merge(portsSubject)
         .filter(makeFunc1(isPortKnown))
@@ -352,7 +352,7 @@ final class BridgeMapper(bridgeId: UUID, implicit override val vt: VirtualTopolo
 
     private lazy val bridgeObservable = vt.store
         .observable(classOf[TopologyBridge], bridgeId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(vtScheduler)
         .doOnCompleted(makeAction0(bridgeDeleted()))
         .doOnNext(makeAction1(bridgeUpdated))
 
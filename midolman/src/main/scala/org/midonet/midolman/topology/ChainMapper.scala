@@ -17,7 +17,7 @@
 package org.midonet.midolman.topology
 
 import java.util.UUID
-import java.util.{ArrayList => JArrayList, HashMap => JHashMap}
+import java.util.{ArrayList => JArrayList, HashMap => JHashMap, List => JList}
 
 import scala.collection.JavaConverters._
 import scala.collection.mutable
@@ -33,10 +33,56 @@ import org.midonet.cluster.util.UUIDUtil.asRichProtoUuid
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.rules.{JumpRule, Rule => SimRule}
 import org.midonet.midolman.simulation.{RuleLogger, Chain => SimChain, IPAddrGroup => SimIPAddrGroup}
-import org.midonet.midolman.topology.ChainMapper.{IpAddressGroupState, RuleState}
+import org.midonet.midolman.topology.ChainMapper.{IpAddressGroupState, RuleState, ruleInvalidations}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.functors.{makeAction0, makeAction1, makeFunc1}
 
 object ChainMapper {
+
+    /**
+     * The maximum number of rule tags invalidated for a chain update. When
+     * more rules are affected by the update, the mapper invalidates all flows
+     * that traversed the chain instead.
+     */
+    private[topology] final val MaxRuleInvalidations = 64
+
+    /**
+     * Computes the tags of the flows that may be affected when the rules of a
+     * chain change from `previous` to `current`. The flows whose evaluation
+     * of the chain stopped before the first rule that differs between the two
+     * lists evaluated exactly the same rules, and they are not affected. The
+     * flows that stopped at or after that rule, including the flows that
+     * evaluated all rules, are affected. Unchanged rules are the same objects
+     * in both lists, except for the `modified` rules, which are updated in
+     * place when their IP address groups change.
+     */
+    private[topology] def ruleInvalidations(chainId: UUID,
+                                            previous: JList[SimRule],
+                                            current: JList[SimRule],
+                                            modified: collection.Set[UUID])
+    : Seq[FlowTag] = {
+        var index = 0
+        while (index < previous.size && index < current.size &&
+               (previous.get(index) eq current.get(index)) &&
+               !modified.contains(previous.get(index).id)) {
+            index += 1
+        }
+        if (index == previous.size && index == current.size) {
+            Seq.empty
+        } else if (previous.size - index >= MaxRuleInvalidations) {
+            Seq(FlowTagger.tagForChain(chainId))
+        } else {
+            val tags = new mutable.ArrayBuffer[FlowTag](previous.size - index + 1)
+            while (index < previous.size) {
+                tags += FlowTagger.tagForChainRule(chainId, previous.get(index).id)
+                index += 1
+            }
+            tags += FlowTagger.tagForChainEnd(chainId)
+            tags
+        }
+    }
+
     /**
      * Stores the state for a rule and exposes an observable for it. If a rule
      * is removed from the chain we are providing an observable for, we
@@ -67,7 +113,7 @@ object ChainMapper {
 
         /** The observable emitting Rule updates. */
         val observable = vt.store.observable(classOf[TopologyRule],ruleId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vt.currentPartitionScheduler)
             .onErrorResumeNext(notFoundHandler)
             .takeUntil(mark)
             .map[RuleState](makeFunc1(ruleUpdated))
@@ -134,7 +180,7 @@ object ChainMapper {
 
 final class ChainMapper(chainId: UUID, vt: VirtualTopology,
                         traceChainMap: mutable.Map[UUID,Subject[SimChain,SimChain]])
-    extends VirtualDeviceMapper(classOf[SimChain], chainId, vt) with MidolmanLogging {
+    extends DeviceMapper(classOf[SimChain], chainId, vt) with MidolmanLogging {
 
     override def logSource = "org.midonet.devices.chain"
     override def logMark = s"chain:$chainId"
@@ -145,9 +191,23 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
     // The stream of rules that belong to this chain
     private val ruleStream = PublishSubject.create[Observable[RuleState]]()
     private val rules = new mutable.HashMap[UUID, RuleState]()
+    // The rules that are not ready
+    private val pendingRules = new mutable.HashSet[UUID]()
     // The ordered list of rules in the chain
     private var ruleIds: Seq[UUID] = mutable.Seq.empty
 
+    // Whether rule changes only invalidate the flows that evaluated the
+    // changed rules, instead of all flows that traversed the chain
+    private val ruleTagging = vt.config.chainRuleInvalidation
+    // The rules and rule loggers of the last emitted chain
+    private var previousRules: JList[SimRule] = null
+    private var previousLoggers: Seq[RuleLogger] = null
+    // The rules modified in place since the last emitted chain
+    private val modifiedRules = new mutable.HashSet[UUID]()
+    // The tags to invalidate for the last built chain, or null to invalidate
+    // all flows that traversed the chain
+    private var invalidations: Seq[FlowTag] = null
+
     // The chains pointed to by jump rules of this chain: a map between the jump
     // chain identifier and number of rules referencing the chain
     private val jumpChains = new mutable.HashMap[UUID, Int]()
@@ -221,6 +281,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
 
         // Store the rule order in the chain.
         ruleIds = chain.getRuleIdsList.asScala.map(_.asJava)
+        val ruleIdSet = ruleIds.toSet
 
         // Subscribe to all rules we are not subscribed to yet.
         val addedRules = new mutable.MutableList[RuleState]
@@ -228,13 +289,15 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
             log.debug("Subscribing to rule: {}", ruleId)
             val ruleState = new RuleState(ruleId, vt)
             rules += ruleId -> ruleState
+            pendingRules += ruleId
             addedRules += ruleState
         }
 
         // Unsubscribe from rules that are not part of the chain anymore.
-        for ((ruleId, rule) <- rules.toList if !ruleIds.contains(ruleId)) {
+        for ((ruleId, rule) <- rules.toList if !ruleIdSet.contains(ruleId)) {
             log.debug("Unsubscribing from rule: {}", ruleId)
             rule.complete()
+            pendingRules -= ruleId
 
             // If it is a jump rule, unsubscribe from the chain the rule
             // references.
@@ -274,6 +337,9 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         assertThread()
         log.debug("Rule updated: {}", ruleState.currentRule)
 
+        if (ruleState.isReady) pendingRules -= ruleState.ruleId
+        else if (rules.contains(ruleState.ruleId)) pendingRules += ruleState.ruleId
+
         // Handle jump rules
         (ruleState.currentRule, ruleState.previousRule) match {
             case (currJumpRule: JumpRule, prevJumpRule: JumpRule)
@@ -337,7 +403,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
 
     private def chainReady(update: Any): Boolean = {
         assertThread()
-        val ready = rules.forall(_._2.isReady) && refTracker.areRefsReady &&
+        val ready = pendingRules.isEmpty && refTracker.areRefsReady &&
                     ipAddrGroups.forall(_._2.isReady) &&
                     ruleLoggerTracker.areRefsReady
         log.debug("Chain ready: {}", Boolean.box(ready))
@@ -351,6 +417,7 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         ruleStream.onCompleted()
         rules.values.foreach(_.complete())
         rules.clear()
+        pendingRules.clear()
         refTracker.completeRefs()
         jumpChains.clear()
         ipAddrGroupStream.onCompleted()
@@ -365,12 +432,20 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
         for (rule <- rules.values) {
             val cond = rule.currentRule.getCondition
             if (cond.ipAddrGroupIdSrc ne null) {
-                cond.ipAddrGroupSrc = ipAddrGroups(cond.ipAddrGroupIdSrc)
+                val ipAddrGroup = ipAddrGroups(cond.ipAddrGroupIdSrc)
                     .ipAddressGroup
+                if (cond.ipAddrGroupSrc ne ipAddrGroup) {
+                    cond.ipAddrGroupSrc = ipAddrGroup
+                    modifiedRules += rule.ruleId
+                }
             }
             if (cond.ipAddrGroupIdDst ne null) {
-                cond.ipAddrGroupDst = ipAddrGroups(cond.ipAddrGroupIdDst)
+                val ipAddrGroup = ipAddrGroups(cond.ipAddrGroupIdDst)
                     .ipAddressGroup
+                if (cond.ipAddrGroupDst ne ipAddrGroup) {
+                    cond.ipAddrGroupDst = ipAddrGroup
+                    modifiedRules += rule.ruleId
+                }
             }
         }
 
@@ -386,17 +461,41 @@ final class ChainMapper(chainId: UUID, vt: VirtualTopology,
             e => s"${e.getKey}=${e.getValue}"
         }.mkString(",")
 
-        ruleLoggerTracker.currentRefs.values.toSeq
+        val ruleLoggers = ruleLoggerTracker.currentRefs.values.toSeq
         val chain = new SimChain(chainId, ruleList, chainMap,
                                  chainProto.getName, metadata,
-                                 ruleLoggerTracker.currentRefs.values.toSeq)
+                                 ruleLoggers, ruleTagging)
+
+        // Changes to the jump chains, name or metadata do not modify the
+        // result of the chain for existing flows: jump chains invalidate
+        // their own flows.
+        invalidations =
+            if (ruleTagging && (previousRules ne null) &&
+                previousLoggers == ruleLoggers) {
+                ruleInvalidations(chainId, previousRules, ruleList,
+                                  modifiedRules)
+            } else null
+        previousRules = ruleList
+        previousLoggers = ruleLoggers
+        modifiedRules.clear()
+
         log.debug("Emitting {}", chain)
         chain
     }
 
+    override protected def onDeviceChanged(chain: SimChain): Unit = {
+        if (invalidations eq null) {
+            vt.invalidate(chain.deviceTag)
+        } else {
+            log.debug("Invalidating flows for tags {}", invalidations)
+            invalidations foreach vt.invalidate
+        }
+        invalidations = null
+    }
+
     private lazy val chainObservable =
         vt.store.observable(classOf[TopologyChain], chainId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .map[TopologyChain](makeFunc1(chainUpdated))
             .doOnCompleted(makeAction0(chainDeleted()))
 
@@ -138,6 +138,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     import DeviceMapper.MapperClosedException
 
     private final val key = Key(clazz, id)
+    private final val partition = vt.partitionOf(id)
     private final var state = MapperState.Unsubscribed
     private final val cache = BehaviorSubject.create[D]()
     private final val subscriber = Subscribers.from(cache)
@@ -157,8 +158,11 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
      */
     protected def observable: Observable[D]
 
+    /** The scheduler of the topology partition of this device. */
+    protected[topology] final def vtScheduler = partition.scheduler
+
     override final def call(child: Subscriber[_ >: D]): Unit =
-        vt.vtExecutor.submit(makeRunnable {
+        partition.executor.submit(makeRunnable {
             if (!handleSubscriptionIfTerminal(child)) {
                 if (state == MapperState.Unsubscribed) {
                     state = MapperState.Subscribed
@@ -172,7 +176,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
         assertThread()
         log.debug("Device {}/{} deleted", clazz, id)
         state = MapperState.Completed
-        val device = vt.devices.remove(id)
+        val device = vt.removeDevice(id)
         vt.observables.remove(key)
 
         if ((device ne null) && device.getClass == clazz) {
@@ -188,7 +192,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
         log.error("Device {}/{} error", clazz, id, e)
         error = e
         state = MapperState.Error
-        val device = vt.devices.remove(id)
+        val device = vt.removeDevice(id)
         vt.observables.remove(key)
 
         if ((device ne null) && device.getClass == clazz) {
@@ -202,7 +206,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     override final def onNext(device: D) = {
         assertThread()
         log.debug("Device {}/{} notification: {}", clazz, id, device)
-        vt.devices.put(id, device)
+        vt.putDevice(id, device)
         vt.metrics.deviceUpdate(clazz)
         if (!initialized) {
             initialized = true
@@ -214,11 +218,11 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
     protected def onDeviceChanged(device: D): Unit = {}
 
     /**
-     * Checks that this method is executed on the same thread as the one used
-     * during the initialization of the mapper.
+     * Checks that this method is executed on the thread of the topology
+     * partition of this device.
      */
     @throws[DeviceMapperException]
-    @inline protected def assertThread(): Unit = vt.assertThread()
+    @inline protected def assertThread(): Unit = vt.assertThread(partition)
 
     /**
      * Synchronize devices with the new list of deviceIds. Complete and remove
@@ -289,7 +293,7 @@ abstract class DeviceMapper[D <: Device](val clazz: Class[D], val id: UUID,
             new DeviceState[T](id, vt.store
                 .observable(uClass, id)
                 .distinctUntilChanged()
-                .observeOn(vt.vtScheduler)
+                .observeOn(vtScheduler)
                 .map[T](makeFunc1(fromProto[T, U](_, tClass))))
         }
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+import scala.collection.mutable
+
+import org.midonet.midolman.topology.VirtualTopology.Device
+
+object DeviceTable {
+
+    final val NoIndex = -1
+
+    /** An entry of the device table, holding a device and its identifier,
+      * such that a reader can verify that an index it cached still refers to
+      * the same device. */
+    private final class Entry(val id: UUID, val device: Device)
+
+}
+
+/**
+ * A table that assigns a dense integer index to every device published in the
+ * virtual topology cache, and stores the devices in an array, such that a
+ * device can be resolved by its index with an array load instead of a hash
+ * map lookup.
+ *
+ * An index is assigned when a device is first published, and it is released
+ * when the device is removed, after which it may be assigned to another
+ * device. Every entry holds the device identifier, and a lookup by a stale
+ * index returns `null`, in which case the caller should fall back to the
+ * lookup by identifier and refresh the index.
+ *
+ * Lookups are lock-free. Updates are synchronized, and they may replace the
+ * array with a larger copy when the table is full.
+ */
+final class DeviceTable(initialCapacity: Int = 1024) {
+
+    import DeviceTable._
+
+    private val indices = new ConcurrentHashMap[UUID, Integer]()
+    private val freeIndices = new mutable.ArrayStack[Int]
+    private var nextIndex = 0
+
+    @volatile private var entries =
+        new AtomicReferenceArray[Entry](Math.max(initialCapacity, 1))
+
+    /** Returns the index of the device with the specified identifier, or
+      * [[DeviceTable.NoIndex]] if the device is not in the table. */
+    def indexOf(id: UUID): Int = {
+        val index = indices.get(id)
+        if (index eq null) NoIndex else index.intValue()
+    }
+
+    /** Returns the device at the specified index if its identifier matches
+      * the given identifier, or `null` otherwise. */
+    def get(index: Int, id: UUID): Device = {
+        if (index < 0) return null
+        val array = entries
+        if (index >= array.length()) return null
+        val entry = array.get(index)
+        if ((entry ne null) && ((entry.id eq id) || entry.id == id))
+            entry.device
+        else
+            null
+    }
+
+    /** Publishes a device in the table, and returns its index. */
+    def put(id: UUID, device: Device): Int = synchronized {
+        val existing = indices.get(id)
+        val index = if (existing ne null) existing.intValue() else {
+            val newIndex = if (freeIndices.nonEmpty) freeIndices.pop() else {
+                nextIndex += 1
+                nextIndex - 1
+            }
+            if (newIndex >= entries.length()) {
+                grow(newIndex + 1)
+            }
+            indices.put(id, newIndex)
+            newIndex
+        }
+        entries.set(index, new Entry(id, device))
+        index
+    }
+
+    /** Removes the device with the specified identifier from the table, and
+      * releases its index. */
+    def remove(id: UUID): Unit = synchronized {
+        val index = indices.remove(id)
+        if (index ne null) {
+            entries.set(index.intValue(), null)
+            freeIndices.push(index.intValue())
+        }
+    }
+
+    /** Removes all devices from the table. */
+    def clear(): Unit = synchronized {
+        indices.clear()
+        freeIndices.clear()
+        nextIndex = 0
+        entries = new AtomicReferenceArray[Entry](entries.length())
+    }
+
+    /** Returns the number of devices in the table. */
+    def size: Int = indices.size()
+
+    /** Returns the current capacity of the table. */
+    def capacity: Int = entries.length()
+
+    private def grow(minCapacity: Int): Unit = {
+        val array = entries
+        var capacity = array.length() * 2
+        while (capacity < minCapacity) capacity *= 2
+        val newArray = new AtomicReferenceArray[Entry](capacity)
+        var index = 0
+        while (index < array.length()) {
+            newArray.set(index, array.get(index))
+            index += 1
+        }
+        entries = newArray
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import org.midonet.cluster.data.dhcp.{ExtraDhcpOpt, Opt121, Subnet}
+import org.midonet.cluster.models.Topology.{Dhcp => TopologyDhcp}
+import org.midonet.cluster.util.IPAddressUtil._
+import org.midonet.cluster.util.IPSubnetUtil._
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.simulation.Dhcp.DhcpHost
+import org.midonet.midolman.simulation.{Dhcp, DhcpValueParser}
+import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.util.functors.makeFunc1
+import org.midonet.util.logging.Logger
+
+object DhcpMapper {
+
+    /** Converts a DHCP host to a simulation host, encoding its extra DHCP
+      * options. Invalid options are logged and ignored. */
+    private[midolman] def toHost(protoHost: TopologyDhcp.Host, log: Logger)
+    : DhcpHost = {
+        val extraOpts = protoHost.getExtraDhcpOptsList.asScala.map { opt =>
+            new ExtraDhcpOpt(opt.getName, opt.getValue)
+        }
+        val extraOptions = extraOpts.flatMap { opt =>
+            val option = DhcpValueParser.encodeExtraDhcpOption(opt)
+            if (option.isEmpty) {
+                log.info(s"Invalid DHCP option ${opt.optName} with value " +
+                         s"${opt.optValue} for host ${protoHost.getMac} " +
+                         "will be ignored")
+            }
+            option
+        }
+        val host = new DhcpHost(extraOptions)
+        if (protoHost.hasIpAddress)
+            host.setIp(protoHost.getIpAddress.asIPv4Address)
+        if (protoHost.hasMac)
+            host.setMAC(MAC.fromString(protoHost.getMac))
+        if (protoHost.hasName)
+            host.setName(protoHost.getName)
+        host.setExtraDhcpOpts(extraOpts.asJava)
+        host
+    }
+
+    /** Converts a DHCP Proto object into a legacy cluster Subnet, as used by
+      * the Agent.
+      */
+    private[midolman] def toSubnet(dhcp: TopologyDhcp): Subnet = {
+        val subnet = new Subnet
+        // Mandatory fields.
+        subnet.setId(dhcp.getId.asJava.toString)
+        subnet.setSubnetAddr(fromV4Proto(dhcp.getSubnetAddress))
+
+        // Optional fields
+        if (dhcp.hasDefaultGateway)
+            subnet.setDefaultGateway(dhcp.getDefaultGateway.asIPv4Address)
+        if (dhcp.hasEnabled)
+            subnet.setEnabled(dhcp.getEnabled)
+        if (dhcp.hasInterfaceMtu)
+            subnet.setInterfaceMTU(dhcp.getInterfaceMtu.toShort)
+        if (dhcp.hasServerAddress) {
+            subnet.setServerAddr(dhcp.getServerAddress.asIPv4Address)
+        } else if (dhcp.hasDefaultGateway) {
+            // If the server address is not set, use the default gateway.
+            subnet.setServerAddr(dhcp.getDefaultGateway.asIPv4Address)
+        } else {
+            // Or else, the network broadcast address minus 1.
+            subnet.setServerAddr(
+                IPv4Addr(subnet.getSubnetAddr.toBroadcastAddress.toInt - 1))
+        }
+        subnet.setOpt121Routes(dhcp.getOpt121RoutesList.asScala.map(opt121 => {
+            val o = new Opt121
+            if (opt121.hasGateway)
+                o.setGateway(opt121.getGateway.asIPv4Address)
+            if (opt121.hasDstSubnet)
+                o.setRtDstSubnet(fromV4Proto(opt121.getDstSubnet))
+            o
+        }).asJava)
+        subnet.setDnsServerAddrs(
+            dhcp.getDnsServerAddressList.asScala.map(toIPv4Addr).asJava)
+        subnet
+    }
+}
+
+/**
+ * A device mapper that exposes an [[rx.Observable]] with notifications for
+ * the DHCP configuration of a bridge subnet. The mapper converts the subnet
+ * and indexes its hosts by MAC address, such that the simulation answers the
+ * DHCP requests from memory.
+ */
+class DhcpMapper(dhcpId: UUID, vt: VirtualTopology)
+    extends DeviceMapper(classOf[Dhcp], dhcpId, vt) {
+
+    import DhcpMapper._
+
+    override def logSource = "org.midonet.devices.dhcp"
+    override def logMark = s"dhcp:$dhcpId"
+
+    private def build(dhcp: TopologyDhcp): Dhcp = {
+        val hosts = Map.newBuilder[MAC, DhcpHost]
+        val macs = new java.util.HashSet[MAC]
+        for (protoHost <- dhcp.getHostsList.asScala if protoHost.hasMac) {
+            val host = toHost(protoHost, log)
+            // The first host with a given MAC takes precedence.
+            if (macs.add(host.getMAC)) {
+                hosts += host.getMAC -> host
+            }
+        }
+        val device = new Dhcp(dhcpId, toSubnet(dhcp), hosts.result())
+        log.debug(s"Build DHCP configuration: $device")
+        device
+    }
+
+    protected override lazy val observable =
+        vt.store.observable(classOf[TopologyDhcp], dhcpId)
+            .map[Dhcp](makeFunc1(build))
+            .observeOn(vtScheduler)
+}
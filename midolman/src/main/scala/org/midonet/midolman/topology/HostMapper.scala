@@ -200,13 +200,13 @@ final class HostMapper(hostId: UUID, vt: VirtualTopology)
     // trigger a host update, hence the 'distinctUntilChanged'.
     private lazy val hostObservable =
         vt.store.observable(classOf[TopologyHost], hostId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .distinctUntilChanged
             .doOnCompleted(makeAction0(hostDeleted()))
 
     private lazy val aliveObservable =
         vt.stateStore.keyObservable(classOf[TopologyHost], hostId, AliveKey)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .map[Boolean](makeFunc1(aliveUpdated))
             .distinctUntilChanged
             .onErrorResumeNext(Observable.empty)
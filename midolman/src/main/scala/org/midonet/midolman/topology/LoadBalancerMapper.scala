@@ -53,7 +53,7 @@ final class LoadBalancerMapper(loadBalancerId: UUID, vt: VirtualTopology)
 
     private lazy val loadBalancerObservable = vt.store
         .observable[TopologyLb](classOf[TopologyLb], loadBalancerId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(vtScheduler)
         .doOnCompleted(makeAction0(loadBalancerDeleted()))
         .doOnNext(makeAction1(loadBalancerUpdated))
 
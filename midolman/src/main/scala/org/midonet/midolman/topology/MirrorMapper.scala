@@ -95,7 +95,7 @@ final class MirrorMapper(id: UUID, vt: VirtualTopology)
 
     private lazy val mirrorObservable =
         vt.store.observable(classOf[TopologyMirror], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .map[TopologyMirror](makeFunc1(mirrorUpdated))
             .doOnCompleted(makeAction0(mirrorDeleted()))
 
@@ -26,7 +26,7 @@ import scala.collection.mutable
 import rx.Observable
 import rx.subjects.PublishSubject
 
-import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.midolman.topology.VirtualTopology.{Device, Partition}
 import org.midonet.util.functors.makeAction1
 import org.midonet.util.logging.Logger
 
@@ -56,8 +56,17 @@ abstract class ObjectReferenceTrackerBase[D >: Null, StateType <: ObjectStateBas
     val vt: VirtualTopology
     protected def newState(id: UUID): StateType
 
+    /** The topology partition of the owner of this tracker, which is the
+      * partition of the thread that first requests the references. */
+    private var partition: Partition = null
+
     @throws[DeviceMapperException]
-    @inline private def assertThread(): Unit = vt.assertThread()
+    @inline private def assertThread(): Unit = {
+        if (partition eq null) {
+            partition = vt.currentPartition
+        }
+        vt.assertThread(partition)
+    }
 
     private val refsSubject = PublishSubject.create[Observable[D]]
     private val refs = new mutable.HashMap[UUID, StateType]
@@ -159,7 +168,7 @@ class StoreObjectState[D >: Null](val clazz: Class[D],
                                   val vt: VirtualTopology)
         extends ObjectStateBase[D] {
     override val observable = vt.store.observable(clazz, id)
-        .observeOn(vt.vtScheduler)
+        .observeOn(vt.currentPartitionScheduler)
         .doOnNext(makeAction1(currentObj = _))
         .takeUntil(mark)
 }
@@ -75,7 +75,7 @@ final class PoolMapper(poolId: UUID, vt: VirtualTopology)
 
     private lazy val poolObservable = vt.store
         .observable(classOf[TopologyPool], poolId)
-        .observeOn(vt.vtScheduler)
+        .observeOn(vtScheduler)
         .doOnCompleted(makeAction0(poolDeleted()))
         .doOnNext(makeAction1(poolUpdated))
 
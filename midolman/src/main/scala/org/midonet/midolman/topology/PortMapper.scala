@@ -108,17 +108,17 @@ final class PortMapper(id: UUID, vt: VirtualTopology,
         .combineLatest[PortState, Option[UUID], JList[UUID],
                        TopologyPort, SimulationPort](
             vt.stateStore.portStateObservable(id, portStateSubject)
-                .observeOn(vt.vtScheduler)
+                .observeOn(vtScheduler)
                 .doOnNext(makeAction1(_ => portStateReady = true))
                 .onErrorResumeNext(Observable.empty()),
             Observable.merge(traceChainObservable, Observable.just(None)),
             Observable.merge(Observable.just(new JArrayList[UUID](0)),
                              l2insertionsTracker.refsObservable
-                                 .observeOn(vt.vtScheduler)
+                                 .observeOn(vtScheduler)
                                  .filter(makeFunc1(areL2InsertionsReady))
                                  .map[JList[UUID]](makeFunc1(makeServicePortList))),
             vt.store.observable(classOf[TopologyPort], id)
-                .observeOn(vt.vtScheduler)
+                .observeOn(vtScheduler)
                 .doOnNext(makeAction1(topologyPortUpdated))
                 .doOnCompleted(makeAction0(topologyPortDeleted()))
                 .distinctUntilChanged,
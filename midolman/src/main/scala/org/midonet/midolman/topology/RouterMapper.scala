@@ -17,7 +17,7 @@
 package org.midonet.midolman.topology
 
 import java.lang.{Boolean => JBoolean}
-import java.util.{UUID, ArrayList => JArrayList}
+import java.util.{UUID, ArrayList => JArrayList, Map => JMap}
 
 import javax.annotation.Nullable
 
@@ -33,7 +33,8 @@ import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
 import org.midonet.midolman.simulation.Router.{Config, RoutingTable, TagManager}
-import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
+import org.midonet.midolman.simulation.EcmpBuckets.GroupKey
+import org.midonet.midolman.simulation.{Chain, EcmpBuckets, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
 import org.midonet.midolman.state.ArpCache
 import org.midonet.midolman.topology.RouterMapper._
@@ -71,6 +72,7 @@ object RouterMapper {
                             vt: VirtualTopology,
                             log: Logger) {
 
+        private val partition = vt.currentPartition
         @Nullable private var currentPort: RouterPort = null
         private val mark = PublishSubject.create[RouteUpdates]
 
@@ -95,7 +97,7 @@ object RouterMapper {
             .map[RouteUpdates](makeFunc1(routeUpdated))
         private val learnedRoutesObservable = vt.stateStore
             .portRoutesObservable(portId, portStateSubject)
-            .observeOn(vt.vtScheduler)
+            .observeOn(partition.scheduler)
             .map[RouteUpdates](makeFunc1(learnedRoutesUpdated))
 
         // The output observable for this port state. It merges the
@@ -150,7 +152,7 @@ object RouterMapper {
          * - If the port was and remains inactive, then do not emit any updates.
          */
         private def portUpdated(port: RouterPort): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
 
             log.debug("Router port updated: {}", port)
 
@@ -219,7 +221,7 @@ object RouterMapper {
         /** A method called when a route is updated. It publishes routes if the
           * port is interior, or exterior and active. */
         private def routeUpdated(updates: RouteUpdates): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
             log.debug("Port route updated: {}", updates)
 
             routesCache ++= updates.added
@@ -233,7 +235,7 @@ object RouterMapper {
           * and this one, and returns a [[RouteUpdates]] instance with the
           * difference. */
         private def learnedRoutesUpdated(routes: Set[Route]): RouteUpdates = {
-            vt.assertThread()
+            vt.assertThread(partition)
             log.debug("Learned port routes updated: {} routes",
                       Int.box(routes.size))
             portStateReady = true
@@ -283,7 +285,7 @@ object RouterMapper {
         private val mark = PublishSubject.create[RouteUpdates]
 
         val observable = vt.store.observable(classOf[TopologyRoute], routeId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vt.currentPartitionScheduler)
             .flatMap[RouteUpdates](makeFunc1(routeUpdated))
             .onErrorResumeNext(makeFunc1(routeError))
             .takeUntil(mark)
@@ -356,7 +358,8 @@ object RouterMapper {
      * Provides an implementation for a router's [[RoutingTable]], wrapping an
      * underlying IPv4 routing table.
      */
-    private class RouterRoutingTable(routes: mutable.Set[Route])
+    private class RouterRoutingTable(routes: mutable.Set[Route],
+                                     buckets: JMap[GroupKey, Array[Route]])
         extends RoutingTable {
 
         private val ipv4RoutingTable = new IPv4RoutingTable()
@@ -377,6 +380,11 @@ object RouterMapper {
                 flowMatch.getNetworkDstIP.asInstanceOf[IPv4Addr],
                 log.underlying)
         }
+
+        override def ecmpBuckets(route: Route): Array[Route] = {
+            if (buckets.isEmpty) null
+            else buckets.get(EcmpBuckets.keyOf(route))
+        }
     }
 
     /** Converts a nullable route to a [[Set]]. */
@@ -412,6 +420,10 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     // Stores all routes received via notifications from the replicated routing
     // table.
     private val routes = new mutable.HashSet[Route]
+    private val ecmpBuckets =
+        if (vt.config.router.ecmpBuckets > 0)
+            new EcmpBuckets(vt.config.router.ecmpBuckets)
+        else null
     // Stores routes received via the router's configuration in storage.
     private val localRoutes = new mutable.HashMap[UUID, RouteState]
     private var arpCache: ArpCache = null
@@ -443,7 +455,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
 
     private lazy val routerObservable =
         vt.store.observable(classOf[TopologyRouter], routerId)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .doOnCompleted(makeAction0(routerDeleted()))
             .map[Config](makeFunc1(routerUpdated))
     private lazy val portRoutesObservable = Observable
@@ -676,6 +688,10 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         // Update the current routes.
         routes ++= routeUpdates.added
         routes --= routeUpdates.removed
+        if (ecmpBuckets ne null) {
+            routeUpdates.added foreach ecmpBuckets.add
+            routeUpdates.removed foreach ecmpBuckets.remove
+        }
         vt.tellBackChannel(InvalidateFlows(
             id, routeUpdates.added, routeUpdates.removed))
         config
@@ -726,7 +742,9 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         val device = new SimulationRouter(
             routerId,
             config2,
-            new RouterRoutingTable(routes),
+            new RouterRoutingTable(routes,
+                                   if (ecmpBuckets ne null) ecmpBuckets.snapshot
+                                   else EcmpBuckets.EmptyBuckets),
             tagManager,
             vniToPort.asJava,
             arpCache)
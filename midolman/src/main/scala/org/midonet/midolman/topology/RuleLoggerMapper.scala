@@ -43,7 +43,7 @@ class RuleLoggerMapper(id: UUID, vt: VirtualTopology)
     private var ruleLogger: RuleLogger = null
     private val ruleLoggerObservable =
         vt.store.observable(classOf[RuleLogger], id)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .doOnCompleted(makeAction0(ruleLoggerDeleted()))
             .doOnNext(makeAction1(ruleLoggerUpdated))
 
@@ -54,7 +54,7 @@ class RuleLoggerMapper(id: UUID, vt: VirtualTopology)
     // the LogResource update isn't dropped.
     override def observable: Observable[SimRuleLogger] =
         Observable.merge(logResTracker.refsObservable, ruleLoggerObservable)
-            .observeOn(vt.vtScheduler)
+            .observeOn(vtScheduler)
             .filter(makeFunc1(isReady))
             .map[SimRuleLogger](makeFunc1(build))
             .distinctUntilChanged()
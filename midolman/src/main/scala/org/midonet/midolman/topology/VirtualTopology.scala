@@ -19,14 +19,15 @@ import java.util.UUID
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.{ConcurrentHashMap, ExecutorService}
 
-import scala.collection.mutable
+import scala.collection.JavaConverters._
+import scala.collection.concurrent.TrieMap
 import scala.concurrent.Future
 import scala.util.control.NonFatal
 
 import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
 
-import rx.Observable
+import rx.{Observable, Scheduler}
 import rx.Observable.OnSubscribe
 import rx.schedulers.Schedulers
 import rx.subjects.Subject
@@ -61,6 +62,51 @@ object VirtualTopology {
 
     case class Key(clazz: Class[_], id: UUID)
 
+    /**
+     * A partition of the virtual topology, which processes the notifications
+     * of the devices assigned to it on a single thread. Every device is
+     * assigned to a partition by its identifier.
+     */
+    final class Partition(val index: Int, val executor: ExecutorService,
+                          check: () => Boolean) {
+        val scheduler = Schedulers.from(executor)
+        /** Indicates whether the current thread is the partition thread. */
+        @inline def isCurrentThread: Boolean = check()
+        override def toString = s"Partition[index=$index]"
+    }
+
+    /**
+     * A reference to a topology device, which caches the index of the device
+     * in the device table of the virtual topology. Devices use references to
+     * resolve their neighbors during the simulation with an array load, and
+     * the reference falls back to the lookup by identifier when the device
+     * is not in the table, or when the cached index is stale.
+     *
+     * The cached index is updated without synchronization: concurrent
+     * updates write the same index, and a stale index is never used to
+     * return a different device.
+     */
+    final class DeviceRef[D <: Device](val clazz: Class[D], val id: UUID) {
+        private var index = DeviceTable.NoIndex
+
+        @throws[NotYetException]
+        @throws[Exception]
+        def tryGet: D = {
+            val vt = self
+            val device = vt.deviceTable.get(index, id)
+            if (device ne null) {
+                vt.cacheHits.incrementAndGet()
+                device.asInstanceOf[D]
+            } else {
+                val result = vt.tryGet(clazz, id)
+                index = vt.deviceTable.indexOf(id)
+                result
+            }
+        }
+
+        override def toString = id.toString
+    }
+
     private[topology] var self: VirtualTopology = null
 
     @throws[NotYetException]
@@ -93,6 +139,7 @@ object VirtualTopology {
     @VisibleForTesting
     private[midonet] def clear(): Unit = {
         self.devices.clear()
+        self.deviceTable.clear()
     }
 
     /**
@@ -100,7 +147,7 @@ object VirtualTopology {
      */
     @VisibleForTesting
     private[midonet] def add[D <: Device](id: UUID, device: D): Unit = {
-        self.devices.put(id, device)
+        self.putDevice(id, device)
     }
 
     /**
@@ -140,6 +187,13 @@ object VirtualTopology {
  * device notification from storage, and cleared when the device stream
  * completes (normally when the device is deleted) or issues an error.
  *
+ * By default, all device mappers run on the single VT thread. When
+ * additional partition executors are provided, the devices are assigned to
+ * partitions by the hash of their identifier, and each device mapper runs on
+ * the thread of its partition. The notifications of a device observable
+ * subscribed from the thread of a different partition are delivered to the
+ * subscriber partition via the lock-free queue of an `observeOn` operator.
+ *
  *                         |
  *   get() + cache hit     | get() + cache miss / observable()
  *         +---------------+--------------+
@@ -163,20 +217,53 @@ class VirtualTopology(val backend: MidonetBackend,
                       val metricRegistry: MetricRegistry,
                       val vtExecutor: ExecutorService,
                       val ioExecutor: ExecutorService,
-                      vtExecutorCheck: () => Boolean)
+                      vtExecutorCheck: () => Boolean,
+                      val partitionExecutors: Seq[ExecutorService] = Seq.empty)
     extends MidolmanLogging {
 
     import VirtualTopology._
 
     override def logSource = "org.midonet.devices.devices-service"
 
-    private[topology] val vtScheduler = Schedulers.from(vtExecutor)
+    private val partitionOfThread = new ThreadLocal[Partition]
+
+    /**
+     * The virtual topology partitions. The first partition uses the VT
+     * executor, and the other partitions use the additional partition
+     * executors, which must be single-threaded. When there is a single
+     * partition, all devices are processed on the VT thread.
+     */
+    private[topology] val partitions: Array[Partition] =
+        if (partitionExecutors.isEmpty) {
+            Array(new Partition(0, vtExecutor, vtExecutorCheck))
+        } else {
+            val executors = vtExecutor +: partitionExecutors
+            val array = new Array[Partition](executors.size)
+            for (index <- executors.indices) {
+                val partition = new Partition(
+                    index, executors(index),
+                    () => partitionOfThread.get eq array(index))
+                array(index) = partition
+                partition.executor.execute(makeRunnable {
+                    partitionOfThread.set(partition)
+                })
+            }
+            array
+        }
+
+    private[topology] def isPartitioned = partitions.length > 1
+
+    /** The additional partition executors, as a Java list. */
+    def partitionExecutorList: java.util.List[ExecutorService] =
+        partitionExecutors.asJava
 
     private[topology] val devices =
         new ConcurrentHashMap[UUID, Device]()
     private[topology] val observables =
         new ConcurrentHashMap[Key, Observable[_]]()
 
+    private[topology] val deviceTable = new DeviceTable()
+
     private val cacheHits = new AtomicLong(0L)
     private val cacheMisses = new AtomicLong(0L)
 
@@ -184,7 +271,7 @@ class VirtualTopology(val backend: MidonetBackend,
         metricRegistry, { devices.size() }, { observables.size() },
         { cacheHits.get() }, {  cacheMisses.get() })
 
-    private val traceChains = mutable.Map[UUID, Subject[Chain, Chain]]()
+    private val traceChains = TrieMap[UUID, Subject[Chain, Chain]]()
 
     private val factories = Map[Class[_], DeviceFactory](
         classOf[BgpPort] -> DeviceFactory(
@@ -197,6 +284,8 @@ class VirtualTopology(val backend: MidonetBackend,
             classOf[Port], new PortMapper(_, this, traceChains)),
         classOf[Chain] -> DeviceFactory(
             classOf[Chain], new ChainMapper(_, this, traceChains)),
+        classOf[Dhcp] -> DeviceFactory(
+            classOf[Dhcp], new DhcpMapper(_, this)),
         classOf[Host] -> DeviceFactory(
             classOf[Host], new HostMapper(_, this)),
         classOf[IPAddrGroup] -> DeviceFactory(
@@ -233,11 +322,58 @@ class VirtualTopology(val backend: MidonetBackend,
 
     def stateTables = backend.stateTableStore
 
+    /**
+     * The scheduler of the VT thread, which is the thread of the first
+     * partition. The services that are not device mappers run on this
+     * scheduler.
+     */
+    private[topology] val vtScheduler: Scheduler = partitions(0).scheduler
+
+    /**
+     * Returns the partition of the current thread, or the first partition if
+     * the current thread does not belong to a partition. This must only be
+     * used by the partitioned device mappers and their helpers, when called
+     * on the thread of their partition.
+     */
+    private[topology] def currentPartition: Partition = {
+        if (isPartitioned) {
+            val partition = partitionOfThread.get
+            if (partition ne null) partition else partitions(0)
+        } else {
+            partitions(0)
+        }
+    }
+
+    /**
+     * Returns the scheduler of the partition of the current thread.
+     * @see [[currentPartition]]
+     */
+    private[topology] def currentPartitionScheduler: Scheduler =
+        currentPartition.scheduler
+
+    /** Returns the partition of the device with the specified identifier. */
+    private[topology] def partitionOf(id: UUID): Partition = {
+        if (isPartitioned) {
+            partitions(Math.floorMod(id.hashCode, partitions.length))
+        } else {
+            partitions(0)
+        }
+    }
+
     private def observableOf[D <: Device](clazz: Class[D], id: UUID)
     : Observable[D] = {
         val factory = factories.getOrElse(
             clazz, throw new RuntimeException(s"Unknown factory for $clazz"))
-        observableOf(factory, id)
+        val observable = observableOf[D](factory, id)
+        if (isPartitioned) {
+            // When subscribing from a partition thread to a device of another
+            // partition, deliver the notifications to the subscriber partition.
+            val partition = partitionOfThread.get
+            if ((partition ne null) && (partition ne partitionOf(id))) {
+                return observable.observeOn(partition.scheduler)
+            }
+        }
+        observable
     }
 
     private def observableOf[D <: Device](factory: DeviceFactory, id: UUID)
@@ -260,6 +396,18 @@ class VirtualTopology(val backend: MidonetBackend,
             }))
     }
 
+    /** Publishes a device in the device cache and the device table. */
+    private[topology] def putDevice(id: UUID, device: Device): Unit = {
+        devices.put(id, device)
+        deviceTable.put(id, device)
+    }
+
+    /** Removes a device from the device cache and the device table. */
+    private[topology] def removeDevice(id: UUID): Device = {
+        deviceTable.remove(id)
+        devices.remove(id)
+    }
+
     private[topology] def invalidate(tag: FlowTag): Unit = tellBackChannel(tag)
 
     private[topology] def tellBackChannel(msg: BackChannelMessage): Unit =
@@ -295,14 +443,30 @@ class VirtualTopology(val backend: MidonetBackend,
     @throws[DeviceMapperException]
     @inline
     private[topology] def assertThread(): Unit = {
-        if (!vtExecutorCheck()) {
-            val curThread = Thread.currentThread()
-            throw new DeviceMapperException(
-                s"Call expected on VT executor thread but received on " +
-                s"${curThread.getId} - ${curThread.getName}")
+        if (!partitions(0).isCurrentThread) {
+            throwThreadException("VT executor thread")
         }
     }
 
+    /**
+     * Checks that this method is executed on the thread of the specified
+     * partition.
+     */
+    @throws[DeviceMapperException]
+    @inline
+    private[topology] def assertThread(partition: Partition): Unit = {
+        if (!partition.isCurrentThread) {
+            throwThreadException(s"VT partition ${partition.index} thread")
+        }
+    }
+
+    private def throwThreadException(expected: String): Unit = {
+        val curThread = Thread.currentThread()
+        throw new DeviceMapperException(
+            s"Call expected on $expected but received on " +
+            s"${curThread.getId} - ${curThread.getName}")
+    }
+
     def get[D <: Device](clazz: Class[D], id: UUID): Future[D] = {
         val device = devices.get(id).asInstanceOf[D]
         if (device eq null) {
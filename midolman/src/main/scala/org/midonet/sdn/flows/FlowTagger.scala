@@ -254,6 +254,33 @@ object FlowTagger {
         tag
     }
 
+    /**
+     * Tag for the flows whose evaluation of the specified chain stopped at the
+     * specified rule. The flows that evaluated all rules of the chain use the
+     * chain identifier as rule identifier.
+     */
+    case class ChainRuleTag(chainId: UUID, ruleId: UUID) extends FlowTag {
+        override def toString = "chain_rule:" + chainId + ":" + ruleId
+    }
+
+    val cachedChainRuleTags = new ThreadLocal[TagsTrie] {
+        override def initialValue = new TagsTrie
+    }
+
+    def tagForChainRule(chainId: UUID, ruleId: UUID): FlowTag = {
+        val segment = cachedChainRuleTags.get().getOrAddSegment(chainId)
+                                               .getOrAddSegment(ruleId)
+        var tag = segment.value
+        if (tag eq null) {
+            tag = new ChainRuleTag(chainId, ruleId)
+            segment.value = tag
+        }
+        tag
+    }
+
+    def tagForChainEnd(chainId: UUID): FlowTag =
+        tagForChainRule(chainId, chainId)
+
     /**
      * Tag for the flows associated with specified bridge port.
      */
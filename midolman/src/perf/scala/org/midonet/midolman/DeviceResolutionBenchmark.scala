@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.simulation.{BridgePort, Port}
+import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.midolman.topology.VirtualTopology.DeviceRef
+
+/**
+ * Measures the cost of resolving a device during the simulation, which is
+ * done once per device hop, when looking up the device by identifier in the
+ * virtual topology cache, and when resolving a device reference by its index
+ * in the device table.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class DeviceResolutionBenchmark extends MidolmanBenchmark {
+
+    @Param(Array("100", "10000"))
+    var devices: Int = _
+
+    private final val hopCount = 1024
+
+    private var ids: Array[UUID] = _
+    private var refs: Array[DeviceRef[Port]] = _
+    private var index = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val bridgeId = UUID.randomUUID()
+        val portIds = Array.fill(devices)(UUID.randomUUID())
+        for (id <- portIds) {
+            VirtualTopology.add(id, new BridgePort(id = id, networkId = bridgeId))
+        }
+        val random = new scala.util.Random(0)
+        ids = Array.fill(hopCount)(portIds(random.nextInt(devices)))
+        refs = ids.map(new DeviceRef(classOf[Port], _))
+    }
+
+    @Benchmark
+    def resolveById(): Port = {
+        val id = ids(index)
+        index = (index + 1) & (hopCount - 1)
+        VirtualTopology.tryGet(classOf[Port], id)
+    }
+
+    @Benchmark
+    def resolveByRef(): Port = {
+        val ref = refs(index)
+        index = (index + 1) & (hopCount - 1)
+        ref.tryGet
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+
+import org.apache.zookeeper.CreateMode
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.backend.{Directory, MockDirectory}
+import org.midonet.midolman.state.ReplicatedMap
+import org.midonet.packets.MAC
+
+/**
+ * Measures the cost of a single MAC table update in a replicated map, when
+ * the map rebuilds the local map from the full directory listing, and when
+ * the map applies only the difference between the listings. Every benchmark
+ * invocation adds and removes one entry, which results in two updates.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class ReplicatedMapBenchmark {
+
+    private class MacMap(dir: Directory, incremental: Boolean)
+        extends ReplicatedMap[MAC, String](dir, true, incremental) {
+        override protected def encodeKey(key: MAC): String = key.toString
+        override protected def decodeKey(str: String): MAC = MAC.fromString(str)
+        override protected def encodeValue(value: String): String = value
+        override protected def decodeValue(str: String): String = str
+    }
+
+    @Param(Array("full", "incremental"))
+    var sync: String = _
+
+    @Param(Array("1000", "50000"))
+    var entries: Int = _
+
+    private var dir: Directory = _
+    private var map: MacMap = _
+    private var mac: MAC = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        val root = new MockDirectory()
+        root.add("/mac_table", null, CreateMode.PERSISTENT)
+        dir = root.getSubDirectory("/mac_table")
+        for (index <- 0 until entries) {
+            dir.add(s"/${MAC.random()},port$index,", null,
+                    CreateMode.PERSISTENT_SEQUENTIAL)
+        }
+        map = new MacMap(dir, sync == "incremental")
+        map.start()
+        mac = MAC.random()
+    }
+
+    @TearDown(Level.Trial)
+    def tearDown(): Unit = {
+        map.stop()
+    }
+
+    @Benchmark
+    def learnAndForget(): String = {
+        val path = dir.add(s"/$mac,port,", null,
+                           CreateMode.PERSISTENT_SEQUENTIAL)
+        val port = map.get(mac)
+        dir.delete(path)
+        port
+    }
+}
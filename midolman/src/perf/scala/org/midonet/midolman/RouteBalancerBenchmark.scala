@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+import java.util.{Arrays, UUID, List => JList, Map => JMap}
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.midolman.simulation.EcmpBuckets.GroupKey
+import org.midonet.midolman.simulation.Router.RoutingTable
+import org.midonet.midolman.simulation.{EcmpBuckets, RouteBalancer}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.IPv4Addr
+import org.midonet.util.logging.Logger
+
+/**
+ * Measures the cost of a next hop churn in a group of equal-cost routes: the
+ * benchmark removes and adds back one next hop, and for every change it
+ * counts the flows that are routed via a different next hop, which would
+ * require a new simulation. The fraction of remapped flows is printed at the
+ * end of every iteration, for both the modulo and the resilient hashing.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class RouteBalancerBenchmark {
+
+    private class StaticRoutingTable(routes: JList[Route],
+                                     buckets: JMap[GroupKey, Array[Route]])
+        extends RoutingTable {
+        override def lookup(flowMatch: FlowMatch): JList[Route] = routes
+        override def lookup(flowMatch: FlowMatch, log: Logger) = routes
+        override def ecmpBuckets(route: Route): Array[Route] =
+            if (buckets eq null) null
+            else buckets.get(EcmpBuckets.keyOf(route))
+    }
+
+    @Param(Array("modulo", "resilient"))
+    var hashing: String = _
+
+    @Param(Array("4", "16"))
+    var nextHops: Int = _
+
+    @Param(Array("256", "1024"))
+    var bucketCount: Int = _
+
+    private final val flowCount = 100000
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+    private val random = new Random(0)
+
+    private var routes: IndexedSeq[Route] = _
+    private var buckets: EcmpBuckets = _
+    private var flows: Array[FlowMatch] = _
+    private var selected: Array[Route] = _
+    private var balancer: RouteBalancer = _
+    private var remapped = 0L
+    private var lookups = 0L
+
+    @JmhSetup(Level.Iteration)
+    def setup(): Unit = {
+        routes = for (index <- 0 until nextHops) yield
+            new Route(0, 0, IPv4Addr.fromString("10.0.0.0").toInt, 8,
+                      NextHop.PORT, UUID.randomUUID(),
+                      IPv4Addr.fromString("192.168.0.1").toInt + index, 100,
+                      null, UUID.randomUUID())
+        buckets = new EcmpBuckets(bucketCount)
+        routes foreach buckets.add
+
+        flows = Array.tabulate(flowCount) { index =>
+            val fmatch = new FlowMatch()
+            fmatch.setNetworkSrc(IPv4Addr.fromInt(random.nextInt()))
+            fmatch.setNetworkDst(IPv4Addr.fromString("10.0.0.100"))
+            fmatch.setNetworkProto(6.toByte)
+            fmatch.setSrcPort(random.nextInt(65536))
+            fmatch.setDstPort(80)
+            fmatch
+        }
+        balancer = newBalancer(routes)
+        selected = flows.map(balancer.lookup(_, log))
+        remapped = 0L
+        lookups = 0L
+    }
+
+    @TearDown(Level.Iteration)
+    def tearDown(): Unit = {
+        println(f"\n$hashing hashing with $nextHops next hops: remapped " +
+                f"${remapped.toDouble / lookups * 100}%.2f%% of the flows " +
+                "per next hop change")
+    }
+
+    private def newBalancer(current: Seq[Route]): RouteBalancer = {
+        new RouteBalancer(new StaticRoutingTable(
+            Arrays.asList(current: _*),
+            if (hashing == "resilient") buckets.snapshot else null))
+    }
+
+    private def routeAll(): Unit = {
+        var index = 0
+        while (index < flowCount) {
+            val route = balancer.lookup(flows(index), log)
+            if (route ne selected(index)) {
+                selected(index) = route
+                remapped += 1
+            }
+            index += 1
+        }
+        lookups += flowCount
+    }
+
+    @Benchmark
+    def nextHopChurn(): Unit = {
+        val route = routes(random.nextInt(nextHops))
+
+        buckets remove route
+        balancer = newBalancer(routes.filter(_ ne route))
+        routeAll()
+
+        buckets add route
+        balancer = newBalancer(routes)
+        routeAll()
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, ExecutorService, TimeUnit}
+
+import com.codahale.metrics.MetricRegistry
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import rx.Subscriber
+
+import org.midonet.cluster.backend.zookeeper.ZkConnectionAwareWatcher
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.simulation.Router
+import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.util.concurrent.Executors
+
+/**
+ * Measures the time until a virtual topology of 2000 routers and 10000 router
+ * ports is ready, that is until every router was built with all its ports,
+ * for a varying number of topology threads.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class VirtualTopologyBenchmark extends MidolmanBenchmark
+                               with TopologyBuilder {
+
+    @Param(Array("1", "2", "4", "8"))
+    var threads: Int = _
+
+    @Param(Array("2000"))
+    var routers: Int = _
+
+    @Param(Array("5"))
+    var portsPerRouter: Int = _
+
+    private var routerIds: Seq[UUID] = _
+    private var executors: Seq[ExecutorService] = _
+    private var vt: VirtualTopology = _
+
+    @JmhSetup(Level.Trial)
+    def setupTopology(): Unit = {
+        val store = injector.getInstance(classOf[MidonetBackend]).store
+        routerIds = for (index <- 0 until routers) yield {
+            val router = createRouter(name = Some(s"router$index"))
+            store.create(router)
+            for (port <- 0 until portsPerRouter) {
+                store.create(createRouterPort(
+                    routerId = Some(router.getId.asJava)))
+            }
+            router.getId.asJava
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def setupVirtualTopology(): Unit = {
+        executors = for (index <- 0 until threads) yield
+            Executors.singleThreadScheduledExecutor(
+                s"devices-service-$index", isDaemon = true,
+                Executors.CallerRunsPolicy)
+        vt = new VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            injector.getInstance(classOf[MidolmanConfig]),
+            injector.getInstance(classOf[ZkConnectionAwareWatcher]),
+            injector.getInstance(classOf[SimulationBackChannel]),
+            new MetricRegistry,
+            executors.head,
+            executors.head,
+            () => true,
+            executors.tail)
+    }
+
+    @TearDown(Level.Invocation)
+    def tearDownVirtualTopology(): Unit = {
+        for (executor <- executors) {
+            executor.shutdownNow()
+            executor.awaitTermination(5, TimeUnit.SECONDS)
+        }
+    }
+
+    @Benchmark
+    def timeToReady(): Unit = {
+        val latch = new CountDownLatch(routerIds.size)
+        for (routerId <- routerIds) {
+            VirtualTopology.observable(classOf[Router], routerId)
+                           .subscribe(new Subscriber[Router] {
+                override def onNext(router: Router): Unit = {
+                    latch.countDown()
+                    unsubscribe()
+                }
+                override def onCompleted(): Unit = { }
+                override def onError(e: Throwable): Unit = { }
+            })
+        }
+        if (!latch.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Virtual topology not ready")
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.datapath
+
+import java.util.concurrent.TimeUnit
+import java.util.{UUID, HashSet => JHashSet}
+
+import scala.collection.mutable
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+import com.typesafe.scalalogging.Logger
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.midolman.DatapathStateDriver
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.topology.rcu.PortBinding
+import org.midonet.odp.ports.NetDevPort
+import org.midonet.odp.{Datapath, DpPort}
+import org.midonet.util.concurrent._
+
+/**
+ * Measures the time taken by the datapath port entangler to add many
+ * interfaces appearing at the same time, such as during a mass VM boot. The
+ * interface scanner notifies the full set of interfaces every time an
+ * interface is added, while the datapath creates the ports asynchronously,
+ * completing the creation of each port after a number of notifications.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+class DatapathPortEntanglerBenchmark {
+
+    @Param(Array("1000"))
+    var interfaces: Int = _
+
+    @Param(Array("64"))
+    var creationLag: Int = _
+
+    private var entangler: TestableEntangler = _
+    private var bindings: Map[UUID, PortBinding] = _
+    private var descriptions: Seq[InterfaceDescription] = _
+
+    private class TestableEntangler extends DatapathPortEntangler {
+        override val log = Logger(NOPLogger.NOP_LOGGER)
+        override protected val singleThreadExecutionContext =
+            ExecutionContext.callingThread
+        override protected val driver =
+            new DatapathStateDriver(new Datapath(0, "midonet"))
+
+        val creations = new mutable.Queue[(Promise[(DpPort, Int)], DpPort)]
+        var portNumbers = 0
+
+        override def addToDatapath(interfaceName: String)
+        : Future[(DpPort, Int)] = {
+            portNumbers += 1
+            val promise = Promise[(DpPort, Int)]()
+            creations += ((promise, DpPort.fakeFrom(
+                new NetDevPort(interfaceName), portNumbers)))
+            promise.future
+        }
+
+        override def removeFromDatapath(port: DpPort): Future[_] = {
+            Future.successful(null)
+        }
+
+        override def setVportStatus(port: DpPort, vport: UUID,
+                                    tunnelKey: Long, isActive: Boolean)
+        : Unit = { }
+
+        def completeCreations(pending: Int): Unit = {
+            while (creations.size > pending) {
+                val (promise, port) = creations.dequeue()
+                promise.success((port, port.getPortNo))
+            }
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def setup(): Unit = {
+        entangler = new TestableEntangler
+        bindings = (for (index <- 0 until interfaces) yield
+            UUID.randomUUID() ->
+                PortBinding(null, index.toLong, s"tap$index")).toMap
+        descriptions = for (index <- 0 until interfaces) yield {
+            val description = new InterfaceDescription(s"tap$index")
+            description.setUp(true)
+            description
+        }
+    }
+
+    @Benchmark
+    def addInterfaces(): Int = {
+        entangler.updateVportInterfaceBindings(bindings)
+        val current = new JHashSet[InterfaceDescription]()
+        for (description <- descriptions) {
+            current.add(description)
+            entangler.updateInterfaces(current)
+            entangler.completeCreations(creationLag)
+        }
+        entangler.completeCreations(0)
+        if (entangler.dpPortNumToTriad.size() != interfaces) {
+            throw new IllegalStateException(
+                s"Created ${entangler.dpPortNumToTriad.size()} ports")
+        }
+        entangler.portNumbers
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.host.scanner
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+import rx.{Observer, Subscription}
+
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfacesUpdate
+import org.midonet.midolman.util.MockNetlinkChannelFactory
+import org.midonet.netlink.rtnetlink.{Link, Rtnetlink}
+import org.midonet.netlink.{BytesUtil, NetlinkMessage, NetlinkUtil}
+import org.midonet.packets.MAC
+import org.midonet.util.concurrent.NanoClock
+
+/**
+ * Measures the cost for the interface scanner and its subscriber of a VM
+ * booting and being destroyed on a host with thousands of tap devices,
+ * which results in a NEWLINK and a DELLINK notification for the tap of the
+ * VM. The subscriber either receives the set of all interfaces and compares
+ * it with the previous set, or receives the update of the interfaces.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class InterfaceScannerBenchmark {
+
+    @Param(Array("5000"))
+    var taps: Int = _
+
+    @Param(Array("sets", "updates"))
+    var subscriber: String = _
+
+    private var scanner: DefaultInterfaceScanner = _
+    private var subscription: Subscription = _
+    private var newLink: ByteBuffer = _
+    private var delLink: ByteBuffer = _
+
+    private var interfaces = Set.empty[InterfaceDescription]
+    private var changes = 0
+
+    private def tapMessage(nlType: Short, index: Int): ByteBuffer = {
+        val link = new Link()
+        link.ifi.`type` = Link.Type.ARPHRD_ETHER
+        link.ifi.index = index
+        link.ifi.flags = Link.Flag.IFF_UP
+        link.link = index
+        link.setName(s"tap$index")
+        link.mac = MAC.random()
+        link.mtu = 1500
+        link.info.kind = Link.NestedAttrValue.LinkInfo.KIND_TUN
+
+        val buf = BytesUtil.instance.allocate(512)
+        buf.position(NetlinkMessage.HEADER_SIZE)
+        link.serializeInto(buf)
+        buf.flip()
+        NetlinkMessage.writeHeader(buf, buf.limit(), nlType, 0,
+                                   DefaultInterfaceScanner.NotificationSeq, 0)
+        buf
+    }
+
+    private def process(buf: ByteBuffer): Unit = {
+        buf.position(0)
+        scanner.processNotification(buf)
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        scanner = new DefaultInterfaceScanner(new MockNetlinkChannelFactory,
+                                              NetlinkUtil.DEFAULT_MAX_REQUESTS,
+                                              NetlinkUtil.DEFAULT_MAX_REQUEST_SIZE,
+                                              NanoClock.DEFAULT)
+        subscription = subscriber match {
+            case "sets" =>
+                scanner.subscribe(new Observer[Set[InterfaceDescription]] {
+                    override def onCompleted(): Unit = { }
+                    override def onError(e: Throwable): Unit = { }
+                    override def onNext(set: Set[InterfaceDescription]): Unit = {
+                        if (set != interfaces) changes += 1
+                        interfaces = set
+                    }
+                })
+            case "updates" =>
+                scanner.subscribeUpdates(new Observer[InterfacesUpdate] {
+                    override def onCompleted(): Unit = { }
+                    override def onError(e: Throwable): Unit = { }
+                    override def onNext(update: InterfacesUpdate): Unit = {
+                        changes += 1
+                    }
+                })
+        }
+        for (index <- 1 to taps) {
+            process(tapMessage(Rtnetlink.Type.NEWLINK, index))
+        }
+        newLink = tapMessage(Rtnetlink.Type.NEWLINK, taps + 1)
+        delLink = tapMessage(Rtnetlink.Type.DELLINK, taps + 1)
+    }
+
+    @JmhTearDown
+    def tearDown(): Unit = {
+        subscription.unsubscribe()
+    }
+
+    @Benchmark
+    def bootAndDestroyVm(): Int = {
+        process(newLink)
+        process(delLink)
+        changes
+    }
+}
@@ -39,6 +39,10 @@ public class TestReplicatedMap {
             super(dir);
         }
 
+        public ReplicatedStringMap(Directory dir, boolean incremental) {
+            super(dir, true, incremental);
+        }
+
         @Override
         protected String encodeKey(String key) {
             return key;
@@ -354,6 +358,54 @@ public class TestReplicatedMap {
         Assert.assertEquals(oldValuesMap, watch2.map2);
     }
 
+    @Test
+    public void testIncrementalAndFullSyncAgree()
+            throws KeeperException, InterruptedException {
+        mapDir.add("/one,100,", null, CreateMode.PERSISTENT_SEQUENTIAL);
+        String path2 = mapDir.add("/two,200,", null,
+                CreateMode.PERSISTENT_SEQUENTIAL);
+        ReplicatedStringMap fullMap = new ReplicatedStringMap(mapDir, false);
+        ReplicatedStringMap incMap = new ReplicatedStringMap(mapDir, true);
+        MyWatcher fullWatcher = new MyWatcher();
+        MyWatcher incWatcher = new MyWatcher();
+        fullMap.addWatcher(fullWatcher);
+        incMap.addWatcher(incWatcher);
+        fullMap.start();
+        incMap.start();
+        Assert.assertEquals(fullMap.getMap(), incMap.getMap());
+        Assert.assertEquals(fullWatcher.map1, incWatcher.map1);
+
+        // Replace a value with a newer version, and add a persistent value
+        // that does not take precedence over the learned one.
+        String path3 = mapDir.add("/two,201,", null,
+                CreateMode.PERSISTENT_SEQUENTIAL);
+        mapDir.add("/two,202," + ReplicatedMap.PERSISTENT_VERSION, null,
+                CreateMode.PERSISTENT);
+        incMap.put("three", "300");
+        Assert.assertEquals("201", incMap.get("two"));
+        Assert.assertEquals(fullMap.getMap(), incMap.getMap());
+        Assert.assertEquals(fullWatcher.map1, incWatcher.map1);
+        Assert.assertEquals(fullWatcher.map2, incWatcher.map2);
+
+        // Removing the newer version restores the older value.
+        mapDir.delete(path3);
+        Assert.assertEquals("200", incMap.get("two"));
+        mapDir.delete(path2);
+        Assert.assertEquals("202", incMap.get("two"));
+        incMap.removeIfOwner("three");
+        Assert.assertNull(incMap.get("three"));
+        Assert.assertEquals(fullMap.getMap(), incMap.getMap());
+        Assert.assertEquals(fullWatcher.map1, incWatcher.map1);
+        Assert.assertEquals(fullWatcher.map2, incWatcher.map2);
+
+        // Restarting the map notifies the full snapshot again.
+        incMap.stop();
+        MyWatcher restartWatcher = new MyWatcher();
+        incMap.addWatcher(restartWatcher);
+        incMap.start();
+        Assert.assertEquals(fullMap.getMap(), restartWatcher.map1);
+    }
+
     @Test
     public void testStringToLocationMap() throws KeeperException, InterruptedException {
         ReplicatedStringToLocationMap strMap = new
@@ -18,6 +18,8 @@ package org.midonet.midolman
 
 import java.util.UUID
 
+import com.typesafe.config.{Config, ConfigFactory}
+
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -107,6 +109,12 @@ class BridgeWithOneVm(val subnet: IPSubnet[IPv4Addr],
 @RunWith(classOf[JUnitRunner])
 class ChainInvalidationTest extends MidolmanSpec {
 
+    protected override def fillConfig(config: Config) = {
+        super.fillConfig(ConfigFactory.parseString(
+            "agent.midolman.chain_rule_invalidation : true")
+            .withFallback(config))
+    }
+
     var leftBridge: BridgeWithOneVm = _
     var rightBridge: BridgeWithOneVm = _
 
@@ -115,6 +123,7 @@ class ChainInvalidationTest extends MidolmanSpec {
 
     var routerIn: UUID = _
     var routerInJump: UUID = _
+    var routerInJumpRule: UUID = _
 
     var clusterRouter: UUID = _
 
@@ -125,7 +134,8 @@ class ChainInvalidationTest extends MidolmanSpec {
         routerIn = newInboundChainOnRouter("routerIn", clusterRouter)
         routerInJump = newChain("jumpChain", None)
 
-        newJumpRuleOnChain(routerIn, 1, new Condition(), routerInJump)
+        routerInJumpRule = newJumpRuleOnChain(routerIn, 1, new Condition(),
+                                              routerInJump)
 
         leftBridge = new BridgeWithOneVm(leftNet, clusterRouter, this)
         leftBridge.buildTopology()
@@ -201,9 +211,27 @@ class ChainInvalidationTest extends MidolmanSpec {
         result should be (toPort(rightBridge.vmPort)(tagsUntilEgress:_*))
     }
 
+    scenario("flows are tagged with the end of the traversed chains") {
+        When("a packet is sent across the topology")
+        val packetContext = packetContextFor(leftToRightFrame, leftBridge.vmPort)
+        val result = simulate(packetContext)
+
+        Then("The flow is tagged with the end of every traversed chain")
+        val chains = Seq(leftBridge.vmPortInFilter, leftBridge.bridgeInFilter,
+                         leftBridge.bridgeOutFilter, routerIn, routerInJump,
+                         rightBridge.bridgeOutFilter, rightBridge.vmPortOutFilter)
+        result should be (toPort(rightBridge.vmPort)(
+            chains.map(FlowTagger.tagForChainEnd):_*))
+
+        And("The flow is not tagged with the jump rule, which did not decide")
+        packetContext.flowTags should not contain
+            FlowTagger.tagForChainRule(routerIn, routerInJumpRule)
+    }
+
     def testChain(chain: UUID, tags: Seq[FlowTag]) {
         When("a drop rule is added to the chain")
-        newLiteralRuleOnChain(chain, 1, new Condition(), RuleResult.Action.DROP)
+        val rule = newLiteralRuleOnChain(chain, 1, new Condition(),
+                                         RuleResult.Action.DROP)
         fetchChains(chain)
 
         And("A packet is sent across the topology")
@@ -212,6 +240,9 @@ class ChainInvalidationTest extends MidolmanSpec {
 
         Then("It makes it to the other side, with all the expected tags")
         result should be (dropped(tags:_*))
+
+        And("The flow is tagged with the rule that dropped the packet")
+        result should be (dropped(FlowTagger.tagForChainRule(chain, rule)))
     }
 
     scenario("bridge port ingress chain is applied") {
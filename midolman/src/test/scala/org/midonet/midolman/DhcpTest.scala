@@ -29,7 +29,7 @@ import org.midonet.cluster.data.dhcp.Opt121
 import org.midonet.midolman.PacketWorkflow.GeneratedLogicalPacket
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.layer3.Route._
-import org.midonet.midolman.simulation.{Bridge, DhcpValueParser, Router}
+import org.midonet.midolman.simulation.{Bridge, Dhcp, DhcpValueParser, Router}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.midolman.util.VirtualConfigurationBuilders.DhcpOpt121Route
 import org.midonet.packets._
@@ -166,6 +166,10 @@ class DhcpTest extends MidolmanSpec {
                                        DHCPOption.Code.DNS.length,
                                        Array(192,168,1,1).map(_.toByte)))) }
 
+        // Load the DHCP configurations of the bridge, since the workflow
+        // would otherwise postpone the packet until they are loaded.
+        fetchDevice[Bridge](bridge).subnetIds foreach fetchDevice[Dhcp]
+
         val pktCtx = packetContextFor(pkt, inPortNumber = portNumber)
         workflow.start(pktCtx)
 
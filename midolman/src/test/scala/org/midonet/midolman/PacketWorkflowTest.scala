@@ -76,7 +76,8 @@ class PacketWorkflowTest extends MidolmanSpec {
         createDda()
     }
 
-    def createDda(simulationExpireMillis: Long = 5000L): Unit = {
+    def createDda(simulationExpireMillis: Long = 5000L,
+                  coalescePostponedPackets: Boolean = false): Unit = {
         if (ddaRef != null)
             actorSystem.stop(ddaRef)
 
@@ -84,7 +85,8 @@ class PacketWorkflowTest extends MidolmanSpec {
             new TestableDDA(new CookieGenerator(1, 1),
             mockDpChannel,
             (x: Int) => { packetsOut += x },
-            simulationExpireMillis)
+            simulationExpireMillis,
+            coalescePostponedPackets)
         }
 
         ddaRef = TestActorRef(ddaProps)(actorSystem)
@@ -391,6 +393,108 @@ class PacketWorkflowTest extends MidolmanSpec {
         }
     }
 
+    feature("Packets of a postponed flow are coalesced") {
+        scenario("Queued packets are executed with the result of the flow") {
+            Given("A packet workflow coalescing postponed packets")
+            createDda(coalescePostponedPackets = true)
+
+            When("Sending packets of two flows")
+            val pkts = List(makePacket(1), makePacket(1), makePacket(2),
+                            makePacket(1))
+            ddaRef ! PacketWorkflow.HandlePackets(pkts.toArray)
+
+            Then("Only the first packet of each flow is simulated")
+            packetsSeen map (_.cookie) should be (List(1, 3))
+            packetsOut should be (4)
+
+            And("The other packets are coalesced")
+            metrics.packetsCoalesced.getCount shouldBe 2
+            metrics.packetsOnHold.getCount shouldBe 4
+
+            When("The simulations complete")
+            dda.nextPacketActions = List(output(1))
+            dda.complete(List(output(1)))
+            ddaRef ! CheckBackchannels
+
+            Then("All packets are executed")
+            mockDpChannel.packetsSent.asScala should contain theSameElementsAs pkts
+            mockDpChannel.contextsSeen should have size 4
+            metrics.packetsOnHold.getCount shouldBe 0
+
+            And("The coalesced packets use the actions of the first packet")
+            for (context <- mockDpChannel.contextsSeen.asScala) {
+                context.packetActions.asScala should be (List(output(1)))
+            }
+
+            And("The coalesced packets were not simulated")
+            packetsSeen map (_.cookie) should be (List(1, 3))
+        }
+
+        scenario("Queued packets are simulated when the result is not a flow") {
+            Given("A packet workflow coalescing postponed packets")
+            createDda(coalescePostponedPackets = true)
+
+            When("Sending two packets of the same flow")
+            val pkts = List(makePacket(1), makePacket(1))
+            ddaRef ! PacketWorkflow.HandlePackets(pkts.toArray)
+
+            Then("Only the first packet is simulated")
+            packetsSeen map (_.cookie) should be (List(1))
+            metrics.packetsCoalesced.getCount shouldBe 1
+
+            When("The simulation completes without creating a flow")
+            dda.nextResult = NoOp
+            dda.complete(Nil)
+            ddaRef ! CheckBackchannels
+
+            Then("The second packet is simulated")
+            packetsSeen map (_.cookie) should be (List(1, 2))
+            mockDpChannel.contextsSeen should have size 2
+            metrics.packetsOnHold.getCount shouldBe 0
+        }
+
+        scenario("Queued packets are dropped with the first packet") {
+            Given("A packet workflow coalescing postponed packets")
+            createDda(coalescePostponedPackets = true)
+
+            When("Sending three packets of the same flow")
+            val pkts = List(makePacket(1), makePacket(1), makePacket(1))
+            ddaRef ! PacketWorkflow.HandlePackets(pkts.toArray)
+            metrics.packetsCoalesced.getCount shouldBe 2
+
+            And("The simulation fails")
+            dda.completeWithException(new Exception("simulation failed"))
+            ddaRef ! CheckBackchannels
+
+            Then("All packets are dropped")
+            metrics.packetsDropped.getCount shouldBe 3
+            metrics.packetsOnHold.getCount shouldBe 0
+            mockDpChannel.packetsSent shouldBe empty
+            mockDpChannel.contextsSeen should have size 3
+            mockDpChannel.contextsSeen.asScala foreach isCleared
+
+            And("Only the first packet was simulated")
+            packetsSeen map (_.cookie) should be (List(1))
+        }
+
+        scenario("Packets arriving after the flow completes are simulated") {
+            Given("A packet workflow coalescing postponed packets")
+            createDda(coalescePostponedPackets = true)
+
+            When("A packet completes its simulation")
+            ddaRef ! PacketWorkflow.HandlePackets(Array(makePacket(1)))
+            dda.complete(Nil)
+            ddaRef ! CheckBackchannels
+
+            And("Another packet of the same flow arrives")
+            ddaRef ! PacketWorkflow.HandlePackets(Array(makePacket(1)))
+
+            Then("The packet is simulated")
+            packetsSeen map (_.cookie) should be (List(1, 2))
+            metrics.packetsCoalesced.getCount shouldBe 0
+        }
+    }
+
     private def isCleared(context: PacketContext): Unit = {
         context.flowTags should be (empty)
         context.flowRemovedCallbacks should be (empty)
@@ -588,7 +692,8 @@ class PacketWorkflowTest extends MidolmanSpec {
     class TestableDDA(cookieGen: CookieGenerator,
                       dpChannel: DatapathChannel,
                       packetOut: Int => Unit,
-                      override val simulationExpireMillis: Long)
+                      override val simulationExpireMillis: Long,
+                      override val coalescePostponedPackets: Boolean)
             extends PacketWorkflow(1, 0, injector.getInstance(classOf[MidolmanConfig]),
                                    hostId, new DatapathStateDriver(new Datapath(0, "midonet")),
                                    cookieGen, clock, dpChannel,
@@ -609,6 +714,8 @@ class PacketWorkflowTest extends MidolmanSpec {
         var generatedPacket: GeneratedPacket = _
         var generatedException: Exception = _
         var nextActions: List[FlowAction] = _
+        var nextPacketActions: List[FlowAction] = _
+        var nextResult: SimulationResult = FlowCreated
         var exception: Exception = _
 
         def completeWithGenerated(actions: List[FlowAction],
@@ -648,6 +755,9 @@ class PacketWorkflowTest extends MidolmanSpec {
             if (nextActions ne null) {
                 nextActions foreach pktCtx.flowActions.add
             }
+            if (nextPacketActions ne null) {
+                nextPacketActions foreach pktCtx.packetActions.add
+            }
             if (pktCtx.runs == 1) {
                 packetsSeen = packetsSeen :+ pktCtx
                 if (pktCtx.isGenerated) {
@@ -667,7 +777,7 @@ class PacketWorkflowTest extends MidolmanSpec {
                 } else if (exception ne null) {
                     throw exception
                 }
-                FlowCreated
+                nextResult
             }
         }
     }
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import scala.collection.mutable
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.odp.{FlowMatch, FlowMatches, Packet}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC}
+import org.midonet.util.concurrent.MockClock
+
+@RunWith(classOf[JUnitRunner])
+class UpcallSchedulerTest extends FeatureSpec with Matchers
+                          with GivenWhenThen with BeforeAndAfter {
+
+    val quantum = 100L
+
+    var clock: MockClock = _
+    var registry: MetricRegistry = _
+    var metrics: PacketPipelineMetrics = _
+
+    before {
+        clock = new MockClock
+        registry = new MetricRegistry
+        metrics = new PacketPipelineMetrics(registry, 0)
+    }
+
+    /* Records the packets released by the scheduler, advancing the clock by
+     * the cost of their simulation. */
+    class RecordingHandler(cost: Packet => Long = _ => quantum)
+        extends UpcallScheduler.Handler {
+        val processed = new mutable.ArrayBuffer[Packet]
+        val shed = new mutable.ArrayBuffer[Packet]
+        override def process(packet: Packet): Unit = {
+            processed += packet
+            clock.time += cost(packet)
+        }
+        override def shed(packet: Packet): Unit = shed += packet
+    }
+
+    private def packet(portNo: Int, src: IPv4Addr = IPv4Addr.random,
+                       dst: IPv4Addr = IPv4Addr.random,
+                       srcPort: Short = 1000, dstPort: Short = 80): Packet = {
+        val frame: Ethernet = { eth src MAC.random() dst MAC.random() } <<
+                              { ip4 src src dst dst } <<
+                              { tcp src srcPort dst dstPort }
+        val fmatch = FlowMatches.fromEthernetPacket(frame)
+        fmatch.setInputPortNumber(portNo)
+        val p = new Packet(frame, fmatch)
+        p.startTimeNanos = clock.tick
+        p
+    }
+
+    private def portMetrics(portNo: Int): Int =
+        registry.getNames.toArray.count(_.toString.contains(s"port-$portNo"))
+
+    private def ports(packets: Seq[Packet]): Seq[Int] =
+        packets.map(_.getMatch.getInputPortNumber)
+
+    feature("The scheduler serves the input ports fairly") {
+        scenario("Ports are served round robin") {
+            Given("A scheduler with many packets from a port and few from another")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            for (i <- 0 until 10) scheduler.enqueue(packet(1)) shouldBe true
+            for (i <- 0 until 2) scheduler.enqueue(packet(2)) shouldBe true
+            scheduler.size shouldBe 12
+
+            When("Running a scheduling round")
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+
+            Then("Each port has one packet simulated")
+            ports(handler.processed) shouldBe Seq(1, 2)
+
+            When("Running another round")
+            scheduler.schedule(handler)
+
+            Then("Each port has another packet simulated")
+            ports(handler.processed) shouldBe Seq(1, 2, 1, 2)
+
+            When("Running the remaining rounds")
+            while (!scheduler.isEmpty) scheduler.schedule(handler)
+
+            Then("The remaining packets are from the first port")
+            ports(handler.processed.drop(4)) shouldBe Seq.fill(8)(1)
+        }
+
+        scenario("Ports are charged for the time of their simulations") {
+            Given("A scheduler with packets from two ports")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            for (i <- 0 until 3) {
+                scheduler.enqueue(packet(1))
+                scheduler.enqueue(packet(2))
+            }
+
+            When("The packets of the first port take three quanta to simulate")
+            val handler = new RecordingHandler(p =>
+                if (p.getMatch.getInputPortNumber == 1) 3 * quantum
+                else quantum)
+            for (i <- 0 until 4) scheduler.schedule(handler)
+
+            Then("The second port has three times more packets simulated")
+            ports(handler.processed) shouldBe Seq(1, 2, 2, 2, 1)
+        }
+    }
+
+    feature("The scheduler prioritizes packets") {
+        scenario("Tunnel packets are simulated first") {
+            Given("A scheduler with packets from a port")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            scheduler.enqueue(packet(1))
+            scheduler.enqueue(packet(1))
+
+            When("Queuing a packet from a tunnel")
+            val tunnel = packet(2)
+            tunnel.getMatch.setTunnelKey(10L)
+            scheduler.enqueue(tunnel)
+
+            Then("The tunnel packet is simulated first")
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+            handler.processed.head shouldBe tunnel
+            metrics.upcallsPrioritized.getCount shouldBe 1
+        }
+
+        scenario("Packets of tracked connections are simulated first") {
+            Given("A scheduler with packets from a port")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            scheduler.enqueue(packet(1))
+
+            When("A connection has connection tracking state")
+            val src = IPv4Addr.random
+            val dst = IPv4Addr.random
+            val forward = packet(2, src, dst, 1000, 80)
+            scheduler.connectionTracked(forward.getMatch)
+
+            And("Queuing a packet of the return direction")
+            val reply = packet(3, dst, src, 80, 1000)
+            scheduler.enqueue(reply)
+
+            Then("The return packet is simulated first")
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+            handler.processed.head shouldBe reply
+
+            And("The fields of the packets are not marked as seen")
+            forward.getMatch.getSeenFields shouldBe 0L
+            reply.getMatch.getSeenFields shouldBe 0L
+        }
+
+        scenario("Connection keys are symmetric") {
+            val src = IPv4Addr.random
+            val dst = IPv4Addr.random
+            val forward = packet(1, src, dst, 1000, 80).getMatch
+            val reply = packet(1, dst, src, 80, 1000).getMatch
+            val other = packet(1, dst, src, 81, 1000).getMatch
+            UpcallScheduler.connectionKey(forward) shouldBe
+                UpcallScheduler.connectionKey(reply)
+            UpcallScheduler.connectionKey(forward) should not be
+                UpcallScheduler.connectionKey(other)
+            UpcallScheduler.connectionKey(new FlowMatch()) shouldBe 0
+        }
+
+        scenario("Connection keys keep the tracking state of the match") {
+            Given("A match not tracking the seen fields")
+            val fmatch = packet(1).getMatch
+            fmatch.doNotTrackSeenFields()
+
+            When("Computing the connection key")
+            UpcallScheduler.connectionKey(fmatch)
+
+            Then("The match does not track the seen fields")
+            fmatch.isTrackingSeenFields shouldBe false
+            fmatch.getNetworkSrcIP
+            fmatch.getSeenFields shouldBe 0L
+
+            And("A match tracking the seen fields keeps tracking them")
+            fmatch.doTrackSeenFields()
+            UpcallScheduler.connectionKey(fmatch)
+            fmatch.isTrackingSeenFields shouldBe true
+            fmatch.getSeenFields shouldBe 0L
+        }
+
+        scenario("Prioritized packets do not starve the ports") {
+            Given("A scheduler with a flood of tunnel packets")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            for (i <- 0 until 10) {
+                val tunnel = packet(2)
+                tunnel.getMatch.setTunnelKey(10L)
+                scheduler.enqueue(tunnel)
+            }
+
+            And("Packets from a port")
+            scheduler.enqueue(packet(1))
+            scheduler.enqueue(packet(1))
+
+            When("Running a scheduling round")
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+
+            Then("The priority queue is served up to its quantum")
+            handler.processed should have size 2
+            handler.processed.head.getMatch.isFromTunnel shouldBe true
+            ports(handler.processed.tail) shouldBe Seq(1)
+
+            When("Running another round")
+            scheduler.schedule(handler)
+
+            Then("The port has another packet simulated")
+            handler.processed should have size 4
+            ports(handler.processed.drop(3)) shouldBe Seq(1)
+            scheduler.size shouldBe 8
+        }
+    }
+
+    feature("The scheduler sheds load") {
+        scenario("Packets exceeding the maximum queue delay are shed") {
+            Given("A scheduler with a maximum queue delay")
+            val scheduler = new UpcallScheduler(quantum, 1000L, metrics, clock)
+
+            When("Queuing packets from two ports")
+            val old = packet(1)
+            clock.time = 5000L
+            val recent = packet(2)
+            scheduler.enqueue(old)
+            scheduler.enqueue(recent)
+
+            Then("The delayed packet is shed")
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+            handler.shed shouldBe Seq(old)
+            handler.processed shouldBe Seq(recent)
+
+            And("The drop is recorded for its port")
+            metrics.upcallPortDropped(1).getCount shouldBe 1
+            metrics.upcallPortDropped(2).getCount shouldBe 0
+            metrics.upcallsShed.getCount shouldBe 1
+
+            And("The queue delays are recorded per port")
+            metrics.upcallPortQueueDelay(1).getSnapshot.getMax shouldBe 5000L
+            metrics.upcallPortQueueDelay(2).getSnapshot.getMax shouldBe 0L
+        }
+
+        scenario("Packets are rejected when the queue of the port is full") {
+            Given("A scheduler with a full queue")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            for (i <- 0 until UpcallScheduler.MaxQueuedPackets)
+                scheduler.enqueue(packet(1)) shouldBe true
+
+            Then("Packets from the port are rejected")
+            scheduler.enqueue(packet(1)) shouldBe false
+            metrics.upcallPortDropped(1).getCount shouldBe 1
+
+            And("Packets from other ports are accepted")
+            scheduler.enqueue(packet(2)) shouldBe true
+            scheduler.size shouldBe UpcallScheduler.MaxQueuedPackets + 1
+        }
+    }
+
+    feature("The scheduler removes the queues of removed ports") {
+        scenario("An empty queue is removed with its metrics") {
+            Given("A scheduler that simulated a packet from a port")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            scheduler.enqueue(packet(1))
+            scheduler.schedule(new RecordingHandler)
+            scheduler.portCount shouldBe 1
+            portMetrics(1) shouldBe 2
+
+            When("The datapath port is removed")
+            scheduler.portRemoved(1)
+
+            Then("The queue and its metrics are removed")
+            scheduler.portCount shouldBe 0
+            portMetrics(1) shouldBe 0
+        }
+
+        scenario("A queue with packets is removed when empty") {
+            Given("A scheduler with packets from a port")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            scheduler.enqueue(packet(1))
+            scheduler.enqueue(packet(1))
+
+            When("The datapath port is removed")
+            scheduler.portRemoved(1)
+
+            Then("The queue is kept until its packets are simulated")
+            scheduler.portCount shouldBe 1
+            val handler = new RecordingHandler
+            scheduler.schedule(handler)
+            scheduler.portCount shouldBe 1
+            scheduler.schedule(handler)
+            ports(handler.processed) shouldBe Seq(1, 1)
+            scheduler.portCount shouldBe 0
+
+            When("Removing a port without a queue")
+            scheduler.portRemoved(2)
+
+            Then("The scheduler has no queues")
+            scheduler.portCount shouldBe 0
+        }
+
+        scenario("A reused port number keeps its queue") {
+            Given("A scheduler with a packet from a removed port")
+            val scheduler = new UpcallScheduler(quantum, 0L, metrics, clock)
+            scheduler.enqueue(packet(1))
+            scheduler.portRemoved(1)
+
+            When("The port number is reused before the queue is empty")
+            scheduler.enqueue(packet(1))
+            scheduler.schedule(new RecordingHandler)
+            scheduler.schedule(new RecordingHandler)
+
+            Then("The queue is not removed")
+            scheduler.isEmpty shouldBe true
+            scheduler.portCount shouldBe 1
+        }
+    }
+}
@@ -87,7 +87,8 @@ class DatapathChannelTest extends MidolmanSpec {
                 new EventPollerHandlerAdapter(
                     new PacketExecutor(
                         new DatapathStateDriver(datapath), ovsFamilies, 1, 0,
-                        factory, new PacketExecutorMetrics(metricRegistry, 0)))),
+                        factory, new PacketExecutorMetrics(metricRegistry, 0),
+                        new DatapathMetrics(metricRegistry)))),
             fp)
         barrier = ringBuffer.newBarrier(processor.getSequence)
         dpChannel = new DisruptorDatapathChannel(ringBuffer, Array(processor))
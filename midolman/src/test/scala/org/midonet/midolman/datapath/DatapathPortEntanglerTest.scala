@@ -19,7 +19,7 @@ import java.util.{HashSet, UUID}
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable.ArrayBuffer
-import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.{ExecutionContext, Future, Promise}
 
 import org.midonet.midolman.DatapathStateDriver
 import org.midonet.midolman.DatapathStateDriver.DpTriad
@@ -465,4 +465,111 @@ class DatapathPortEntanglerTest extends FlatSpec with ShouldMatchers with OneIns
         entangler.dpPortNumToTriad containsKey 1 should be (true)
         entangler.keyToTriad containsKey 1L should be (true)
     }
+
+    "Interface updates during a DP port create operation" should "be coalesced" in {
+        val entangler = new DatapathPortEntangler {
+            val log = Logger(NOPLogger.NOP_LOGGER)
+            override protected val singleThreadExecutionContext =
+                ExecutionContext.callingThread
+
+            val created = Promise[(DpPort, Int)]()
+            var portsCreated = 0
+            var portsRemoved = 0
+            var portActive = false
+
+            protected val driver = new DatapathStateDriver(new Datapath(0, "midonet"))
+
+            def addToDatapath(interfaceName: String): Future[(DpPort, Int)] = {
+                portsCreated += 1
+                created.future
+            }
+
+            def removeFromDatapath(port: DpPort): Future[Boolean] = {
+                portsRemoved += 1
+                Future.successful(true)
+            }
+
+            def setVportStatus(port: DpPort, vport: UUID, tunnelKey: Long,
+                               isActive: Boolean): Unit = {
+                portActive = isActive
+            }
+        }
+
+        val id = UUID.randomUUID()
+        val up = new InterfaceDescription("eth1")
+        up.setUp(true)
+        entangler.updateVportInterfaceBindings(Map(id -> PortBinding(id, 1, "eth1")))
+        entangler.updateInterfaces(new HashSet[InterfaceDescription] { add(up) })
+        entangler.portsCreated should be (1)
+
+        // Unchanged interfaces do not schedule more work.
+        entangler.updateInterfaces(new HashSet[InterfaceDescription] { add(up) })
+        entangler.portsCreated should be (1)
+
+        // The interface flaps while the port is being created.
+        entangler.updateInterfaces(new HashSet[InterfaceDescription]())
+        entangler.updateInterfaces(new HashSet[InterfaceDescription] { add(up) })
+
+        entangler.created.success((DpPort.fakeFrom(new NetDevPort("eth1"), 1), 1))
+
+        entangler.portsCreated should be (1)
+        entangler.portsRemoved should be (0)
+        entangler.portActive should be (true)
+        entangler.dpPortNumToTriad containsKey 1 should be (true)
+        (entangler.interfaceToTriad get "eth1" isUp) should be (true)
+    }
+
+    "An interface up during a DP port remove operation" should "recreate the port" in {
+        val entangler = new DatapathPortEntangler {
+            val log = Logger(NOPLogger.NOP_LOGGER)
+            override protected val singleThreadExecutionContext =
+                ExecutionContext.callingThread
+
+            val removed = Promise[Boolean]()
+            var portsCreated = 0
+            var portsRemoved = 0
+            var portActive = false
+
+            protected val driver = new DatapathStateDriver(new Datapath(0, "midonet"))
+
+            def addToDatapath(interfaceName: String): Future[(DpPort, Int)] = {
+                portsCreated += 1
+                Future.successful((DpPort.fakeFrom(new NetDevPort(interfaceName),
+                                                   portsCreated), portsCreated))
+            }
+
+            def removeFromDatapath(port: DpPort): Future[Boolean] = {
+                portsRemoved += 1
+                removed.future
+            }
+
+            def setVportStatus(port: DpPort, vport: UUID, tunnelKey: Long,
+                               isActive: Boolean): Unit = {
+                portActive = isActive
+            }
+        }
+
+        val id = UUID.randomUUID()
+        val up = new InterfaceDescription("eth1")
+        up.setUp(true)
+        entangler.updateVportInterfaceBindings(Map(id -> PortBinding(id, 1, "eth1")))
+        entangler.updateInterfaces(new HashSet[InterfaceDescription] { add(up) })
+        entangler.portsCreated should be (1)
+        entangler.portActive should be (true)
+
+        // The interface goes down, and comes back up while the port is
+        // being removed.
+        entangler.updateInterfaces(new HashSet[InterfaceDescription]())
+        entangler.portsRemoved should be (1)
+        entangler.updateInterfaces(new HashSet[InterfaceDescription] { add(up) })
+        entangler.portsCreated should be (1)
+
+        entangler.removed.success(true)
+
+        // The port is created again for the interface that is up.
+        entangler.portsCreated should be (2)
+        entangler.portActive should be (true)
+        entangler.dpPortNumToTriad containsKey 2 should be (true)
+        (entangler.interfaceToTriad get "eth1" isUp) should be (true)
+    }
 }
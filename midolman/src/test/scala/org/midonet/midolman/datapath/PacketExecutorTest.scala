@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.datapath
+
+import java.nio.ByteBuffer
+import java.util.UUID
+
+import scala.collection.mutable
+
+import com.typesafe.scalalogging.Logger
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.midolman.DatapathStateDriver
+import org.midonet.midolman.datapath.DisruptorDatapathChannel.PacketContextHolder
+import org.midonet.midolman.monitoring.metrics.{DatapathMetrics, PacketExecutorMetrics}
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
+import org.midonet.midolman.state.FlowStateAgentPackets._
+import org.midonet.midolman.state.NatState.NatKey
+import org.midonet.midolman.util.{MidolmanSpec, MockNetlinkChannelFactory}
+import org.midonet.netlink.{BytesUtil, NetlinkMessage}
+import org.midonet.odp._
+import org.midonet.odp.Datapath.{MegaflowStats, Stats}
+import org.midonet.odp.family.{DatapathFamily, FlowFamily, PacketFamily, PortFamily}
+import org.midonet.odp.flows.{FlowAction, FlowActions}
+import org.midonet.odp.flows.FlowActions.setKey
+import org.midonet.odp.flows.FlowKeys.tunnel
+import org.midonet.packets.NatState.{FWD_SNAT, NatBinding}
+import org.midonet.packets.util.PacketBuilder._
+import org.midonet.packets.{Ethernet, IPv4Addr, MAC, SbeEncoder}
+
+@RunWith(classOf[JUnitRunner])
+class PacketExecutorTest extends MidolmanSpec {
+
+    val pid = 10
+    val datapathId = 11
+    val ovsFamilies = new OvsNetlinkFamilies(new DatapathFamily(1), new PortFamily(2),
+                                             new FlowFamily(3), new PacketFamily(4), 5, 6)
+    val datapath = new Datapath(datapathId, "midonet",
+                                new Stats(0, 0, 0, 0), new MegaflowStats(0, 0))
+    val protocol = new OvsProtocol(pid, ovsFamilies)
+
+    var factory: MockNetlinkChannelFactory = _
+    var dpMetrics: DatapathMetrics = _
+
+    override def beforeTest(): Unit = {
+        factory = new MockNetlinkChannelFactory
+        factory.channel.setPid(pid)
+        dpMetrics = new DatapathMetrics(metricRegistry)
+    }
+
+    val sender = UUID.randomUUID()
+    val encoder = new SbeEncoder
+
+    private def executor(batching: Boolean, numHandlers: Int = 1,
+                         aggregation: Boolean = false) =
+        new PacketExecutor(new DatapathStateDriver(datapath), ovsFamilies,
+                           numHandlers, 0, factory,
+                           new PacketExecutorMetrics(metricRegistry, 0),
+                           dpMetrics, batching, aggregation)
+
+    private def ethernet(payloadSize: Int = 1): Ethernet =
+        ({ eth src MAC.random() dst MAC.random() } <<
+         { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+         payload(new Array[Byte](payloadSize))).packet
+
+    private def context(port: Int, payloadSize: Int = 1): PacketContext = {
+        val context = packetContextFor(ethernet(payloadSize), UUID.randomUUID())
+        context.packetActions.add(FlowActions.output(port))
+        context
+    }
+
+    private def peer(port: Int): Seq[FlowAction] =
+        Seq(setKey(tunnel(port, IPv4Addr.random.toInt,
+                          IPv4Addr.random.toInt, 0.toByte)),
+            FlowActions.output(port))
+
+    private def connTrackKey(): ConnTrackKey =
+        ConnTrackKey(IPv4Addr.random, 1000, IPv4Addr.random, 80, 6,
+                     UUID.randomUUID())
+
+    private def natKey(): (NatKey, NatBinding) =
+        NatKey(FWD_SNAT, IPv4Addr.random, 1000, IPv4Addr.random, 80, 6,
+               UUID.randomUUID()) -> NatBinding(IPv4Addr.random, 2000)
+
+    /* Encodes a flow state message with the given keys. */
+    private def encode(message: Array[Byte], conntrack: Seq[ConnTrackKey],
+                       nat: Seq[(NatKey, NatBinding)],
+                       portIds: Boolean): Int = {
+        val msg = encoder.encodeTo(message)
+        uuidToSbe(sender, msg.sender)
+        val conntrackIter = msg.conntrackCount(conntrack.size)
+        for (key <- conntrack) {
+            connTrackKeyToSbe(key, conntrackIter.next())
+        }
+        val natIter = msg.natCount(nat.size)
+        for ((key, binding) <- nat) {
+            natToSbe(key, binding, natIter.next())
+        }
+        msg.traceCount(0)
+        msg.traceRequestIdsCount(0)
+        if (portIds) {
+            portIdsToSbe(UUID.randomUUID(), new java.util.ArrayList[UUID](),
+                         msg.portIdsCount(1).next())
+        } else {
+            msg.portIdsCount(0)
+        }
+        encoder.encodedLength()
+    }
+
+    private def stateContext(port: Int, peerActions: Seq[FlowAction],
+                             conntrack: Seq[ConnTrackKey],
+                             nat: Seq[(NatKey, NatBinding)]): PacketContext = {
+        val ctx = context(port)
+        ctx.stateMessageLength = encode(ctx.stateMessage, conntrack, nat,
+                                        portIds = true)
+        peerActions.foreach(ctx.stateActions.add)
+        ctx
+    }
+
+    private val stateExecutor = new StatePacketExecutor {
+        val log = Logger(NOPLogger.NOP_LOGGER)
+    }
+
+    private def expectedState(peerActions: Seq[FlowAction],
+                              conntrack: Seq[ConnTrackKey],
+                              nat: Seq[(NatKey, NatBinding)]): ByteBuffer = {
+        val message = new Array[Byte](2048)
+        val length = encode(message, conntrack, nat, portIds = false)
+        val packet = stateExecutor.prepareStatePacket(message, length)
+        val actions = new java.util.ArrayList[FlowAction]()
+        peerActions.foreach(actions.add)
+        val buf = BytesUtil.instance.allocate(4096)
+        protocol.preparePacketExecute(datapathId, packet, actions, buf)
+        buf
+    }
+
+    private def execute(executor: PacketExecutor,
+                        contexts: Seq[PacketContext]): Unit = {
+        for ((context, seq) <- contexts.zipWithIndex) {
+            executor.onEvent(new PacketContextHolder(context, null), seq,
+                             seq == contexts.size - 1)
+        }
+    }
+
+    private def expected(context: PacketContext): ByteBuffer = {
+        val buf = BytesUtil.instance.allocate(
+            context.packet.getEthernet.length + 1024)
+        protocol.preparePacketExecute(datapathId, context.packet,
+                                      context.packetActions, buf)
+        buf
+    }
+
+    private def messages(written: ByteBuffer): Seq[ByteBuffer] = {
+        val messages = new mutable.ArrayBuffer[ByteBuffer]
+        var position = 0
+        while (position < written.position()) {
+            val length = written.getInt(position + NetlinkMessage.NLMSG_LEN_OFFSET)
+            val message = written.duplicate()
+            message.limit(position + length).position(position)
+            messages += message.slice()
+            position += length
+        }
+        messages
+    }
+
+    private def writtenMessages(): Seq[ByteBuffer] = {
+        val written = new mutable.ArrayBuffer[ByteBuffer]
+        while (!factory.channel.written.isEmpty) {
+            written ++= messages(factory.channel.written.poll())
+        }
+        written
+    }
+
+    feature("The packet executor executes packets") {
+        scenario("Packets are executed with one write per packet") {
+            Given("A packet executor without batching")
+            val exec = executor(batching = false)
+
+            When("Executing three packets")
+            val contexts = Seq(context(1), context(1), context(2))
+            execute(exec, contexts)
+
+            Then("The executor writes one message per packet")
+            factory.channel.packetsWritten.get shouldBe 3
+            writtenMessages() shouldBe contexts.map(expected)
+            contexts.forall(_.packetProcessed.get) shouldBe true
+        }
+
+        scenario("Packets are executed with one write per batch") {
+            Given("A packet executor with batching")
+            val exec = executor(batching = true)
+
+            When("Executing a batch of three packets")
+            val contexts = Seq(context(1), context(1), context(2))
+            execute(exec, contexts)
+
+            Then("The executor writes the three messages at once")
+            factory.channel.packetsWritten.get shouldBe 1
+            writtenMessages() shouldBe contexts.map(expected)
+            contexts.forall(_.packetProcessed.get) shouldBe true
+
+            And("The batch size is recorded")
+            dpMetrics.packetExecuteBatchSize.getCount shouldBe 1
+            dpMetrics.packetExecuteBatchSize.getSnapshot.getMax shouldBe 3
+
+            And("The encoded actions were reused for the second packet")
+            dpMetrics.packetExecuteActionsCached.getCount shouldBe 1
+
+            When("Executing another batch")
+            val more = Seq(context(2), context(3))
+            execute(exec, more)
+
+            Then("The executor writes the second batch")
+            factory.channel.packetsWritten.get shouldBe 2
+            writtenMessages() shouldBe more.map(expected)
+            dpMetrics.packetExecuteActionsCached.getCount shouldBe 2
+        }
+
+        scenario("The batch is written at the end of the ring buffer batch") {
+            Given("A packet executor with batching sharing the ring buffer")
+            val exec = executor(batching = true, numHandlers = 2)
+
+            When("The last event of the batch belongs to another executor")
+            val contexts = Seq(context(1), context(1))
+            execute(exec, contexts)
+
+            Then("The executor writes its own packet")
+            factory.channel.packetsWritten.get shouldBe 1
+            writtenMessages() shouldBe Seq(expected(contexts.head))
+            contexts.head.packetProcessed.get shouldBe true
+        }
+
+        scenario("The batch is written when the buffer is full") {
+            Given("A packet executor with batching")
+            val exec = executor(batching = true)
+
+            When("Executing a batch of packets larger than the buffer")
+            val contexts = for (port <- 1 to 5) yield context(port, 20000)
+            execute(exec, contexts)
+
+            Then("The executor writes the messages in several batches")
+            factory.channel.packetsWritten.get should be > 1
+            writtenMessages() shouldBe contexts.map(expected)
+
+            When("Executing a packet larger than the buffer")
+            val large = context(1, 100000)
+            execute(exec, Seq(large))
+
+            Then("The executor writes the packet")
+            writtenMessages() shouldBe Seq(expected(large))
+        }
+    }
+
+    feature("The packet executor aggregates the flow state") {
+        scenario("Flow state messages to the same peers are aggregated") {
+            Given("A packet executor with flow state aggregation")
+            val exec = executor(batching = true, aggregation = true)
+
+            And("Three packets with state for a peer and one for another")
+            val peer1 = peer(1)
+            val peer2 = peer(2)
+            val conntrack1 = Seq.fill(3)(connTrackKey())
+            val nat1 = Seq.fill(3)(natKey())
+            val conntrack2 = Seq(connTrackKey())
+            val contexts = Seq(
+                stateContext(10, peer1, Seq(conntrack1(0)), Seq(nat1(0))),
+                stateContext(11, peer1, Seq(conntrack1(1)), Seq(nat1(1))),
+                stateContext(12, peer2, conntrack2, Seq()),
+                stateContext(13, peer1, Seq(conntrack1(2)), Seq(nat1(2))))
+
+            When("Executing the batch")
+            execute(exec, contexts)
+
+            Then("The executor writes the state before the packets")
+            factory.channel.packetsWritten.get shouldBe 2
+            val states = messages(factory.channel.written.poll())
+            states should contain theSameElementsAs Seq(
+                expectedState(peer1, conntrack1, nat1),
+                expectedState(peer2, conntrack2, Seq()))
+            writtenMessages() shouldBe contexts.map(expected)
+
+            And("The state of the contexts is cleared")
+            contexts.forall(_.stateActions.isEmpty) shouldBe true
+
+            And("The entries per message are recorded")
+            dpMetrics.flowStateMessagesAggregated.getCount shouldBe 4
+            dpMetrics.flowStateEntriesPerMessage.getCount shouldBe 2
+            dpMetrics.flowStateEntriesPerMessage.getSnapshot.getMax shouldBe 6
+            dpMetrics.flowStateEntriesPerMessage.getSnapshot.getMin shouldBe 1
+        }
+
+        scenario("Aggregated messages are limited by the payload length") {
+            Given("A packet executor with flow state aggregation")
+            val exec = executor(batching = true, aggregation = true)
+
+            When("Executing a batch with more entries than fit in a message")
+            val peer1 = peer(1)
+            val keys = Seq.fill(30)(connTrackKey())
+            val contexts = keys.map(k => stateContext(1, peer1, Seq(k), Seq()))
+            execute(exec, contexts)
+
+            Then("The executor writes the state in two messages")
+            factory.channel.packetsWritten.get shouldBe 2
+            val states = messages(factory.channel.written.poll())
+            states.size shouldBe 2
+            val entries = dpMetrics.flowStateEntriesPerMessage.getSnapshot
+            entries.getMax + entries.getMin shouldBe 30
+            states.head shouldBe expectedState(peer1,
+                                               keys.take(entries.getMax.toInt),
+                                               Seq())
+            writtenMessages() shouldBe contexts.map(expected)
+        }
+
+        scenario("Flow state is not aggregated without batching") {
+            Given("A packet executor with aggregation but without batching")
+            val exec = executor(batching = false, aggregation = true)
+
+            When("Executing two packets with state for the same peer")
+            val peer1 = peer(1)
+            val contexts = Seq(
+                stateContext(10, peer1, Seq(connTrackKey()), Seq()),
+                stateContext(11, peer1, Seq(connTrackKey()), Seq()))
+            execute(exec, contexts)
+
+            Then("The executor writes one state packet per packet")
+            factory.channel.packetsWritten.get shouldBe 4
+            dpMetrics.flowStateMessagesAggregated.getCount shouldBe 0
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.host.scanner
+
+import java.nio.ByteBuffer
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import rx.observers.TestObserver
+
+import org.midonet.midolman.host.interfaces.InterfaceDescription
+import org.midonet.midolman.host.scanner.InterfaceScanner.InterfacesUpdate
+import org.midonet.midolman.util.MockNetlinkChannelFactory
+import org.midonet.netlink.rtnetlink.{Link, Rtnetlink}
+import org.midonet.netlink.{BytesUtil, NetlinkMessage, NetlinkUtil}
+import org.midonet.packets.MAC
+import org.midonet.util.concurrent.NanoClock
+
+@RunWith(classOf[JUnitRunner])
+class InterfaceUpdatesTest extends FeatureSpec
+                           with Matchers
+                           with GivenWhenThen {
+
+    private def newScanner() =
+        new DefaultInterfaceScanner(new MockNetlinkChannelFactory,
+                                    NetlinkUtil.DEFAULT_MAX_REQUESTS,
+                                    NetlinkUtil.DEFAULT_MAX_REQUEST_SIZE,
+                                    NanoClock.DEFAULT)
+
+    private def link(index: Int, name: String, mac: MAC,
+                     mtu: Int = 1500): Link = {
+        val link = new Link()
+        link.ifi.`type` = Link.Type.ARPHRD_ETHER
+        link.ifi.index = index
+        link.link = index
+        link.setName(name)
+        link.mac = mac
+        link.mtu = mtu
+        link.info.kind = Link.NestedAttrValue.LinkInfo.KIND_TUN
+        link
+    }
+
+    private def message(nlType: Short, link: Link): ByteBuffer = {
+        val buf = BytesUtil.instance.allocate(512)
+        buf.position(NetlinkMessage.HEADER_SIZE)
+        link.serializeInto(buf)
+        buf.flip()
+        NetlinkMessage.writeHeader(buf, buf.limit(), nlType, 0,
+                                   DefaultInterfaceScanner.NotificationSeq, 0)
+        buf
+    }
+
+    private def names(ifaces: Set[InterfaceDescription]): Set[String] =
+        ifaces.map(_.getName)
+
+    feature("The scanner publishes interface updates") {
+        scenario("Interfaces are added, changed and removed") {
+            Given("A scanner with an update and a set subscriber")
+            val scanner = newScanner()
+            val updates = new TestObserver[InterfacesUpdate]
+            val sets = new TestObserver[Set[InterfaceDescription]]
+            scanner.subscribeUpdates(updates)
+            scanner.subscribe(sets)
+
+            When("A tap is created")
+            val mac = MAC.random()
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(10, "tap0", mac)))
+
+            Then("The update contains the added tap")
+            var update = updates.getOnNextEvents.asScala.last
+            names(update.added) shouldBe Set("tap0")
+            update.changed shouldBe empty
+            update.removed shouldBe empty
+
+            And("The set subscriber receives all interfaces")
+            names(sets.getOnNextEvents.asScala.last) shouldBe Set("tap0")
+
+            When("A second tap is created")
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(11, "tap1", MAC.random())))
+
+            Then("The update contains only the second tap")
+            update = updates.getOnNextEvents.asScala.last
+            names(update.added) shouldBe Set("tap1")
+            names(sets.getOnNextEvents.asScala.last) shouldBe
+                Set("tap0", "tap1")
+
+            When("The MTU of the first tap changes")
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(10, "tap0", mac, 9000)))
+
+            Then("The update contains the changed tap")
+            update = updates.getOnNextEvents.asScala.last
+            update.added shouldBe empty
+            update.changed.map(_.getMtu) shouldBe Set(9000)
+
+            When("The first tap is renamed")
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(10, "vm0", mac, 9000)))
+
+            Then("The update removes the old name and adds the new one")
+            update = updates.getOnNextEvents.asScala.last
+            names(update.added) shouldBe Set("vm0")
+            names(update.removed) shouldBe Set("tap0")
+
+            When("The second tap is deleted")
+            scanner.processNotification(
+                message(Rtnetlink.Type.DELLINK, link(11, "tap1", null)))
+
+            Then("The update contains the removed tap")
+            update = updates.getOnNextEvents.asScala.last
+            update.added shouldBe empty
+            names(update.removed) shouldBe Set("tap1")
+            names(sets.getOnNextEvents.asScala.last) shouldBe Set("vm0")
+            updates.getOnNextEvents should have size 5
+        }
+
+        scenario("Interfaces without MAC address are not published") {
+            Given("A scanner with an update and a set subscriber")
+            val scanner = newScanner()
+            val updates = new TestObserver[InterfacesUpdate]
+            val sets = new TestObserver[Set[InterfaceDescription]]
+            scanner.subscribeUpdates(updates)
+            scanner.subscribe(sets)
+
+            When("An interface without MAC address is created")
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(10, "tun0", null)))
+
+            Then("The update subscriber is not notified")
+            updates.getOnNextEvents shouldBe empty
+
+            And("The set subscriber receives the empty set")
+            sets.getOnNextEvents.asScala shouldBe Seq(Set.empty)
+        }
+
+        scenario("A new subscriber receives the current interfaces") {
+            Given("A scanner with two taps")
+            val scanner = newScanner()
+            scanner.subscribe(new TestObserver[Set[InterfaceDescription]])
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(10, "tap0", MAC.random())))
+            scanner.processNotification(
+                message(Rtnetlink.Type.NEWLINK, link(11, "tap1", MAC.random())))
+
+            When("Subscribing to the updates")
+            val updates = new TestObserver[InterfacesUpdate]
+            scanner.subscribeUpdates(updates)
+
+            Then("The subscriber receives the taps as added")
+            updates.getOnNextEvents should have size 1
+            names(updates.getOnNextEvents.get(0).added) shouldBe
+                Set("tap0", "tap1")
+        }
+    }
+
+    feature("Updates are computed from sets of interfaces") {
+        scenario("Diff between two sets") {
+            Given("Two sets of interfaces")
+            val eth0 = new InterfaceDescription("eth0")
+            val eth1 = new InterfaceDescription("eth1")
+            val eth1Changed = new InterfaceDescription("eth1")
+            eth1Changed.setMtu(9000)
+            val eth2 = new InterfaceDescription("eth2")
+
+            Then("The update contains the differences")
+            InterfacesUpdate.diff(
+                Map("eth0" -> eth0, "eth1" -> eth1),
+                Map("eth1" -> eth1Changed, "eth2" -> eth2)) shouldBe
+                InterfacesUpdate(Set(eth2), Set(eth1Changed), Set(eth0))
+        }
+    }
+}
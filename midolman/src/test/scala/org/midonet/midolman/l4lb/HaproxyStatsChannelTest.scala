@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.l4lb
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ByteChannel
+import java.nio.charset.StandardCharsets.US_ASCII
+import java.util.UUID
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.l4lb.HaproxyHealthMonitor._
+
+@RunWith(classOf[JUnitRunner])
+class HaproxyStatsChannelTest extends FeatureSpec
+                              with Matchers
+                              with GivenWhenThen {
+
+    /*
+     * A fake haproxy stats socket in interactive mode, which replies to
+     * every "show stat" command with the current statistics followed by the
+     * prompt, and returns at most `chunk` bytes per read.
+     */
+    private class FakeStatsSocket(chunk: Int) extends ByteChannel {
+        val commands = new mutable.ArrayBuffer[String]
+        var stats = ""
+        var closeAfterCommand = false
+        private var prompt = false
+        private var open = true
+        private var output = ByteBuffer.allocate(0)
+
+        override def write(src: ByteBuffer): Int = {
+            val length = src.remaining()
+            val bytes = new Array[Byte](length)
+            src.get(bytes)
+            val command = new String(bytes, US_ASCII)
+            commands += command
+            val response =
+                if (command == HaproxyStatsChannel.Prompt) {
+                    prompt = true
+                    ""
+                } else if (command == ShowStat) {
+                    stats + "\n"
+                } else {
+                    "Unknown command.\n"
+                }
+            if (closeAfterCommand) {
+                open = false
+                output = ByteBuffer.allocate(0)
+            } else {
+                output = ByteBuffer.wrap(
+                    (response + (if (prompt) "\n> " else "")).getBytes(US_ASCII))
+            }
+            length
+        }
+
+        override def read(dst: ByteBuffer): Int = {
+            if (!output.hasRemaining) {
+                return if (open) 0 else -1
+            }
+            val length = Math.min(Math.min(chunk, dst.remaining()),
+                                  output.remaining())
+            val bytes = new Array[Byte](length)
+            output.get(bytes)
+            dst.put(bytes)
+            length
+        }
+
+        override def isOpen: Boolean = open
+
+        override def close(): Unit = open = false
+    }
+
+    private def line(backend: UUID, name: Any, status: String) =
+        s"$backend,$name,0,0,0,0,,0,0,0,,0,,0,0,0,0,$status,1,1,0,0,1," +
+        "2411,2411,,1,2,2,,0,,2,0,,0,L4CON,,1999,,,,,,,0,,,,0,0,\n"
+
+    private def header =
+        "# pxname,svname,qcur,qmax,scur,smax,slim,stot,bin,bout,dreq,dresp," +
+        "ereq,econ,eresp,wretr,wredis,status,weight,act,bck,chkfail,chkdown," +
+        "lastchg,downtime,qlimit,pid,iid,sid,throttle,lbtot,tracked,type," +
+        "rate,rate_lim,rate_max,check_status,check_code,check_duration,\n"
+
+    private def parse(response: String): (Set[UUID], Set[UUID]) = {
+        val parser = new HaproxyStatsParser
+        parser.parse(ByteBuffer.wrap(response.getBytes(US_ASCII)))
+        parser.result()
+    }
+
+    feature("The parser computes the up and down members") {
+        scenario("Members are parsed from the stats") {
+            Given("The statistics of a pool with two members")
+            val backend = UUID.randomUUID()
+            val up = UUID.randomUUID()
+            val down = UUID.randomUUID()
+            val response = header +
+                           line(backend, Frontend, "OPEN") +
+                           line(backend, up, "UP") +
+                           line(backend, down, "DOWN") +
+                           line(backend, Backend, "UP")
+
+            Then("The parser returns the up and down members")
+            parse(response) shouldBe (Set(up), Set(down))
+        }
+
+        scenario("Incorrectly formatted lines are ignored") {
+            Given("Statistics with a short line and an unknown status")
+            val backend = UUID.randomUUID()
+            val name1 = UUID.randomUUID()
+            val name2 = UUID.randomUUID()
+            val name3 = UUID.randomUUID()
+            val name4 = UUID.randomUUID()
+            val response =
+                s"""
+                  | $backend,$name1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,UP
+                  | $backend,$name2,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,UP
+                  | $backend,$name3,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,TOTO
+                  | $backend,$name4,0,0,0,0,0,0,0,0,0,0,0,0,0,0,DOWN
+                """.stripMargin
+
+            Then("The parser ignores those lines")
+            parse(response) shouldBe (Set(name1, name2), Set.empty)
+        }
+
+        scenario("Lines longer than the line buffer are parsed") {
+            Given("A line with a long trailing field")
+            val backend = UUID.randomUUID()
+            val up = UUID.randomUUID()
+            val response = line(backend, up, "UP").trim + ("x" * 1000) + "\n"
+
+            Then("The parser returns the member")
+            parse(response) shouldBe (Set(up), Set.empty)
+        }
+    }
+
+    feature("The channel keeps the stats connection open") {
+        scenario("The connection is reused between polls") {
+            Given("A haproxy stats socket returning two bytes per read")
+            val backend = UUID.randomUUID()
+            val member1 = UUID.randomUUID()
+            val member2 = UUID.randomUUID()
+            var connections = 0
+            val socket = new FakeStatsSocket(chunk = 2)
+            val channel = new HaproxyStatsChannel(() => {
+                connections += 1
+                socket
+            }, bufferSize = 16)
+            socket.stats = header + line(backend, member1, "UP") +
+                           line(backend, member2, "DOWN")
+
+            When("Polling the stats")
+            val (up1, down1, bytes) = channel.showStat()
+
+            Then("The channel enters the interactive mode and polls the stats")
+            socket.commands shouldBe Seq(HaproxyStatsChannel.Prompt, ShowStat)
+            up1 shouldBe Set(member1)
+            down1 shouldBe Set(member2)
+            bytes shouldBe socket.stats.length + 4
+            channel.isConnected shouldBe true
+
+            When("The status of the members changes and polling again")
+            socket.stats = header + line(backend, member1, "DOWN") +
+                           line(backend, member2, "UP")
+            val (up2, down2, _) = channel.showStat()
+
+            Then("The channel reuses the connection")
+            connections shouldBe 1
+            socket.commands shouldBe Seq(HaproxyStatsChannel.Prompt,
+                                         ShowStat, ShowStat)
+            up2 shouldBe Set(member2)
+            down2 shouldBe Set(member1)
+        }
+
+        scenario("The channel reconnects after the socket is closed") {
+            Given("A haproxy stats socket")
+            val backend = UUID.randomUUID()
+            val member = UUID.randomUUID()
+            var sockets = List.empty[FakeStatsSocket]
+            val channel = new HaproxyStatsChannel(() => {
+                val socket = new FakeStatsSocket(chunk = 4096)
+                socket.stats = header + line(backend, member, "UP")
+                sockets = socket :: sockets
+                socket
+            })
+            channel.showStat()._1 shouldBe Set(member)
+
+            When("Haproxy closes the socket")
+            sockets.head.closeAfterCommand = true
+
+            Then("The poll fails and the channel is closed")
+            intercept[IOException] { channel.showStat() }
+            channel.isConnected shouldBe false
+            sockets.head.isOpen shouldBe false
+
+            When("Polling again")
+            channel.showStat()._1 shouldBe Set(member)
+
+            Then("The channel opened a new connection")
+            sockets should have size 2
+            channel.isConnected shouldBe true
+
+            When("Closing the channel")
+            channel.close()
+
+            Then("The connection is closed")
+            sockets.head.isOpen shouldBe false
+        }
+    }
+}
@@ -25,6 +25,7 @@ import scala.concurrent.Future
 
 import akka.actor.{Actor, ActorRef, Props}
 import akka.testkit.TestActorRef
+import com.codahale.metrics.MetricRegistry
 import com.typesafe.config.{Config, ConfigFactory}
 import org.apache.commons.io.FileUtils
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex
@@ -188,7 +189,8 @@ class HaproxyTest extends MidolmanSpec
     }
 
     class TestableHealthMonitor extends HMSystem(conf, backend, lockFactory,
-                                                 curator = null, backendCfg) {
+                                                 curator = null, backendCfg,
+                                                 new MetricRegistry) {
 
         override val seqDispenser = new SequenceDispenser(null, backendCfg) {
             private val mockCounter = new AtomicInteger(100)
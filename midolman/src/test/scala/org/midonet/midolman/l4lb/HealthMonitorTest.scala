@@ -23,6 +23,7 @@ import scala.concurrent.Await
 import scala.concurrent.duration.Duration
 
 import akka.actor.{Actor, ActorRef, Props}
+import com.codahale.metrics.MetricRegistry
 import com.typesafe.config.{Config, ConfigFactory}
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex
@@ -454,7 +455,7 @@ class HealthMonitorTest extends MidolmanSpec
                           lockFactory: ZookeeperLockFactory,
                           curator: CuratorFramework)
         extends HealthMonitor(config, backend, lockFactory, curator,
-                              backendCfg) {
+                              backendCfg, new MetricRegistry) {
 
         override val seqDispenser = new SequenceDispenser(null, backendCfg)
 
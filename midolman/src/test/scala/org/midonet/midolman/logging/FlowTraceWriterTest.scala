@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging
+
+import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+import com.datastax.driver.core.{BatchStatement, SimpleStatement, Statement}
+import com.google.common.util.concurrent.{Futures, ListenableFuture, SettableFuture}
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Millis, Seconds, Span}
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class FlowTraceWriterTest extends FeatureSpec
+                          with Matchers
+                          with GivenWhenThen
+                          with BeforeAndAfter {
+
+    implicit val patienceConfig = PatienceConfig(Span(5, Seconds),
+                                                 Span(10, Millis))
+
+    private val statements = new ConcurrentLinkedQueue[Statement]
+    private var writer: FlowTraceWriter = _
+
+    after {
+        if (writer ne null) writer.stop()
+        statements.clear()
+    }
+
+    private def newWriter(result: => ListenableFuture[_],
+                          queueSize: Int = 1024,
+                          maxBatchSize: Int = 16,
+                          maxInFlight: Int = 16): FlowTraceWriter = {
+        writer = new FlowTraceWriter(
+            (st: Statement) => {
+                statements.add(st)
+                result
+            },
+            new MetricRegistry, queueSize, maxBatchSize, maxInFlight)
+        writer
+    }
+
+    private def write(traceId: UUID, flowId: UUID, index: Int): Boolean =
+        writer.write(traceId, flowId,
+                     new SimpleStatement(s"flow-$traceId-$flowId"),
+                     new SimpleStatement(s"data-$traceId-$flowId-$index"))
+
+    private def queries(statement: Statement): Seq[String] = statement match {
+        case batch: BatchStatement =>
+            batch.getStatements.asScala.map(_.toString).toSeq
+        case _ => Seq(statement.toString)
+    }
+
+    private def written: Seq[Seq[String]] =
+        statements.asScala.toSeq.map(queries)
+
+    private def flow(traceId: UUID, flowId: UUID): Seq[String] =
+        Seq(s"flow-$traceId-$flowId")
+
+    private def data(traceId: UUID, flowId: UUID,
+                     indices: Range): Seq[String] =
+        indices.map(i => s"data-$traceId-$flowId-$i")
+
+    feature("The writer groups events in batches") {
+        scenario("Events are grouped per events partition") {
+            Given("A writer")
+            newWriter(Futures.immediateFuture(null))
+
+            When("Writing events for two flows of a trace request, and " +
+                 "a flow of another trace request")
+            val trace1 = UUID.randomUUID()
+            val trace2 = UUID.randomUUID()
+            val flow1 = UUID.randomUUID()
+            val flow2 = UUID.randomUUID()
+            write(trace1, flow1, 0) shouldBe true
+            write(trace2, flow1, 0) shouldBe true
+            write(trace1, flow1, 1) shouldBe true
+            write(trace1, flow2, 0) shouldBe true
+            write(trace1, flow1, 2) shouldBe true
+            write(trace2, flow1, 1) shouldBe true
+
+            And("Starting the writer")
+            writer.start()
+
+            Then("The writer writes the flow once and a batch of events " +
+                 "per events partition")
+            eventually { writer.metrics.eventsWritten.getCount shouldBe 6 }
+            written shouldBe Seq(
+                flow(trace1, flow1), data(trace1, flow1, 0 to 2),
+                flow(trace2, flow1), data(trace2, flow1, 0 to 1),
+                flow(trace1, flow2), data(trace1, flow2, 0 to 0))
+
+            And("Every batch contains the events of a single partition")
+            statements.asScala.collect { case b: BatchStatement => b }
+                .foreach(_.size should be > 1)
+            writer.queueDepth shouldBe 0
+        }
+
+        scenario("Batches are limited in size") {
+            Given("A writer with a maximum batch size of two events")
+            newWriter(Futures.immediateFuture(null), maxBatchSize = 2)
+
+            When("Writing five events for the same flow trace")
+            val trace = UUID.randomUUID()
+            val flowId = UUID.randomUUID()
+            for (index <- 0 until 5) write(trace, flowId, index)
+            writer.start()
+
+            Then("The writer writes three batches")
+            eventually { writer.metrics.eventsWritten.getCount shouldBe 5 }
+            written shouldBe Seq(
+                flow(trace, flowId), data(trace, flowId, 0 to 1),
+                flow(trace, flowId), data(trace, flowId, 2 to 3),
+                flow(trace, flowId), data(trace, flowId, 4 to 4))
+        }
+    }
+
+    feature("The writer bounds the number of writes in flight") {
+        scenario("The writer waits for a write to complete") {
+            Given("A writer with one write in flight")
+            val future = SettableFuture.create[AnyRef]()
+            var result: ListenableFuture[_] = future
+            newWriter(result, maxInFlight = 1)
+
+            When("Writing events for two trace requests")
+            write(UUID.randomUUID(), UUID.randomUUID(), 0)
+            write(UUID.randomUUID(), UUID.randomUUID(), 0)
+            writer.start()
+
+            Then("The writer writes only the first statement")
+            eventually { statements should have size 1 }
+            writer.writesInFlight shouldBe 1
+            Thread.sleep(100)
+            statements should have size 1
+
+            When("The first write completes")
+            result = Futures.immediateFuture(null)
+            future.set(null)
+
+            Then("The writer writes the remaining statements")
+            eventually { writer.metrics.eventsWritten.getCount shouldBe 2 }
+            statements should have size 4
+            writer.metrics.writeLatency.getCount shouldBe 4
+        }
+
+        scenario("Failed writes are counted") {
+            Given("A writer whose writes fail")
+            newWriter(Futures.immediateFailedFuture(new Exception("failed")),
+                      maxInFlight = 1)
+
+            When("Writing events for two trace requests")
+            write(UUID.randomUUID(), UUID.randomUUID(), 0)
+            write(UUID.randomUUID(), UUID.randomUUID(), 0)
+            writer.start()
+
+            Then("The writer counts all failures")
+            eventually { writer.metrics.writeErrors.getCount shouldBe 4 }
+            writer.metrics.eventsWritten.getCount shouldBe 0
+            writer.writesInFlight shouldBe 0
+        }
+    }
+
+    feature("The writer drops events when the queue is full") {
+        scenario("Events are dropped and counted") {
+            Given("A writer with a queue of four events that is not started")
+            newWriter(Futures.immediateFuture(null), queueSize = 4)
+            val trace = UUID.randomUUID()
+            val flowId = UUID.randomUUID()
+
+            When("Writing five events")
+            val results = for (index <- 0 until 5)
+                yield write(trace, flowId, index)
+
+            Then("The last event is dropped")
+            results shouldBe Seq(true, true, true, true, false)
+            writer.metrics.eventsDropped.getCount shouldBe 1
+            writer.queueDepth shouldBe 4
+            writer.metrics.queueDepth.getValue shouldBe 4
+
+            When("Starting the writer")
+            writer.start()
+
+            Then("The queued events are written")
+            eventually { writer.metrics.eventsWritten.getCount shouldBe 4 }
+        }
+    }
+}
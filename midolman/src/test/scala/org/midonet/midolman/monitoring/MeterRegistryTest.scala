@@ -15,6 +15,8 @@
  */
 package org.midonet.midolman.monitoring
 
+import java.io.File
+import java.nio.file.Files
 import java.util.{ArrayList, UUID}
 
 import scala.collection.JavaConverters._
@@ -140,5 +142,29 @@ class MeterRegistryTest extends FeatureSpec with Matchers {
 
             }
         }
+
+        scenario("publishes the meters to a shared statistics file") {
+            val directory = Files.createTempDirectory("stats").toFile
+            val file = new File(directory, "midolman.stats")
+            try {
+                val statsFile = SharedStatsFile.create(file, 16)
+                val registry = new MeterRegistry(10, statsFile, "worker-0")
+                registry.trackFlow(matchA, tagsA)
+                registry.recordPacket(FIRST_PKT_SIZE, tagsA)
+                registry.updateFlow(matchA, new FlowStats(2, 200))
+
+                val entries = SharedStatsFile.read(file)
+                entries.map(_.name).toSet should === (metersA.map(
+                    m => s"meters.worker-0.${m.meterName}").toSet)
+                for (entry <- entries) {
+                    entry.kind should === (SharedStatsFile.KindFlowMeter)
+                    entry.value0 should === (3)
+                    entry.value1 should === (200 + FIRST_PKT_SIZE)
+                }
+            } finally {
+                file.delete()
+                directory.delete()
+            }
+        }
     }
 }
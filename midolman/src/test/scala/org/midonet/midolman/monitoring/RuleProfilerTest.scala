@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.monitoring
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.management.RuleProfiling
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.rules.{Condition, JumpRule, LiteralRule, Rule}
+import org.midonet.midolman.simulation.{Chain, PacketContext}
+import org.midonet.odp.FlowMatch
+
+@RunWith(classOf[JUnitRunner])
+class RuleProfilerTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private def newProfiler(registry: MetricRegistry = new MetricRegistry)
+    : RuleProfiler = {
+        new RuleProfiler(new PacketPipelineMetrics(registry, 0).chainEvaluation)
+    }
+
+    private def newContext(profiler: RuleProfiler): PacketContext = {
+        val context = PacketContext.generated(1, null, new FlowMatch())
+        context.ruleProfiler = profiler
+        context
+    }
+
+    private def makeRule(condition: Condition, action: Action): Rule = {
+        val rule = new LiteralRule(condition, action)
+        rule.id = UUID.randomUUID()
+        rule
+    }
+
+    private def makeChain(rules: Seq[Rule], jumpTargets: Seq[Chain] = Nil,
+                          chainId: UUID = UUID.randomUUID()): Chain = {
+        rules.foreach(_.chainId = chainId)
+        new Chain(chainId, rules.asJava,
+                  jumpTargets.map(c => (c.id, c)).toMap.asJava,
+                  "chain-" + chainId)
+    }
+
+    feature("Rule profiler counts the rule evaluations") {
+        scenario("Hits and evaluations of the rules of a chain") {
+            Given("A chain with a non-matching, an accept and a dead rule")
+            val missRule = makeRule(Condition.FALSE, Action.DROP)
+            val acceptRule = makeRule(Condition.TRUE, Action.ACCEPT)
+            val deadRule = makeRule(Condition.TRUE, Action.DROP)
+            val chain = makeChain(Seq(missRule, acceptRule, deadRule))
+
+            And("A profiler")
+            val registry = new MetricRegistry
+            val profiler = newProfiler(registry)
+
+            When("Processing ten packets through the chain")
+            for (index <- 0 until 10) {
+                chain.process(newContext(profiler)).action shouldBe Action.ACCEPT
+            }
+
+            Then("The profiler should count the rule evaluations and hits")
+            profiler.rules.get(missRule.id).evaluations shouldBe 10
+            profiler.rules.get(missRule.id).hits shouldBe 0
+            profiler.rules.get(acceptRule.id).evaluations shouldBe 10
+            profiler.rules.get(acceptRule.id).hits shouldBe 10
+            profiler.rules.get(deadRule.id).evaluations shouldBe 0
+            profiler.rules.get(deadRule.id).hits shouldBe 0
+
+            And("The profiler should record the chain evaluation time")
+            val counter = profiler.chains.get(chain.id)
+            counter.name shouldBe chain.name
+            counter.traversals shouldBe 10
+            counter.evaluations shouldBe 10
+            counter.histogram.sum shouldBe 10
+            registry.getTimers.asScala.values.map(_.getCount).sum shouldBe 10
+        }
+
+        scenario("Jump chains are traversed but not evaluated") {
+            Given("A chain jumping to another chain")
+            val acceptRule = makeRule(Condition.TRUE, Action.ACCEPT)
+            val target = makeChain(Seq(acceptRule))
+            val jumpRule = new JumpRule(Condition.TRUE, target.id, target.name,
+                                        null)
+            jumpRule.id = UUID.randomUUID()
+            val chain = makeChain(Seq(jumpRule), Seq(target))
+            val profiler = newProfiler()
+
+            When("Processing a packet through the chain")
+            chain.process(newContext(profiler)).action shouldBe Action.ACCEPT
+
+            Then("Both chains should be traversed")
+            profiler.chains.get(chain.id).traversals shouldBe 1
+            profiler.chains.get(target.id).traversals shouldBe 1
+
+            And("Only the first chain should be evaluated")
+            profiler.chains.get(chain.id).evaluations shouldBe 1
+            profiler.chains.get(target.id).evaluations shouldBe 0
+
+            And("Both rules should be hit")
+            profiler.rules.get(jumpRule.id).hits shouldBe 1
+            profiler.rules.get(acceptRule.id).hits shouldBe 1
+        }
+
+        scenario("Rule counters follow the chain updates") {
+            Given("A chain with two rules")
+            val rule1 = makeRule(Condition.FALSE, Action.DROP)
+            val rule2 = makeRule(Condition.TRUE, Action.ACCEPT)
+            val chain1 = makeChain(Seq(rule1, rule2))
+            val profiler = newProfiler()
+
+            When("Processing a packet through the chain")
+            chain1.process(newContext(profiler))
+
+            And("The first rule is removed and a rule is added")
+            val rule3 = makeRule(Condition.FALSE, Action.DROP)
+            val chain2 = makeChain(Seq(rule3, rule2), chainId = chain1.id)
+            chain2.process(newContext(profiler))
+
+            Then("The profiler should remove the counter of the first rule")
+            profiler.rules.containsKey(rule1.id) shouldBe false
+
+            And("The profiler should keep the counter of the second rule")
+            profiler.rules.get(rule2.id).hits shouldBe 2
+            profiler.rules.get(rule3.id).evaluations shouldBe 1
+        }
+
+        scenario("Packets without a profiler are not profiled") {
+            Given("A chain with a rule")
+            val rule = makeRule(Condition.TRUE, Action.ACCEPT)
+            val chain = makeChain(Seq(rule))
+
+            Then("Processing a packet without a profiler should succeed")
+            chain.process(newContext(null)).action shouldBe Action.ACCEPT
+        }
+    }
+
+    feature("Rule profiling aggregates the worker profilers") {
+        scenario("Hottest and dead rules") {
+            Given("A chain with a hot rule and a dead rule")
+            val hotRule = makeRule(Condition.TRUE, Action.ACCEPT)
+            val deadRule = makeRule(Condition.TRUE, Action.DROP)
+            val chain = makeChain(Seq(hotRule, deadRule))
+
+            And("Two registered profilers")
+            val profiler1 = newProfiler()
+            val profiler2 = newProfiler()
+            RuleProfiling.registerAsMXBean(profiler1)
+            RuleProfiling.registerAsMXBean(profiler2)
+
+            When("Both profilers process packets")
+            for (index <- 0 until 3) chain.process(newContext(profiler1))
+            for (index <- 0 until 5) chain.process(newContext(profiler2))
+
+            Then("The hottest rules should aggregate the hits")
+            val hottest = RuleProfiling.getHottestRules(Int.MaxValue)
+                                       .filter(_.getChainId == chain.id.toString)
+            hottest.map(_.getRuleId) shouldBe Array(hotRule.id.toString,
+                                                    deadRule.id.toString)
+            hottest.head.getHits shouldBe 8
+            hottest.head.getEvaluations shouldBe 8
+
+            And("The dead rules should include the dead rule")
+            RuleProfiling.getDeadRules.map(_.getRuleId) should contain (
+                deadRule.id.toString)
+            RuleProfiling.getDeadRules.map(_.getRuleId) should not contain (
+                hotRule.id.toString)
+
+            And("The chain statistics should aggregate the evaluations")
+            val stats = RuleProfiling.getChainStats
+                                     .find(_.getChainId == chain.id.toString).get
+            stats.getName shouldBe chain.name
+            stats.getEvaluations shouldBe 8
+            stats.getTraversals shouldBe 8
+            stats.getHistogram.sum shouldBe 8
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.io.{File, RandomAccessFile}
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel.MapMode
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.{Gauge, MetricRegistry}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.monitoring.SharedStatsFile._
+
+@RunWith(classOf[JUnitRunner])
+class SharedStatsFileTest extends FeatureSpec with Matchers
+                          with GivenWhenThen with BeforeAndAfter {
+
+    private var directory: File = _
+
+    before {
+        directory = Files.createTempDirectory("stats").toFile
+    }
+
+    after {
+        for (file <- directory.listFiles()) file.delete()
+        directory.delete()
+    }
+
+    private def newFile(maxSlots: Int = 16): (File, SharedStatsFile) = {
+        val file = new File(directory, "midolman.stats")
+        (file, SharedStatsFile.create(file, maxSlots))
+    }
+
+    feature("The statistics file has a fixed layout") {
+        scenario("The file header") {
+            Given("A statistics file")
+            val (file, stats) = newFile(maxSlots = 16)
+
+            Then("The file has the size of the header and the slots")
+            file.length() shouldBe HeaderSize + 16 * SlotSize
+
+            And("The header contains the layout")
+            val raf = new RandomAccessFile(file, "r")
+            val buffer = raf.getChannel
+                            .map(MapMode.READ_ONLY, 0, file.length())
+                            .order(ByteOrder.LITTLE_ENDIAN)
+            raf.close()
+            buffer.get(0) shouldBe 'M'.toByte
+            buffer.get(1) shouldBe 'N'.toByte
+            buffer.get(2) shouldBe 'S'.toByte
+            buffer.get(3) shouldBe 'T'.toByte
+            buffer.getInt(VersionOffset) shouldBe 1
+            buffer.getInt(HeaderSizeOffset) shouldBe 64
+            buffer.getInt(SlotSizeOffset) shouldBe 128
+            buffer.getInt(MaxSlotsOffset) shouldBe 16
+            buffer.getInt(SlotCountOffset) shouldBe 0
+            buffer.getLong(CreatedOffset) should be > 0L
+
+            When("Allocating a slot and setting its values")
+            val slot = stats.allocate("name", KindFlowMeter)
+            stats.set(slot, 10L, 1000L)
+
+            Then("The slot is at the documented offsets")
+            buffer.getInt(SlotCountOffset) shouldBe 1
+            buffer.getLong(HeaderSize + Value0Offset) shouldBe 10L
+            buffer.getLong(HeaderSize + Value1Offset) shouldBe 1000L
+            buffer.getInt(HeaderSize + KindOffset) shouldBe KindFlowMeter
+            buffer.getInt(HeaderSize + NameLengthOffset) shouldBe 4
+            buffer.get(HeaderSize + NameOffset) shouldBe 'n'.toByte
+        }
+
+        scenario("Reading the file") {
+            Given("A statistics file with two slots")
+            val (file, stats) = newFile()
+            val slot0 = stats.allocate("counter", KindCounter)
+            val slot1 = stats.allocate("meter", KindFlowMeter)
+
+            When("Updating the slots")
+            stats.set(slot0, 5L)
+            stats.set(slot1, 7L, 700L)
+
+            Then("A reader sees the values")
+            SharedStatsFile.read(file) shouldBe Seq(
+                Entry("counter", KindCounter, 5L, 0L),
+                Entry("meter", KindFlowMeter, 7L, 700L))
+        }
+
+        scenario("The file is re-created") {
+            Given("A statistics file with a slot")
+            val (file, stats) = newFile()
+            stats.allocate("name", KindCounter)
+
+            When("Creating the file again")
+            SharedStatsFile.create(file, 16)
+
+            Then("The file is empty")
+            SharedStatsFile.read(file) shouldBe empty
+        }
+
+        scenario("Long names are truncated") {
+            Given("A statistics file")
+            val (file, stats) = newFile()
+
+            When("Allocating a slot with a long name")
+            stats.allocate("x" * 200, KindCounter)
+
+            Then("The name is truncated")
+            SharedStatsFile.read(file).head.name shouldBe "x" * MaxNameLength
+        }
+
+        scenario("The file is full") {
+            Given("A statistics file with two slots")
+            val (file, stats) = newFile(maxSlots = 2)
+
+            Then("Allocating a third slot fails")
+            stats.allocate("a", KindCounter) shouldBe 0
+            stats.allocate("b", KindCounter) shouldBe 1
+            stats.allocate("c", KindCounter) shouldBe -1
+            stats.size shouldBe 2
+        }
+
+        scenario("Reading a file that is not a statistics file") {
+            Given("An empty file")
+            val file = new File(directory, "empty")
+            new RandomAccessFile(file, "rw").setLength(64)
+
+            Then("Reading the file fails")
+            intercept[IllegalArgumentException] {
+                SharedStatsFile.read(file)
+            }
+        }
+    }
+
+    feature("The reporter publishes the metrics") {
+        scenario("Counters, meters, timers and gauges") {
+            Given("A metric registry and a reporter")
+            val (file, stats) = newFile()
+            val registry = new MetricRegistry
+            val reporter = new SharedStatsReporter(registry, stats)
+            registry.counter("counter").inc(3)
+            registry.meter("meter").mark(4)
+            registry.timer("timer").update(1, TimeUnit.SECONDS)
+            registry.histogram("histogram").update(10)
+            registry.register("gauge", new Gauge[Long] {
+                override def getValue: Long = 42L
+            })
+            registry.register("text", new Gauge[String] {
+                override def getValue: String = "text"
+            })
+
+            When("The reporter runs")
+            reporter.report()
+
+            Then("The file contains the metrics")
+            SharedStatsFile.read(file).map(e => e.name -> e.value0)
+                .toMap shouldBe Map("metrics.counter" -> 3L,
+                                    "metrics.meter" -> 4L,
+                                    "metrics.timer" -> 1L,
+                                    "metrics.histogram" -> 1L,
+                                    "metrics.gauge" -> 42L)
+
+            When("The metrics change and the reporter runs again")
+            registry.counter("counter").inc()
+            reporter.report()
+
+            Then("The file is updated in place")
+            val entries = SharedStatsFile.read(file)
+            entries should have size 5
+            entries.find(_.name == "metrics.counter").get.value0 shouldBe 4L
+            stats.contents.order(ByteOrder.LITTLE_ENDIAN)
+                .getLong(UpdatedOffset) should be > 0L
+        }
+    }
+
+}
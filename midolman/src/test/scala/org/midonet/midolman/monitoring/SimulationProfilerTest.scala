@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.{HashMap => JHashMap, UUID}
+
+import scala.collection.JavaConverters._
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.midolman.PacketWorkflow.Drop
+import org.midonet.midolman.management.SimulationProfiling
+import org.midonet.midolman.monitoring.SimulationProfiler._
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.midolman.rules.RuleResult.Action
+import org.midonet.midolman.rules.{Condition, LiteralRule, Rule}
+import org.midonet.midolman.simulation.{Bridge, Chain, PacketContext}
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.MAC
+import org.midonet.packets.util.PacketBuilder._
+
+@RunWith(classOf[JUnitRunner])
+class SimulationProfilerTest extends MidolmanSpec {
+
+    private def newProfiler(registry: MetricRegistry = new MetricRegistry,
+                            sampleRate: Int = 1): SimulationProfiler = {
+        new SimulationProfiler(new PacketPipelineMetrics(registry, 0),
+                               sampleRate)
+    }
+
+    private def stageCount(registry: MetricRegistry, stage: Int): Long = {
+        registry.getTimers.asScala.collectFirst {
+            case (name, timer) if name.endsWith(
+                s"simulationStage.${StageNames(stage)}") => timer.getCount
+        }.getOrElse(0L)
+    }
+
+    feature("The simulation profiler samples the packets") {
+        scenario("Packets are sampled at the sample rate") {
+            Given("A profiler with a sample rate of 4")
+            val profiler = newProfiler(sampleRate = 4)
+
+            Then("The profiler samples one in every four packets")
+            (0 until 12).map(_ => profiler.sample()).count(identity) shouldBe 3
+
+            When("Disabling the profiler")
+            profiler.sampleRate = 0
+
+            Then("The profiler does not sample any packet")
+            (0 until 12).map(_ => profiler.sample()).count(identity) shouldBe 0
+        }
+
+        scenario("The sample rate is set via JMX") {
+            Given("A registered profiler")
+            val profiler = newProfiler(sampleRate = 4)
+            SimulationProfiling.registerAsMXBean(profiler)
+
+            When("Setting the sample rate")
+            SimulationProfiling.setSampleRate(8)
+
+            Then("The profiler uses the new sample rate")
+            profiler.sampleRate shouldBe 8
+            SimulationProfiling.getSampleRate shouldBe 8
+
+            And("A negative sample rate is rejected")
+            intercept[IllegalArgumentException] {
+                SimulationProfiling.setSampleRate(-1)
+            }
+        }
+    }
+
+    feature("The simulation profiler records the stages") {
+        scenario("Stages and device visits of a packet") {
+            Given("A profiler")
+            val registry = new MetricRegistry
+            val profiler = newProfiler(registry)
+            val port = UUID.randomUUID()
+            val bridge = UUID.randomUUID()
+
+            When("Profiling a packet through a port and a bridge")
+            profiler.begin()
+            profiler.enterDevice(PortStage, port)
+            profiler.enterDevice(BridgeStage, bridge)
+            val previous = profiler.enter(ChainStage)
+            profiler.exit(previous)
+            profiler.switchTo(FlowStage)
+            profiler.exit(profiler.enter(TranslationStage))
+            profiler.exit(profiler.enter(HandoffStage))
+            profiler.end()
+
+            Then("The profiler records every stage once")
+            for (stage <- Seq(IngressStage, PortStage, BridgeStage, ChainStage,
+                              FlowStage, TranslationStage, HandoffStage)) {
+                profiler.stagePackets(stage) shouldBe 1
+                stageCount(registry, stage) shouldBe 1
+            }
+            for (stage <- Seq(RouterStage, DeviceStage, StateStage)) {
+                profiler.stagePackets(stage) shouldBe 0
+                stageCount(registry, stage) shouldBe 0
+            }
+
+            And("The profiler records the device visits")
+            profiler.devices.get(port).visits shouldBe 1
+            profiler.devices.get(port).stage shouldBe PortStage
+            profiler.devices.get(bridge).visits shouldBe 1
+            profiler.devices.get(bridge).stage shouldBe BridgeStage
+            profiler.devices.get(bridge).histogram.sum shouldBe 1
+
+            When("Ending the packet again")
+            profiler.end()
+
+            Then("The profiler does not record the packet twice")
+            profiler.stagePackets(IngressStage) shouldBe 1
+        }
+
+        scenario("A chain evaluation is a nested stage") {
+            Given("A chain and a profiler")
+            val rule = new LiteralRule(Condition.TRUE, Action.ACCEPT)
+            val chain = new Chain(UUID.randomUUID(), List[Rule](rule).asJava,
+                                  new JHashMap[UUID, Chain](), "chain")
+            val profiler = newProfiler()
+            val bridge = UUID.randomUUID()
+
+            When("Evaluating the chain in a bridge")
+            val context = PacketContext.generated(1, null, new FlowMatch())
+            context.simulationProfiler = profiler
+            profiler.begin()
+            profiler.enterDevice(BridgeStage, bridge)
+            chain.process(context).action shouldBe Action.ACCEPT
+            profiler.end()
+
+            Then("The profiler records the chain and bridge stages")
+            profiler.stagePackets(ChainStage) shouldBe 1
+            profiler.stagePackets(BridgeStage) shouldBe 1
+
+            And("The bridge visit includes the chain evaluation")
+            profiler.devices.get(bridge).visits shouldBe 1
+            profiler.devices.get(bridge).totalNanos should be >=
+                profiler.stageNanos(ChainStage)
+        }
+    }
+
+    feature("The packet workflow profiles the simulation") {
+        scenario("A packet through a bridge") {
+            Given("A bridge with two ports")
+            val bridge = newBridge("bridge")
+            val inPort = newBridgePort(bridge)
+            val outPort = newBridgePort(bridge)
+            materializePort(outPort, hostId, "outPort")
+            fetchPorts(inPort, outPort)
+            fetchDevice[Bridge](bridge)
+
+            And("A packet workflow profiling every packet")
+            val workflow = packetWorkflow(Map(1 -> inPort, 2 -> outPort))
+                .underlyingActor
+            workflow.simulationProfiler.sampleRate = 1
+
+            When("Simulating a packet")
+            val context = packetContextFor(
+                { eth src MAC.random() dst MAC.random() }, inPort)
+            context.origMatch.setInputPortNumber(1)
+            context.wcmatch.setInputPortNumber(1)
+            workflow.start(context) should not be Drop
+            context.simulationProfiler shouldBe workflow.simulationProfiler
+            workflow.simulationProfiler.end()
+
+            Then("The profiler records the simulation stages")
+            val profiler = workflow.simulationProfiler
+            for (stage <- Seq(IngressStage, PortStage, BridgeStage,
+                              TranslationStage, FlowStage)) {
+                profiler.stagePackets(stage) shouldBe 1
+            }
+
+            And("The profiler records the visits of the ports and bridge")
+            profiler.devices.get(inPort).visits shouldBe 1
+            profiler.devices.get(bridge).visits shouldBe 1
+            profiler.devices.get(bridge).stage shouldBe BridgeStage
+            profiler.devices.get(outPort).visits shouldBe 1
+
+            And("The stages are exposed via JMX")
+            SimulationProfiling.getStageStats
+                .find(_.getStage == "bridge").get.getPackets should be >= 1L
+            SimulationProfiling.getDeviceStats
+                .find(_.getDeviceId == bridge.toString).get
+                .getType shouldBe "bridge"
+        }
+    }
+}
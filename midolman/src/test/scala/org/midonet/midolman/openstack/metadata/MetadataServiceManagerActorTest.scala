@@ -22,6 +22,8 @@ import akka.testkit.TestActorRef
 
 import java.util.UUID
 
+import com.codahale.metrics.MetricRegistry
+
 import org.junit.runner.RunWith
 import org.mockito.Matchers.any
 import org.mockito.Matchers.{eq => mockEq}
@@ -130,7 +132,8 @@ class TestableMetadataServiceManagerActor(
         backend,
         config,
         plumber,
-        datapathInterface
+        datapathInterface,
+        new MetricRegistry
     ) {
 
     override def preStart = {
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.sun.jersey.api.client.UniformInterfaceException
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.monitoring.metrics.MetadataProxyMetrics
+
+@RunWith(classOf[JUnitRunner])
+class NovaMetadataProxyTest extends FeatureSpec
+                            with Matchers
+                            with GivenWhenThen
+                            with BeforeAndAfter {
+
+    private val timeout = 5 seconds
+
+    private var server: Server = _
+    private var proxy: NovaMetadataProxy = _
+    private var metrics: MetadataProxyMetrics = _
+    private val requests = new ConcurrentHashMap[String, AtomicInteger]
+    @volatile private var latch: CountDownLatch = _
+
+    /*
+     * A fake Nova Metadata API, which returns the instance and the path of
+     * every request, and 404 for the missing path.
+     */
+    private class NovaHandler extends AbstractHandler {
+        override def handle(target: String, baseReq: Request,
+                            req: HttpServletRequest,
+                            res: HttpServletResponse): Unit = {
+            baseReq setHandled true
+            val instanceId = req getHeader "X-Instance-ID"
+            requests.putIfAbsent(req.getPathInfo, new AtomicInteger)
+            requests.get(req.getPathInfo).incrementAndGet()
+            if (latch ne null)
+                latch.await(timeout.toMillis, TimeUnit.MILLISECONDS)
+            if (req.getPathInfo == "/missing") {
+                res.sendError(HttpServletResponse.SC_NOT_FOUND)
+            } else {
+                res.getWriter print s"$instanceId:${req.getPathInfo}"
+            }
+        }
+    }
+
+    before {
+        server = new Server(new InetSocketAddress("127.0.0.1", 0))
+        server.setHandler(new NovaHandler)
+        server.start()
+        val port = server.getConnectors()(0).asInstanceOf[ServerConnector]
+                         .getLocalPort
+        metrics = new MetadataProxyMetrics(new MetricRegistry)
+        proxy = new NovaMetadataProxy(s"http://127.0.0.1:$port", "secret",
+                                      threads = 4, timeoutMillis = 5000,
+                                      cacheTtlMillis = 60000, cacheSize = 16,
+                                      metrics)
+    }
+
+    after {
+        proxy.close()
+        server.stop()
+        server.join()
+        requests.clear()
+        latch = null
+    }
+
+    private def instance(): InstanceInfo =
+        InstanceInfo("10.0.0.1", "02:00:00:00:00:01", UUID.randomUUID(),
+                     "tenant", UUID.randomUUID().toString)
+
+    private def upstreamRequests(path: String): Int = {
+        val count = requests.get(path)
+        if (count eq null) 0 else count.get
+    }
+
+    feature("The proxy caches immutable metadata") {
+        scenario("Requests for an immutable path are served from the cache") {
+            Given("An instance")
+            val info = instance()
+
+            When("Requesting the instance identifier twice")
+            val path = "/latest/meta-data/instance-id"
+            Await.result(proxy.getMetadata(path, info), timeout) shouldBe
+                s"${info.instanceId}:$path"
+            Await.result(proxy.getMetadata(path, info), timeout) shouldBe
+                s"${info.instanceId}:$path"
+
+            Then("Nova receives a single request")
+            upstreamRequests(path) shouldBe 1
+            metrics.cacheHits.getCount shouldBe 1
+            metrics.cacheMisses.getCount shouldBe 1
+            metrics.upstreamLatency.getCount shouldBe 1
+
+            When("Another instance requests the same path")
+            val other = instance()
+            Await.result(proxy.getMetadata(path, other), timeout) shouldBe
+                s"${other.instanceId}:$path"
+
+            Then("The request is forwarded to Nova")
+            upstreamRequests(path) shouldBe 2
+        }
+
+        scenario("Requests for a mutable path are not cached") {
+            Given("An instance")
+            val info = instance()
+
+            When("Requesting the password twice")
+            val path = "/openstack/latest/password"
+            Await.result(proxy.getMetadata(path, info), timeout)
+            Await.result(proxy.getMetadata(path, info), timeout)
+
+            Then("Nova receives both requests")
+            upstreamRequests(path) shouldBe 2
+            metrics.cacheHits.getCount shouldBe 0
+        }
+
+        scenario("Errors are not cached") {
+            Given("An instance")
+            val info = instance()
+
+            When("Requesting a missing path")
+            val e = intercept[UniformInterfaceException] {
+                Await.result(proxy.getMetadata("/missing", info), timeout)
+            }
+
+            Then("The request fails with the status returned by Nova")
+            e.getResponse.getStatus shouldBe HttpServletResponse.SC_NOT_FOUND
+            metrics.upstreamErrors.getCount shouldBe 1
+
+            When("Requesting the missing path again")
+            intercept[UniformInterfaceException] {
+                Await.result(proxy.getMetadata("/missing", info), timeout)
+            }
+
+            Then("The request is forwarded to Nova")
+            upstreamRequests("/missing") shouldBe 2
+        }
+    }
+
+    feature("The proxy coalesces identical requests") {
+        scenario("Requests in flight are forwarded once") {
+            Given("A Nova API that does not reply")
+            latch = new CountDownLatch(1)
+            val info = instance()
+
+            When("The instance requests the same path twice")
+            val path = "/openstack/latest/password"
+            val f1 = proxy.getMetadata(path, info)
+            val f2 = proxy.getMetadata(path, info)
+
+            Then("The second request is coalesced")
+            metrics.requestsCoalesced.getCount shouldBe 1
+
+            When("Nova replies")
+            latch.countDown()
+
+            Then("Both requests complete with the same response")
+            Await.result(f1, timeout) shouldBe s"${info.instanceId}:$path"
+            Await.result(f2, timeout) shouldBe s"${info.instanceId}:$path"
+            upstreamRequests(path) shouldBe 1
+
+            When("The instance requests the path again")
+            Await.result(proxy.getMetadata(path, info), timeout)
+
+            Then("The request is forwarded to Nova")
+            upstreamRequests(path) shouldBe 2
+        }
+    }
+}
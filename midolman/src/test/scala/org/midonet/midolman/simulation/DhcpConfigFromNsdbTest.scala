@@ -19,6 +19,8 @@ package org.midonet.midolman.simulation
 import java.util.UUID
 
 import scala.collection.JavaConversions._
+import scala.concurrent.Await
+import scala.concurrent.duration._
 
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
@@ -29,7 +31,7 @@ import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.IPSubnetUtil._
 import org.midonet.midolman.NotYetException
-import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.midolman.topology.{DhcpMapper, VirtualTopology}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
 import org.midonet.util.MidonetEventually
@@ -59,6 +61,22 @@ class DhcpConfigFromNsdbTest extends MidolmanSpec
                 cfg.bridgeDhcpSubnets(UUID.randomUUID())
             }
         }
+
+        scenario("from a non existing DHCP configuration") {
+            Given("A DHCP identifier")
+            val id = UUID.randomUUID()
+
+            When("Requesting the DHCP configuration")
+            val e = intercept[NotYetException] {
+                cfg.tryGetDhcp(id)
+            }
+
+            Then("The packet is restarted when the lookup completes")
+            Await.result(e.waitFor, 5 seconds)
+
+            And("The restarted packet ignores the configuration")
+            cfg.tryGetDhcp(id) shouldBe None
+        }
     }
 
     feature("The DHCP config fetches data correctly") {
@@ -125,21 +143,23 @@ class DhcpConfigFromNsdbTest extends MidolmanSpec
                 _b.subnetIds should have size dhcps.size
             }
 
-            When("The subnets are requested ")
-            val subnets = cfg.bridgeDhcpSubnets(bId)
+            When("The subnets are requested, until they are loaded")
+            val subnets = eventually {
+                cfg.bridgeDhcpSubnets(bId)
+            }
 
             Then("The list of subnets is as expected")
             subnets should have size dhcps.size
 
             dhcps zip subnets foreach {
-                case (d, s) => cfg.toSubnet(d) shouldEqual s
+                case (d, s) => DhcpMapper.toSubnet(d) shouldEqual s
                 case _ => fail("Unexpected")
             }
 
             And("The hosts can be found")
             dhcps foreach { dhcp => dhcp.getHostsList foreach { h =>
                 val addr = dhcp.getSubnetAddress.asJava.asInstanceOf[IPv4Subnet]
-                val _h = cfg.dhcpHost(bId, cfg.toSubnet(dhcp), h.getMac)
+                val _h = cfg.dhcpHost(bId, DhcpMapper.toSubnet(dhcp), h.getMac)
                 _h shouldBe h
             }}
 
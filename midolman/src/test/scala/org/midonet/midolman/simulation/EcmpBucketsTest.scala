@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.simulation
+
+import java.util.{Arrays, UUID, List => JList, Map => JMap}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.midolman.simulation.EcmpBuckets.GroupKey
+import org.midonet.midolman.simulation.Router.RoutingTable
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.IPv4Addr
+import org.midonet.util.logging.Logger
+
+@RunWith(classOf[JUnitRunner])
+class EcmpBucketsTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    private val bucketCount = 1024
+
+    private def route(gateway: String, dst: String = "10.0.0.0",
+                      dstLength: Int = 8, weight: Int = 100): Route = {
+        new Route(0, 0, IPv4Addr.fromString(dst).toInt, dstLength,
+                  NextHop.PORT, UUID.randomUUID(),
+                  IPv4Addr.fromString(gateway).toInt, weight, null,
+                  UUID.randomUUID())
+    }
+
+    private def owners(buckets: EcmpBuckets, route: Route): Array[Route] = {
+        buckets.snapshot.get(EcmpBuckets.keyOf(route))
+    }
+
+    private def countOf(table: Array[Route], route: Route): Int = {
+        table.count(_ eq route)
+    }
+
+    private def remapped(before: Array[Route], after: Array[Route]): Int = {
+        before.indices.count(index => before(index) ne after(index))
+    }
+
+    feature("ECMP buckets assign buckets to equal-cost routes") {
+        scenario("A single route does not have buckets") {
+            Given("The buckets with one route")
+            val buckets = new EcmpBuckets(bucketCount)
+            val route1 = route("10.0.0.1")
+            buckets add route1
+
+            Then("The snapshot should not contain the route group")
+            owners(buckets, route1) shouldBe null
+        }
+
+        scenario("Routes in different groups are independent") {
+            Given("The buckets with routes for two destinations")
+            val buckets = new EcmpBuckets(bucketCount)
+            val route1 = route("10.0.0.1")
+            val route2 = route("10.0.0.2")
+            val route3 = route("10.0.0.3", dst = "20.0.0.0")
+            val route4 = route("10.0.0.4", weight = 200)
+            buckets add route1
+            buckets add route2
+            buckets add route3
+            buckets add route4
+
+            Then("Only the group with two routes should have buckets")
+            buckets.snapshot should have size 1
+            owners(buckets, route1).toSet shouldBe Set(route1, route2)
+        }
+
+        scenario("Buckets are balanced across the routes") {
+            Given("The buckets with four routes")
+            val buckets = new EcmpBuckets(bucketCount)
+            val routes = for (index <- 1 to 4) yield route(s"10.0.0.$index")
+            routes foreach buckets.add
+
+            Then("Every route should own a fair share of buckets")
+            val table = owners(buckets, routes.head)
+            for (r <- routes) {
+                countOf(table, r) shouldBe bucketCount / 4
+            }
+        }
+
+        scenario("Removing a route only remaps the buckets of that route") {
+            Given("The buckets with four routes")
+            val buckets = new EcmpBuckets(bucketCount)
+            val routes = for (index <- 1 to 4) yield route(s"10.0.0.$index")
+            routes foreach buckets.add
+            val before = owners(buckets, routes.head)
+
+            When("Removing a route")
+            buckets remove routes(2)
+            val after = owners(buckets, routes.head)
+
+            Then("Only the buckets of the removed route should be remapped")
+            remapped(before, after) shouldBe countOf(before, routes(2))
+            countOf(after, routes(2)) shouldBe 0
+
+            And("The buckets should remain balanced")
+            for (r <- routes if r ne routes(2)) {
+                countOf(after, r) should (be >= bucketCount / 3 and
+                                          be <= bucketCount / 3 + 1)
+            }
+
+            And("The previous snapshot should not change")
+            countOf(before, routes(2)) shouldBe bucketCount / 4
+        }
+
+        scenario("Adding a route only remaps its fair share of buckets") {
+            Given("The buckets with three routes")
+            val buckets = new EcmpBuckets(bucketCount)
+            val routes = for (index <- 1 to 3) yield route(s"10.0.0.$index")
+            routes foreach buckets.add
+            val before = owners(buckets, routes.head)
+
+            When("Adding a route")
+            val route4 = route("10.0.0.4")
+            buckets add route4
+            val after = owners(buckets, routes.head)
+
+            Then("Only the buckets taken by the new route should be remapped")
+            remapped(before, after) shouldBe bucketCount / 4
+            countOf(after, route4) shouldBe bucketCount / 4
+
+            And("Adding the same route again should not change the buckets")
+            buckets add new Route(
+                route4.srcNetworkAddr, route4.srcNetworkLength,
+                route4.dstNetworkAddr, route4.dstNetworkLength, route4.nextHop,
+                route4.nextHopPort, route4.nextHopGateway, route4.weight, null,
+                route4.routerId)
+            buckets.snapshot.get(EcmpBuckets.keyOf(route4)) shouldBe after
+        }
+
+        scenario("Removing all routes removes the group") {
+            Given("The buckets with two routes")
+            val buckets = new EcmpBuckets(bucketCount)
+            val route1 = route("10.0.0.1")
+            val route2 = route("10.0.0.2")
+            buckets add route1
+            buckets add route2
+
+            When("Removing both routes")
+            buckets remove route1
+            buckets remove route2
+
+            Then("The snapshot should be empty")
+            buckets.snapshot shouldBe empty
+        }
+    }
+
+    feature("Route balancer uses the ECMP buckets") {
+        class TestRoutingTable(routes: JList[Route],
+                               buckets: JMap[GroupKey, Array[Route]])
+            extends RoutingTable {
+            override def lookup(flowMatch: FlowMatch): JList[Route] = routes
+            override def lookup(flowMatch: FlowMatch, log: Logger) = routes
+            override def ecmpBuckets(route: Route): Array[Route] =
+                if (buckets eq null) null
+                else buckets.get(EcmpBuckets.keyOf(route))
+        }
+
+        def flowMatch(index: Int): FlowMatch = {
+            val fmatch = new FlowMatch()
+            fmatch.setNetworkSrc(IPv4Addr.fromInt(0x01000000 + index))
+            fmatch.setNetworkDst(IPv4Addr.fromString("10.0.0.100"))
+            fmatch.setNetworkProto(6.toByte)
+            fmatch.setSrcPort(index & 0xffff)
+            fmatch.setDstPort(80)
+            fmatch
+        }
+
+        def remapFraction(useBuckets: Boolean): Double = {
+            val routes = for (index <- 1 to 8) yield route(s"10.0.0.$index")
+            val buckets = new EcmpBuckets(bucketCount)
+            routes foreach buckets.add
+            val balancer1 = new RouteBalancer(new TestRoutingTable(
+                Arrays.asList(routes: _*),
+                if (useBuckets) buckets.snapshot else null))
+
+            buckets remove routes(3)
+            val remaining = routes.filter(_ ne routes(3))
+            val balancer2 = new RouteBalancer(new TestRoutingTable(
+                Arrays.asList(remaining: _*),
+                if (useBuckets) buckets.snapshot else null))
+
+            val log = Logger(org.slf4j.LoggerFactory.getLogger(getClass))
+            val flows = 10000
+            var moved = 0
+            for (index <- 0 until flows) {
+                val fmatch = flowMatch(index)
+                val before = balancer1.lookup(fmatch, log)
+                val after = balancer2.lookup(fmatch, log)
+                if (before ne after) moved += 1
+            }
+            moved.toDouble / flows
+        }
+
+        scenario("Removing a next hop remaps only the flows of that hop") {
+            Then("The resilient hashing remaps about 1/8 of the flows")
+            remapFraction(useBuckets = true) should be < 0.2
+
+            And("The modulo hashing remaps most flows")
+            remapFraction(useBuckets = false) should be > 0.5
+        }
+
+        scenario("Balancer falls back when the bucket route does not match") {
+            Given("A group of two routes where only one matches the lookup")
+            val route1 = route("10.0.0.1")
+            val route2 = route("10.0.0.2")
+            val route3 = route("10.0.0.3")
+            val buckets = new EcmpBuckets(bucketCount)
+            buckets add route1
+            buckets add route2
+            buckets add route3
+            val balancer = new RouteBalancer(new TestRoutingTable(
+                Arrays.asList(route1, route3), buckets.snapshot))
+
+            Then("The balancer always selects a matching route")
+            val log = Logger(org.slf4j.LoggerFactory.getLogger(getClass))
+            for (index <- 0 until 1000) {
+                Set(route1, route3) should contain (
+                    balancer.lookup(flowMatch(index), log))
+            }
+        }
+    }
+}
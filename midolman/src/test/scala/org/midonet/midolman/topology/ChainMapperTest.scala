@@ -26,6 +26,8 @@ import scala.concurrent.duration.DurationInt
 import akka.actor.ActorSystem
 import akka.testkit.TestKit
 
+import com.typesafe.config.{Config, ConfigFactory}
+
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -46,6 +48,7 @@ import org.midonet.midolman.simulation.{Chain => SimChain}
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.packets.IPAddr
+import org.midonet.sdn.flows.FlowTagger
 import org.midonet.util.concurrent.toFutureOps
 
 @RunWith(classOf[JUnitRunner])
@@ -61,6 +64,12 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
     private val timeout = 5 second
     private val traceChains = mutable.Map[UUID,Subject[SimChain,SimChain]]()
 
+    protected override def fillConfig(config: Config) = {
+        super.fillConfig(ConfigFactory.parseString(
+            "agent.midolman.chain_rule_invalidation : true")
+            .withFallback(config))
+    }
+
     protected override def beforeTest() = {
         vt = injector.getInstance(classOf[VirtualTopology])
         store = injector.getInstance(classOf[MidonetBackend]).store
@@ -610,6 +619,100 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
         }
     }
 
+    feature("The chain mapper invalidates the flows of changed rules") {
+        scenario("Adding, modifying and deleting rules") {
+            Given("A chain with three rules")
+            val chainId = UUID.randomUUID()
+            buildAndStoreChain(chainId, "test-chain")
+            buildAndStoreLiteralRule(chainId, ProtoRule.Action.ACCEPT)
+            val rule2 = buildAndStoreLiteralRule(chainId, ProtoRule.Action.ACCEPT)
+            val rule3 = buildAndStoreLiteralRule(chainId, ProtoRule.Action.ACCEPT)
+
+            When("We subscribe to the chain")
+            val (_, obs) = subscribeToChain(count = 1, chainId)
+            obs.awaitOnNext(1, timeout) shouldBe true
+
+            Then("All flows of the chain are invalidated")
+            simBackChannel.clear() shouldBe List(FlowTagger.tagForChain(chainId))
+
+            When("Adding a rule at the end of the chain")
+            val rule4 = buildAndStoreLiteralRule(chainId, ProtoRule.Action.DROP)
+            obs.awaitOnNext(2, timeout) shouldBe true
+
+            Then("Only the flows that evaluated all rules are invalidated")
+            simBackChannel.clear() shouldBe List(FlowTagger.tagForChainEnd(chainId))
+
+            When("Modifying the second rule")
+            store.update(rule2.toBuilder.setAction(ProtoRule.Action.DROP).build())
+            obs.awaitOnNext(3, timeout) shouldBe true
+
+            Then("The flows that stopped at or after the rule are invalidated")
+            simBackChannel.clear() should contain theSameElementsAs Seq(
+                FlowTagger.tagForChainRule(chainId, rule2.getId.asJava),
+                FlowTagger.tagForChainRule(chainId, rule3.getId.asJava),
+                FlowTagger.tagForChainRule(chainId, rule4.getId.asJava),
+                FlowTagger.tagForChainEnd(chainId))
+
+            And("The chain reuses the unchanged rules")
+            val chain2 = obs.getOnNextEvents.get(1)
+            val chain3 = obs.getOnNextEvents.get(2)
+            chain3.rules.get(0) should be theSameInstanceAs chain2.rules.get(0)
+            chain3.rules.get(2) should be theSameInstanceAs chain2.rules.get(2)
+
+            When("Deleting the third rule")
+            deleteRule(rule3.getId)
+            obs.awaitOnNext(4, timeout) shouldBe true
+
+            Then("The flows that stopped at or after the rule are invalidated")
+            simBackChannel.clear() should contain theSameElementsAs Seq(
+                FlowTagger.tagForChainRule(chainId, rule3.getId.asJava),
+                FlowTagger.tagForChainRule(chainId, rule4.getId.asJava),
+                FlowTagger.tagForChainEnd(chainId))
+
+            When("Deleting the chain")
+            store.delete(classOf[ProtoChain], chainId)
+            obs.awaitCompletion(timeout)
+
+            Then("All flows of the chain are invalidated")
+            simBackChannel.clear() should contain (FlowTagger.tagForChain(chainId))
+        }
+
+        scenario("Changes to many rules invalidate all flows of the chain") {
+            Given("A list of rules")
+            val chainId = UUID.randomUUID()
+            val rules = new java.util.ArrayList[SimRule]()
+            for (index <- 0 until 2 * ChainMapper.MaxRuleInvalidations) {
+                rules.add(ZoomConvert.fromProto(
+                    createLiteralRuleBuilder(UUID.randomUUID(),
+                                             chainId = Some(chainId),
+                                             action = Some(ProtoRule.Action.ACCEPT))
+                        .build(), classOf[SimRule]))
+            }
+
+            When("The list does not change")
+            val same = new java.util.ArrayList[SimRule](rules)
+
+            Then("There are no invalidations")
+            ChainMapper.ruleInvalidations(chainId, rules, same, Set.empty) shouldBe empty
+
+            When("A rule is modified in place near the end of the list")
+            val last = rules.get(rules.size - 1)
+
+            Then("The flows of the rule and the chain end are invalidated")
+            ChainMapper.ruleInvalidations(chainId, rules, same, Set(last.id)) shouldBe
+                Seq(FlowTagger.tagForChainRule(chainId, last.id),
+                    FlowTagger.tagForChainEnd(chainId))
+
+            When("A rule is inserted at the beginning of the list")
+            val inserted = new java.util.ArrayList[SimRule](rules)
+            inserted.add(0, rules.get(0))
+
+            Then("All flows of the chain are invalidated")
+            ChainMapper.ruleInvalidations(chainId, rules, inserted, Set.empty) shouldBe
+                Seq(FlowTagger.tagForChain(chainId))
+        }
+    }
+
     private def assertEquals(chain: ProtoChain, simChain: SimChain,
                              rules: List[ProtoRule], jumpChain: ProtoChain,
                              ipAddrGroups: Map[UUID, ProtoIPAddrGroup] = Map.empty)
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.midolman.topology.VirtualTopology.Device
+
+@RunWith(classOf[JUnitRunner])
+class DeviceTableTest extends FeatureSpec with Matchers with GivenWhenThen {
+
+    case class TestDevice(id: UUID, version: Int) extends Device
+
+    feature("The device table assigns dense indices") {
+        scenario("Devices are published and removed") {
+            Given("An empty table")
+            val table = new DeviceTable(initialCapacity = 4)
+            val id1 = UUID.randomUUID()
+            val id2 = UUID.randomUUID()
+            table.indexOf(id1) shouldBe DeviceTable.NoIndex
+            table.get(0, id1) shouldBe null
+
+            When("Publishing two devices")
+            val index1 = table.put(id1, TestDevice(id1, 0))
+            val index2 = table.put(id2, TestDevice(id2, 0))
+
+            Then("The devices have dense indices")
+            index1 shouldBe 0
+            index2 shouldBe 1
+            table.indexOf(id1) shouldBe index1
+            table.indexOf(id2) shouldBe index2
+            table.get(index1, id1) shouldBe TestDevice(id1, 0)
+            table.get(index2, id2) shouldBe TestDevice(id2, 0)
+            table.size shouldBe 2
+
+            When("Updating a device")
+            table.put(id1, TestDevice(id1, 1)) shouldBe index1
+
+            Then("The device keeps its index")
+            table.get(index1, id1) shouldBe TestDevice(id1, 1)
+
+            When("Removing a device")
+            table.remove(id1)
+
+            Then("The device is no longer in the table")
+            table.indexOf(id1) shouldBe DeviceTable.NoIndex
+            table.get(index1, id1) shouldBe null
+            table.size shouldBe 1
+        }
+
+        scenario("Stale indices do not resolve to other devices") {
+            Given("A table with a device")
+            val table = new DeviceTable(initialCapacity = 4)
+            val id1 = UUID.randomUUID()
+            val index1 = table.put(id1, TestDevice(id1, 0))
+
+            When("Removing the device and publishing another device")
+            table.remove(id1)
+            val id2 = UUID.randomUUID()
+            val index2 = table.put(id2, TestDevice(id2, 0))
+
+            Then("The new device reuses the index")
+            index2 shouldBe index1
+
+            And("The stale index does not resolve the removed device")
+            table.get(index1, id1) shouldBe null
+            table.get(index2, id2) shouldBe TestDevice(id2, 0)
+        }
+
+        scenario("The table grows") {
+            Given("A table with a small capacity")
+            val table = new DeviceTable(initialCapacity = 2)
+            val ids = for (index <- 0 until 100) yield UUID.randomUUID()
+
+            When("Publishing many devices")
+            for (id <- ids) table.put(id, TestDevice(id, 0))
+
+            Then("All devices are in the table")
+            table.capacity should be >= 100
+            for (index <- ids.indices) {
+                table.indexOf(ids(index)) shouldBe index
+                table.get(index, ids(index)) shouldBe TestDevice(ids(index), 0)
+            }
+
+            When("Clearing the table")
+            table.clear()
+
+            Then("The table is empty")
+            table.size shouldBe 0
+            for (index <- ids.indices) {
+                table.get(index, ids(index)) shouldBe null
+            }
+        }
+    }
+}
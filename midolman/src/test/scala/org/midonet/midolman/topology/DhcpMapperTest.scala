@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.DurationInt
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import rx.Observable
+
+import org.midonet.cluster.data.storage.{NotFoundException, Storage}
+import org.midonet.cluster.models.Topology.{Dhcp => TopologyDhcp}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.simulation.Dhcp
+import org.midonet.midolman.topology.TopologyTest.DeviceObserver
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.packets.{DHCPOption, IPv4Addr, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class DhcpMapperTest extends MidolmanSpec with TopologyBuilder {
+
+    private var vt: VirtualTopology = _
+    private var store: Storage = _
+    private final val timeout = 5 seconds
+
+    protected override def beforeTest(): Unit = {
+        vt = injector.getInstance(classOf[VirtualTopology])
+        store = injector.getInstance(classOf[MidonetBackend]).store
+    }
+
+    private def createDhcpWithHosts(hosts: TopologyDhcp.Host*): TopologyDhcp = {
+        val bridge = createBridge()
+        store.create(bridge)
+        val dhcp = createDhcp(bridge.getId.asJava).toBuilder
+            .addAllHosts(hosts.asJava)
+            .build()
+        store.create(dhcp)
+        dhcp
+    }
+
+    feature("The DHCP mapper emits DHCP devices") {
+        scenario("The mapper emits error for non-existing DHCP") {
+            Given("A DHCP identifier")
+            val id = UUID.randomUUID
+
+            And("A DHCP mapper and an observer")
+            val mapper = new DhcpMapper(id, vt)
+            val obs = new DeviceObserver[Dhcp](vt)
+
+            When("The observer subscribes to an observable on the mapper")
+            Observable.create(mapper).subscribe(obs)
+
+            Then("The observer should see a NotFoundException")
+            obs.awaitCompletion(timeout)
+            obs.getOnErrorEvents should have size 1
+            val e = obs.getOnErrorEvents.get(0).asInstanceOf[NotFoundException]
+            e.clazz shouldBe classOf[TopologyDhcp]
+            e.id shouldBe id
+        }
+
+        scenario("The mapper indexes the hosts by MAC") {
+            Given("A DHCP with two hosts, one with extra options")
+            val mac1 = MAC.random()
+            val mac2 = MAC.random()
+            val host1 = createDhcpHost("host1", mac1, IPv4Addr.random)
+            val host2 = createDhcpHost("host2", mac2, IPv4Addr.random)
+                .toBuilder
+                .addExtraDhcpOpts(TopologyDhcp.Host.ExtraDhcpOpt.newBuilder()
+                                      .setName("interface-mtu")
+                                      .setValue("1450"))
+                .addExtraDhcpOpts(TopologyDhcp.Host.ExtraDhcpOpt.newBuilder()
+                                      .setName("invalid-option")
+                                      .setValue("value"))
+                .build()
+            val dhcp = createDhcpWithHosts(host1, host2)
+
+            And("A DHCP mapper and an observer")
+            val mapper = new DhcpMapper(dhcp.getId.asJava, vt)
+            val obs = new DeviceObserver[Dhcp](vt)
+
+            When("The observer subscribes to an observable on the mapper")
+            Observable.create(mapper).subscribe(obs)
+
+            Then("The observer should see the DHCP device")
+            obs.awaitOnNext(1, timeout) shouldBe true
+            val device = obs.getOnNextEvents.asScala.last
+            device.id shouldBe dhcp.getId.asJava
+            device.subnet shouldBe DhcpMapper.toSubnet(dhcp)
+
+            And("The hosts should be indexed by MAC")
+            device.hosts should have size 2
+            device.host(mac1).get.getName shouldBe "host1"
+            device.host(mac2).get.getName shouldBe "host2"
+            device.host(MAC.random()) shouldBe None
+
+            And("The valid extra option should be encoded")
+            device.host(mac1).get.extraOptions shouldBe empty
+            val options = device.host(mac2).get.extraOptions
+            options should have size 1
+            options.head.getCode shouldBe DHCPOption.Code.INTERFACE_MTU.value
+            options.head.getData shouldBe Array[Byte](0x05, 0xaa.toByte)
+        }
+
+        scenario("The mapper emits updates and completes on delete") {
+            Given("A DHCP with a host")
+            val mac = MAC.random()
+            val dhcp = createDhcpWithHosts(
+                createDhcpHost("host", mac, IPv4Addr.random))
+
+            And("A DHCP mapper and an observer")
+            val mapper = new DhcpMapper(dhcp.getId.asJava, vt)
+            val obs = new DeviceObserver[Dhcp](vt)
+            Observable.create(mapper).subscribe(obs)
+            obs.awaitOnNext(1, timeout) shouldBe true
+
+            When("The host is removed")
+            store.update(dhcp.toBuilder.clearHosts().build())
+
+            Then("The observer should see the DHCP without hosts")
+            obs.awaitOnNext(2, timeout) shouldBe true
+            obs.getOnNextEvents.asScala.last.host(mac) shouldBe None
+
+            When("The DHCP is deleted")
+            store.delete(classOf[TopologyDhcp], dhcp.getId)
+
+            Then("The observer should see the completion")
+            obs.awaitCompletion(timeout)
+            obs.getOnCompletedEvents should not be empty
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+import java.util.concurrent.{Callable, ExecutorService, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.backend.zookeeper.ZkConnectionAwareWatcher
+import org.midonet.cluster.data.storage.Storage
+import org.midonet.cluster.models.Topology.{Port => TopologyPort}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.SimulationBackChannel
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.simulation.Bridge
+import org.midonet.midolman.topology.TopologyTest.DeviceObserver
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.util.MidonetEventually
+import org.midonet.util.concurrent.Executors
+
+@RunWith(classOf[JUnitRunner])
+class PartitionedVirtualTopologyTest extends MidolmanSpec
+                                     with TopologyBuilder
+                                     with MidonetEventually {
+
+    private final val partitionCount = 4
+    private final val timeout = 5 seconds
+
+    private var store: Storage = _
+    private var executors: Seq[ExecutorService] = _
+    private var vt: VirtualTopology = _
+
+    protected override def beforeTest(): Unit = {
+        val backend = injector.getInstance(classOf[MidonetBackend])
+        store = backend.store
+        executors = for (index <- 0 until partitionCount) yield
+            Executors.singleThreadScheduledExecutor(
+                s"devices-service-$index", isDaemon = true,
+                Executors.CallerRunsPolicy)
+        vt = new VirtualTopology(
+            backend,
+            injector.getInstance(classOf[MidolmanConfig]),
+            injector.getInstance(classOf[ZkConnectionAwareWatcher]),
+            injector.getInstance(classOf[SimulationBackChannel]),
+            new MetricRegistry,
+            executors.head,
+            executors.head,
+            () => true,
+            executors.tail)
+    }
+
+    protected override def afterTest(): Unit = {
+        for (executor <- executors) {
+            executor.shutdown()
+            executor.awaitTermination(timeout.toMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /** Returns a device identifier assigned to the specified partition. */
+    private def idInPartition(index: Int): UUID = {
+        var id = UUID.randomUUID()
+        while (vt.partitionOf(id).index != index) {
+            id = UUID.randomUUID()
+        }
+        id
+    }
+
+    /** An observer recording the threads of the notifications. */
+    private class ThreadObserver[D <: VirtualTopology.Device]
+        extends DeviceObserver[D](vt) {
+        @volatile var threads = Set.empty[String]
+        override def onNext(device: D): Unit = {
+            threads += Thread.currentThread().getName
+            super.onNext(device)
+        }
+    }
+
+    feature("The topology assigns devices to partitions") {
+        scenario("Devices are distributed across all partitions") {
+            Given("A partitioned virtual topology")
+            vt.isPartitioned shouldBe true
+            vt.partitions should have size partitionCount
+
+            Then("Random device identifiers map to all partitions")
+            val indices = (0 until 1000)
+                .map(_ => vt.partitionOf(UUID.randomUUID()).index).toSet
+            indices shouldBe (0 until partitionCount).toSet
+
+            And("The same identifier always maps to the same partition")
+            val id = UUID.randomUUID()
+            vt.partitionOf(id) shouldBe vt.partitionOf(id)
+        }
+
+        scenario("A device mapper runs on the thread of its partition") {
+            Given("A bridge in the last partition")
+            val bridgeId = idInPartition(partitionCount - 1)
+            store.create(createBridge(id = bridgeId))
+
+            When("Subscribing to the bridge")
+            val obs = new ThreadObserver[Bridge]
+            VirtualTopology.observable(classOf[Bridge], bridgeId) subscribe obs
+
+            Then("The observer receives the bridge on the partition thread")
+            obs.awaitOnNext(1, timeout) shouldBe true
+            obs.getOnNextEvents.get(0).id shouldBe bridgeId
+            obs.threads shouldBe Set(s"devices-service-${partitionCount - 1}")
+        }
+    }
+
+    feature("The services outside the device mappers use the VT thread") {
+        scenario("The VT scheduler and thread check are not partitioned") {
+            Given("A task running on the thread of the second partition")
+            def onPartition[T](index: Int)(f: => T): T = {
+                executors(index).submit(new Callable[T] {
+                    override def call(): T = f
+                }).get(timeout.toMillis, TimeUnit.MILLISECONDS)
+            }
+
+            Then("The VT scheduler is the scheduler of the first partition")
+            onPartition(1) { vt.vtScheduler } shouldBe
+                vt.partitions(0).scheduler
+
+            And("The current partition is the second partition")
+            onPartition(1) { vt.currentPartition.index } shouldBe 1
+            onPartition(1) { vt.currentPartitionScheduler } shouldBe
+                vt.partitions(1).scheduler
+
+            And("The VT thread check fails on the second partition")
+            onPartition(1) {
+                intercept[DeviceMapperException] { vt.assertThread() }
+            }
+
+            And("The VT thread check succeeds on the first partition")
+            onPartition(0) { vt.assertThread() }
+        }
+    }
+
+    feature("Devices receive updates from other partitions") {
+        scenario("A bridge tracks ports from all partitions") {
+            Given("A bridge in the first partition")
+            val bridgeId = idInPartition(0)
+            store.create(createBridge(id = bridgeId))
+            val obs = new ThreadObserver[Bridge]
+            VirtualTopology.observable(classOf[Bridge], bridgeId) subscribe obs
+            obs.awaitOnNext(1, timeout) shouldBe true
+
+            When("Creating an exterior port in every partition")
+            val portIds = for (index <- 0 until partitionCount) yield {
+                val portId = idInPartition(index)
+                store.create(createBridgePort(
+                    id = portId, bridgeId = Some(bridgeId),
+                    hostId = Some(hostId),
+                    interfaceName = Some(s"iface$index")))
+                portId
+            }
+
+            Then("The bridge eventually contains all exterior ports")
+            eventually {
+                obs.getOnNextEvents.asScala.last.exteriorPorts should
+                    contain theSameElementsAs portIds
+            }
+
+            And("All bridge notifications are on the bridge partition")
+            obs.getOnErrorEvents shouldBe empty
+            obs.threads shouldBe Set("devices-service-0")
+
+            When("Deleting the ports")
+            for (portId <- portIds) {
+                store.delete(classOf[TopologyPort], portId)
+            }
+
+            Then("The bridge eventually contains no exterior ports")
+            eventually {
+                obs.getOnNextEvents.asScala.last.exteriorPorts shouldBe empty
+            }
+            obs.getOnErrorEvents shouldBe empty
+        }
+    }
+}
@@ -33,7 +33,7 @@ import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.NotYetException
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
-import org.midonet.midolman.topology.VirtualTopology.Key
+import org.midonet.midolman.topology.VirtualTopology.{DeviceRef, Key}
 import org.midonet.midolman.simulation.{Port => SimulationPort}
 import org.midonet.midolman.topology.devices.{BgpPort, BgpRouter}
 import org.midonet.midolman.util.MidolmanSpec
@@ -593,4 +593,47 @@ class VirtualTopologyTest extends MidolmanSpec with TopologyBuilder {
             vt.observables.containsKey(Key(classOf[BgpPort], port.getId)) shouldBe false
         }
     }
+
+    feature("The topology resolves device references") {
+        scenario("A reference resolves a cached device by index") {
+            Given("A bridge port")
+            val id = UUID.randomUUID
+            store.create(createBridgePort(id = id, bridgeId = Some(bridgeId)))
+
+            And("A reference to the port")
+            val ref = new DeviceRef(classOf[SimulationPort], id)
+
+            When("Resolving the reference before the port is cached")
+            val e = intercept[NotYetException] {
+                ref.tryGet
+            }
+
+            Then("The reference throws a NotYetException with a future")
+            ready(e.waitFor, timeout)
+
+            And("The port is published in the device table")
+            val index = vt.deviceTable.indexOf(id)
+            index should not be DeviceTable.NoIndex
+            vt.deviceTable.get(index, id).asInstanceOf[SimulationPort].id shouldBe id
+
+            And("The reference resolves the port")
+            ref.tryGet.id shouldBe id
+            ref.tryGet should be theSameInstanceAs vt.devices.get(id)
+
+            When("The port is deleted")
+            val observer = new DeviceObserver[SimulationPort](vt)
+            VirtualTopology.observable(classOf[SimulationPort], id)
+                .subscribe(observer)
+            store.delete(classOf[TopologyPort], id)
+            observer.awaitCompletion(timeout)
+
+            Then("The port is removed from the device table")
+            vt.deviceTable.indexOf(id) shouldBe DeviceTable.NoIndex
+
+            And("The reference no longer resolves the port")
+            intercept[NotYetException] {
+                ref.tryGet
+            }
+        }
+    }
 }
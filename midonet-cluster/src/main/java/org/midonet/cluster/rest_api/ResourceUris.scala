@@ -24,6 +24,7 @@ object ResourceUris {
     val BGP_NETWORKS: String = "bgp_networks"
     val BGP_PEERS: String = "bgp_peers"
     val BINDINGS: String = "bindings"
+    val BULK: String = "bulk"
     val BRIDGES: String = "bridges"
     val CHAINS: String = "chains"
     val DHCP: String = "dhcp"
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.rest_api.models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.MoreObjects;
+
+/**
+ * An operation of a bulk request: the HTTP method, the path relative to the
+ * API root, such as "routers/{id}/routes" to create a route or "routes/{id}"
+ * to update or delete it, and for creations and updates, the resource.
+ */
+public class BulkOperation {
+
+    public String method;
+
+    public String path;
+
+    /* The media type of the resource, by default application/json. */
+    public String contentType;
+
+    public JsonNode body;
+
+    /* Default constructor - for deserialization. */
+    @SuppressWarnings("unused")
+    public BulkOperation() {
+    }
+
+    public BulkOperation(String method, String path, JsonNode body) {
+        this.method = method;
+        this.path = path;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .omitNullValues()
+            .add("method", method)
+            .add("path", path)
+            .add("contentType", contentType)
+            .toString();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.rest_api.models;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The result of an operation of a bulk request: the HTTP status the
+ * operation would have returned as an individual request, the location of
+ * the created resource and the error message, if any.
+ */
+public class BulkResult {
+
+    public int status;
+
+    public String location;
+
+    public String message;
+
+    /* Default constructor - for deserialization. */
+    @SuppressWarnings("unused")
+    public BulkResult() {
+    }
+
+    public BulkResult(int status, String location, String message) {
+        this.status = status;
+        this.location = location;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+            .omitNullValues()
+            .add("status", status)
+            .add("location", location)
+            .add("message", message)
+            .toString();
+    }
+}
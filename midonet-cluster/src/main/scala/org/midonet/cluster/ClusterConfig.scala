@@ -169,6 +169,11 @@ class RestApiConfig(val conf: Config) extends MinionConfig[RestApi] {
         conf.getDuration(s"$prefix.https_idle_timeout", TimeUnit.MILLISECONDS)
     def nsdbLockTimeoutMs =
         conf.getDuration(s"$prefix.nsdb_lock_timeout", TimeUnit.MILLISECONDS)
+    def cacheEnabled = conf.getBoolean(s"$prefix.cache_enabled")
+    def cacheWriteTimeoutMs =
+        conf.getDuration(s"$prefix.cache_write_timeout", TimeUnit.MILLISECONDS)
+    def bulkBatchSize = conf.getInt(s"$prefix.bulk_batch_size")
+    def bulkMaxOperations = conf.getInt(s"$prefix.bulk_max_operations")
 }
 
 class ContainersConfig(val conf: Config) extends MinionConfig[ContainerService] {
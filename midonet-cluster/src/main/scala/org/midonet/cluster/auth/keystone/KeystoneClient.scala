@@ -38,7 +38,7 @@ import com.sun.jersey.api.client.{ClientResponse, Client, ClientHandlerException
 
 import org.apache.commons.lang3.StringUtils.{isBlank, isNotBlank}
 
-import org.midonet.cluster.auth.keystone.KeystoneClient.{AdminToken, TokenExpirationGuard, parseExpiresAt, parseTimestamp}
+import org.midonet.cluster.auth.keystone.KeystoneClient.{AdminToken, NotFoundStatus, TokenExpirationGuard, UnauthorizedStatus, parseExpiresAt, parseTimestamp}
 
 object KeystoneClient {
 
@@ -46,7 +46,10 @@ object KeystoneClient {
       * This ensures that clock difference between the client and the Keystone
       * server does not cause the client to use an expired token.
       */
-    private val TokenExpirationGuard = 1 minute
+    private[keystone] val TokenExpirationGuard = 1 minute
+
+    private final val UnauthorizedStatus = Status.UNAUTHORIZED.getStatusCode
+    private final val NotFoundStatus = Status.NOT_FOUND.getStatusCode
 
     /**
       * Contains information about an administrative token.
@@ -177,16 +180,12 @@ class KeystoneClient(config: KeystoneConfig) {
         var params = Seq.empty[(String, String)]
         if (tenantScope.nonEmpty)
             params = params :+ ("belongsTo", tenantScope.get)
-        withAdminToken { adminToken =>
-            withVersion {
-                case 2 =>
-                    val access = get(classOf[v2.KeystoneAccess], Some(adminToken),
-                                     None, "tokens", token)(params: _*)
-                    AuthResponse(tokenId = access.access.token.id,
-                                 r2 = access.access)
-                case 3 =>
-                    handleAuthResponse(get(classOf[ClientResponse], Some(adminToken),
-                                           Some(token), "auth", "tokens")())
+        validateToken(token, params) getOrElse {
+            // Keystone rejected the administrative token, for instance if the
+            // token was revoked: renew the token and retry once.
+            validateToken(token, params) getOrElse {
+                throw new KeystoneUnauthorizedException(
+                    null, "Keystone rejected the administrative token", null)
             }
         }
     }
@@ -417,6 +416,75 @@ class KeystoneClient(config: KeystoneConfig) {
         }
     }
 
+    /**
+      * Validates a subject token with the current administrative token. If
+      * Keystone does not find the subject token, the method throws a
+      * [[KeystoneInvalidTokenException]]. If Keystone rejects the
+      * administrative token, the method discards the administrative token
+      * and returns `None`.
+      */
+    private def validateToken(token: String, params: Seq[(String, String)])
+    : Option[AuthResponse] = {
+        withAdminToken { adminTokenId =>
+            withVersion {
+                case 2 =>
+                    tryValidate(adminTokenId) {
+                        get(classOf[v2.KeystoneAccess], Some(adminTokenId),
+                            None, "tokens", token)(params: _*)
+                    } map { access =>
+                        AuthResponse(tokenId = access.access.token.id,
+                                     r2 = access.access)
+                    }
+                case 3 =>
+                    val response = get(classOf[ClientResponse],
+                                       Some(adminTokenId), Some(token),
+                                       "auth", "tokens")()
+                    response.getStatus match {
+                        case UnauthorizedStatus =>
+                            discardAdminToken(adminTokenId)
+                            None
+                        case NotFoundStatus =>
+                            throw new KeystoneInvalidTokenException(response)
+                        case _ =>
+                            Some(handleAuthResponse(response))
+                    }
+            }
+        }
+    }
+
+    /**
+      * Calls a function validating a subject token with the specified
+      * administrative token, and handles the Keystone errors as
+      * [[validateToken]].
+      */
+    private def tryValidate[R](adminTokenId: String)(f: => R): Option[R] = {
+        try {
+            Some(f)
+        } catch {
+            case e: KeystoneException => e.getCause match {
+                case c: UniformInterfaceException
+                    if c.getResponse.getStatus == UnauthorizedStatus =>
+                    discardAdminToken(adminTokenId)
+                    None
+                case c: UniformInterfaceException
+                    if c.getResponse.getStatus == NotFoundStatus =>
+                    throw new KeystoneInvalidTokenException(e.url, c)
+                case _ => throw e
+            }
+        }
+    }
+
+    /**
+      * Discards the specified administrative token if it is still the
+      * current token, such that the next request renews the token.
+      */
+    private def discardAdminToken(adminTokenId: String): Unit = {
+        val currentToken = adminToken
+        if ((currentToken ne null) && currentToken.id == adminTokenId) {
+            adminToken = null
+        }
+    }
+
     /**
       * Calls a function with a current administrative token.
       */
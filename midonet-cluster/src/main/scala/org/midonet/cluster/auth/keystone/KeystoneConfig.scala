@@ -16,6 +16,8 @@
 
 package org.midonet.cluster.auth.keystone
 
+import java.util.concurrent.TimeUnit
+
 import com.typesafe.config.Config
 
 import org.midonet.cluster.AuthConfig
@@ -31,5 +33,13 @@ class KeystoneConfig(conf: Config) extends AuthConfig(conf) {
     def protocol = conf.getString(s"$prefix.keystone.protocol")
     def host = conf.getString(s"$prefix.keystone.host")
     def port = conf.getInt(s"$prefix.keystone.port")
+    def tokenCacheTtl =
+        conf.getDuration(s"$prefix.keystone.token_cache_ttl",
+                         TimeUnit.MILLISECONDS)
+    def tokenCacheInvalidTtl =
+        conf.getDuration(s"$prefix.keystone.token_cache_invalid_ttl",
+                         TimeUnit.MILLISECONDS)
+    def tokenCacheMaxEntries =
+        conf.getInt(s"$prefix.keystone.token_cache_max_entries")
 
 }
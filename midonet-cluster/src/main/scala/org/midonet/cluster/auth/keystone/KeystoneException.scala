@@ -44,5 +44,23 @@ class KeystoneUnauthorizedException(url: String, message: String, inner: Excepti
 
 }
 
+/**
+  * Indicates that Keystone rejected the validated subject token, as opposed
+  * to the administrative credentials used to validate the token.
+  */
+class KeystoneInvalidTokenException(url: String, message: String,
+                                    inner: Exception)
+    extends KeystoneUnauthorizedException(url, message, inner) {
+
+    def this(url: String, inner: UniformInterfaceException) =
+        this(url, "Invalid Keystone token: " +
+                  s"${inner.getResponse.getEntity(classOf[AnyRef])}", inner)
+
+    def this(response: ClientResponse) =
+        this(null, "Invalid Keystone token: " +
+                   s"${response.getEntity(classOf[AnyRef])}", null)
+
+}
+
 class KeystoneConnectionException(url: String, inner: Exception)
     extends KeystoneException(url, s"Connection to Keystone failed", inner)
\ No newline at end of file
@@ -20,6 +20,7 @@ import java.util.Date
 
 import scala.collection.JavaConverters._
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 import com.typesafe.config.Config
 import com.typesafe.scalalogging.Logger
@@ -32,11 +33,15 @@ import org.midonet.cluster.auth._
 import org.midonet.cluster.KeystoneLog
 import org.midonet.cluster.rest_api.models.Tenant
 
-class KeystoneService @Inject()(config: Config) extends AuthService {
+class KeystoneService @Inject()(config: Config, metrics: MetricRegistry)
+    extends AuthService {
 
     private val log = Logger(LoggerFactory.getLogger(KeystoneLog))
     private val keystoneConfig = new KeystoneConfig(config)
     private val keystoneClient = new KeystoneClient(keystoneConfig)
+    private val tokenCache = new KeystoneTokenCache(keystoneConfig, metrics)
+
+    def this(config: Config) = this(config, new MetricRegistry)
 
     /**
       * Authenticates the user with the specified credentials. If the tenant
@@ -60,7 +65,8 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
 
     /**
       * Authorizes the specified token, and returns the corresponding user
-      * identity if the token is valid.
+      * identity if the token is valid. The token validation is cached until
+      * the token expires or the cache time-to-live elapses.
       */
     @throws[AuthException]
     def authorize(token: String): UserIdentity = {
@@ -69,7 +75,12 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
         if (StringUtils.isBlank(token))
             throw new InvalidCredentialsException("No token was passed in.")
 
-        val identity = identityOf(keystoneClient.validate(token))
+        val identity = tokenCache.get(token) {
+            val response = keystoneClient.validate(token)
+            val expiresAt =
+                if (response.token ne null) response.token.expiresAt else null
+            (identityOf(response), KeystoneClient.parseExpiresAt(expiresAt))
+        }
 
         log info s"Token $token authorized as $identity"
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.ConcurrentMap
+
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Promise}
+import scala.util.control.NonFatal
+
+import com.codahale.metrics.RatioGauge.Ratio
+import com.codahale.metrics.{Gauge, MetricRegistry, RatioGauge}
+import com.google.common.cache.CacheBuilder
+
+import org.apache.commons.codec.digest.DigestUtils
+
+import org.midonet.cluster.auth.UserIdentity
+import org.midonet.cluster.auth.keystone.KeystoneClient.TokenExpirationGuard
+import org.midonet.cluster.auth.keystone.KeystoneTokenCache.{Entry, MetricPrefix}
+
+object KeystoneTokenCache {
+
+    final val MetricPrefix = "auth.keystone.tokenCache"
+
+    /**
+      * A cache entry for a token. The entry is added to the cache before
+      * validating the token, such that concurrent requests for the same token
+      * wait for the completion of the same validation. The expiration time
+      * is set when the validation completes.
+      */
+    private class Entry {
+        val promise = Promise[UserIdentity]()
+        @volatile var expiresAt = Long.MaxValue
+    }
+
+}
+
+/**
+  * Caches the result of the Keystone token validation, such that requests
+  * using the same token do not validate the token with Keystone every time.
+  * The tokens are indexed by their SHA-256 hash.
+  *
+  * A valid token is cached until the earlier of its expiration time and the
+  * configured time-to-live, such that a revoked token is eventually rejected.
+  * A token rejected by Keystone is cached for the configured invalid
+  * time-to-live. Any other failure, such as Keystone rejecting the
+  * administrative credentials or being unreachable, is not cached.
+  *
+  * The cache holds up to the configured maximum number of tokens, evicting
+  * the least recently used tokens first.
+  *
+  * Concurrent requests for a token that is not cached share a single
+  * validation request to Keystone.
+  */
+class KeystoneTokenCache(config: KeystoneConfig, metrics: MetricRegistry) {
+
+    private val ttl = config.tokenCacheTtl
+    private val invalidTtl = config.tokenCacheInvalidTtl
+    private val maxEntries = config.tokenCacheMaxEntries
+
+    private val entries: ConcurrentMap[String, Entry] =
+        CacheBuilder.newBuilder()
+                    .maximumSize(math.max(maxEntries, 0))
+                    .build[String, Entry]()
+                    .asMap()
+
+    private val hits =
+        metrics.meter(MetricRegistry.name(MetricPrefix, "hits"))
+    private val misses =
+        metrics.meter(MetricRegistry.name(MetricPrefix, "misses"))
+    private val validations =
+        metrics.timer(MetricRegistry.name(MetricPrefix, "validations"))
+
+    metrics.register(MetricRegistry.name(MetricPrefix, "hitRatio"),
+                     new RatioGauge {
+        override def getRatio: Ratio =
+            Ratio.of(hits.getCount, hits.getCount + misses.getCount)
+    })
+    metrics.register(MetricRegistry.name(MetricPrefix, "size"),
+                     new Gauge[Int] {
+        override def getValue: Int = entries.size()
+    })
+
+    /**
+      * Returns the user identity for the specified token, either from the
+      * cache or by calling the `validate` function, which must return the
+      * identity and the expiration time of the token. If the token is
+      * invalid, the method throws the exception of the validation.
+      */
+    @throws[KeystoneException]
+    def get(token: String)(validate: => (UserIdentity, Long)): UserIdentity = {
+        if (ttl <= 0) {
+            return validate._1
+        }
+
+        val key = DigestUtils.sha256Hex(token)
+        while (true) {
+            val entry = entries.get(key)
+            if (entry eq null) {
+                val newEntry = new Entry
+                if (entries.putIfAbsent(key, newEntry) eq null) {
+                    misses.mark()
+                    return load(key, newEntry, validate)
+                }
+            } else if (entry.expiresAt <= currentTimeMillis) {
+                entries.remove(key, entry)
+            } else {
+                hits.mark()
+                return Await.result(entry.promise.future, Duration.Inf)
+            }
+        }
+        throw new IllegalStateException("Unreachable")
+    }
+
+    /**
+      * Removes all tokens from the cache.
+      */
+    def clear(): Unit = {
+        entries.clear()
+    }
+
+    /**
+      * @return The number of tokens in the cache, including the tokens
+      *         being validated.
+      */
+    def size: Int = entries.size()
+
+    protected def currentTimeMillis: Long = System.currentTimeMillis()
+
+    /**
+      * Validates the token of a new cache entry, and completes the entry with
+      * the validation result.
+      */
+    private def load(key: String, entry: Entry,
+                     validate: => (UserIdentity, Long)): UserIdentity = {
+        val context = validations.time()
+        try {
+            val (identity, expiresAt) = validate
+            entry.expiresAt =
+                math.min(expiresAt - TokenExpirationGuard.toMillis,
+                         currentTimeMillis + ttl)
+            entry.promise.success(identity)
+            identity
+        } catch {
+            case e: KeystoneException if isInvalid(e) =>
+                entry.expiresAt = currentTimeMillis + invalidTtl
+                entry.promise.failure(e)
+                throw e
+            case NonFatal(e) =>
+                entries.remove(key, entry)
+                entry.promise.failure(e)
+                throw e
+        } finally {
+            context.stop()
+            // If the validation failed with a fatal error, fail the requests
+            // waiting for the same token instead of blocking them forever.
+            if (!entry.promise.isCompleted) {
+                entries.remove(key, entry)
+                entry.promise.tryFailure(new KeystoneException(
+                    null, "Keystone token validation failed", null))
+            }
+        }
+    }
+
+    /**
+      * Indicates whether the exception means that Keystone rejected the
+      * token, in which case the result can be cached.
+      */
+    private def isInvalid(e: KeystoneException): Boolean = e match {
+        case _: KeystoneInvalidTokenException => true
+        case _ => false
+    }
+
+}
@@ -110,6 +110,11 @@ object ContainerScheduler {
   * the currently available hosts, and performs a random host selection given
   * the host set and available host weights.
   *
+  * The host set and weights are not examined by every container scheduler.
+  * Instead, all container schedulers using the same host selector share the
+  * same [[HostScores]], which applies each hosts notification once and
+  * maintains the running and available hosts incrementally.
+  *
   * This class exposes an observable, which emits notifications when the
   * scheduling of the container has changed, as follows:
   * - Scheduled: the container has been scheduled on a host
@@ -163,8 +168,9 @@ class ContainerScheduler(containerId: UUID, context: Context,
     private var state: State = DownState
 
     private var currentContainer: ServiceContainer = null
-    private var currentHosts: HostsEvent = Map.empty
     private var hostSelector: HostSelector = null
+    private var hostScores: HostScores = null
+    private var hostsVersion = 0L
 
     private val badHosts = new mutable.HashMap[UUID, BadHost]
 
@@ -284,72 +290,28 @@ class ContainerScheduler(containerId: UUID, context: Context,
     @VisibleForTesting
     protected def currentTime: Long = Platform.currentTime
 
-    /** Selects the host that should launch the container from the specified
-      * list, using the specified selection policy. If there is no available
-      * host, the method returns null.
+    /** Selects the host that should launch the container from the available
+      * hosts of the current host scores excluding the bad hosts, using the
+      * specified selection policy. If there is no available host, the method
+      * returns null.
       */
-    private def selectHost(hosts: HostsEvent, policy: ServiceContainerPolicy)
-    : Option[UUID] = {
-        if (hosts.isEmpty)
-            return None
-
+    private def selectHost(policy: ServiceContainerPolicy): Option[UUID] = {
         policy match {
             case ServiceContainerPolicy.WEIGHTED_SCHEDULER =>
-                selectHostWeightedPolicy(hosts)
+                // This is a random selection, where the probability of
+                // selecting a certain host is proportional to that host's
+                // weight.
+                hostScores.selectWeighted(random, badHosts.keySet)
             case ServiceContainerPolicy.LEAST_SCHEDULER =>
-                selectHostLeastPolicy(hosts)
+                // This selects the host that currently runs the minimum number
+                // of containers as reported by the host and read from NSDB.
+                hostScores.selectLeast(badHosts.keySet)
             case _ =>
                 log warn s"Unrecognized scheduling policy $policy"
                 None
         }
     }
 
-    /** Selects the host from the list using the weighted policy. This is a
-      * random selection, where the probability of selecting a certain host
-      * is proportional to that host's weight.
-      */
-    private def selectHostWeightedPolicy(hosts: HostsEvent): Option[UUID] = {
-        val totalWeight = hosts.foldLeft(0L)((seed, host) =>
-                                                 seed + host._2.status.getWeight)
-        val randomWeight = Math.abs(random.nextLong()) % totalWeight
-        var sumWeight = 0L
-        var selectedId: UUID = null
-
-        val hostIterator = hosts.iterator
-        while (hostIterator.hasNext && sumWeight <= randomWeight) {
-            val host = hostIterator.next()
-            selectedId = host._1
-            sumWeight += host._2.status.getWeight
-        }
-
-        Option(selectedId)
-    }
-
-    /** Selects the host from the list using the least policy. This selects the
-      * host that currently runs the minimum number of containers as reported
-      * by the host and read from NSDB.
-      */
-    private def selectHostLeastPolicy(hosts: HostsEvent): Option[UUID] = {
-        Some(hosts.minBy(_._2.status.getCount)._1)
-    }
-
-    /** Determines whether a host is running to start a container: the host
-      * must be running the container service, and it must report a positive
-      * container weight.
-      */
-    @inline
-    private def isHostRunning(entry: (UUID, HostEvent)): Boolean = {
-        entry._2.running && entry._2.status.getWeight > 0
-    }
-
-    /** Determines whether a host is available to start a container: the host
-      * must report a non-zero quota.
-      */
-    @inline
-    private def isHostAvailable(entry: (UUID, HostEvent)): Boolean = {
-        entry._2.status.getQuota != 0
-    }
-
     /** Handles updates to this container. The method verifies if this is the
       * first container notification
       */
@@ -403,12 +365,24 @@ class ContainerScheduler(containerId: UUID, context: Context,
 
         // If the change in policy returns a new host selector, emit the
         // selector observable on the hosts subject.
+        // The host scores are updated before the notification is queued on
+        // the scheduler, such that the host scores always reflect the latest
+        // hosts notification. The reference to the host scores is released
+        // when the scheduler unsubscribes from the selector, either because
+        // of a new policy or because the scheduler has completed.
         val selector = selectorProvider.selectorOf(group)
         if (hostSelector ne selector) {
+            val scores = selectorProvider.scoresOf(selector)
             hostSelector = selector
+            hostScores = scores
+            hostsVersion = 0L
             hostsReady = false
             hostsSubject onNext hostSelector.observable
+                .doOnNext(makeAction1(scores.update))
                 .doOnNext(makeAction1(_ => hostsReady = true))
+                .doOnUnsubscribe(makeAction0 {
+                    selectorProvider.release(selector)
+                })
         }
     }
 
@@ -585,34 +559,25 @@ class ContainerScheduler(containerId: UUID, context: Context,
             }
         }
 
-        log debug s"Scheduling from hosts: ${hosts.keySet}"
-
-        // Select all hosts that are running.
-        val runningHosts = hosts.filter(isHostRunning)
-        log debug s"Scheduling from running hosts: ${runningHosts.keySet}"
+        log debug s"Scheduling from ${hostScores.runningCount} running " +
+                  s"hosts with ${badHosts.size} bad hosts"
 
         // Clear the bad hosts set.
-        checkBadHosts(runningHosts)
-
-        // Filter the bad hosts.
-        val eligibleHosts = runningHosts -- badHosts.keySet
-        log debug s"Scheduling from eligible hosts: ${eligibleHosts.keySet}"
+        checkBadHosts()
 
         val selectedHostId =
-            if ((state.hostId ne null) && eligibleHosts.contains(state.hostId)) {
+            if ((state.hostId ne null) && hostScores.isRunning(state.hostId) &&
+                !badHosts.contains(state.hostId)) {
                 // If the container is currently scheduled at a host, and that
                 // host belongs to the eligible set, no rescheduling needed.
                 state.hostId
             } else {
-                val availableHosts = eligibleHosts.filter(isHostAvailable)
-
-                log debug "Scheduling from available hosts: " +
-                          s"${availableHosts.keySet} using ${group.getPolicy} " +
-                          "policy"
+                log debug s"Scheduling from ${hostScores.availableCount} " +
+                          s"available hosts using ${group.getPolicy} policy"
 
                 // Select a host from the available set based on the current
-                // selection policy (currently only weighted-random).
-                selectHost(availableHosts, group.getPolicy).orNull
+                // selection policy.
+                selectHost(group.getPolicy).orNull
             }
 
         if ((selectedHostId ne null) || (namespaceId ne null)){
@@ -842,17 +807,18 @@ class ContainerScheduler(containerId: UUID, context: Context,
     }
 
     /** Checks the bad hosts to clear the hosts whose bad lifetime has expired,
-      * and hosts that have been currently added to the hosts set.
+      * and hosts that have started running since the last check.
       */
-    private def checkBadHosts(hosts: HostsEvent): Unit = {
-        val addedHosts = hosts.keySet -- currentHosts.keySet
-        val expiryTime = currentTime
-        badHosts --= addedHosts
-        for ((hostId, badHost) <- badHosts.toList
-             if badHost.expires < expiryTime) {
-            badHosts -= hostId
+    private def checkBadHosts(): Unit = {
+        if (badHosts.nonEmpty) {
+            val expiryTime = currentTime
+            for ((hostId, badHost) <- badHosts.toList
+                 if badHost.expires < expiryTime ||
+                    hostScores.isRunningSince(hostId, hostsVersion)) {
+                badHosts -= hostId
+            }
         }
-        currentHosts = hosts
+        hostsVersion = hostScores.version
     }
 
     /** Invalidates the current port for any event emitted by the scheduler that
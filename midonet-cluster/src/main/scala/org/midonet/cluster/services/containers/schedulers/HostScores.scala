@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.util
+import java.util.{Comparator, UUID}
+
+import scala.util.Random
+
+import org.midonet.cluster.services.containers.schedulers.HostScores._
+
+object HostScores {
+
+    private final val InitialCapacity = 16
+
+    /** The scheduling score of a host that is running the container service.
+      * The `slot` is the position of the host in the weights tree and remains
+      * the same for as long as the host is running.
+      */
+    private final class HostScore(val hostId: UUID, val slot: Int,
+                                  val runningVersion: Long) {
+        var weight = 0L
+        var count = 0
+        var available = false
+    }
+
+    /** Orders the host scores by the number of containers, and then by the
+      * host identifier, such that the order is total.
+      */
+    private object LeastComparator extends Comparator[HostScore] {
+        override def compare(a: HostScore, b: HostScore): Int = {
+            val result = Integer.compare(a.count, b.count)
+            if (result != 0) result else a.hostId.compareTo(b.hostId)
+        }
+    }
+
+    /** Determines whether a host is running to start a container: the host
+      * must be running the container service, and it must report a positive
+      * container weight.
+      */
+    @inline
+    def isHostRunning(event: HostEvent): Boolean = {
+        event.running && event.status.getWeight > 0
+    }
+
+    /** Determines whether a host is available to start a container: the host
+      * must report a non-zero quota.
+      */
+    @inline
+    def isHostAvailable(event: HostEvent): Boolean = {
+        event.status.getQuota != 0
+    }
+
+}
+
+/**
+  * Maintains incrementally the scheduling scores for the hosts emitted by a
+  * [[HostSelector]], such that the scheduling decisions for all containers
+  * using the same selector do not require a full scan of the host set.
+  *
+  * An instance of this class is shared by all [[ContainerScheduler]]s that
+  * use the same host selector. Every [[HostsEvent]] is applied once, by
+  * computing the difference from the previous event, and subsequent
+  * notifications of the same event (received by the other container
+  * schedulers) are ignored. For every change, the class updates:
+  * - the set of running hosts, with the version when each host started
+  *   running, such that the schedulers can clear their bad hosts when a
+  *   host is added;
+  * - a tree set with the available hosts ordered by their container count,
+  *   used by the least scheduling policy;
+  * - a binary indexed tree with the weights of the available hosts, used by
+  *   the weighted scheduling policy.
+  *
+  * Host selection costs O(log n) for n available hosts, plus the number of
+  * hosts excluded by the caller (the container's bad hosts).
+  *
+  * This class is not thread-safe and must only be used from the containers
+  * context scheduler thread.
+  */
+class HostScores {
+
+    private var currentHosts: HostsEvent = Map.empty
+    private var currentVersion = 0L
+
+    private val scores = new util.HashMap[UUID, HostScore]
+    private val leastHosts = new util.TreeSet[HostScore](LeastComparator)
+
+    // A binary indexed tree with the weights of the available hosts, where the
+    // host at slot i is stored at index i + 1.
+    private var weights = new Array[Long](InitialCapacity + 1)
+    private var slots = new Array[HostScore](InitialCapacity)
+    private val freeSlots = new util.ArrayDeque[Integer]
+    private var nextSlot = 0
+    private var totalWeight = 0L
+
+    /** Returns the current version of the host scores, which is incremented
+      * every time a new hosts event is applied.
+      */
+    def version: Long = currentVersion
+
+    /** Returns the last hosts event applied to the host scores.
+      */
+    def hosts: HostsEvent = currentHosts
+
+    /** Returns the number of running hosts.
+      */
+    def runningCount: Int = scores.size
+
+    /** Returns the number of available hosts.
+      */
+    def availableCount: Int = leastHosts.size
+
+    /** Indicates whether the specified host is running.
+      */
+    def isRunning(hostId: UUID): Boolean = scores.containsKey(hostId)
+
+    /** Indicates whether the specified host has started running after the
+      * specified version of the host scores.
+      */
+    def isRunningSince(hostId: UUID, version: Long): Boolean = {
+        val score = scores.get(hostId)
+        (score ne null) && score.runningVersion > version
+    }
+
+    /** Applies the specified hosts event to the current host scores. The
+      * method does nothing if the event is the same as the last one.
+      */
+    def update(hosts: HostsEvent): Unit = {
+        if (hosts eq currentHosts) {
+            return
+        }
+        currentVersion += 1
+
+        val oldIterator = currentHosts.iterator
+        while (oldIterator.hasNext) {
+            val hostId = oldIterator.next()._1
+            if (!hosts.contains(hostId)) {
+                remove(hostId)
+            }
+        }
+
+        val newIterator = hosts.iterator
+        while (newIterator.hasNext) {
+            val (hostId, event) = newIterator.next()
+            if (currentHosts.get(hostId) != Some(event)) {
+                set(hostId, event)
+            }
+        }
+
+        currentHosts = hosts
+    }
+
+    /** Selects the available host that is running the least number of
+      * containers, excluding the specified hosts.
+      */
+    def selectLeast(excluded: collection.Set[UUID]): Option[UUID] = {
+        val iterator = leastHosts.iterator()
+        while (iterator.hasNext) {
+            val score = iterator.next()
+            if (!excluded.contains(score.hostId)) {
+                return Some(score.hostId)
+            }
+        }
+        None
+    }
+
+    /** Selects a random available host, excluding the specified hosts, where
+      * the probability of selecting a certain host is proportional to that
+      * host's weight.
+      */
+    def selectWeighted(random: Random, excluded: collection.Set[UUID])
+    : Option[UUID] = {
+        // Collect the slots of the excluded hosts that are available.
+        var excludedSlots: Array[Int] = null
+        var excludedWeight = 0L
+        if (excluded.nonEmpty) {
+            excludedSlots = excluded.toArray.flatMap { hostId =>
+                val score = scores.get(hostId)
+                if ((score ne null) && score.available) Some(score.slot)
+                else None
+            }
+            util.Arrays.sort(excludedSlots)
+            var index = 0
+            while (index < excludedSlots.length) {
+                excludedWeight += slots(excludedSlots(index)).weight
+                index += 1
+            }
+        }
+
+        val eligibleWeight = totalWeight - excludedWeight
+        if (eligibleWeight <= 0) {
+            return None
+        }
+        val randomWeight = (random.nextLong() & Long.MaxValue) % eligibleWeight
+
+        // Find the slot of the host covering the random weight, skipping the
+        // weight of the excluded hosts: since the excluded hosts are not
+        // counted towards the random weight, the random weight is shifted by
+        // the weight of the excluded hosts preceding the current slot, until
+        // the slot no longer changes.
+        var slot = find(randomWeight)
+        if (excludedSlots ne null) {
+            var shiftWeight = 0L
+            var changed = true
+            while (changed) {
+                var weight = 0L
+                var index = 0
+                while (index < excludedSlots.length &&
+                       excludedSlots(index) <= slot) {
+                    weight += slots(excludedSlots(index)).weight
+                    index += 1
+                }
+                changed = weight != shiftWeight
+                if (changed) {
+                    shiftWeight = weight
+                    slot = find(randomWeight + shiftWeight)
+                }
+            }
+        }
+        Option(slots(slot)).map(_.hostId)
+    }
+
+    /** Adds or updates the score for the specified host.
+      */
+    private def set(hostId: UUID, event: HostEvent): Unit = {
+        if (!isHostRunning(event)) {
+            remove(hostId)
+            return
+        }
+
+        var score = scores.get(hostId)
+        if (score eq null) {
+            score = new HostScore(hostId, allocateSlot(), currentVersion)
+            slots(score.slot) = score
+            scores.put(hostId, score)
+        } else {
+            unindex(score)
+        }
+        score.weight = event.status.getWeight
+        score.count = event.status.getCount
+        score.available = isHostAvailable(event)
+        index(score)
+    }
+
+    /** Removes the score for the specified host, if any.
+      */
+    private def remove(hostId: UUID): Unit = {
+        val score = scores.remove(hostId)
+        if (score ne null) {
+            unindex(score)
+            slots(score.slot) = null
+            freeSlots push score.slot
+        }
+    }
+
+    private def index(score: HostScore): Unit = {
+        if (score.available) {
+            leastHosts add score
+            add(score.slot, score.weight)
+        }
+    }
+
+    private def unindex(score: HostScore): Unit = {
+        if (score.available) {
+            leastHosts remove score
+            add(score.slot, -score.weight)
+        }
+    }
+
+    /** Allocates a slot in the weights tree, growing the tree if there are no
+      * free slots.
+      */
+    private def allocateSlot(): Int = {
+        if (!freeSlots.isEmpty) {
+            return freeSlots.pop()
+        }
+        if (nextSlot == slots.length) {
+            slots = util.Arrays.copyOf(slots, slots.length * 2)
+            weights = new Array[Long](slots.length + 1)
+            var slot = 0
+            while (slot < nextSlot) {
+                val score = slots(slot)
+                if ((score ne null) && score.available) {
+                    addToTree(slot, score.weight)
+                }
+                slot += 1
+            }
+        }
+        nextSlot += 1
+        nextSlot - 1
+    }
+
+    /** Adds the specified weight to the given slot.
+      */
+    private def add(slot: Int, weight: Long): Unit = {
+        addToTree(slot, weight)
+        totalWeight += weight
+    }
+
+    private def addToTree(slot: Int, weight: Long): Unit = {
+        var index = slot + 1
+        while (index < weights.length) {
+            weights(index) += weight
+            index += index & -index
+        }
+    }
+
+    /** Finds the first slot for which the cumulative weight is greater than
+      * the specified weight.
+      */
+    private def find(weight: Long): Int = {
+        var index = 0
+        var remaining = weight
+        var mask = Integer.highestOneBit(weights.length - 1)
+        while (mask != 0) {
+            val next = index + mask
+            if (next < weights.length && weights(next) <= remaining) {
+                index = next
+                remaining -= weights(next)
+            }
+            mask >>>= 1
+        }
+        index
+    }
+
+}
@@ -16,16 +16,26 @@
 
 package org.midonet.cluster.services.containers.schedulers
 
+import scala.collection.mutable
+
 import org.midonet.cluster.models.Topology.ServiceContainerGroup
 import org.midonet.containers.Context
 
 /**
-  * Builds the correct type of [[HostSelector]] given a service container group.
+  * Builds the correct type of [[HostSelector]] given a service container group,
+  * and the [[HostScores]] shared by all containers using the same selector.
   */
 class HostSelectorProvider(context: Context) {
 
+    private class SharedScores {
+        val scores = new HostScores
+        var references = 0
+    }
+
     private lazy val anywhereHostSelector = new AnywhereHostSelector(context)
 
+    private val hostScores = new mutable.HashMap[HostSelector, SharedScores]
+
     /**
       * Returns a host selector for the specified service container group.
       */
@@ -34,4 +44,38 @@ class HostSelectorProvider(context: Context) {
         anywhereHostSelector
     }
 
+    /**
+      * Returns the host scores for the specified host selector, and adds a
+      * reference to them. Every call must be paired with a call to
+      * `release` when the caller no longer uses the selector.
+      */
+    def scoresOf(selector: HostSelector): HostScores = synchronized {
+        val shared = hostScores.getOrElseUpdate(selector, new SharedScores)
+        shared.references += 1
+        shared.scores
+    }
+
+    /**
+      * Releases a reference to the host scores of the specified host
+      * selector. The scores are removed when the last container scheduler
+      * using the selector releases them, such that the provider does not
+      * keep the scores of the selectors that are no longer used, for
+      * instance after the deletion of their group.
+      */
+    def release(selector: HostSelector): Unit = synchronized {
+        hostScores.get(selector) match {
+            case Some(shared) =>
+                shared.references -= 1
+                if (shared.references <= 0) {
+                    hostScores.remove(selector)
+                }
+            case None =>
+        }
+    }
+
+    /**
+      * Returns the number of host selectors that have host scores.
+      */
+    def scoresCount: Int = synchronized { hostScores.size }
+
 }
@@ -153,4 +153,8 @@ object MidonetMediaTypes {
     final val APPLICATION_TRACE_REQUEST_JSON = "application/vnd.org.midonet.TraceRequest-v1+json"
     final val APPLICATION_TRACE_REQUEST_COLLECTION_JSON = "application/vnd.org.midonet.collection.TraceRequest-v1+json"
 
+    // Bulk requests
+    final val APPLICATION_BULK_OPERATION_COLLECTION_JSON = "application/vnd.org.midonet.collection.BulkOperation-v1+json"
+    final val APPLICATION_BULK_RESULT_COLLECTION_JSON = "application/vnd.org.midonet.collection.BulkResult-v1+json"
+
 }
@@ -44,7 +44,7 @@ import org.reflections.Reflections
 import org.slf4j.LoggerFactory
 import org.slf4j.bridge.SLF4JBridgeHandler
 
-import org.midonet.cluster.auth.{AuthModule, AuthService}
+import org.midonet.cluster.auth.AuthService
 import org.midonet.cluster.rest_api.auth.{AdminOnlyAuthFilter, AuthFilter, LoginFilter}
 import org.midonet.cluster.rest_api.jaxrs.WildcardJacksonJaxbJsonProvider
 import org.midonet.cluster.rest_api.validation.ValidatorProvider
@@ -77,13 +77,14 @@ object RestApi {
 
         val resProvider = new ResourceProvider(reflections, log)
         val sequenceDispenser = new SequenceDispenser(curator, config.backend)
+        val storageCache = new StorageCache(backend.store, config.restApi)
 
         override def configureServlets(): Unit = {
             // To redirect JDK log to slf4j. Ref: MNA-706
             SLF4JBridgeHandler.removeHandlersForRootLogger()
             SLF4JBridgeHandler.install()
 
-            install(new AuthModule(config.auth, log))
+            bind(classOf[AuthService]).toInstance(authService)
 
             val paths = new PathBuilder(config.backend.rootKey)
 
@@ -96,6 +97,7 @@ object RestApi {
             bind(classOf[MidonetBackend]).toInstance(backend)
             bind(classOf[MidonetBackendConfig]).toInstance(config.backend)
             bind(classOf[SequenceDispenser]).toInstance(sequenceDispenser)
+            bind(classOf[StorageCache]).toInstance(storageCache)
             bind(classOf[MidoNodeConfigurator])
                 .toInstance(MidoNodeConfigurator(
                 curator.usingNamespace(config.backend.rootKey.stripPrefix("/")),
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.UUID
+
+import scala.collection.concurrent.TrieMap
+import scala.collection.immutable.{TreeMap, TreeSet}
+import scala.collection.mutable
+import scala.util.{Failure, Success}
+import scala.util.control.NonFatal
+
+import com.google.protobuf.Descriptors.{Descriptor, FieldDescriptor}
+import com.google.protobuf.Message
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory.getLogger
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.{RestApiConfig, RestApiLog}
+import org.midonet.cluster.data.storage.Storage
+import org.midonet.cluster.models.Commons
+import org.midonet.cluster.util.UUIDUtil
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+object StorageCache {
+
+    private final val log = Logger(getLogger(RestApiLog))
+
+    private final val IdField = "id"
+
+    /* A cached object, with the sequence number of the cache update that
+     * stored it. */
+    private final class Entry(val message: Message, val sequence: Long)
+
+    /* An immutable view of the cached objects of a class sorted by
+     * identifier, with the identifiers of the objects indexed by the values
+     * of the indexed fields. */
+    private final class Snapshot(val objects: TreeMap[String, Entry],
+                                 val indices: Map[FieldDescriptor,
+                                                  Map[String, TreeSet[String]]])
+
+    private val EmptySnapshot =
+        new Snapshot(TreeMap.empty[String, Entry], Map.empty)
+
+    /**
+     * Returns the values of a message field as strings, where the
+     * identifiers are formatted like the identifiers of the objects.
+     */
+    private def fieldValues(message: Message, field: FieldDescriptor)
+    : Seq[String] = {
+        if (field.isRepeated) {
+            val count = message.getRepeatedFieldCount(field)
+            for (index <- 0 until count)
+                yield idString(
+                    message.getRepeatedField(field, index))
+        } else if (message.hasField(field)) {
+            Seq(idString(message.getField(field)))
+        } else {
+            Seq.empty
+        }
+    }
+
+    /* Formats an identifier or field value as a string. */
+    private def idString(value: Any): String = value match {
+        case uuid: Commons.UUID => UUIDUtil.fromProto(uuid).toString
+        case _ => value.toString
+    }
+
+    /* Formats a value requested through the API like the values of the
+     * field, returning null if the value is not valid for the field. */
+    private def normalize(field: FieldDescriptor, value: Any): String = {
+        if (field.getJavaType == FieldDescriptor.JavaType.MESSAGE &&
+            field.getMessageType == Commons.UUID.getDescriptor) {
+            try UUID.fromString(value.toString).toString catch {
+                case e: IllegalArgumentException => null
+            }
+        } else {
+            value.toString
+        }
+    }
+
+    /* Normalizes an object identifier requested through the API. */
+    private def normalizeId(id: Any): String = id match {
+        case uuid: UUID => uuid.toString
+        case string: String =>
+            try UUID.fromString(string).toString catch {
+                case e: IllegalArgumentException => string
+            }
+        case _ => idString(id)
+    }
+}
+
+/**
+ * An in-memory cache of the topology objects served by the REST API, from
+ * which the API reads the objects of a class instead of reading them one
+ * by one from storage on every request.
+ *
+ * The objects of each class are cached when the class is first read, and
+ * they are kept up to date by subscribing to the storage observable for
+ * the class, which watches the class in the NSDB with a shared class
+ * subscription cache. The cache serves reads only after it has received
+ * all the objects that existed when it was created, and until the class
+ * observable fails, in which case the cache is created again on the next
+ * read. The callers must read from storage while the cache is not ready.
+ *
+ * The objects of a class are stored in an immutable snapshot that is
+ * replaced on every update, such that every read sees the objects of the
+ * class at the same point in time. The snapshot sorts the objects by
+ * identifier, which allows paging through the objects with the identifier
+ * of the last object of the previous page as a marker, and it indexes the
+ * objects by the values of the fields used to filter them. An index is
+ * built the first time a field is used as a filter.
+ *
+ * Since the cache is updated asynchronously, a client may not see its own
+ * writes in a subsequent read. To prevent this, the REST API waits after
+ * every write until the cache has received an update for the written
+ * objects, with the timeout given in the configuration.
+ *
+ * When the cache is disabled in the configuration, no class is cached.
+ */
+class StorageCache(store: Storage, config: RestApiConfig) {
+
+    import StorageCache._
+
+    /**
+     * The cached objects of a class.
+     */
+    final class ClassCache private[StorageCache](val clazz: Class[_]) {
+
+        private val descriptor = clazz.getMethod("getDescriptor")
+                                      .invoke(null).asInstanceOf[Descriptor]
+        private val idField = descriptor.findFieldByName(IdField)
+        if (idField eq null) {
+            throw new IllegalArgumentException(
+                s"Class ${clazz.getSimpleName} does not have an identifier")
+        }
+
+        @volatile private var snapshot = EmptySnapshot
+        @volatile private var ready = false
+        @volatile private var failed = false
+
+        @volatile private var sequence = 0L
+        private var missing: mutable.Set[String] = null
+
+        private val classObserver = new Observer[Observable[Message]] {
+            override def onNext(observable: Observable[Message]): Unit = {
+                observable.subscribe(new ObjectObserver)
+            }
+            override def onCompleted(): Unit = fail(null)
+            override def onError(e: Throwable): Unit = fail(e)
+        }
+
+        private class ObjectObserver extends Observer[Message] {
+            private var id: String = null
+            override def onNext(message: Message): Unit = {
+                id = idString(message.getField(idField))
+                update(id, message)
+            }
+            override def onCompleted(): Unit = {
+                if (id ne null) remove(id)
+            }
+            override def onError(e: Throwable): Unit = {
+                if (id ne null) remove(id)
+            }
+        }
+
+        private val subscription =
+            store.observable(clazz.asInstanceOf[Class[Message]])
+                 .subscribe(classObserver)
+
+        store.getAll(clazz.asInstanceOf[Class[Message]])
+             .onComplete {
+                 case Success(messages) => initialize(messages)
+                 case Failure(e) => fail(e)
+             } (CallingThreadExecutionContext)
+
+        /** Indicates whether the cache can serve reads. */
+        def isReady: Boolean = ready && !failed
+
+        /**
+         * Returns the object with the given identifier, or null if the
+         * object is not cached.
+         */
+        def get(id: Any): Message = {
+            snapshot.objects.get(normalizeId(id)) match {
+                case Some(entry) => entry.message
+                case None => null
+            }
+        }
+
+        /**
+         * Returns the objects with the given identifiers, in the same order,
+         * or null if any object is not cached.
+         */
+        def getAll(ids: Seq[Any]): Seq[Message] = {
+            val objects = snapshot.objects
+            val messages = new Array[Message](ids.size)
+            var index = 0
+            for (id <- ids) {
+                objects.get(normalizeId(id)) match {
+                    case Some(entry) => messages(index) = entry.message
+                    case None => return null
+                }
+                index += 1
+            }
+            messages
+        }
+
+        /**
+         * Returns an iterator over the cached objects sorted by identifier,
+         * starting after the given marker identifier if not null, and
+         * matching all the given filters. A filter is a pair of the name of
+         * a field of the message and of a value that the field must contain.
+         * Returns null if a filter refers to a field that does not exist.
+         */
+        def iterator(filters: Seq[(String, String)], marker: String)
+        : Iterator[Message] = {
+            val fields = for ((name, value) <- filters) yield {
+                val field = descriptor.findFieldByName(name)
+                if (field eq null) return null
+                val normalized = normalize(field, value)
+                if (normalized eq null) return Iterator.empty
+                (field, normalized)
+            }
+
+            val current = indexed(fields.map(_._1))
+            val start = if (marker eq null) null else normalizeId(marker)
+            if (fields.isEmpty) {
+                val entries =
+                    if (start eq null) current.objects.valuesIterator
+                    else current.objects.iteratorFrom(start)
+                                .dropWhile(_._1 == start).map(_._2)
+                entries.map(_.message)
+            } else {
+                val (field, value) = fields.head
+                val ids = current.indices(field).getOrElse(value, TreeSet.empty)
+                val from =
+                    if (start eq null) ids.iterator
+                    else ids.iteratorFrom(start).dropWhile(_ == start)
+                from.flatMap(current.objects.get).map(_.message).filter {
+                    message => fields.forall { case (f, v) =>
+                        fieldValues(message, f).contains(v)
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the sequence number of the last update of the cache.
+         */
+        def lastSequence: Long = sequence
+
+        /**
+         * Waits until the cache has received an update after the given
+         * sequence number for the objects with the given identifiers, where
+         * the deleted objects must have been removed from the cache. Returns
+         * false on timeout.
+         */
+        def await(ids: Iterable[String], deleted: Iterable[String],
+                  afterSequence: Long, timeoutMs: Long): Boolean = {
+            val deadline = System.currentTimeMillis() + timeoutMs
+            synchronized {
+                while (isReady && !isUpdated(ids, deleted, afterSequence)) {
+                    val remaining = deadline - System.currentTimeMillis()
+                    if (remaining <= 0) return false
+                    wait(remaining)
+                }
+            }
+            true
+        }
+
+        private def isUpdated(ids: Iterable[String], deleted: Iterable[String],
+                              afterSequence: Long): Boolean = {
+            val objects = snapshot.objects
+            ids.forall { id =>
+                objects.get(id).exists(_.sequence > afterSequence)
+            } && deleted.forall(!objects.contains(_))
+        }
+
+        /** Stops updating the cache. */
+        def close(): Unit = {
+            subscription.unsubscribe()
+        }
+
+        /* Returns the latest snapshot, after adding the indices for the given
+         * fields if they do not exist. */
+        private def indexed(fields: Seq[FieldDescriptor]): Snapshot = {
+            val current = snapshot
+            if (fields.forall(current.indices.contains)) {
+                return current
+            }
+            synchronized {
+                val latest = snapshot
+                var indices = latest.indices
+                for (field <- fields if !indices.contains(field)) {
+                    var index = Map.empty[String, TreeSet[String]]
+                    for ((id, entry) <- latest.objects;
+                         value <- fieldValues(entry.message, field)) {
+                        index = addToIndex(index, value, id)
+                    }
+                    indices += field -> index
+                }
+                snapshot = new Snapshot(latest.objects, indices)
+                snapshot
+            }
+        }
+
+        private def addToIndex(index: Map[String, TreeSet[String]],
+                               value: String, id: String)
+        : Map[String, TreeSet[String]] = {
+            index + (value -> (index.getOrElse(value, TreeSet.empty[String]) +
+                               id))
+        }
+
+        private def removeFromIndex(index: Map[String, TreeSet[String]],
+                                    value: String, id: String)
+        : Map[String, TreeSet[String]] = {
+            index.get(value) match {
+                case Some(ids) if ids.size == 1 && ids.contains(id) =>
+                    index - value
+                case Some(ids) => index + (value -> (ids - id))
+                case None => index
+            }
+        }
+
+        private def update(id: String, message: Message): Unit = synchronized {
+            val current = snapshot
+            val old = current.objects.get(id)
+            val indices = for ((field, index) <- current.indices) yield {
+                var updated = index
+                for (entry <- old; value <- fieldValues(entry.message, field))
+                    updated = removeFromIndex(updated, value, id)
+                for (value <- fieldValues(message, field))
+                    updated = addToIndex(updated, value, id)
+                field -> updated
+            }
+            sequence += 1
+            snapshot = new Snapshot(current.objects +
+                                    (id -> new Entry(message, sequence)),
+                                    indices)
+            if (!ready && (missing ne null)) {
+                missing -= id
+                checkReady()
+            }
+            notifyAll()
+        }
+
+        private def remove(id: String): Unit = synchronized {
+            val current = snapshot
+            current.objects.get(id) match {
+                case Some(entry) =>
+                    val indices = for ((field, index) <- current.indices)
+                        yield {
+                            var updated = index
+                            for (value <- fieldValues(entry.message, field))
+                                updated = removeFromIndex(updated, value, id)
+                            field -> updated
+                        }
+                    sequence += 1
+                    snapshot = new Snapshot(current.objects - id, indices)
+                    notifyAll()
+                case None =>
+            }
+        }
+
+        /**
+         * Sets the objects read from storage that the cache must receive
+         * before it can serve reads. This is called with the objects read
+         * when the cache is created, and again with the objects read from
+         * storage while the cache is not ready, since an object deleted
+         * meanwhile may never be received.
+         */
+        def initialize(messages: Seq[Message]): Unit = synchronized {
+            if (!ready) {
+                val objects = snapshot.objects
+                missing = new mutable.HashSet[String]
+                for (message <- messages) {
+                    val id = idString(
+                        message.getField(idField))
+                    if (!objects.contains(id)) missing += id
+                }
+                checkReady()
+            }
+        }
+
+        private def checkReady(): Unit = {
+            if (missing.isEmpty) {
+                ready = true
+                missing = null
+                log.debug(s"Cache for class ${clazz.getSimpleName} ready " +
+                          s"with ${snapshot.objects.size} objects")
+            }
+        }
+
+        private def fail(e: Throwable): Unit = {
+            if (e ne null) {
+                log.warn(s"Cache for class ${clazz.getSimpleName} failed", e)
+            }
+            failed = true
+            caches.remove(clazz, this)
+            synchronized { notifyAll() }
+        }
+    }
+
+    /**
+     * A set of objects written by a transaction, for which the API waits
+     * until they are updated in the cache.
+     */
+    final class Writes private[StorageCache]() {
+        private val updated = new mutable.HashMap[ClassCache,
+                                                  (Long, mutable.Set[String])]
+        private val deleted = new mutable.HashMap[ClassCache,
+                                                  (Long, mutable.Set[String])]
+
+        /** Records the creation or update of the given object. */
+        def update(message: Message): Unit = {
+            val cache = caches.getOrElse(message.getClass, null)
+            if (cache ne null) {
+                val id = idString(
+                    message.getField(message.getDescriptorForType
+                                            .findFieldByName(IdField)))
+                record(updated, cache, id)
+                for ((_, ids) <- deleted.get(cache)) ids -= id
+            }
+        }
+
+        /** Records the deletion of the given object. */
+        def delete(clazz: Class[_], id: Any): Unit = {
+            val cache = caches.getOrElse(clazz, null)
+            if (cache ne null) {
+                val idString = normalizeId(id)
+                record(deleted, cache, idString)
+                for ((_, ids) <- updated.get(cache)) ids -= idString
+            }
+        }
+
+        private def record(writes: mutable.Map[ClassCache,
+                                               (Long, mutable.Set[String])],
+                           cache: ClassCache, id: String): Unit = {
+            writes.getOrElseUpdate(cache, (cache.lastSequence,
+                                           new mutable.HashSet[String]))
+                  ._2 += id
+        }
+
+        /**
+         * Waits until the cache has received the updates for the written
+         * objects. Logs a warning on timeout, since the objects will be
+         * eventually updated.
+         */
+        def await(): Unit = {
+            val deadline = System.currentTimeMillis() +
+                           config.cacheWriteTimeoutMs
+            for (cache <- updated.keySet ++ deleted.keySet) {
+                val (updatedSequence, updatedIds) =
+                    updated.getOrElse(cache, (Long.MaxValue, Set.empty[String]))
+                val (deletedSequence, deletedIds) =
+                    deleted.getOrElse(cache, (Long.MaxValue, Set.empty[String]))
+                val remaining = deadline - System.currentTimeMillis()
+                if (!cache.await(updatedIds, deletedIds,
+                                 Math.min(updatedSequence, deletedSequence),
+                                 Math.max(remaining, 0L))) {
+                    log.warn("Timeout waiting for the cache of class " +
+                             s"${cache.clazz.getSimpleName} to receive the " +
+                             "objects written by the API")
+                }
+            }
+        }
+    }
+
+    private val caches = new TrieMap[Class[_], ClassCache]
+
+    /**
+     * Returns the cache for the given class, creating the cache if
+     * necessary, or null if the objects of the class cannot be cached.
+     * The caller must check whether the cache is ready before reading from
+     * it.
+     */
+    def apply(clazz: Class[_]): ClassCache = {
+        if (!config.cacheEnabled || !classOf[Message].isAssignableFrom(clazz) ||
+            !store.isRegistered(clazz)) {
+            return null
+        }
+        caches.getOrElse(clazz, null) match {
+            case null =>
+                val cache = try new ClassCache(clazz) catch {
+                    case NonFatal(e) =>
+                        log.warn("Failed to create cache for class " +
+                                 s"${clazz.getSimpleName}", e)
+                        return null
+                }
+                caches.putIfAbsent(clazz, cache) match {
+                    case Some(existing) => cache.close(); existing
+                    case None => cache
+                }
+            case cache => cache
+        }
+    }
+
+    /**
+     * Returns a new set of writes to wait for.
+     */
+    def writes(): Writes = new Writes
+
+    /** Closes the cache of every class. */
+    def close(): Unit = {
+        for (cache <- caches.values) cache.close()
+        caches.clear()
+    }
+}
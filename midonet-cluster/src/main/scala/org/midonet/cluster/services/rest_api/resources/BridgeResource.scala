@@ -104,6 +104,8 @@ class BridgeResource @Inject()(resContext: ResourceContext,
     }
 
 
+    protected override def listIndices = Map("tenant_id" -> "tenant_id")
+
     protected override def listFilter(bridges: Seq[Bridge]): Seq[Bridge] = {
         val tenantId = resContext.uriInfo
             .getQueryParameters.getFirst("tenant_id")
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api.resources
+
+import java.lang.reflect.{InvocationTargetException, Method}
+import java.lang.{Integer => JInteger, Long => JLong, Short => JShort}
+import java.util.concurrent.TimeUnit
+import java.util.{ConcurrentModificationException, UUID, List => JList}
+import javax.ws.rs._
+import javax.ws.rs.core.MediaType.APPLICATION_JSON
+import javax.ws.rs.core.Response.Status._
+import javax.ws.rs.core.{HttpHeaders, MediaType, Response}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+import scala.util.control.NonFatal
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.google.inject.servlet.RequestScoped
+import com.google.inject.{Inject, Injector}
+import com.typesafe.scalalogging.Logger
+import org.eclipse.jetty.http.HttpStatus.METHOD_NOT_ALLOWED_405
+import org.slf4j.LoggerFactory.getLogger
+
+import org.midonet.cluster.data.storage._
+import org.midonet.cluster.data.util.ZkOpLock
+import org.midonet.cluster.rest_api._
+import org.midonet.cluster.rest_api.annotation.ApiResource
+import org.midonet.cluster.rest_api.models.{BulkOperation, BulkResult, ErrorEntity, UriResource}
+import org.midonet.cluster.rest_api.serialization.ObjectMapperProvider
+import org.midonet.cluster.rest_api.version.VersionParser
+import org.midonet.cluster.services.rest_api.MidonetMediaTypes._
+import org.midonet.cluster.services.rest_api.{ResourceProvider, StorageCache}
+import org.midonet.cluster.services.rest_api.resources.MidonetResource._
+import org.midonet.cluster.{ZookeeperLockFactory, restApiResourceLog}
+
+/**
+ * Executes a list of create, update and delete operations on any of the
+ * resources of the API, such that provisioning many objects does not
+ * require a request, a storage lock and a storage transaction per object.
+ *
+ * Each operation is executed by the resource handling its path, with the
+ * same validation and the same result as an individual request, except
+ * that the resources write to a transaction shared by the operations of a
+ * batch. The batches of up to `bulk_batch_size` operations are committed
+ * while holding the storage lock, which is acquired once per request.
+ * Since the operations of a batch share the transaction, an operation may
+ * refer to the objects created by the previous operations of the same
+ * request.
+ *
+ * When an operation fails, the other operations of its batch are executed
+ * again in a new transaction, such that the failed operation does not
+ * write to storage. The result of every operation is returned in the order
+ * of the request. The operations writing outside the storage transaction,
+ * such as the ARP, MAC and peering table entries, the IP address group
+ * addresses and the VTEP bindings, are rejected with a bad request.
+ */
+@ApiResource(version = 1, name = "bulk")
+@Path("bulk")
+@RequestScoped
+class BulkResource @Inject()(resProvider: ResourceProvider,
+                             injector: Injector,
+                             objectMapperProvider: ObjectMapperProvider,
+                             resContext: ResourceContext) {
+
+    private val log = Logger(getLogger(restApiResourceLog(getClass)))
+    private val versionParser = new VersionParser
+
+    @POST
+    @Consumes(Array(APPLICATION_BULK_OPERATION_COLLECTION_JSON,
+                    APPLICATION_JSON))
+    @Produces(Array(APPLICATION_BULK_RESULT_COLLECTION_JSON,
+                    APPLICATION_JSON))
+    def execute(operations: JList[BulkOperation]): JList[BulkResult] = {
+        if (operations eq null) {
+            throw new BadRequestHttpException("The request has no operations")
+        }
+        if (operations.size > resContext.config.bulkMaxOperations) {
+            throw new BadRequestHttpException(
+                s"The request has ${operations.size} operations, more than " +
+                s"the maximum of ${resContext.config.bulkMaxOperations}")
+        }
+
+        val ops = operations.asScala.toArray
+        val results = new Array[BulkResult](ops.length)
+        val valid = ops.indices.filter { index =>
+            val error = validate(ops(index))
+            if (error ne null) {
+                results(index) = new BulkResult(BAD_REQUEST.getStatusCode,
+                                                null, error)
+            }
+            error eq null
+        }
+        if (valid.isEmpty) {
+            return results.toSeq.asJava
+        }
+
+        val lock = new ZkOpLock(resContext.lockFactory,
+                                lockOpNumber.getAndIncrement,
+                                ZookeeperLockFactory.ZOOM_TOPOLOGY)
+        try lock.acquire(resContext.config.nsdbLockTimeoutMs,
+                         TimeUnit.MILLISECONDS) catch {
+            case NonFatal(t) =>
+                log.info("Could not acquire storage lock.", t)
+                throw new ServiceUnavailableHttpException(
+                    "Could not acquire lock for storage operation.")
+        }
+
+        val writes = new ArrayBuffer[StorageCache#Writes]
+        try {
+            val batchSize = Math.max(resContext.config.bulkBatchSize, 1)
+            for (batch <- valid.grouped(batchSize)) {
+                executeBatch(ops, batch, results, writes)
+            }
+        } finally {
+            lock.release()
+        }
+
+        // Wait for the cache to receive the written objects, such that they
+        // are returned by subsequent reads.
+        writes.foreach(_.await())
+
+        log.debug(s"Executed bulk request with ${ops.length} operations")
+        results.toSeq.asJava
+    }
+
+    /** Returns an error message if the operation is not valid, or null
+      * otherwise. */
+    private def validate(op: BulkOperation): String = {
+        if (op eq null) {
+            "The operation is null"
+        } else if ((op.path eq null) || op.path.split('/').forall(_.isEmpty)) {
+            "The operation has no path"
+        } else op.method match {
+            case HttpMethod.POST | HttpMethod.PUT if op.body eq null =>
+                s"The ${op.method} operation on ${op.path} has no body"
+            case HttpMethod.POST | HttpMethod.PUT | HttpMethod.DELETE =>
+                try {
+                    if (op.contentType ne null) {
+                        MediaType.valueOf(op.contentType)
+                    }
+                    null
+                } catch {
+                    case e: IllegalArgumentException =>
+                        s"Invalid content type ${op.contentType}"
+                }
+            case _ =>
+                s"Unsupported method ${op.method} for operation on ${op.path}"
+        }
+    }
+
+    /** Executes and commits a batch of operations, retrying the batch
+      * without the operations that failed, or on a concurrent modification.
+      * The writes of the committed transaction are added to `writes`. */
+    private def executeBatch(ops: Array[BulkOperation], batch: Seq[Int],
+                             results: Array[BulkResult],
+                             writes: ArrayBuffer[StorageCache#Writes])
+    : Unit = {
+        var pending = batch
+        var attempt = 1
+        while (pending.nonEmpty) {
+            val bulk = new BulkTransaction(
+                resContext.backend.store.transaction(),
+                if (resContext.storageCache eq null) null
+                else resContext.storageCache.writes())
+
+            bulkTransaction.set(bulk)
+            val succeeded = try pending.filter { index =>
+                results(index) = executeOperation(ops(index))
+                results(index).status < BAD_REQUEST.getStatusCode
+            } finally {
+                bulkTransaction.remove()
+            }
+
+            if (succeeded.size < pending.size) {
+                // Discard the writes of the failed operations.
+                pending = succeeded
+            } else try {
+                bulk.tx.commit()
+                if (bulk.writes ne null) writes += bulk.writes
+                return
+            } catch {
+                case e: ConcurrentModificationException
+                    if attempt < StorageAttempts =>
+                    log.warn(s"Write $attempt of $StorageAttempts failed due " +
+                             s"to a concurrent modification (${e.getMessage})" +
+                             ": retrying")
+                    attempt += 1
+                case NonFatal(e) =>
+                    val result = errorResult(e)
+                    for (index <- pending) results(index) = result
+                    return
+            }
+        }
+    }
+
+    private def executeOperation(op: BulkOperation): BulkResult = {
+        try {
+            val contentType =
+                if (op.contentType eq null) APPLICATION_JSON else op.contentType
+            val response = op.method match {
+                case HttpMethod.POST =>
+                    val (resource, _) = resolve(op.path, terminal = 0)
+                    resource.create(entity(op, contentType, resource),
+                                    contentType)
+                case HttpMethod.PUT =>
+                    val (resource, id) = resolve(op.path, terminal = 1)
+                    resource.update(id, entity(op, contentType, resource),
+                                    contentType)
+                case HttpMethod.DELETE =>
+                    val (resource, id) = resolve(op.path, terminal = 1)
+                    resource.delete(id)
+            }
+            result(response)
+        } catch {
+            case NonFatal(e) => errorResult(e)
+        }
+    }
+
+    private def entity(op: BulkOperation, contentType: String,
+                       resource: MidonetResource[UriResource]): UriResource = {
+        val version = Math.max(versionParser.getVersion(contentType), 1)
+        try {
+            objectMapperProvider.get(version)
+                                .treeToValue(op.body, resource.resourceClass)
+        } catch {
+            case e: JsonProcessingException =>
+                throw new BadRequestHttpException(e, e.getOriginalMessage)
+        }
+    }
+
+    /**
+     * Returns the resource handling the given path and the identifier
+     * segment at the end of the path, if any. The path starts with the name
+     * of a root resource, and the remaining segments are consumed by the
+     * sub-resource locators, leaving `terminal` segments for the operation.
+     */
+    private def resolve(path: String, terminal: Int)
+    : (MidonetResource[UriResource], String) = {
+        val segments = path.split('/').filter(_.nonEmpty)
+        var resource = injector.getInstance(resProvider.get(segments(0)))
+                               .asInstanceOf[AnyRef]
+        var index = 1
+        while (segments.length - index > terminal) {
+            val (located, consumed) = locate(resource, segments, index,
+                                             segments.length - index - terminal)
+            resource = located
+            index += consumed
+        }
+        if (segments.length - index < terminal) {
+            throw new WebApplicationException(METHOD_NOT_ALLOWED_405)
+        }
+        resource match {
+            case r: MidonetResource[_] =>
+                (r.asInstanceOf[MidonetResource[UriResource]],
+                 if (terminal > 0) segments(index) else null)
+            case _ =>
+                throw new WebApplicationException(METHOD_NOT_ALLOWED_405)
+        }
+    }
+
+    /** Invokes the sub-resource locator of the resource with the longest path
+      * template matching the segments starting at `index`, and consuming at
+      * most `available` segments. Returns the sub-resource and the number of
+      * segments consumed. */
+    private def locate(resource: AnyRef, segments: Array[String], index: Int,
+                       available: Int): (AnyRef, Int) = {
+        var locator: Method = null
+        var template: Array[String] = null
+        for (method <- resource.getClass.getMethods) {
+            val path = method.getAnnotation(classOf[Path])
+            if ((path ne null) && !isResourceMethod(method)) {
+                val parts = path.value.split('/').filter(_.nonEmpty)
+                if (parts.length <= available &&
+                    ((template eq null) || parts.length > template.length) &&
+                    parts.indices.forall { i =>
+                        isParam(parts(i)) || parts(i) == segments(index + i)
+                    }) {
+                    locator = method
+                    template = parts
+                }
+            }
+        }
+        if (locator eq null) {
+            throw new NotFoundHttpException(
+                s"Resource ${segments.mkString("/")} not found")
+        }
+
+        val args = for ((clazz, annotations) <- locator.getParameterTypes zip
+                                                locator.getParameterAnnotations)
+            yield annotations.collectFirst {
+                case param: PathParam =>
+                    val position = template.indexOf(s"{${param.value}}")
+                    if (position < 0) null
+                    else convert(segments(index + position), clazz)
+            }.orNull
+
+        val located = try locator.invoke(resource, args: _*) catch {
+            case e: InvocationTargetException => throw e.getCause
+        }
+        (located, template.length)
+    }
+
+    private def isResourceMethod(method: Method): Boolean = {
+        method.getAnnotations.exists(
+            _.annotationType.isAnnotationPresent(classOf[HttpMethod]))
+    }
+
+    private def isParam(part: String): Boolean = {
+        part.startsWith("{") && part.endsWith("}")
+    }
+
+    private def convert(value: String, clazz: Class[_]): AnyRef = {
+        try {
+            if (clazz == classOf[String]) value
+            else if (clazz == classOf[UUID]) UUID.fromString(value)
+            else if (clazz == JShort.TYPE || clazz == classOf[JShort])
+                JShort.valueOf(value)
+            else if (clazz == JInteger.TYPE || clazz == classOf[JInteger])
+                JInteger.valueOf(value)
+            else if (clazz == JLong.TYPE || clazz == classOf[JLong])
+                JLong.valueOf(value)
+            else throw new IllegalArgumentException(
+                s"Unsupported path parameter type ${clazz.getName}")
+        } catch {
+            case e: IllegalArgumentException =>
+                throw new NotFoundHttpException(s"Invalid path segment $value")
+        }
+    }
+
+    private def result(response: Response): BulkResult = {
+        val location = response.getMetadata.getFirst(HttpHeaders.LOCATION)
+        val message = response.getEntity match {
+            case error: ErrorEntity => error.getMessage
+            case _ => null
+        }
+        new BulkResult(response.getStatus,
+                       if (location eq null) null else location.toString,
+                       message)
+    }
+
+    private def errorResult(e: Throwable): BulkResult = e match {
+        case e: WebApplicationException =>
+            result(e.getResponse)
+        case e: NotFoundException =>
+            new BulkResult(NOT_FOUND.getStatusCode, null, e.getMessage)
+        case e: ObjectReferencedException =>
+            new BulkResult(CONFLICT.getStatusCode, null, e.getMessage)
+        case e: ReferenceConflictException =>
+            new BulkResult(CONFLICT.getStatusCode, null, e.getMessage)
+        case e: ObjectExistsException =>
+            new BulkResult(CONFLICT.getStatusCode, null, e.getMessage)
+        case e: ConcurrentModificationException =>
+            new BulkResult(CONFLICT.getStatusCode, null, e.getMessage)
+        case NonFatal(e) =>
+            log.error("Unhandled exception", e)
+            new BulkResult(INTERNAL_SERVER_ERROR.getStatusCode, null,
+                           e.getMessage)
+    }
+
+}
@@ -49,6 +49,8 @@ class ChainResource @Inject()(resContext: ResourceContext)
         new ChainRuleResource(id, resContext)
     }
 
+    protected override def listIndices = Map("tenant_id" -> "tenant_id")
+
     protected override def listFilter(chains: Seq[Chain]): Seq[Chain] = {
         val tenantId = resContext.uriInfo.getQueryParameters
                                          .getFirst("tenant_id")
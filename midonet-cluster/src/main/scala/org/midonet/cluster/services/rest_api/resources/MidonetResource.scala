@@ -17,16 +17,20 @@
 package org.midonet.cluster.services.rest_api.resources
 
 import java.lang.annotation.Annotation
+import java.lang.reflect.Field
 import java.net.URI
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
-import java.util.{ConcurrentModificationException, List => JList, Set => JSet}
+import java.util.{ConcurrentModificationException, UUID, List => JList,
+                  Set => JSet}
 import javax.validation.{ConstraintViolation, Validator}
 import javax.ws.rs._
 import javax.ws.rs.core.Response.Status._
 import javax.ws.rs.core._
 
 import scala.collection.JavaConverters._
+import scala.collection.concurrent.TrieMap
+import scala.collection.mutable.ArrayBuffer
 import scala.concurrent._
 import scala.concurrent.duration._
 import scala.reflect.ClassTag
@@ -38,8 +42,8 @@ import com.typesafe.scalalogging.Logger
 import org.eclipse.jetty.http.HttpStatus.METHOD_NOT_ALLOWED_405
 import org.slf4j.LoggerFactory.getLogger
 
-import org.midonet.cluster.data.ZoomConvert
 import org.midonet.cluster.data.ZoomConvert.ConvertException
+import org.midonet.cluster.data.{ZoomConvert, ZoomField}
 import org.midonet.cluster.data.storage._
 import org.midonet.cluster.data.util.ZkOpLock
 import org.midonet.cluster.rest_api.ResponseUtils.buildErrorResponse
@@ -47,6 +51,7 @@ import org.midonet.cluster.rest_api._
 import org.midonet.cluster.rest_api.annotation.{AllowCreate, AllowGet, AllowList, AllowUpdate}
 import org.midonet.cluster.rest_api.models.UriResource
 import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.rest_api.StorageCache
 import org.midonet.cluster.services.rest_api.resources.MidonetResource._
 import org.midonet.cluster.util.SequenceDispenser
 import org.midonet.cluster.util.logging.ProtoTextPrettifier.makeReadable
@@ -57,9 +62,61 @@ import org.midonet.util.reactivex._
 object MidonetResource {
 
     private final val log = getLogger(RestApiLog)
-    private final val StorageAttempts = 3
+    private[resources] final val StorageAttempts = 3
+
+    private[resources] final val lockOpNumber = new AtomicInteger(1)
+
+    /** The transaction of a bulk request, to which the resources write
+      * instead of creating their own transaction. The transaction is
+      * committed by the [[BulkResource]], which also holds the storage
+      * lock. */
+    private[resources] final class BulkTransaction(
+        val tx: Transaction, val writes: StorageCache#Writes)
+
+    /** The bulk transaction of the request executed by the current thread,
+      * if any. */
+    private[resources] val bulkTransaction = new ThreadLocal[BulkTransaction]
+
+    /** Rejects a write that does not go through the bulk transaction, such
+      * as a write to a state table, since the bulk request can neither
+      * discard nor retry such a write. */
+    protected[resources] def rejectInBulk(): Unit = {
+        if (bulkTransaction.get ne null) {
+            throw new BadRequestHttpException(
+                "The operation is not supported in a bulk request")
+        }
+    }
+
+    final val MarkerParam = "marker"
+    final val LimitParam = "limit"
 
-    private final val lockOpNumber = new AtomicInteger(1)
+    private val idFields = new TrieMap[Class[_], Option[Field]]
+
+    /* Returns the identifier of a resource as a string, or null if the
+     * resource does not have an identifier field. */
+    private def resourceId(resource: UriResource): String = {
+        val clazz = resource.getClass
+        val field = idFields.getOrElse(clazz, {
+            var c: Class[_] = clazz
+            var field: Option[Field] = None
+            while ((c ne null) && field.isEmpty) {
+                field = c.getDeclaredFields.find { f =>
+                    val zoomField = f.getAnnotation(classOf[ZoomField])
+                    (zoomField ne null) && zoomField.name == "id"
+                }
+                c = c.getSuperclass
+            }
+            field.foreach(_.setAccessible(true))
+            idFields.putIfAbsent(clazz, field)
+            field
+        })
+        field match {
+            case Some(f) =>
+                val id = f.get(resource)
+                if (id eq null) null else id.toString
+            case None => null
+        }
+    }
 
     final val Timeout = 30 seconds
     final val OkResponse = Response.ok().build()
@@ -102,6 +159,7 @@ object MidonetResource {
 
     protected[resources] def tryWrite[R](f: => Response)(implicit log: Logger)
     : Response = {
+        rejectInBulk()
         var attempt = 1
         while (attempt <= StorageAttempts) {
             try {
@@ -143,6 +201,7 @@ object MidonetResource {
 
     protected[resources] def tryLegacyWrite(f: => Response)(implicit log: Logger)
     : Response = {
+        rejectInBulk()
         try {
             f
         } catch {
@@ -169,7 +228,8 @@ object MidonetResource {
                                           lockFactory: ZookeeperLockFactory,
                                           uriInfo: UriInfo,
                                           validator: Validator,
-                                          seqDispenser: SequenceDispenser)
+                                          seqDispenser: SequenceDispenser,
+                                          storageCache: StorageCache = null)
 
 }
 
@@ -199,7 +259,8 @@ abstract class MidonetResource[T >: Null <: UriResource]
        CRUD operations. This variable can be overridden in subclasses. */
     protected val zkLockNeeded = true
 
-    class ResourceTransaction(val tx: Transaction) {
+    class ResourceTransaction(val tx: Transaction,
+                              writes: StorageCache#Writes) {
 
         def get[U >: Null <: UriResource](clazz: Class[U], id: Any): U = tryRead {
             fromProto(tx.get(UriResource.getZoomClass(clazz), id), clazz)
@@ -220,24 +281,36 @@ abstract class MidonetResource[T >: Null <: UriResource]
             val message = toProto(resource)
             log.debug("TX CREATE: {}", makeReadable(message))
             tx.create(message)
+            if (writes ne null) writes.update(message)
         }
 
         def update[U >: Null <: UriResource](resource: U): Unit = {
             val message = toProto(resource)
             log.debug("TX UPDATE: {}", makeReadable(message))
             tx.update(message, null)
+            if (writes ne null) writes.update(message)
         }
 
         def delete(clazz: Class[_ <: UriResource], id: Any): Unit = {
             log.debug("TX DELETE: {}: {}", UriResource.getZoomClass(clazz),
                       id.asInstanceOf[AnyRef])
             tx.delete(UriResource.getZoomClass(clazz), id, ignoresNeo = true)
+            if (writes ne null) {
+                writes.delete(UriResource.getZoomClass(clazz), id)
+            }
         }
 
         def commit(): Unit = {
             tx.commit()
         }
 
+        /** Waits for the cache to receive the objects written by the
+          * committed transaction, such that they are returned by subsequent
+          * reads. This should be called after releasing the storage lock. */
+        def awaitWrites(): Unit = {
+            if (writes ne null) writes.await()
+        }
+
     }
 
     @GET
@@ -251,11 +324,12 @@ abstract class MidonetResource[T >: Null <: UriResource]
     @GET
     def list(@HeaderParam("Accept") accept: String): JList[T] = {
         validateMediaType(accept, getAnnotation(classOf[AllowList]).value())
+        val clazz = tag.runtimeClass.asInstanceOf[Class[T]]
         val ids = listIds
         val list = if (ids eq null) {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]]))
+            listPage(clazz)
         } else {
-            listFilter(listResources(tag.runtimeClass.asInstanceOf[Class[T]], ids))
+            paginate(listFilter(listResources(clazz, ids)))
         }
         list.asJava
     }
@@ -323,6 +397,13 @@ abstract class MidonetResource[T >: Null <: UriResource]
 
     protected def listFilter(list: Seq[T]): Seq[T] = list
 
+    /** The query parameters that filter the list of resources, mapped to the
+      * fields of the stored messages that must contain the parameter value.
+      * The cached resources are filtered using an index on these fields,
+      * before being converted and passed to `listFilter`, which must still
+      * apply the same filter for the resources read from storage. */
+    protected def listIndices: Map[String, String] = Map.empty
+
     protected def createFilter(t: T, tx: ResourceTransaction): Unit = {
         tx.create(t)
     }
@@ -355,22 +436,120 @@ abstract class MidonetResource[T >: Null <: UriResource]
 
 
     protected def transaction(): ResourceTransaction = {
-        new ResourceTransaction(store.transaction())
+        val writes =
+            if (resContext.storageCache eq null) null
+            else resContext.storageCache.writes()
+        new ResourceTransaction(store.transaction(), writes)
+    }
+
+    /** The class of the resources handled by this resource. */
+    private[resources] def resourceClass: Class[T] = {
+        tag.runtimeClass.asInstanceOf[Class[T]]
     }
 
     protected def listResources[U >: Null <: UriResource](clazz: Class[U])
     : Seq[U] = {
-        store.getAll(UriResource.getZoomClass(clazz))
-             .map(_.map(fromProto(_, clazz)))
-             .getOrThrow
+        val zoomClass = UriResource.getZoomClass(clazz)
+        val cache = classCache(zoomClass)
+        if ((cache ne null) && cache.isReady) {
+            cache.iterator(Seq.empty, null).map(fromProto(_, clazz)).toList
+        } else {
+            val messages = store.getAll(zoomClass).getOrThrow
+            if (cache ne null) cache.initialize(messages)
+            messages.map(fromProto(_, clazz))
+        }
     }
 
     protected def listResources[U >: Null <: UriResource](clazz: Class[U],
                                                           ids: Seq[Any])
     : Seq[U] = {
-        store.getAll(UriResource.getZoomClass(clazz), ids)
-             .map(_.map(fromProto(_, clazz)))
-             .getOrThrow
+        val zoomClass = UriResource.getZoomClass(clazz)
+        val cache = classCache(zoomClass)
+        val messages = if ((cache ne null) && cache.isReady) cache.getAll(ids)
+                       else null
+        if (messages ne null) {
+            messages.map(fromProto(_, clazz))
+        } else {
+            store.getAll(zoomClass, ids)
+                 .map(_.map(fromProto(_, clazz)))
+                 .getOrThrow
+        }
+    }
+
+    /** Lists the resources of the given class, filtered by the indexed query
+      * parameters and `listFilter`, and paginated according to the `marker`
+      * and `limit` query parameters. When the class is cached, only the
+      * resources of the requested page are converted. */
+    private def listPage(clazz: Class[T]): Seq[T] = {
+        val cache = classCache(UriResource.getZoomClass(clazz))
+        val iterator =
+            if ((cache ne null) && cache.isReady) {
+                val params = uriInfo.getQueryParameters
+                val filters = for ((param, field) <- listIndices.toSeq;
+                                   value = params.getFirst(param)
+                                   if value ne null) yield (field, value)
+                cache.iterator(filters, params.getFirst(MarkerParam))
+            } else null
+
+        if (iterator eq null) {
+            return paginate(listFilter(listResources(clazz)))
+        }
+
+        val limit = pageLimit
+        val list = new ArrayBuffer[T]
+        while (list.size < limit && iterator.hasNext) {
+            val chunk = new ArrayBuffer[T]
+            while (list.size + chunk.size < limit && iterator.hasNext) {
+                chunk += fromProto(iterator.next(), clazz)
+            }
+            list ++= listFilter(chunk)
+        }
+        list
+    }
+
+    /** Paginates a list of resources read from storage according to the
+      * `marker` and `limit` query parameters, sorting the resources by
+      * identifier like the resources read from the cache. When no parameter
+      * is set, the list is returned as it is. */
+    private def paginate(list: Seq[T]): Seq[T] = {
+        val marker = uriInfo.getQueryParameters.getFirst(MarkerParam)
+        val limit = pageLimit
+        if ((marker eq null) && limit == Int.MaxValue) {
+            return list
+        }
+        if (list.exists(resourceId(_) eq null)) {
+            return list
+        }
+        val sorted = list.sortBy(resourceId)
+        val page = if (marker eq null) sorted else {
+            val start = try UUID.fromString(marker).toString catch {
+                case e: IllegalArgumentException => marker
+            }
+            sorted.dropWhile(resourceId(_) <= start)
+        }
+        page.take(limit)
+    }
+
+    private def pageLimit: Int = {
+        val limit = uriInfo.getQueryParameters.getFirst(LimitParam)
+        if (limit eq null) Int.MaxValue
+        else try {
+            val value = limit.toInt
+            if (value <= 0) throw new NumberFormatException
+            value
+        } catch {
+            case e: NumberFormatException =>
+                throw new BadRequestHttpException(
+                    s"Invalid value for the query parameter $LimitParam: " +
+                    limit)
+        }
+    }
+
+    /** Returns the cache for the given class, or null if the REST API does
+      * not cache the objects of the class. */
+    private def classCache(clazz: Class[_]): StorageCache#ClassCache = {
+        val storageCache = resContext.storageCache
+        if (storageCache eq null) null else storageCache(clazz)
     }
 
     protected def getResource[U >: Null <: UriResource](clazz: Class[U], id: Any)
@@ -437,15 +616,28 @@ abstract class MidonetResource[T >: Null <: UriResource]
     }
 
     protected def tryTx(f: (ResourceTransaction) => Response): Response = {
+        // During a bulk request, write to the transaction of the request,
+        // which is committed by the bulk resource.
+        val bulk = bulkTransaction.get
+        if (bulk ne null) {
+            return f(new ResourceTransaction(bulk.tx, bulk.writes))
+        }
+
         var attempt = 1
         while (attempt <= StorageAttempts) {
             try {
-                return zkLock {
+                var committed: ResourceTransaction = null
+                val response = zkLock {
                     val tx = transaction()
                     val response = f(tx)
                     tx.commit()
+                    committed = tx
                     response
                 }
+                // Wait for the cache outside the lock, such that other
+                // writers are not blocked by the cache notifications.
+                if (committed ne null) committed.awaitWrites()
+                return response
             } catch {
                 case e: WebApplicationException => throw e
                 case e: NotFoundException =>
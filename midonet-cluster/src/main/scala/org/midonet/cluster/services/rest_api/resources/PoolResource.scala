@@ -92,6 +92,8 @@ class PoolResource @Inject()(resContext: ResourceContext)
             OkNoContentResponse
     }
 
+    protected override def listIndices = Map("hm_id" -> "health_monitor_id")
+
     protected override def listFilter(pools: Seq[Pool]): Seq[Pool] = {
         val hmId = resContext.uriInfo.getQueryParameters.getFirst("hm_id")
         if (hmId eq null) {
@@ -44,6 +44,9 @@ import org.midonet.cluster.services.rest_api.resources.MidonetResource.ResourceC
 class PortGroupResource @Inject()(resContext: ResourceContext)
     extends MidonetResource[PortGroup](resContext) {
 
+    protected override def listIndices = Map("tenant_id" -> "tenant_id",
+                                             "port_id" -> "port_ids")
+
     protected override def listFilter(portGroups: Seq[PortGroup]): Seq[PortGroup] = {
         val portIdStr = uriInfo.getQueryParameters.getFirst("port_id")
         val portId = if (portIdStr == null) null else UUID.fromString(portIdStr)
@@ -70,6 +70,8 @@ class RouterResource @Inject()(resContext: ResourceContext,
         new RouterBgpPeerResource(id, resContext)
     }
 
+    protected override def listIndices = Map("tenant_id" -> "tenant_id")
+
     protected override def listFilter(routers: Seq[Router]): Seq[Router] = {
         val tenantId = resContext.uriInfo.getQueryParameters
                                          .getFirst("tenant_id")
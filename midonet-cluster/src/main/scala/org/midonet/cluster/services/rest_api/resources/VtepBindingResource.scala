@@ -37,7 +37,7 @@ import org.midonet.cluster.rest_api.models.{Vtep, VtepBinding}
 import org.midonet.cluster.rest_api.validation.MessageProperty._
 import org.midonet.cluster.rest_api.{BadRequestHttpException, ConflictHttpException, NotFoundHttpException, ServiceUnavailableHttpException}
 import org.midonet.cluster.services.rest_api.MidonetMediaTypes._
-import org.midonet.cluster.services.rest_api.resources.MidonetResource.{OkCreated, OkNoContentResponse, ResourceContext}
+import org.midonet.cluster.services.rest_api.resources.MidonetResource.{OkCreated, OkNoContentResponse, ResourceContext, rejectInBulk}
 import org.midonet.cluster.util.IPAddressUtil.toIPv4Addr
 import org.midonet.cluster.util.SequenceDispenser.VxgwVni
 import org.midonet.cluster.util.UUIDUtil.{asRichProtoUuid, fromProto, toProto => uuidToProto}
@@ -106,6 +106,8 @@ class VtepBindingResource @Inject()(vtepId: UUID, resContext: ResourceContext,
                         @HeaderParam("Content-Type") contentType: String)
     : Response = {
 
+        rejectInBulk()
+
         binding.vtepId = vtepId
 
         throwIfViolationsOn(binding)
@@ -248,6 +250,8 @@ class VtepBindingResource @Inject()(vtepId: UUID, resContext: ResourceContext,
     @Path("{portName}/{vlanId}")
     def delete(@PathParam("portName") portName: String,
                @PathParam("vlanId") vlanId: Short): Response = {
+        rejectInBulk()
+
         // Validate the physical port exists.
         val vtep = store.get(classOf[Topology.Vtep], vtepId).getOrThrow
         val newBindings = new util.ArrayList[Topology.Vtep.Binding]
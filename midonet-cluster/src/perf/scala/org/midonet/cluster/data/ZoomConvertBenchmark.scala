@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.cluster.models.{Commons, Topology}
+import org.midonet.cluster.rest_api.models.{Port => PortModel,
+                                            Rule => RuleModel}
+import org.midonet.cluster.util.IPSubnetUtil
+import org.midonet.cluster.util.UUIDUtil._
+
+/**
+ * Measures the conversion of 10000 bridge ports and accept rules from and to
+ * their Protocol Buffers messages with [[ZoomConvert]].
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class ZoomConvertBenchmark {
+
+    private final val Count = 10000
+
+    private var portProtos: Array[Topology.Port] = _
+    private var ruleProtos: Array[Topology.Rule] = _
+    private var ports: Array[PortModel] = _
+    private var rules: Array[RuleModel] = _
+
+    private def portProto(): Topology.Port = {
+        Topology.Port.newBuilder()
+            .setId(UUID.randomUUID().asProto)
+            .setNetworkId(UUID.randomUUID().asProto)
+            .setAdminStateUp(true)
+            .setInboundFilterId(UUID.randomUUID().asProto)
+            .setOutboundFilterId(UUID.randomUUID().asProto)
+            .setTunnelKey(1000L)
+            .setHostId(UUID.randomUUID().asProto)
+            .setInterfaceName("tap0")
+            .addPortGroupIds(UUID.randomUUID().asProto)
+            .build()
+    }
+
+    private def ruleProto(): Topology.Rule = {
+        val condition = Commons.Condition.newBuilder()
+            .setNwProto(6)
+            .setNwSrcIp(IPSubnetUtil.toProto("10.0.0.0/24"))
+            .addInPortIds(UUID.randomUUID().asProto)
+            .setMatchForwardFlow(true)
+        Topology.Rule.newBuilder()
+            .setId(UUID.randomUUID().asProto)
+            .setChainId(UUID.randomUUID().asProto)
+            .setType(Topology.Rule.Type.LITERAL_RULE)
+            .setAction(Topology.Rule.Action.ACCEPT)
+            .setCondition(condition)
+            .build()
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        portProtos = Array.fill(Count)(portProto())
+        ruleProtos = Array.fill(Count)(ruleProto())
+        ports = portProtos.map(ZoomConvert.fromProto(_, classOf[PortModel]))
+        rules = ruleProtos.map(ZoomConvert.fromProto(_, classOf[RuleModel]))
+    }
+
+    @Benchmark
+    def portsFromProto(bh: Blackhole): Unit = {
+        var index = 0
+        while (index < Count) {
+            bh.consume(ZoomConvert.fromProto(portProtos(index),
+                                             classOf[PortModel]))
+            index += 1
+        }
+    }
+
+    @Benchmark
+    def portsToProto(bh: Blackhole): Unit = {
+        var index = 0
+        while (index < Count) {
+            bh.consume(ZoomConvert.toProto(ports(index),
+                                           classOf[Topology.Port]))
+            index += 1
+        }
+    }
+
+    @Benchmark
+    def rulesFromProto(bh: Blackhole): Unit = {
+        var index = 0
+        while (index < Count) {
+            bh.consume(ZoomConvert.fromProto(ruleProtos(index),
+                                             classOf[RuleModel]))
+            index += 1
+        }
+    }
+
+    @Benchmark
+    def rulesToProto(bh: Blackhole): Unit = {
+        var index = 0
+        while (index < Count) {
+            bh.consume(ZoomConvert.toProto(rules(index),
+                                           classOf[Topology.Rule]))
+            index += 1
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.net.URI
+import java.util.concurrent.TimeUnit
+import java.util.{UUID, List => JList}
+import javax.validation.Validator
+import javax.ws.rs.core.MediaType.APPLICATION_JSON
+import javax.ws.rs.core.UriInfo
+
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.google.inject.servlet.RequestScoped
+import com.google.inject.{AbstractModule, Guice, Scopes}
+import com.typesafe.config.ConfigFactory
+import com.typesafe.scalalogging.Logger
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.curator.test.TestingServer
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.reflections.Reflections
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.rest_api.models._
+import org.midonet.cluster.rest_api.serialization.ObjectMapperProvider
+import org.midonet.cluster.rest_api.validation.ValidatorProvider
+import org.midonet.cluster.services.MidonetBackendService
+import org.midonet.cluster.services.rest_api.resources.MidonetResource.ResourceContext
+import org.midonet.cluster.services.rest_api.resources.{BulkResource, RouterRouteResource}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.cluster.util.SequenceDispenser
+import org.midonet.cluster.{RestApiConfig, ZookeeperLockFactory}
+import org.midonet.midolman.state.PathBuilder
+
+/**
+ * Compares the creation of routes with individual requests, each acquiring
+ * the storage lock and committing its own transaction, with their creation
+ * in a single bulk request. The resources are invoked directly, without the
+ * HTTP server, and the storage is a ZooKeeper test server.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+class BulkResourceBenchmark {
+
+    private final val Routes = 5000
+    private final val ZkRoot = "/midonet"
+
+    private val baseUri = new URI("http://localhost/midonet-api/")
+    private val mapper = new ObjectMapperProvider().get(1)
+
+    private var zk: TestingServer = _
+    private var curator: CuratorFramework = _
+    private var backend: MidonetBackendService = _
+    private var resContext: ResourceContext = _
+    private var bulk: BulkResource = _
+
+    private var routerId: UUID = _
+    private var routes: Seq[Route] = _
+    private var operations: JList[BulkOperation] = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        zk = new TestingServer
+        curator = CuratorFrameworkFactory.newClient(zk.getConnectString,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        curator.blockUntilConnected()
+
+        val backendConfig = new MidonetBackendConfig(ConfigFactory.parseString(
+            s"""
+               |zookeeper.zookeeper_hosts : "${zk.getConnectString}"
+               |zookeeper.root_key : "$ZkRoot"
+             """.stripMargin))
+        val apiConfig = new RestApiConfig(ConfigFactory.parseString(
+            """
+              |cluster.rest_api.nsdb_lock_timeout : 30s
+              |cluster.rest_api.bulk_batch_size : 100
+              |cluster.rest_api.bulk_max_operations : 10000
+            """.stripMargin))
+        backend = new MidonetBackendService(backendConfig, curator, curator,
+                                            metricRegistry = null, None)
+        backend.startAsync().awaitRunning()
+
+        val paths = new PathBuilder(ZkRoot)
+        val uriInfo = Mockito.mock(classOf[UriInfo])
+        Mockito.when(uriInfo.getBaseUri).thenReturn(baseUri)
+
+        val injector = Guice.createInjector(new AbstractModule {
+            override def configure(): Unit = {
+                bindScope(classOf[RequestScoped], Scopes.NO_SCOPE)
+                bind(classOf[Validator]).toProvider(classOf[ValidatorProvider])
+            }
+        })
+        resContext = ResourceContext(
+            apiConfig, backend, ExecutionContext.global,
+            new ZookeeperLockFactory(curator, paths), uriInfo,
+            injector.getInstance(classOf[Validator]),
+            new SequenceDispenser(curator, backendConfig))
+        val resProvider = new ResourceProvider(
+            new Reflections("org.midonet.cluster.services.rest_api"),
+            Logger(LoggerFactory.getLogger(getClass)))
+
+        bulk = injector.createChildInjector(new AbstractModule {
+            override def configure(): Unit = {
+                bind(classOf[ResourceContext]).toInstance(resContext)
+                bind(classOf[ResourceProvider]).toInstance(resProvider)
+                bind(classOf[PathBuilder]).toInstance(paths)
+                bind(classOf[CuratorFramework]).toInstance(curator)
+            }
+        }).getInstance(classOf[BulkResource])
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = {
+        backend.stopAsync().awaitTerminated()
+        curator.close()
+        zk.close()
+    }
+
+    /** Creates a router with a port, and the routes via the port. */
+    @JmhSetup(Level.Iteration)
+    def setupRouter(): Unit = {
+        val router = new Router
+        router.id = UUID.randomUUID()
+        router.setBaseUri(baseUri)
+        val port = new RouterPort
+        port.id = UUID.randomUUID()
+        port.routerId = router.id
+        port.portAddress = "10.0.0.1"
+        port.networkAddress = "10.0.0.0"
+        port.networkLength = 8
+        port.setBaseUri(baseUri)
+        bulk.execute(Seq(
+            new BulkOperation("POST", "routers",
+                              mapper.valueToTree[JsonNode](router)),
+            new BulkOperation("POST", s"routers/${router.id}/ports",
+                              mapper.valueToTree[JsonNode](port))).asJava)
+
+        routerId = router.id
+        routes = for (index <- 0 until Routes) yield {
+            val route = new Route("0.0.0.0", 0,
+                                  s"10.${index / 256}.${index % 256}.0", 24,
+                                  Route.NextHop.Normal, port.id, null, 100,
+                                  null, false)
+            route.setBaseUri(baseUri)
+            route
+        }
+        operations = routes.map { route =>
+            new BulkOperation("POST", s"routers/$routerId/routes",
+                              mapper.valueToTree[JsonNode](route))
+        }.asJava
+    }
+
+    @Benchmark
+    def createRoutesIndividually(): Unit = {
+        for (route <- routes) {
+            new RouterRouteResource(routerId, resContext)
+                .create(route, APPLICATION_JSON)
+        }
+    }
+
+    @Benchmark
+    def createRoutesInBulk(): JList[BulkResult] = {
+        bulk.execute(operations)
+    }
+}
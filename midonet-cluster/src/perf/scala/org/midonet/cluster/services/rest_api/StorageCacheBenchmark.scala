@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import com.typesafe.config.ConfigFactory
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.RestApiConfig
+import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rest_api.models.Bridge
+import org.midonet.cluster.util.UUIDUtil._
+
+/**
+ * Measures the latency of listing the bridges through the REST API, when
+ * reading all bridges from storage and when reading them from the storage
+ * cache, either all of them, the bridges of a tenant, or a page of bridges.
+ *
+ * The storage is in memory, such that reading from storage does not
+ * include the ZooKeeper round trip of every object.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class StorageCacheBenchmark {
+
+    private final val Tenants = 100
+    private final val PageSize = 100
+
+    @Param(Array("10000", "100000"))
+    var objects: Int = _
+
+    private var store: InMemoryStorage = _
+    private var cache: StorageCache#ClassCache = _
+    private var marker: String = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        store = new InMemoryStorage
+        store.registerClass(classOf[Network])
+        store.build()
+
+        val ids = for (index <- 0 until objects) yield UUID.randomUUID()
+        for (index <- 0 until objects) {
+            store.create(Network.newBuilder()
+                                .setId(ids(index).asProto)
+                                .setTenantId(s"tenant-${index % Tenants}")
+                                .setName(s"bridge-$index")
+                                .build())
+        }
+        marker = ids.map(_.toString).sorted.apply(objects / 2)
+
+        val config = new RestApiConfig(ConfigFactory.parseString(
+            """
+              |cluster.rest_api.cache_enabled : true
+              |cluster.rest_api.cache_write_timeout : 1s
+            """.stripMargin))
+        cache = new StorageCache(store, config)(classOf[Network])
+    }
+
+    @Benchmark
+    def listFromStorage(): Seq[Bridge] = {
+        Await.result(store.getAll(classOf[Network]), 10 seconds)
+             .map(ZoomConvert.fromProto(_, classOf[Bridge]))
+    }
+
+    @Benchmark
+    def listFromCache(): Seq[Bridge] = {
+        cache.iterator(Seq.empty, null)
+             .map(ZoomConvert.fromProto(_, classOf[Bridge])).toList
+    }
+
+    @Benchmark
+    def listTenantFromCache(): Seq[Bridge] = {
+        cache.iterator(Seq("tenant_id" -> "tenant-1"), null)
+             .map(ZoomConvert.fromProto(_, classOf[Bridge])).toList
+    }
+
+    @Benchmark
+    def listPageFromCache(): Seq[Bridge] = {
+        cache.iterator(Seq.empty, marker).take(PageSize)
+             .map(ZoomConvert.fromProto(_, classOf[Bridge])).toList
+    }
+}
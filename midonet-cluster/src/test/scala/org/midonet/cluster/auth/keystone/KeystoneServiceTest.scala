@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{GivenWhenThen, Matchers}
+
+import org.midonet.cluster.auth.keystone.KeystoneTokenCache.MetricPrefix
+import org.midonet.conf.MidoTestConfigurator
+
+@RunWith(classOf[JUnitRunner])
+class KeystoneServiceTest extends KeystoneTest with Matchers
+                          with GivenWhenThen {
+
+    private def service(metrics: MetricRegistry = new MetricRegistry,
+                        cacheTtl: String = "300s"): KeystoneService = {
+        val configStr =
+            s"""
+               |cluster.auth.keystone.version : 2
+               |cluster.auth.keystone.protocol : $keystoneProtocol
+               |cluster.auth.keystone.host : $keystoneHost
+               |cluster.auth.keystone.port : $keystonePort
+               |cluster.auth.keystone.admin_token : $keystoneToken
+               |cluster.auth.keystone.token_cache_ttl : $cacheTtl
+            """.stripMargin
+        val config = ConfigFactory.parseString(configStr)
+            .withFallback(MidoTestConfigurator.forClusters())
+        new KeystoneService(config, metrics)
+    }
+
+    "Service" should "validate a token only once" in {
+        Given("A Keystone service and a token")
+        val metrics = new MetricRegistry
+        val keystone = service(metrics)
+        val token = keystone.authenticate(keystoneUser, keystonePassword,
+                                          Some(keystoneTenant))
+        val count = validations.get
+
+        When("Authorizing the token several times")
+        val identities = for (index <- 0 until 5)
+            yield keystone.authorize(token.key)
+
+        Then("The token is validated by Keystone once")
+        validations.get shouldBe count + 1
+        identities.map(_.token).toSet shouldBe Set(token.key)
+
+        And("The metrics record the cache hits and misses")
+        metrics.meter(s"$MetricPrefix.hits").getCount shouldBe 4
+        metrics.meter(s"$MetricPrefix.misses").getCount shouldBe 1
+        metrics.timer(s"$MetricPrefix.validations").getCount shouldBe 1
+    }
+
+    "Service" should "cache invalid tokens" in {
+        Given("A Keystone service")
+        val keystone = service()
+        val count = validations.get
+
+        When("Authorizing an invalid token several times")
+        for (index <- 0 until 3) {
+            intercept[KeystoneException] {
+                keystone.authorize("no-token")
+            }
+        }
+
+        Then("The token is validated by Keystone once")
+        validations.get shouldBe count + 1
+    }
+
+    "Service" should "validate every request when the cache is disabled" in {
+        Given("A Keystone service without a token cache")
+        val keystone = service(cacheTtl = "0s")
+        val token = keystone.authenticate(keystoneUser, keystonePassword,
+                                          Some(keystoneTenant))
+        val count = validations.get
+
+        When("Authorizing the token several times")
+        for (index <- 0 until 3) {
+            keystone.authorize(token.key)
+        }
+
+        Then("The token is validated by Keystone every time")
+        validations.get shouldBe count + 3
+
+        When("Revoking the token")
+        revokeToken(token.key)
+
+        Then("The token is rejected")
+        intercept[KeystoneException] {
+            keystone.authorize(token.key)
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.midonet.cluster.auth.keystone
 
 import java.text.SimpleDateFormat
 import java.util
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.{Date, TimeZone, UUID}
 
 import javax.servlet.DispatcherType
@@ -219,6 +220,7 @@ class KeystoneTest extends FlatSpec with BeforeAndAfterAll {
     protected var currentTime = System.currentTimeMillis()
     protected var tokenLifetime = 30 * 60 * 1000L
     protected var tokenNeverExpires = false
+    protected val validations = new AtomicInteger
 
     private var server: Server = _
 
@@ -336,6 +338,7 @@ class KeystoneTest extends FlatSpec with BeforeAndAfterAll {
     }
 
     private def validate(tok: String, id: String): KeystoneAccess = {
+        validations.incrementAndGet()
         authorize(tok)
         val (user, token) = tokens.getOrElse(id, throw tokenNotFoundError(id))
         KeystoneAccess(Access(
@@ -348,6 +351,10 @@ class KeystoneTest extends FlatSpec with BeforeAndAfterAll {
             trust = null))
     }
 
+    protected def revokeToken(id: String): Unit = {
+        tokens -= id
+    }
+
     private def users(token: String): KeystoneUsers = {
         authorize(token)
         KeystoneUsers(users = usersById.values.map(_._1).toList.asJava)
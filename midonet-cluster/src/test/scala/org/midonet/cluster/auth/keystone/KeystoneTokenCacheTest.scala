@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.auth.UserIdentity
+import org.midonet.cluster.auth.keystone.KeystoneTokenCache.MetricPrefix
+import org.midonet.conf.MidoTestConfigurator
+
+@RunWith(classOf[JUnitRunner])
+class KeystoneTokenCacheTest extends FeatureSpec with Matchers
+                             with GivenWhenThen {
+
+    private val guard = KeystoneClient.TokenExpirationGuard.toMillis
+
+    private class TestableTokenCache(config: KeystoneConfig,
+                                     metrics: MetricRegistry)
+        extends KeystoneTokenCache(config, metrics) {
+        var time = 0L
+        protected override def currentTimeMillis: Long = time
+    }
+
+    private def cache(ttl: String = "300s", invalidTtl: String = "10s",
+                      maxEntries: Int = 100,
+                      metrics: MetricRegistry = new MetricRegistry)
+    : TestableTokenCache = {
+        val config = ConfigFactory.parseString(
+            s"""
+               |cluster.auth.keystone.token_cache_ttl : $ttl
+               |cluster.auth.keystone.token_cache_invalid_ttl : $invalidTtl
+               |cluster.auth.keystone.token_cache_max_entries : $maxEntries
+             """.stripMargin)
+            .withFallback(MidoTestConfigurator.forClusters())
+        new TestableTokenCache(new KeystoneConfig(config), metrics)
+    }
+
+    private def identity(token: String): UserIdentity = {
+        new UserIdentity("tenant-id", "tenant", "user-id", token)
+    }
+
+    private class Validator(expiresAt: Long = Long.MaxValue) {
+        val count = new AtomicInteger
+        def apply(token: String): (UserIdentity, Long) = {
+            count.incrementAndGet()
+            (identity(token), expiresAt)
+        }
+    }
+
+    private class FailingValidator(e: => KeystoneException) {
+        val count = new AtomicInteger
+        def apply(token: String): (UserIdentity, Long) = {
+            count.incrementAndGet()
+            throw e
+        }
+    }
+
+    feature("The cache returns the validated tokens") {
+        scenario("A valid token is validated once") {
+            Given("A token cache")
+            val metrics = new MetricRegistry
+            val tokenCache = cache(metrics = metrics)
+            val validator = new Validator
+
+            When("Getting a token several times")
+            val identities = for (index <- 0 until 5)
+                yield tokenCache.get("token")(validator("token"))
+
+            Then("The token is validated once")
+            validator.count.get shouldBe 1
+            identities.map(_.token).toSet shouldBe Set("token")
+            tokenCache.size shouldBe 1
+
+            And("The metrics record the hits, misses and validations")
+            metrics.meter(s"$MetricPrefix.hits").getCount shouldBe 4
+            metrics.meter(s"$MetricPrefix.misses").getCount shouldBe 1
+            metrics.timer(s"$MetricPrefix.validations").getCount shouldBe 1
+            metrics.getGauges.get(s"$MetricPrefix.hitRatio")
+                   .getValue shouldBe 0.8
+            metrics.getGauges.get(s"$MetricPrefix.size").getValue shouldBe 1
+        }
+
+        scenario("Different tokens are validated separately") {
+            Given("A token cache")
+            val tokenCache = cache()
+            val validator = new Validator
+
+            When("Getting two tokens")
+            tokenCache.get("token1")(validator("token1"))
+                      .token shouldBe "token1"
+            tokenCache.get("token2")(validator("token2"))
+                      .token shouldBe "token2"
+
+            Then("Each token is validated")
+            validator.count.get shouldBe 2
+            tokenCache.size shouldBe 2
+        }
+
+        scenario("A token is cached for the configured time-to-live") {
+            Given("A token cache with a time-to-live of 10 seconds")
+            val tokenCache = cache(ttl = "10s")
+            val validator = new Validator
+
+            When("Getting a token")
+            tokenCache.get("token")(validator("token"))
+
+            Then("The token is cached before the time-to-live")
+            tokenCache.time = 9999L
+            tokenCache.get("token")(validator("token"))
+            validator.count.get shouldBe 1
+
+            And("The token is validated again after the time-to-live")
+            tokenCache.time = 10000L
+            tokenCache.get("token")(validator("token"))
+            validator.count.get shouldBe 2
+        }
+
+        scenario("A token is not cached beyond its expiration time") {
+            Given("A token cache")
+            val tokenCache = cache()
+
+            When("Getting a token that expires in 2 minutes")
+            val expiresAt = 2.minutes.toMillis
+            val validator = new Validator(expiresAt)
+            tokenCache.get("token")(validator("token"))
+
+            Then("The token is cached before the expiration guard")
+            tokenCache.time = expiresAt - guard - 1
+            tokenCache.get("token")(validator("token"))
+            validator.count.get shouldBe 1
+
+            And("The token is validated again within the expiration guard")
+            tokenCache.time = expiresAt - guard
+            tokenCache.get("token")(validator("token"))
+            validator.count.get shouldBe 2
+        }
+
+        scenario("The cache is disabled") {
+            Given("A token cache with a zero time-to-live")
+            val tokenCache = cache(ttl = "0s")
+            val validator = new Validator
+
+            When("Getting a token several times")
+            for (index <- 0 until 3) {
+                tokenCache.get("token")(validator("token"))
+            }
+
+            Then("The token is validated every time")
+            validator.count.get shouldBe 3
+            tokenCache.size shouldBe 0
+        }
+    }
+
+    feature("The cache handles the validation failures") {
+        scenario("An invalid token is cached") {
+            Given("A token cache with an invalid time-to-live of 10 seconds")
+            val tokenCache = cache(invalidTtl = "10s")
+            val validator = new FailingValidator(
+                new KeystoneInvalidTokenException(null, "Invalid", null))
+
+            When("Getting an invalid token several times")
+            for (index <- 0 until 3) {
+                intercept[KeystoneInvalidTokenException] {
+                    tokenCache.get("token")(validator("token"))
+                }
+            }
+
+            Then("The token is validated once")
+            validator.count.get shouldBe 1
+
+            And("The token is validated again after the time-to-live")
+            tokenCache.time = 10000L
+            intercept[KeystoneInvalidTokenException] {
+                tokenCache.get("token")(validator("token"))
+            }
+            validator.count.get shouldBe 2
+        }
+
+        scenario("Administrative credential failures are not cached") {
+            Given("A token cache")
+            val tokenCache = cache()
+            val validator = new FailingValidator(
+                new KeystoneUnauthorizedException(null, "Unauthorized", null))
+
+            When("Getting a token several times")
+            for (index <- 0 until 3) {
+                intercept[KeystoneUnauthorizedException] {
+                    tokenCache.get("token")(validator("token"))
+                }
+            }
+
+            Then("The token is validated every time")
+            validator.count.get shouldBe 3
+            tokenCache.size shouldBe 0
+
+            And("The token is cached once the validation succeeds")
+            val succeeding = new Validator
+            tokenCache.get("token")(succeeding("token"))
+            tokenCache.get("token")(succeeding("token"))
+            succeeding.count.get shouldBe 1
+        }
+
+        scenario("Keystone server errors are not cached") {
+            Given("A token cache")
+            val tokenCache = cache()
+            val validator = new FailingValidator(
+                new KeystoneException(null, "Server error", null))
+
+            When("Getting a token several times")
+            for (index <- 0 until 3) {
+                intercept[KeystoneException] {
+                    tokenCache.get("token")(validator("token"))
+                }
+            }
+
+            Then("The token is validated every time")
+            validator.count.get shouldBe 3
+            tokenCache.size shouldBe 0
+        }
+
+        scenario("Connection failures are not cached") {
+            Given("A token cache")
+            val tokenCache = cache()
+            val validator = new FailingValidator(
+                new KeystoneConnectionException(null, null))
+
+            When("Getting a token several times")
+            for (index <- 0 until 3) {
+                intercept[KeystoneConnectionException] {
+                    tokenCache.get("token")(validator("token"))
+                }
+            }
+
+            Then("The token is validated every time")
+            validator.count.get shouldBe 3
+            tokenCache.size shouldBe 0
+        }
+    }
+
+    feature("The cache coalesces concurrent validations") {
+        scenario("Concurrent requests for the same token") {
+            Given("A token cache and a validation that blocks")
+            val tokenCache = cache()
+            val started = new CountDownLatch(1)
+            val release = new CountDownLatch(1)
+            val count = new AtomicInteger
+            def validate(): (UserIdentity, Long) = {
+                count.incrementAndGet()
+                started.countDown()
+                release.await(10, TimeUnit.SECONDS)
+                (identity("token"), Long.MaxValue)
+            }
+            implicit val ec = ExecutionContext.global
+
+            When("Getting the token from several threads")
+            val first = Future { tokenCache.get("token")(validate()) }
+            started.await(10, TimeUnit.SECONDS) shouldBe true
+            val others = for (index <- 0 until 4)
+                yield Future { tokenCache.get("token")(validate()) }
+
+            And("The validation completes")
+            release.countDown()
+
+            Then("All requests return the same identity")
+            val identities = Await.result(Future.sequence(first +: others),
+                                          10 seconds)
+            identities.toSet.size shouldBe 1
+
+            And("The token is validated once")
+            count.get shouldBe 1
+        }
+
+        scenario("A validation failing with a fatal error") {
+            Given("A token cache and a validation that blocks")
+            val tokenCache = cache()
+            val started = new CountDownLatch(1)
+            val release = new CountDownLatch(1)
+            def validate(): (UserIdentity, Long) = {
+                started.countDown()
+                release.await(10, TimeUnit.SECONDS)
+                throw new LinkageError("Fatal")
+            }
+
+            When("Getting the token from two threads")
+            val first = new Thread(new Runnable {
+                override def run(): Unit = {
+                    try tokenCache.get("token")(validate())
+                    catch { case e: LinkageError => }
+                }
+            })
+            first.start()
+            started.await(10, TimeUnit.SECONDS) shouldBe true
+            val result = Promise[Throwable]()
+            val second = new Thread(new Runnable {
+                override def run(): Unit = {
+                    try tokenCache.get("token")(identity("token") -> 0L)
+                    catch { case e: Throwable => result.trySuccess(e) }
+                    result.tryFailure(new Exception("No exception thrown"))
+                }
+            })
+            second.start()
+
+            And("The validation fails with a fatal error")
+            while (second.getState != Thread.State.WAITING) Thread.sleep(1)
+            release.countDown()
+
+            Then("The waiting request fails")
+            Await.result(result.future, 10 seconds)
+                .isInstanceOf[KeystoneException] shouldBe true
+
+            And("The token is not cached")
+            first.join()
+            second.join()
+            tokenCache.size shouldBe 0
+        }
+    }
+
+    feature("The cache is bounded") {
+        scenario("The cache evicts tokens above the maximum entries") {
+            Given("A token cache with up to 4 entries")
+            val tokenCache = cache(maxEntries = 4)
+            val validator = new Validator
+
+            When("Getting 10 tokens")
+            for (index <- 0 until 10) {
+                tokenCache.get(s"token$index")(validator(s"token$index"))
+            }
+
+            Then("The cache has at most 4 tokens")
+            tokenCache.size should be <= 4
+            validator.count.get shouldBe 10
+        }
+
+        scenario("The cache evicts the least recently used tokens") {
+            Given("A token cache with up to 2 entries")
+            val tokenCache = cache(maxEntries = 2)
+            val validator = new Validator
+
+            When("Getting two tokens")
+            tokenCache.get("token1")(validator("token1"))
+            tokenCache.get("token2")(validator("token2"))
+
+            And("Getting the first token again")
+            tokenCache.get("token1")(validator("token1"))
+
+            And("Getting a third token")
+            tokenCache.get("token3")(validator("token3"))
+
+            Then("The second token is evicted")
+            tokenCache.size shouldBe 2
+            tokenCache.get("token1")(validator("token1"))
+            validator.count.get shouldBe 3
+            tokenCache.get("token2")(validator("token2"))
+            validator.count.get shouldBe 4
+        }
+    }
+
+}
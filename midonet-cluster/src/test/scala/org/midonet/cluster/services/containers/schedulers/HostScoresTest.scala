@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.util.Random
+
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import rx.observers.TestObserver
+
+import org.midonet.cluster.ContainersConfig
+import org.midonet.cluster.models.State.ContainerServiceStatus
+import org.midonet.cluster.models.Topology.ServiceContainerPolicy
+import org.midonet.cluster.util.UUIDUtil._
+
+@RunWith(classOf[JUnitRunner])
+class HostScoresTest extends FeatureSpec with SchedulersTest
+                     with BeforeAndAfter with Matchers with GivenWhenThen {
+
+    private val config = new ContainersConfig(ConfigFactory.parseString(
+        """
+          |cluster.containers.enabled : true
+          |cluster.containers.scheduler_timeout : 10s
+          |cluster.containers.scheduler_retry : 15s
+          |cluster.containers.scheduler_max_retries : 3
+          |cluster.containers.scheduler_bad_host_lifetime : 300s
+        """.stripMargin))
+
+    private def hostEvent(weight: Int = 1, quota: Int = -1, count: Int = 0,
+                          running: Boolean = true): HostEvent = {
+        HostEvent(running, ContainerServiceStatus.newBuilder()
+                                                 .setWeight(weight)
+                                                 .setQuota(quota)
+                                                 .setCount(count)
+                                                 .build())
+    }
+
+    feature("Host scores track the running hosts") {
+        scenario("Hosts are added, updated and removed") {
+            Given("The host scores")
+            val scores = new HostScores
+
+            When("Adding two running hosts and a stopped host")
+            val host1 = UUID.randomUUID()
+            val host2 = UUID.randomUUID()
+            val host3 = UUID.randomUUID()
+            val hosts1 = Map(host1 -> hostEvent(),
+                             host2 -> hostEvent(quota = 0),
+                             host3 -> hostEvent(running = false))
+            scores update hosts1
+
+            Then("The scores should contain the running hosts")
+            scores.version shouldBe 1L
+            scores.runningCount shouldBe 2
+            scores.availableCount shouldBe 1
+            scores.isRunning(host1) shouldBe true
+            scores.isRunning(host2) shouldBe true
+            scores.isRunning(host3) shouldBe false
+
+            When("Applying the same hosts event")
+            scores update hosts1
+
+            Then("The scores should not change")
+            scores.version shouldBe 1L
+
+            When("The third host starts running and the first host stops")
+            val hosts2 = Map(host1 -> hostEvent(weight = 0),
+                             host2 -> hostEvent(quota = 0),
+                             host3 -> hostEvent())
+            scores update hosts2
+
+            Then("The scores should contain the running hosts")
+            scores.version shouldBe 2L
+            scores.runningCount shouldBe 2
+            scores.availableCount shouldBe 1
+            scores.isRunning(host1) shouldBe false
+            scores.isRunningSince(host2, 1L) shouldBe false
+            scores.isRunningSince(host3, 1L) shouldBe true
+
+            When("Removing all hosts")
+            scores update Map.empty
+
+            Then("The scores should be empty")
+            scores.runningCount shouldBe 0
+            scores.availableCount shouldBe 0
+            scores.selectLeast(Set.empty) shouldBe None
+            scores.selectWeighted(random, Set.empty) shouldBe None
+        }
+    }
+
+    feature("Host scores select hosts") {
+        scenario("Least policy selects the host with fewer containers") {
+            Given("The host scores with several hosts")
+            val scores = new HostScores
+            val hostIds = for (index <- 0 until 4) yield UUID.randomUUID()
+            scores update Map(hostIds(0) -> hostEvent(count = 3),
+                              hostIds(1) -> hostEvent(count = 1),
+                              hostIds(2) -> hostEvent(count = 0, quota = 0),
+                              hostIds(3) -> hostEvent(count = 2))
+
+            Then("The least policy selects the second host")
+            scores.selectLeast(Set.empty) shouldBe Some(hostIds(1))
+
+            And("Excluding the second host selects the fourth host")
+            scores.selectLeast(Set(hostIds(1))) shouldBe Some(hostIds(3))
+
+            When("The container count changes")
+            scores update Map(hostIds(0) -> hostEvent(count = 0),
+                              hostIds(1) -> hostEvent(count = 1),
+                              hostIds(2) -> hostEvent(count = 0, quota = 0),
+                              hostIds(3) -> hostEvent(count = 2))
+
+            Then("The least policy selects the first host")
+            scores.selectLeast(Set.empty) shouldBe Some(hostIds(0))
+        }
+
+        scenario("Weighted policy excludes hosts") {
+            Given("The host scores with several hosts")
+            val scores = new HostScores
+            val hostIds = for (index <- 0 until 3) yield UUID.randomUUID()
+            scores update Map(hostIds(0) -> hostEvent(weight = 1),
+                              hostIds(1) -> hostEvent(weight = Int.MaxValue),
+                              hostIds(2) -> hostEvent(weight = 1))
+
+            Then("Excluding all but one host always selects that host")
+            for (index <- 0 until 3; attempt <- 0 until 100) {
+                scores.selectWeighted(random,
+                                      hostIds.toSet - hostIds(index)) shouldBe
+                    Some(hostIds(index))
+            }
+
+            And("Excluding all hosts does not select any host")
+            scores.selectWeighted(random, hostIds.toSet) shouldBe None
+        }
+
+        scenario("Weighted policy handles any random value") {
+            Given("The host scores with two hosts")
+            val scores = new HostScores
+            val hostIds = for (index <- 0 until 2) yield UUID.randomUUID()
+            scores update Map(hostIds(0) -> hostEvent(weight = 3),
+                              hostIds(1) -> hostEvent(weight = 5))
+
+            And("A random generator returning the minimum long value")
+            val minRandom = new Random {
+                override def nextLong(): Long = Long.MinValue
+            }
+
+            Then("The weighted policy selects a host")
+            scores.selectWeighted(minRandom, Set.empty) shouldBe
+                Some(hostIds(0))
+        }
+
+        scenario("Weighted policy is proportional to the host weight") {
+            Given("The host scores with hosts of different weights")
+            val scores = new HostScores
+            val hostIds = for (index <- 0 until 40) yield UUID.randomUUID()
+            scores update hostIds.zipWithIndex.map { case (hostId, index) =>
+                hostId -> hostEvent(weight = index % 4 + 1)
+            }.toMap
+
+            When("Selecting hosts while excluding a host of weight 4")
+            val excluded = Set(hostIds(3))
+            val selections = new mutable.HashMap[UUID, Int]
+            val random = new Random(0)
+            for (attempt <- 0 until 100000) {
+                val hostId = scores.selectWeighted(random, excluded).get
+                selections(hostId) = selections.getOrElse(hostId, 0) + 1
+            }
+
+            Then("The excluded host is never selected")
+            selections.keySet should not contain hostIds(3)
+
+            And("The selections are proportional with the weight")
+            val totalWeight = hostIds.indices.map(_ % 4 + 1).sum - 4
+            for (index <- hostIds.indices if index != 3) {
+                val expected = 100000.0 * (index % 4 + 1) / totalWeight
+                selections.getOrElse(hostIds(index), 0).toDouble shouldBe
+                    expected +- expected * 0.15
+            }
+        }
+    }
+
+    feature("Host scores support scheduling at scale") {
+        scenario("Scheduling 10000 containers on 500 hosts") {
+            Given("The host scores with 500 hosts")
+            val scores = new HostScores
+            val hostIds = for (index <- 0 until 500) yield UUID.randomUUID()
+            var hosts: HostsEvent =
+                hostIds.map(hostId => hostId -> hostEvent(count = 0)).toMap
+            scores update hosts
+
+            When("Scheduling 10000 containers with the least policy, where " +
+                 "each host reports the new container count")
+            val start = System.nanoTime()
+            for (container <- 0 until 10000) {
+                val hostId = scores.selectLeast(Set.empty).get
+                val count = hosts(hostId).status.getCount + 1
+                hosts = hosts.updated(hostId, hostEvent(count = count))
+                scores update hosts
+            }
+            val duration = System.nanoTime() - start
+            info(s"Scheduled 10000 containers in ${duration / 1000000} ms")
+
+            Then("All hosts should run 20 containers")
+            hosts.values.map(_.status.getCount).toSet shouldBe Set(20)
+
+            When("A host flaps")
+            val version = scores.version
+            scores update hosts - hostIds(0)
+            scores update hosts
+
+            Then("Only the flapping host is running since the previous version")
+            hostIds.count(scores.isRunningSince(_, version)) shouldBe 1
+            scores.isRunningSince(hostIds(0), version) shouldBe true
+        }
+
+        scenario("Container schedulers share the host scores") {
+            Given("50 hosts with the container service")
+            val hosts = for (index <- 0 until 50) yield {
+                val host = createHost()
+                createHostStatus(host.getId, weight = 1)
+                host
+            }
+
+            And("1000 containers")
+            val group = createGroup(ServiceContainerPolicy.WEIGHTED_SCHEDULER)
+            val containers = for (index <- 0 until 1000)
+                yield createContainer(group.getId)
+
+            When("Scheduling the containers")
+            val provider = new HostSelectorProvider(context)
+            val obs = new TestObserver[SchedulerEvent]
+            val start = System.nanoTime()
+            for (container <- containers) {
+                new ContainerScheduler(container.getId, context, config,
+                                       provider).observable subscribe obs
+            }
+            val duration = System.nanoTime() - start
+            info(s"Scheduled 1000 containers in ${duration / 1000000} ms")
+
+            Then("All containers should be scheduled")
+            obs.getOnNextEvents should have size 1000
+
+            And("The schedulers share the same host scores")
+            val scores = provider.scoresOf(provider.selectorOf(group))
+            scores.runningCount shouldBe 50
+            val version = scores.version
+
+            When("A host flaps")
+            val flapStart = System.nanoTime()
+            deleteHostStatus(hosts.head.getId)
+            createHostStatus(hosts.head.getId, weight = 1)
+            val flapDuration = System.nanoTime() - flapStart
+            info(s"Processed host flap for 1000 containers in " +
+                 s"${flapDuration / 1000000} ms")
+
+            Then("The host scores are updated once per notification")
+            scores.version shouldBe version + 2
+            scores.runningCount shouldBe 50
+            scores.isRunningSince(hosts.head.getId.asJava, version) shouldBe true
+        }
+
+        scenario("Host scores are removed when no scheduler uses them") {
+            Given("A host with the container service")
+            val host = createHost()
+            createHostStatus(host.getId, weight = 1)
+
+            And("Two containers")
+            val group = createGroup(ServiceContainerPolicy.WEIGHTED_SCHEDULER)
+            val containers = for (index <- 0 until 2)
+                yield createContainer(group.getId)
+
+            When("Scheduling the containers")
+            val provider = new HostSelectorProvider(context)
+            val schedulers = for (container <- containers) yield {
+                val scheduler = new ContainerScheduler(container.getId,
+                                                       context, config,
+                                                       provider)
+                scheduler.observable subscribe new TestObserver[SchedulerEvent]
+                scheduler
+            }
+
+            Then("The provider has the host scores of the selector")
+            provider.scoresCount shouldBe 1
+
+            When("The first scheduler completes")
+            schedulers(0).complete()
+
+            Then("The provider keeps the host scores")
+            provider.scoresCount shouldBe 1
+
+            When("The second scheduler completes")
+            schedulers(1).complete()
+
+            Then("The provider removes the host scores")
+            provider.scoresCount shouldBe 0
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.net.URI
+import java.util.UUID
+import javax.validation.Validator
+import javax.ws.rs.core.Response.Status._
+import javax.ws.rs.core.UriInfo
+
+import scala.collection.JavaConverters._
+import scala.concurrent.{Await, ExecutionContext}
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.google.inject.servlet.RequestScoped
+import com.google.inject.{AbstractModule, Guice, Scopes}
+import com.typesafe.config.ConfigFactory
+import com.typesafe.scalalogging.Logger
+import org.apache.curator.framework.CuratorFramework
+
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.reflections.Reflections
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.data.storage.StateTableStorage
+import org.midonet.cluster.models.Topology
+import org.midonet.cluster.rest_api.BadRequestHttpException
+import org.midonet.cluster.rest_api.models._
+import org.midonet.cluster.rest_api.serialization.ObjectMapperProvider
+import org.midonet.cluster.rest_api.validation.ValidatorProvider
+import org.midonet.cluster.services.rest_api.resources.BulkResource
+import org.midonet.cluster.services.rest_api.resources.MidonetResource.{ResourceContext, Timeout}
+import org.midonet.cluster.services.{MidonetBackend, MidonetBackendService}
+import org.midonet.cluster.storage.{Ip4MacStateTable, MacIdStateTable, MidonetBackendConfig}
+import org.midonet.cluster.util.{CuratorTestFramework, IPAddressUtil, SequenceDispenser}
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.cluster.{RestApiConfig, ZookeeperLockFactory}
+import org.midonet.midolman.state.PathBuilder
+import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.util.concurrent.toFutureOps
+
+@RunWith(classOf[JUnitRunner])
+class BulkResourceTest extends FeatureSpec with Matchers
+                       with GivenWhenThen with CuratorTestFramework {
+
+    private val baseUri = new URI("http://localhost/midonet-api/")
+    private val mapper = new ObjectMapperProvider().get(1)
+
+    private var backend: MidonetBackend = _
+    private var bulk: BulkResource = _
+
+    override def setup(): Unit = {
+        val backendConfig = new MidonetBackendConfig(ConfigFactory.parseString(
+            s"""
+               |zookeeper.zookeeper_hosts : "${zk.getConnectString}"
+               |zookeeper.root_key : "$zkRoot"
+             """.stripMargin))
+        val apiConfig = new RestApiConfig(ConfigFactory.parseString(
+            """
+              |cluster.rest_api.nsdb_lock_timeout : 30s
+              |cluster.rest_api.bulk_batch_size : 3
+              |cluster.rest_api.bulk_max_operations : 10
+            """.stripMargin))
+        MidonetBackend.isCluster = true
+        backend = new MidonetBackendService(backendConfig, curator, curator,
+                                            metricRegistry = null, None) {
+            protected override def setup(storage: StateTableStorage): Unit = {
+                storage.registerTable(classOf[Topology.Network], classOf[MAC],
+                                      classOf[UUID], MidonetBackend.MacTable,
+                                      classOf[MacIdStateTable])
+                storage.registerTable(classOf[Topology.Network],
+                                      classOf[IPv4Addr], classOf[MAC],
+                                      MidonetBackend.Ip4MacTable,
+                                      classOf[Ip4MacStateTable])
+            }
+        }
+        backend.startAsync().awaitRunning()
+
+        val paths = new PathBuilder(zkRoot)
+        val uriInfo = Mockito.mock(classOf[UriInfo])
+        Mockito.when(uriInfo.getBaseUri).thenReturn(baseUri)
+
+        val injector = Guice.createInjector(new AbstractModule {
+            override def configure(): Unit = {
+                bindScope(classOf[RequestScoped], Scopes.NO_SCOPE)
+                bind(classOf[Validator]).toProvider(classOf[ValidatorProvider])
+            }
+        })
+        val resContext = ResourceContext(
+            apiConfig, backend, ExecutionContext.global,
+            new ZookeeperLockFactory(curator, paths), uriInfo,
+            injector.getInstance(classOf[Validator]),
+            new SequenceDispenser(curator, backendConfig))
+        val resProvider = new ResourceProvider(
+            new Reflections("org.midonet.cluster.services.rest_api"),
+            Logger(LoggerFactory.getLogger(getClass)))
+
+        bulk = injector.createChildInjector(new AbstractModule {
+            override def configure(): Unit = {
+                bind(classOf[ResourceContext]).toInstance(resContext)
+                bind(classOf[ResourceProvider]).toInstance(resProvider)
+                bind(classOf[PathBuilder]).toInstance(paths)
+                bind(classOf[CuratorFramework]).toInstance(curator)
+            }
+        }).getInstance(classOf[BulkResource])
+    }
+
+    override def teardown(): Unit = {
+        backend.stopAsync().awaitTerminated()
+    }
+
+    private def json(resource: UriResource): JsonNode = {
+        resource.setBaseUri(baseUri)
+        mapper.valueToTree[JsonNode](resource)
+    }
+
+    private def op(method: String, path: String,
+                   resource: UriResource = null): BulkOperation = {
+        new BulkOperation(method, path,
+                          if (resource eq null) null else json(resource))
+    }
+
+    private def execute(ops: BulkOperation*): Seq[BulkResult] = {
+        bulk.execute(ops.asJava).asScala
+    }
+
+    private def router(): Router = {
+        val router = new Router
+        router.id = UUID.randomUUID()
+        router.name = "router"
+        router
+    }
+
+    private def routerPort(routerId: UUID): RouterPort = {
+        val port = new RouterPort
+        port.id = UUID.randomUUID()
+        port.routerId = routerId
+        port.portAddress = "10.0.0.1"
+        port.networkAddress = "10.0.0.0"
+        port.networkLength = 24
+        port
+    }
+
+    private def route(portId: UUID, index: Int): Route = {
+        new Route("0.0.0.0", 0, s"10.1.$index.0", 24, Route.NextHop.Normal,
+                  portId, null, 100, null, false)
+    }
+
+    private def exists(clazz: Class[_], id: UUID): Boolean = {
+        backend.store.exists(clazz, id).await()
+    }
+
+    feature("The bulk resource executes heterogeneous operations") {
+        scenario("Creating a router with ports and routes") {
+            Given("A router, a port and routes via the port")
+            val r = router()
+            val port = routerPort(r.id)
+            val routes = for (index <- 0 until 4) yield route(port.id, index)
+
+            When("Creating the objects in a bulk request")
+            val results = execute(
+                Seq(op("POST", "routers", r),
+                    op("POST", s"routers/${r.id}/ports", port)) ++
+                routes.map(route =>
+                    op("POST", s"routers/${r.id}/routes", route)): _*)
+
+            Then("Every operation succeeds")
+            results.map(_.status) shouldBe Seq.fill(6)(CREATED.getStatusCode)
+            results.head.location shouldBe s"${baseUri}routers/${r.id}"
+            results(2).location shouldBe
+                s"${baseUri}routes/${routes.head.id}"
+
+            And("The objects are stored and reference each other")
+            val storedPort = backend.store.get(classOf[Topology.Port], port.id)
+                                          .await()
+            storedPort.getRouterId.asJava shouldBe r.id
+            val routeIds = storedPort.getRouteIdsList.asScala.map(_.asJava)
+            for (route <- routes) {
+                routeIds should contain (route.id)
+                exists(classOf[Topology.Route], route.id) shouldBe true
+            }
+        }
+
+        scenario("Updating and deleting objects") {
+            Given("A bridge and a router")
+            val bridge = new Bridge
+            bridge.id = UUID.randomUUID()
+            bridge.name = "bridge"
+            val r = router()
+            execute(op("POST", "bridges", bridge),
+                    op("POST", "routers", r)).map(_.status) shouldBe
+                Seq(CREATED.getStatusCode, CREATED.getStatusCode)
+
+            When("Renaming the bridge and deleting the router")
+            bridge.name = "renamed"
+            val results = execute(op("PUT", s"bridges/${bridge.id}", bridge),
+                                  op("DELETE", s"routers/${r.id}"))
+
+            Then("Both operations succeed")
+            results.map(_.status) shouldBe
+                Seq(NO_CONTENT.getStatusCode, NO_CONTENT.getStatusCode)
+            backend.store.get(classOf[Topology.Network], bridge.id).await()
+                   .getName shouldBe "renamed"
+            exists(classOf[Topology.Router], r.id) shouldBe false
+        }
+    }
+
+    feature("The bulk resource returns the result of every operation") {
+        scenario("Failed operations do not write to storage") {
+            Given("A router and routes, one via a port that does not exist")
+            val r = router()
+            val port = routerPort(r.id)
+            val route1 = route(port.id, 1)
+            val route2 = route(UUID.randomUUID(), 2)
+            val route3 = route(port.id, 3)
+            val bridgeId = UUID.randomUUID()
+
+            When("Executing the operations, among other invalid operations")
+            val results = execute(
+                op("POST", "routers", r),
+                op("POST", s"routers/${r.id}/ports", port),
+                op("POST", s"routers/${r.id}/routes", route1),
+                op("POST", s"routers/${r.id}/routes", route2),
+                op("DELETE", s"bridges/$bridgeId"),
+                op("POST", s"routers/${r.id}/routes", route3),
+                op("POST", "unknown", r),
+                op("GET", s"routers/${r.id}"),
+                op("PUT", s"routers/${r.id}"))
+
+            Then("The invalid operations fail")
+            results.map(_.status) shouldBe Seq(
+                CREATED.getStatusCode, CREATED.getStatusCode,
+                CREATED.getStatusCode, BAD_REQUEST.getStatusCode,
+                NOT_FOUND.getStatusCode, CREATED.getStatusCode,
+                NOT_FOUND.getStatusCode, BAD_REQUEST.getStatusCode,
+                BAD_REQUEST.getStatusCode)
+            results(3).message should not be null
+
+            And("Only the objects of the successful operations are stored")
+            exists(classOf[Topology.Router], r.id) shouldBe true
+            exists(classOf[Topology.Port], port.id) shouldBe true
+            exists(classOf[Topology.Route], route1.id) shouldBe true
+            exists(classOf[Topology.Route], route2.id) shouldBe false
+            exists(classOf[Topology.Route], route3.id) shouldBe true
+        }
+
+        scenario("Operations writing outside the transaction are rejected") {
+            Given("A bridge with a port and a VTEP")
+            val bridge = new Bridge
+            bridge.id = UUID.randomUUID()
+            bridge.name = "bridge"
+            val port = new BridgePort
+            port.id = UUID.randomUUID()
+            port.bridgeId = bridge.id
+            execute(op("POST", "bridges", bridge),
+                    op("POST", s"bridges/${bridge.id}/ports", port))
+                .map(_.status) shouldBe
+                Seq(CREATED.getStatusCode, CREATED.getStatusCode)
+            val vtepId = UUID.randomUUID()
+            val vtepIp = IPAddressUtil.toProto("10.0.0.10")
+            backend.store.create(Topology.Vtep.newBuilder()
+                                     .setId(vtepId.asProto)
+                                     .setManagementIp(vtepIp)
+                                     .setManagementPort(6632)
+                                     .build())
+
+            When("Executing an ARP, a MAC and a VTEP binding operation, " +
+                 "among other operations")
+            val r = router()
+            val arp = new Ip4MacPair(baseUri, bridge.id, "10.0.0.2",
+                                     "01:02:03:04:05:06")
+            val mac = new MacPort(baseUri, bridge.id, "01:02:03:04:05:06",
+                                  port.id)
+            val binding = new VtepBinding
+            binding.vtepId = vtepId
+            binding.portName = "eth0"
+            binding.networkId = bridge.id
+            val results = execute(
+                op("POST", "routers", r),
+                op("POST", s"bridges/${bridge.id}/arp_table", arp),
+                op("POST", s"bridges/${bridge.id}/mac_table", mac),
+                op("POST", s"vteps/$vtepId/bindings", binding))
+
+            Then("The operations writing outside the transaction fail")
+            results.map(_.status) shouldBe Seq(
+                CREATED.getStatusCode, BAD_REQUEST.getStatusCode,
+                BAD_REQUEST.getStatusCode, BAD_REQUEST.getStatusCode)
+
+            And("The other operations are stored")
+            exists(classOf[Topology.Router], r.id) shouldBe true
+
+            And("The ARP, MAC and VTEP binding entries are not stored")
+            val tables = backend.stateTableStore
+            Await.result(tables.bridgeArpTable(bridge.id).remoteSnapshot,
+                         Timeout) shouldBe empty
+            Await.result(tables.bridgeMacTable(bridge.id,
+                                               Bridge.UNTAGGED_VLAN_ID)
+                               .remoteSnapshot, Timeout) shouldBe empty
+            backend.store.get(classOf[Topology.Vtep], vtepId).await()
+                   .getBindingsCount shouldBe 0
+        }
+
+        scenario("Requests with too many operations are rejected") {
+            Given("A request with more than the maximum operations")
+            val ops = for (index <- 0 until 11)
+                yield op("DELETE", s"routers/${UUID.randomUUID()}")
+
+            Then("The request fails")
+            intercept[BadRequestHttpException] {
+                execute(ops: _*)
+            }
+        }
+    }
+}
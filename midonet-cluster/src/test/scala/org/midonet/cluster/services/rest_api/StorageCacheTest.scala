@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.rest_api
+
+import java.util.UUID
+
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.RestApiConfig
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.Topology.{Network, Port, PortGroup}
+import org.midonet.cluster.util.UUIDUtil._
+
+@RunWith(classOf[JUnitRunner])
+class StorageCacheTest extends FeatureSpec with Matchers
+                       with GivenWhenThen with BeforeAndAfter {
+
+    private var store: InMemoryStorage = _
+
+    before {
+        store = new InMemoryStorage
+        store.registerClass(classOf[Network])
+        store.registerClass(classOf[PortGroup])
+        store.build()
+    }
+
+    private def config(enabled: Boolean = true) = new RestApiConfig(
+        ConfigFactory.parseString(
+            s"""
+               |cluster.rest_api.cache_enabled : $enabled
+               |cluster.rest_api.cache_write_timeout : 1s
+             """.stripMargin))
+
+    private def network(tenantId: String = "tenant",
+                        id: UUID = UUID.randomUUID()): Network = {
+        Network.newBuilder()
+               .setId(id.asProto)
+               .setTenantId(tenantId)
+               .build()
+    }
+
+    private def ids(it: Iterator[_]): Seq[String] = {
+        it.map(_.asInstanceOf[Network].getId.asJava.toString).toList
+    }
+
+    private def ids(networks: Seq[Network]): Seq[String] = {
+        networks.map(_.getId.asJava.toString).sorted
+    }
+
+    private def tenant(cache: StorageCache#ClassCache, tenantId: String)
+    : Seq[String] = {
+        ids(cache.iterator(Seq("tenant_id" -> tenantId), null))
+    }
+
+    feature("The cache serves the objects of a class") {
+        scenario("The cache is disabled") {
+            Given("A disabled storage cache")
+            val cache = new StorageCache(store, config(enabled = false))
+
+            Then("No class is cached")
+            cache(classOf[Network]) shouldBe null
+        }
+
+        scenario("The cache loads the existing objects") {
+            Given("Several networks")
+            val networks = for (index <- 0 until 5) yield network()
+            networks.foreach(store.create)
+
+            When("Creating the cache for networks")
+            val cache = new StorageCache(store, config())
+            val networkCache = cache(classOf[Network])
+
+            Then("The cache is ready")
+            networkCache.isReady shouldBe true
+
+            And("The cache returns the networks sorted by identifier")
+            ids(networkCache.iterator(Seq.empty, null)) shouldBe ids(networks)
+
+            And("The cache returns the networks by identifier")
+            networkCache.get(networks.head.getId.asJava) shouldBe networks.head
+            networkCache.get(networks.head.getId.asJava.toString) shouldBe
+                networks.head
+            networkCache.getAll(networks.map(_.getId.asJava)) shouldBe networks
+            networkCache.get(UUID.randomUUID()) shouldBe null
+            networkCache.getAll(Seq(UUID.randomUUID())) shouldBe null
+
+            And("The same cache is returned for the class")
+            cache(classOf[Network]) shouldBe theSameInstanceAs (networkCache)
+        }
+
+        scenario("The cache receives the updates") {
+            Given("A cache with a network")
+            val network1 = network()
+            store.create(network1)
+            val cache = new StorageCache(store, config())
+            val networkCache = cache(classOf[Network])
+
+            When("Creating a second network")
+            val network2 = network()
+            store.create(network2)
+
+            Then("The cache returns both networks")
+            networkCache.get(network2.getId.asJava) shouldBe network2
+
+            When("Updating the first network")
+            val network3 = network1.toBuilder.setName("updated").build()
+            store.update(network3)
+
+            Then("The cache returns the updated network")
+            networkCache.get(network1.getId.asJava) shouldBe network3
+
+            When("Deleting the first network")
+            store.delete(classOf[Network], network1.getId)
+
+            Then("The cache returns only the second network")
+            networkCache.get(network1.getId.asJava) shouldBe null
+            ids(networkCache.iterator(Seq.empty, null)) shouldBe
+                Seq(network2.getId.asJava.toString)
+        }
+
+        scenario("Classes that are not registered are not cached") {
+            Given("A storage cache")
+            val cache = new StorageCache(store, config())
+
+            Then("The unregistered classes are not cached")
+            cache(classOf[String]) shouldBe null
+            cache(classOf[Port]) shouldBe null
+        }
+    }
+
+    feature("The cache filters and paginates the objects") {
+        scenario("Paging through the objects with a marker") {
+            Given("A cache with several networks")
+            val networks = for (index <- 0 until 10) yield network()
+            networks.foreach(store.create)
+            val cache = new StorageCache(store, config())
+            val networkCache = cache(classOf[Network])
+            val sorted = ids(networks)
+
+            Then("The objects after the marker are returned")
+            ids(networkCache.iterator(Seq.empty, sorted(3))) shouldBe
+                sorted.drop(4)
+
+            And("The marker may be an identifier that does not exist")
+            val marker = UUID.randomUUID().toString
+            ids(networkCache.iterator(Seq.empty, marker)) shouldBe
+                sorted.filter(_ > marker)
+
+            And("No objects are returned after the last object")
+            ids(networkCache.iterator(Seq.empty, sorted.last)) shouldBe empty
+        }
+
+        scenario("Filtering the objects by an indexed field") {
+            Given("A cache with networks of two tenants")
+            val networks1 = for (index <- 0 until 5) yield network("tenant1")
+            val networks2 = for (index <- 0 until 5) yield network("tenant2")
+            (networks1 ++ networks2).foreach(store.create)
+            val cache = new StorageCache(store, config())
+            val networkCache = cache(classOf[Network])
+
+            Then("The cache returns the networks of each tenant")
+            tenant(networkCache, "tenant1") shouldBe ids(networks1)
+            tenant(networkCache, "tenant2") shouldBe ids(networks2)
+            tenant(networkCache, "tenant3") shouldBe empty
+
+            When("Moving a network to another tenant")
+            store.update(networks1.head.toBuilder.setTenantId("tenant2")
+                                  .build())
+
+            Then("The index is updated")
+            tenant(networkCache, "tenant1") shouldBe ids(networks1.tail)
+            tenant(networkCache, "tenant2") shouldBe
+                ids(networks2 :+ networks1.head)
+
+            When("Deleting a network")
+            store.delete(classOf[Network], networks2.head.getId)
+
+            Then("The network is removed from the index")
+            tenant(networkCache, "tenant2") shouldBe
+                ids(networks2.tail :+ networks1.head)
+
+            And("An unknown field cannot be used as a filter")
+            networkCache.iterator(Seq("unknown" -> "value"), null) shouldBe null
+        }
+
+        scenario("Filtering the objects by a repeated identifier field") {
+            Given("A cache with port groups")
+            val portId = UUID.randomUUID()
+            val portGroup1 = PortGroup.newBuilder()
+                                      .setId(UUID.randomUUID().asProto)
+                                      .addPortIds(portId.asProto)
+                                      .build()
+            val portGroup2 = PortGroup.newBuilder()
+                                      .setId(UUID.randomUUID().asProto)
+                                      .build()
+            store.create(portGroup1)
+            store.create(portGroup2)
+            val cache = new StorageCache(store, config())
+            val portGroupCache = cache(classOf[PortGroup])
+
+            Then("The cache returns the port groups with the port")
+            portGroupCache.iterator(Seq("port_ids" -> portId.toString), null)
+                          .toList shouldBe Seq(portGroup1)
+
+            And("Invalid identifiers return no port group")
+            portGroupCache.iterator(Seq("port_ids" -> "invalid"), null)
+                          .toList shouldBe empty
+        }
+    }
+
+    feature("The cache waits for the written objects") {
+        scenario("Writes return when the cache has the objects") {
+            Given("A cache with a network")
+            val network1 = network()
+            store.create(network1)
+            val cache = new StorageCache(store, config())
+            val networkCache = cache(classOf[Network])
+
+            When("Recording the creation and deletion of networks")
+            val writes = cache.writes()
+            val network2 = network()
+            writes.update(network2)
+            writes.delete(classOf[Network], network1.getId.asJava)
+            store.create(network2)
+            store.delete(classOf[Network], network1.getId)
+
+            Then("Waiting for the writes returns")
+            writes.await()
+            networkCache.get(network2.getId.asJava) shouldBe network2
+            networkCache.get(network1.getId.asJava) shouldBe null
+        }
+
+        scenario("Writes to classes that are not cached do not wait") {
+            Given("A storage cache")
+            val cache = new StorageCache(store, config())
+
+            When("Recording the creation of a network")
+            val writes = cache.writes()
+            writes.update(network())
+
+            Then("Waiting for the writes returns immediately")
+            val start = System.currentTimeMillis()
+            writes.await()
+            (System.currentTimeMillis() - start) should be < 1000L
+        }
+    }
+}
@@ -94,6 +94,12 @@ sealed class MultiLaneConveyorBelt[K](exceptionHandler: Throwable => Unit) {
 
     def containsLane(key: K) = lanes containsKey key
 
+    /** Indicates whether the lane is not handling any computation. */
+    def isIdle(key: K): Boolean = {
+        val belt = lanes get key
+        (belt eq null) || !belt.handling
+    }
+
     private def scheduleShutdown(key: K): Unit =
         if (lanes.get(key).goods.size == 0) {
             lanes remove key
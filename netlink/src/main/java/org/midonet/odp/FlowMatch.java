@@ -41,105 +41,47 @@ public class FlowMatch {
     public enum Field {
         InputPortNumber {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.inputPortNumber;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.inputPortNumber;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.inputPortNumber == wcmatch2.inputPortNumber;
+                return toString() + "=" + wcmatch.inputPortNumber();
             }
         },
         TunnelKey {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.tunnelKey;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return Longs.hashCode(wcmatch.tunnelKey);
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.tunnelKey == wcmatch2.tunnelKey;
+                return toString() + "=" + wcmatch.tunnelKey();
             }
         },
         TunnelSrc {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + IPv4Addr.intToString(wcmatch.tunnelSrc);
-            }
-            public int hashCode(FlowMatch  wcmatch) {
-                return wcmatch.tunnelSrc;
-            }
-            public boolean equals(FlowMatch  wcmatch1,
-                                  FlowMatch  wcmatch2) {
-                return wcmatch1.tunnelSrc == wcmatch2.tunnelSrc;
+                return toString() + "=" + IPv4Addr.intToString(wcmatch.tunnelSrc());
             }
         },
         TunnelDst {
             public String toString(FlowMatch  wcmatch) {
-                return toString() + "=" + IPv4Addr.intToString(wcmatch.tunnelDst);
-            }
-            public int hashCode(FlowMatch  wcmatch) {
-                return wcmatch.tunnelDst;
-            }
-            public boolean equals(FlowMatch  wcmatch1,
-                                  FlowMatch  wcmatch2) {
-                return wcmatch1.tunnelDst == wcmatch2.tunnelDst;
+                return toString() + "=" + IPv4Addr.intToString(wcmatch.tunnelDst());
             }
         },
         TunnelTOS {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.tunnelTOS;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.tunnelTOS;
-            }
-            public boolean equals(FlowMatch wcmatch1,
-                                  FlowMatch wcmatch2) {
-                return wcmatch1.tunnelTOS == wcmatch2.tunnelTOS;
+                return toString() + "=" + wcmatch.tunnelTOS();
             }
         },
         TunnelTTL {
             public String toString(FlowMatch  wcmatch) {
-                return toString() + "=" + wcmatch.tunnelTTL;
-            }
-            public int hashCode(FlowMatch  wcmatch) {
-                return wcmatch.tunnelTTL;
-            }
-            public boolean equals(FlowMatch  wcmatch1,
-                                  FlowMatch  wcmatch2) {
-                return wcmatch1.tunnelTTL == wcmatch2.tunnelTTL;
+                return toString() + "=" + wcmatch.tunnelTTL();
             }
         },
         EthSrc {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.ethSrc;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return Objects.hash(wcmatch.ethSrc);
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.ethSrc, wcmatch2.ethSrc);
+                return toString() + "=" + wcmatch.ethSrc();
             }
         },
         EthDst {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.ethDst;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.ethDst);
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.ethDst, wcmatch2.ethDst);
+                return toString() + "=" + wcmatch.ethDst();
             }
         },
         EtherType {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" +  String.format("%04X", wcmatch.etherType);
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.etherType;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.etherType == wcmatch2.etherType;
+                return toString() + "=" +  String.format("%04X", wcmatch.etherType());
             }
         },
         VlanId { // MM-custom field
@@ -155,38 +97,20 @@ public class FlowMatch {
         },
         NetworkSrc {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkSrc;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.networkSrc);
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.networkSrc, wcmatch2.networkSrc);
+                return toString() + "=" + wcmatch.networkSrc();
             }
         },
         NetworkDst {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkDst;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return Objects.hashCode(wcmatch.networkDst);
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return Objects.equals(wcmatch1.networkDst, wcmatch2.networkDst);
+                return toString() + "=" + wcmatch.networkDst();
             }
         },
         NetworkProto {
             public String toString(FlowMatch wcmatch) {
                 if (wcmatch.getEtherType() == ARP.ETHERTYPE)
-                    return "ArpOp=" + wcmatch.networkProto;
+                    return "ArpOp=" + wcmatch.networkProto();
                 else
-                    return toString() + "=" + getNetworkProtocolAsString(wcmatch.networkProto);
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.networkProto;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.networkProto == wcmatch2.networkProto;
+                    return toString() + "=" + getNetworkProtocolAsString(wcmatch.networkProto());
             }
 
             private String getNetworkProtocolAsString(byte networkProto) {
@@ -219,68 +143,32 @@ public class FlowMatch {
         },
         NetworkTTL {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkTTL;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.networkTTL;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.networkTTL == wcmatch2.networkTTL;
+                return toString() + "=" + wcmatch.networkTTL();
             }
         },
         NetworkTOS {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.networkTOS;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.networkTOS;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.networkTOS == wcmatch2.networkTOS;
+                return toString() + "=" + wcmatch.networkTOS();
             }
         },
         FragmentType {
             public String toString(FlowMatch wcmatch) {
                 return toString() + "=" + wcmatch.ipFragmentType;
             }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.ipFragmentType.hashCode();
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.ipFragmentType.equals(wcmatch2.ipFragmentType);
-            }
         },
         SrcPort {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.srcPort;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.srcPort;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.srcPort == wcmatch2.srcPort;
+                return toString() + "=" + wcmatch.srcPort();
             }
         },
         DstPort {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.dstPort;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.dstPort;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.dstPort == wcmatch2.dstPort;
+                return toString() + "=" + wcmatch.dstPort();
             }
         },
         IcmpId { // MM-custom field
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.icmpId;
-            }
-            public int hashCode(FlowMatch wcmatch) {
-                return wcmatch.icmpId;
-            }
-            public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
-                return wcmatch1.icmpId == wcmatch2.icmpId;
+                return toString() + "=" + wcmatch.icmpId();
             }
         },
         IcmpData { // MM-custom field
@@ -307,7 +195,7 @@ public class FlowMatch {
         },
         COUNT {
             public String toString(FlowMatch wcmatch) {
-                return toString() + "=" + wcmatch.inputPortNumber;
+                return toString() + "=" + wcmatch.inputPortNumber();
             }
             public int hashCode(FlowMatch wcmatch) {
                 return 0;
@@ -318,8 +206,23 @@ public class FlowMatch {
         };
 
         public abstract String toString(FlowMatch wmatch);
-        public abstract int hashCode(FlowMatch wmatch);
-        public abstract boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2);
+
+        /**
+         * Hashes the packed words of the field. Fields not stored in the
+         * packed words override this method.
+         */
+        public int hashCode(FlowMatch wmatch) {
+            return finalizeHash(hashWords(wmatch.words, fieldMasks[ordinal()]));
+        }
+
+        /**
+         * Compares the packed words of the field. Fields not stored in the
+         * packed words override this method.
+         */
+        public boolean equals(FlowMatch wcmatch1, FlowMatch wcmatch2) {
+            return equalWords(wcmatch1.words, wcmatch2.words,
+                              fieldMasks[ordinal()]);
+        }
     }
 
     private static final Field[] fields = Field.values();
@@ -339,27 +242,161 @@ public class FlowMatch {
         (1L << Field.IcmpData.ordinal()) | (1L << Field.IcmpId.ordinal());
     private static final long userspaceFieldsMask =
         icmpFieldsMask | (1L << Field.UserspaceMark.ordinal());
+    private static final long neverEqualFieldsMask =
+        (1L << Field.UserspaceMark.ordinal()) | (1L << Field.COUNT.ordinal());
+
+    /*
+     * The fixed-size fields are packed into an array of words, such that
+     * hashing and comparing matches reduces to a loop over the words masked
+     * with the bits of the used fields:
+     *
+     *  word | bits 0-31         | bits 32-47            | bits 48-63
+     *  -----+-------------------+-----------------------+-------------------
+     *    0  | tunnel key                                                   |
+     *    1  | tunnel src        | tunnel dst                                |
+     *    2  | input port        | tunnel TOS, TTL       | ether type        |
+     *    3  | eth src                                   | nw proto, nw TTL  |
+     *    4  | eth dst                                   | nw TOS, frag type |
+     *    5  | nw src, upper 64 bits (IPv6)                                 |
+     *    6  | nw src, lower 64 bits (IPv6), or the IPv4 address           |
+     *    7  | nw dst, upper 64 bits (IPv6)                                 |
+     *    8  | nw dst, lower 64 bits (IPv6), or the IPv4 address           |
+     *    9  | src port, dst port| icmp id               | nw src, dst version|
+     *
+     * The VLAN stack and the ICMP data have variable length and are compared
+     * separately.
+     */
+    private static final int TUNNEL_KEY_WORD = 0;
+    private static final int TUNNEL_ADDR_WORD = 1;
+    private static final int PORT_WORD = 2;
+    private static final int ETH_SRC_WORD = 3;
+    private static final int ETH_DST_WORD = 4;
+    private static final int NW_SRC_UPPER_WORD = 5;
+    private static final int NW_SRC_LOWER_WORD = 6;
+    private static final int NW_DST_UPPER_WORD = 7;
+    private static final int NW_DST_LOWER_WORD = 8;
+    private static final int TP_WORD = 9;
+    private static final int WORDS = 10;
+
+    private static final int TUNNEL_DST_SHIFT = 32;
+    private static final int TUNNEL_TOS_SHIFT = 32;
+    private static final int TUNNEL_TTL_SHIFT = 40;
+    private static final int ETHER_TYPE_SHIFT = 48;
+    private static final int NW_PROTO_SHIFT = 48;
+    private static final int NW_TTL_SHIFT = 56;
+    private static final int NW_TOS_SHIFT = 48;
+    private static final int FRAG_TYPE_SHIFT = 56;
+    private static final int DST_PORT_SHIFT = 16;
+    private static final int ICMP_ID_SHIFT = 32;
+    private static final int NW_SRC_VERSION_SHIFT = 48;
+    private static final int NW_DST_VERSION_SHIFT = 56;
+
+    private static final long BYTE_MASK = 0xFFL;
+    private static final long SHORT_MASK = 0xFFFFL;
+    private static final long INT_MASK = 0xFFFFFFFFL;
+
+    private static final long[][] fieldMasks =
+        new long[Field.COUNT.ordinal() + 1][WORDS];
+    static {
+        fieldMask(Field.InputPortNumber, PORT_WORD, 0, INT_MASK);
+        fieldMask(Field.TunnelKey, TUNNEL_KEY_WORD, 0, -1L);
+        fieldMask(Field.TunnelSrc, TUNNEL_ADDR_WORD, 0, INT_MASK);
+        fieldMask(Field.TunnelDst, TUNNEL_ADDR_WORD, TUNNEL_DST_SHIFT, INT_MASK);
+        fieldMask(Field.TunnelTOS, PORT_WORD, TUNNEL_TOS_SHIFT, BYTE_MASK);
+        fieldMask(Field.TunnelTTL, PORT_WORD, TUNNEL_TTL_SHIFT, BYTE_MASK);
+        fieldMask(Field.EthSrc, ETH_SRC_WORD, 0, MAC.MAC_MASK);
+        fieldMask(Field.EthDst, ETH_DST_WORD, 0, MAC.MAC_MASK);
+        fieldMask(Field.EtherType, PORT_WORD, ETHER_TYPE_SHIFT, SHORT_MASK);
+        fieldMask(Field.NetworkSrc, NW_SRC_UPPER_WORD, 0, -1L);
+        fieldMask(Field.NetworkSrc, NW_SRC_LOWER_WORD, 0, -1L);
+        fieldMask(Field.NetworkSrc, TP_WORD, NW_SRC_VERSION_SHIFT, BYTE_MASK);
+        fieldMask(Field.NetworkDst, NW_DST_UPPER_WORD, 0, -1L);
+        fieldMask(Field.NetworkDst, NW_DST_LOWER_WORD, 0, -1L);
+        fieldMask(Field.NetworkDst, TP_WORD, NW_DST_VERSION_SHIFT, BYTE_MASK);
+        fieldMask(Field.NetworkProto, ETH_SRC_WORD, NW_PROTO_SHIFT, BYTE_MASK);
+        fieldMask(Field.NetworkTTL, ETH_SRC_WORD, NW_TTL_SHIFT, BYTE_MASK);
+        fieldMask(Field.NetworkTOS, ETH_DST_WORD, NW_TOS_SHIFT, BYTE_MASK);
+        fieldMask(Field.FragmentType, ETH_DST_WORD, FRAG_TYPE_SHIFT, BYTE_MASK);
+        fieldMask(Field.SrcPort, TP_WORD, 0, SHORT_MASK);
+        fieldMask(Field.DstPort, TP_WORD, DST_PORT_SHIFT, SHORT_MASK);
+        fieldMask(Field.IcmpId, TP_WORD, ICMP_ID_SHIFT, SHORT_MASK);
+    }
+
+    private static void fieldMask(Field field, int word, int shift, long mask) {
+        fieldMasks[field.ordinal()][word] |= mask << shift;
+    }
+
+    private static final long[] tunnelConnectionMask = new long[WORDS];
+    private static final long[] l4ConnectionMask = new long[WORDS];
+    static {
+        orMasks(tunnelConnectionMask, Field.TunnelKey, Field.TunnelSrc,
+                Field.TunnelDst);
+        orMasks(l4ConnectionMask, Field.NetworkSrc, Field.NetworkDst,
+                Field.NetworkProto, Field.SrcPort, Field.DstPort,
+                Field.IcmpId);
+    }
+
+    private static void orMasks(long[] mask, Field... fields) {
+        for (Field field : fields) {
+            long[] fieldMask = fieldMasks[field.ordinal()];
+            for (int i = 0; i < WORDS; ++i) {
+                mask[i] |= fieldMask[i];
+            }
+        }
+    }
+
+    private static final long[] wordMultipliers = new long[WORDS];
+    static {
+        for (int i = 0; i < WORDS; ++i) {
+            // Distinct odd multipliers, such that equal values in different
+            // words do not cancel each other.
+            wordMultipliers[i] = 0x9E3779B97F4A7C15L * (2 * i + 1);
+        }
+    }
+
+    private static final byte IPV4_VERSION = 4;
+    private static final byte IPV6_VERSION = 6;
+
+    /**
+     * Computes the hash of the words masked with the given mask. The loop
+     * has no dependency between iterations, and the JIT can unroll and
+     * vectorize it.
+     */
+    private static long hashWords(long[] words, long[] mask) {
+        long hash = 0L;
+        for (int i = 0; i < WORDS; ++i) {
+            hash += (words[i] & mask[i]) * wordMultipliers[i];
+        }
+        return hash;
+    }
+
+    private static boolean equalWords(long[] words1, long[] words2,
+                                      long[] mask) {
+        long diff = 0L;
+        for (int i = 0; i < WORDS; ++i) {
+            diff |= (words1[i] ^ words2[i]) & mask[i];
+        }
+        return diff == 0L;
+    }
+
+    private static int finalizeHash(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private final long[] words = new long[WORDS];
 
-    private int inputPortNumber = 0;
-    private long tunnelKey = 0L;
-    private int tunnelSrc = 0;
-    private int tunnelDst = 0;
-    private byte tunnelTOS = 0;
-    private byte tunnelTTL = 0;
+    // Objects returned by the getters, created lazily from the packed words
+    // when the match is built from flow keys.
     private MAC ethSrc;
     private MAC ethDst;
-    private short etherType = (short) FlowKeyEtherType.Type.ETH_P_NONE.value;
     private IPAddr networkSrc;
     private IPAddr networkDst;
-    private byte networkProto = 0;
-    private byte networkTTL = 0;
-    private byte networkTOS = 0;
     private IPFragmentType ipFragmentType = IPFragmentType.None;
-    private int srcPort = 0;
-    private int dstPort = 0;
 
     // Extended fields only supported inside MM
-    private short icmpId = 0;
     private byte[] icmpData;
     private ArrayList<Short> vlanIds = new ArrayList<>();
 
@@ -368,13 +405,21 @@ public class FlowMatch {
     protected long usedFields = 0;
     protected long seenFields = 0;
 
+    // The mask of the packed words for the used fields, updated whenever the
+    // used fields change, such that equals() and hashCode() do not modify
+    // the match.
+    private final long[] usedMask = new long[WORDS];
+
     private final ArrayList<FlowKey> keys = new ArrayList<>();
     private int hashCode = 0;
     private int connectionHash = 0;
 
-    public FlowMatch() { }
+    public FlowMatch() {
+        setEtherTypeWord((short) FlowKeyEtherType.Type.ETH_P_NONE.value);
+    }
 
     public FlowMatch(@Nonnull ArrayList<FlowKey> keys) {
+        this();
         this.addKeys(keys);
     }
 
@@ -438,6 +483,10 @@ public class FlowMatch {
         trackSeenFields = 0;
     }
 
+    public boolean isTrackingSeenFields() {
+        return trackSeenFields != 0;
+    }
+
     private static short highestLayer(long fields) {
         // Calculate the ordinal of the highest field seen from the expression
         // fields |= 1 << {field ordinal}
@@ -480,7 +529,14 @@ public class FlowMatch {
      * Log the fact that a <pre>field</pre> has been set in this match.
      */
     private void fieldUsed(Field field) {
-        usedFields |= 1L << field.ordinal();
+        long bit = 1L << field.ordinal();
+        if ((usedFields & bit) == 0) {
+            usedFields |= bit;
+            long[] fieldMask = fieldMasks[field.ordinal()];
+            for (int i = 0; i < WORDS; ++i) {
+                usedMask[i] |= fieldMask[i];
+            }
+        }
         invalidateHashCode();
     }
 
@@ -489,6 +545,7 @@ public class FlowMatch {
      */
     public void fieldUnused(Field field) {
         usedFields &= ~(1L << field.ordinal());
+        updateUsedMask();
         invalidateHashCode();
     }
 
@@ -496,6 +553,21 @@ public class FlowMatch {
         return (usedFields & (1L << field.ordinal())) != 0;
     }
 
+    /**
+     * Recomputes the mask of the packed words from the used fields.
+     */
+    private void updateUsedMask() {
+        Arrays.fill(usedMask, 0L);
+        long fields = usedFields;
+        while (fields != 0) {
+            long[] fieldMask = fieldMasks[Long.numberOfTrailingZeros(fields)];
+            for (int i = 0; i < WORDS; ++i) {
+                usedMask[i] |= fieldMask[i];
+            }
+            fields &= fields - 1;
+        }
+    }
+
     /**
      * Resets the contents of this FlowMatch setting them to the values
      * in <pre>that</pre>. The list of used fields will be cleared and all
@@ -503,31 +575,24 @@ public class FlowMatch {
      * collection for the new used fields)
      */
     public void reset(FlowMatch that) {
-        setIcmpData(that.icmpData);
+        // The ICMP data is copied when set and when read, so the array can
+        // be shared.
+        icmpData = that.icmpData;
         resetWithoutIcmpData(that);
     }
 
     public void resetWithoutIcmpData(FlowMatch that) {
-        inputPortNumber = that.inputPortNumber;
-        tunnelKey = that.tunnelKey;
-        tunnelSrc = that.tunnelSrc;
-        tunnelDst = that.tunnelDst;
+        System.arraycopy(that.words, 0, words, 0, WORDS);
         ethSrc = that.ethSrc;
         ethDst = that.ethDst;
-        etherType = that.etherType;
         networkSrc = that.networkSrc;
         networkDst = that.networkDst;
-        networkProto = that.networkProto;
-        networkTTL = that.networkTTL;
-        networkTOS = that.networkTOS;
         ipFragmentType = that.ipFragmentType;
-        srcPort = that.srcPort;
-        dstPort = that.dstPort;
         resetWith(that.vlanIds, vlanIds);
-        icmpId = that.icmpId;
         usedFields = that.usedFields;
         trackSeenFields = that.trackSeenFields;
         seenFields = that.seenFields;
+        System.arraycopy(that.usedMask, 0, usedMask, 0, WORDS);
 
         resetWith(that.keys, keys);
         invalidateHashCode();
@@ -538,90 +603,224 @@ public class FlowMatch {
      * used fields.
      */
     public void clear() {
+        Arrays.fill(words, 0L);
+        setEtherTypeWord((short) FlowKeyEtherType.Type.ETH_P_NONE.value);
         this.icmpData = null;
         this.networkSrc = null;
         this.networkDst = null;
         this.ethSrc = null;
         this.ethDst = null;
+        this.ipFragmentType = IPFragmentType.None;
         vlanIds.clear();
-        this.etherType = (short) FlowKeyEtherType.Type.ETH_P_NONE.value;
         this.usedFields = 0;
+        Arrays.fill(usedMask, 0L);
         this.trackSeenFields = 1;
         this.seenFields = 0;
         keys.clear();
         invalidateHashCode();
     }
 
+    private long bits(int word, int shift, long mask) {
+        return (words[word] >>> shift) & mask;
+    }
+
+    private void setBits(int word, int shift, long mask, long value) {
+        words[word] = (words[word] & ~(mask << shift))
+                      | ((value & mask) << shift);
+    }
+
+    private int inputPortNumber() {
+        return (int) bits(PORT_WORD, 0, INT_MASK);
+    }
+
+    private long tunnelKey() {
+        return words[TUNNEL_KEY_WORD];
+    }
+
+    private int tunnelSrc() {
+        return (int) bits(TUNNEL_ADDR_WORD, 0, INT_MASK);
+    }
+
+    private int tunnelDst() {
+        return (int) bits(TUNNEL_ADDR_WORD, TUNNEL_DST_SHIFT, INT_MASK);
+    }
+
+    private byte tunnelTOS() {
+        return (byte) bits(PORT_WORD, TUNNEL_TOS_SHIFT, BYTE_MASK);
+    }
+
+    private byte tunnelTTL() {
+        return (byte) bits(PORT_WORD, TUNNEL_TTL_SHIFT, BYTE_MASK);
+    }
+
+    private MAC ethSrc() {
+        if (ethSrc == null && isUsed(Field.EthSrc))
+            ethSrc = new MAC(words[ETH_SRC_WORD]);
+        return ethSrc;
+    }
+
+    private MAC ethDst() {
+        if (ethDst == null && isUsed(Field.EthDst))
+            ethDst = new MAC(words[ETH_DST_WORD]);
+        return ethDst;
+    }
+
+    private short etherType() {
+        return (short) bits(PORT_WORD, ETHER_TYPE_SHIFT, SHORT_MASK);
+    }
+
+    private void setEtherTypeWord(short etherType) {
+        setBits(PORT_WORD, ETHER_TYPE_SHIFT, SHORT_MASK, etherType);
+    }
+
+    private IPAddr networkSrc() {
+        if (networkSrc == null && isUsed(Field.NetworkSrc))
+            networkSrc = ipAddr(NW_SRC_UPPER_WORD, NW_SRC_LOWER_WORD,
+                                NW_SRC_VERSION_SHIFT);
+        return networkSrc;
+    }
+
+    private IPAddr networkDst() {
+        if (networkDst == null && isUsed(Field.NetworkDst))
+            networkDst = ipAddr(NW_DST_UPPER_WORD, NW_DST_LOWER_WORD,
+                                NW_DST_VERSION_SHIFT);
+        return networkDst;
+    }
+
+    private IPAddr ipAddr(int upperWord, int lowerWord, int versionShift) {
+        switch ((byte) bits(TP_WORD, versionShift, BYTE_MASK)) {
+            case IPV4_VERSION:
+                return IPv4Addr.fromInt((int) words[lowerWord]);
+            case IPV6_VERSION:
+                return IPv6Addr.fromLong(words[upperWord], words[lowerWord]);
+            default:
+                return null;
+        }
+    }
+
+    private void setIPv4Words(int upperWord, int lowerWord, int versionShift,
+                              int addr) {
+        words[upperWord] = 0L;
+        words[lowerWord] = addr & INT_MASK;
+        setBits(TP_WORD, versionShift, BYTE_MASK, IPV4_VERSION);
+    }
+
+    private void setIPv6Words(int upperWord, int lowerWord, int versionShift,
+                              long upper, long lower) {
+        words[upperWord] = upper;
+        words[lowerWord] = lower;
+        setBits(TP_WORD, versionShift, BYTE_MASK, IPV6_VERSION);
+    }
+
+    private void setIPWords(int upperWord, int lowerWord, int versionShift,
+                            IPAddr addr) {
+        if (addr instanceof IPv4Addr) {
+            setIPv4Words(upperWord, lowerWord, versionShift,
+                         ((IPv4Addr) addr).toInt());
+        } else if (addr instanceof IPv6Addr) {
+            IPv6Addr ipv6 = (IPv6Addr) addr;
+            setIPv6Words(upperWord, lowerWord, versionShift,
+                         ipv6.upperWord(), ipv6.lowerWord());
+        } else {
+            throw new IllegalArgumentException(
+                "Unsupported network address " + addr);
+        }
+    }
+
+    private byte networkProto() {
+        return (byte) bits(ETH_SRC_WORD, NW_PROTO_SHIFT, BYTE_MASK);
+    }
+
+    private byte networkTTL() {
+        return (byte) bits(ETH_SRC_WORD, NW_TTL_SHIFT, BYTE_MASK);
+    }
+
+    private byte networkTOS() {
+        return (byte) bits(ETH_DST_WORD, NW_TOS_SHIFT, BYTE_MASK);
+    }
+
+    private int srcPort() {
+        return (int) bits(TP_WORD, 0, SHORT_MASK);
+    }
+
+    private int dstPort() {
+        return (int) bits(TP_WORD, DST_PORT_SHIFT, SHORT_MASK);
+    }
+
+    private short icmpId() {
+        return (short) bits(TP_WORD, ICMP_ID_SHIFT, SHORT_MASK);
+    }
+
     @Nonnull
     public FlowMatch setInputPortNumber(int inputPortNumber) {
         fieldUsed(Field.InputPortNumber);
-        this.inputPortNumber = inputPortNumber;
+        setBits(PORT_WORD, 0, INT_MASK, inputPortNumber);
         return this;
     }
 
     public int getInputPortNumber() {
         fieldSeen(Field.InputPortNumber);
-        return inputPortNumber;
+        return inputPortNumber();
     }
 
     @Nonnull
     public FlowMatch setTunnelKey(long tunnelKey) {
-        this.tunnelKey = tunnelKey;
+        words[TUNNEL_KEY_WORD] = tunnelKey;
         fieldUsed(Field.TunnelKey);
         return this;
     }
 
     public long getTunnelKey() {
         fieldSeen(Field.TunnelKey);
-        return tunnelKey;
+        return tunnelKey();
     }
 
     @Nonnull
     public FlowMatch setTunnelSrc(int tunnelSrc) {
         fieldUsed(Field.TunnelSrc);
-        this.tunnelSrc = tunnelSrc;
+        setBits(TUNNEL_ADDR_WORD, 0, INT_MASK, tunnelSrc);
         return this;
     }
 
     public int getTunnelSrc() {
         fieldSeen(Field.TunnelSrc);
-        return tunnelSrc;
+        return tunnelSrc();
     }
 
     @Nonnull
     public FlowMatch setTunnelDst(int tunnelDst) {
         fieldUsed(Field.TunnelDst);
-        this.tunnelDst = tunnelDst;
+        setBits(TUNNEL_ADDR_WORD, TUNNEL_DST_SHIFT, INT_MASK, tunnelDst);
         return this;
     }
 
     public int getTunnelDst() {
         fieldSeen(Field.TunnelDst);
-        return tunnelDst;
+        return tunnelDst();
     }
 
      @Nonnull
     public FlowMatch setTunnelTOS(byte tunnelTOS) {
         fieldUsed(Field.TunnelTOS);
-        this.tunnelTOS = tunnelTOS;
+        setBits(PORT_WORD, TUNNEL_TOS_SHIFT, BYTE_MASK, tunnelTOS);
         return this;
     }
 
     public byte getTunnelTOS() {
         fieldSeen(Field.TunnelTOS);
-        return tunnelTOS;
+        return tunnelTOS();
     }
 
     @Nonnull
     public FlowMatch setTunnelTTL(byte tunnelTTL) {
         fieldUsed(Field.TunnelTTL);
-        this.tunnelTTL = tunnelTTL;
+        setBits(PORT_WORD, TUNNEL_TTL_SHIFT, BYTE_MASK, tunnelTTL);
         return this;
     }
 
     public byte getTunnelTTL() {
         fieldSeen(Field.TunnelTTL);
-        return tunnelTTL;
+        return tunnelTTL();
     }
 
     public boolean isFromTunnel() {
@@ -636,14 +835,21 @@ public class FlowMatch {
     @Nonnull
     public FlowMatch setEthSrc(@Nonnull MAC addr) {
         fieldUsed(Field.EthSrc);
+        setBits(ETH_SRC_WORD, 0, MAC.MAC_MASK, addr.asLong());
         this.ethSrc = addr;
         return this;
     }
 
+    private void setEthSrc(long addr) {
+        fieldUsed(Field.EthSrc);
+        setBits(ETH_SRC_WORD, 0, MAC.MAC_MASK, addr);
+        this.ethSrc = null;
+    }
+
     @Nullable
     public MAC getEthSrc() {
         fieldSeen(Field.EthSrc);
-        return ethSrc;
+        return ethSrc();
     }
 
     @Nonnull
@@ -654,31 +860,40 @@ public class FlowMatch {
     @Nonnull
     public FlowMatch setEthDst(@Nonnull MAC addr) {
         fieldUsed(Field.EthDst);
+        setBits(ETH_DST_WORD, 0, MAC.MAC_MASK, addr.asLong());
         this.ethDst = addr;
         return this;
     }
 
+    private void setEthDst(long addr) {
+        fieldUsed(Field.EthDst);
+        setBits(ETH_DST_WORD, 0, MAC.MAC_MASK, addr);
+        this.ethDst = null;
+    }
+
     @Nullable
     public MAC getEthDst() {
         fieldSeen(Field.EthDst);
-        return ethDst;
+        return ethDst();
     }
 
     @Nonnull
     public FlowMatch setEtherType(short etherType) {
         fieldUsed(Field.EtherType);
-        this.etherType = etherType;
+        setEtherTypeWord(etherType);
         return this;
     }
 
     public short getEtherType() {
         fieldSeen(Field.EtherType);
-        return etherType;
+        return etherType();
     }
 
     @Nonnull
     public FlowMatch setNetworkSrc(@Nonnull IPAddr addr) {
         fieldUsed(Field.NetworkSrc);
+        setIPWords(NW_SRC_UPPER_WORD, NW_SRC_LOWER_WORD, NW_SRC_VERSION_SHIFT,
+                   addr);
         this.networkSrc = addr;
         return this;
     }
@@ -686,7 +901,7 @@ public class FlowMatch {
     @Nullable
     public IPAddr getNetworkSrcIP() {
         fieldSeen(Field.NetworkSrc);
-        return networkSrc;
+        return networkSrc();
     }
 
     /**
@@ -696,6 +911,8 @@ public class FlowMatch {
     @Nonnull
     public FlowMatch setNetworkDst(@Nonnull IPAddr addr) {
         fieldUsed(Field.NetworkDst);
+        setIPWords(NW_DST_UPPER_WORD, NW_DST_LOWER_WORD, NW_DST_VERSION_SHIFT,
+                   addr);
         this.networkDst = addr;
         return this;
     }
@@ -703,48 +920,50 @@ public class FlowMatch {
     @Nullable
     public IPAddr getNetworkDstIP() {
         fieldSeen(Field.NetworkDst);
-        return networkDst;
+        return networkDst();
     }
 
     @Nonnull
     public FlowMatch setNetworkProto(byte networkProto) {
         fieldUsed(Field.NetworkProto);
-        this.networkProto = networkProto;
+        setBits(ETH_SRC_WORD, NW_PROTO_SHIFT, BYTE_MASK, networkProto);
         return this;
     }
 
     public byte getNetworkProto() {
         fieldSeen(Field.NetworkProto);
-        return networkProto;
+        return networkProto();
     }
 
     @Nonnull
     public FlowMatch setNetworkTOS(byte tos) {
         fieldUsed(Field.NetworkTOS);
-        this.networkTOS = tos;
+        setBits(ETH_DST_WORD, NW_TOS_SHIFT, BYTE_MASK, tos);
         return this;
     }
 
     public byte getNetworkTOS() {
         fieldSeen(Field.NetworkTOS);
-        return networkTOS;
+        return networkTOS();
     }
 
     @Nonnull
     public FlowMatch setNetworkTTL(byte networkTTL) {
         fieldUsed(Field.NetworkTTL);
-        this.networkTTL = networkTTL;
+        setBits(ETH_SRC_WORD, NW_TTL_SHIFT, BYTE_MASK, networkTTL);
         return this;
     }
 
     public byte getNetworkTTL() {
         fieldSeen(Field.NetworkTTL);
-        return networkTTL;
+        return networkTTL();
     }
 
     @Nonnull
     public FlowMatch setIpFragmentType(IPFragmentType fragmentType) {
         fieldUsed(Field.FragmentType);
+        setBits(ETH_DST_WORD, FRAG_TYPE_SHIFT, BYTE_MASK,
+                fragmentType.ordinal());
         this.ipFragmentType = fragmentType;
         return this;
     }
@@ -758,37 +977,37 @@ public class FlowMatch {
     public FlowMatch setSrcPort(int srcPort) {
         TCP.ensurePortInRange(srcPort);
         fieldUsed(Field.SrcPort);
-        this.srcPort = srcPort;
+        setBits(TP_WORD, 0, SHORT_MASK, srcPort);
         return this;
     }
 
     public int getSrcPort() {
         fieldSeen(Field.SrcPort);
-        return srcPort;
+        return srcPort();
     }
 
     @Nonnull
     public FlowMatch setDstPort(int dstPort) {
         TCP.ensurePortInRange(dstPort);
         fieldUsed(Field.DstPort);
-        this.dstPort = dstPort;
+        setBits(TP_WORD, DST_PORT_SHIFT, SHORT_MASK, dstPort);
         return this;
     }
 
     public int getDstPort() {
         fieldSeen(Field.DstPort);
-        return dstPort;
+        return dstPort();
     }
 
     public FlowMatch setIcmpIdentifier(Short identifier) {
         fieldUsed(Field.IcmpId);
-        this.icmpId = identifier;
+        setBits(TP_WORD, ICMP_ID_SHIFT, SHORT_MASK, identifier);
         return this;
     }
 
     public short getIcmpIdentifier() {
         fieldSeen(Field.IcmpId);
-        return icmpId;
+        return icmpId();
     }
 
     @Nonnull
@@ -797,7 +1016,7 @@ public class FlowMatch {
         if (icmpData != null)
             this.icmpData = Arrays.copyOf(icmpData, icmpData.length);
         else
-            icmpData = null;
+            this.icmpData = null;
         return this;
     }
 
@@ -864,26 +1083,26 @@ public class FlowMatch {
 
     // TODO(duarte): enhance as needed
     public void applyTo(Ethernet eth) {
-        eth.setSourceMACAddress(ethSrc);
-        eth.setDestinationMACAddress(ethDst);
-        if (etherType == IPv4.ETHERTYPE) {
+        eth.setSourceMACAddress(ethSrc());
+        eth.setDestinationMACAddress(ethDst());
+        if (etherType() == IPv4.ETHERTYPE) {
             IPv4 ip = (IPv4)eth.getPayload();
-            ip.setSourceAddress((IPv4Addr) networkSrc);
-            ip.setDestinationAddress((IPv4Addr) networkDst);
-            ip.setTtl(networkTTL);
+            ip.setSourceAddress((IPv4Addr) networkSrc());
+            ip.setDestinationAddress((IPv4Addr) networkDst());
+            ip.setTtl(networkTTL());
             byte proto = ip.getProtocol();
             if (proto == TCP.PROTOCOL_NUMBER) {
                 TCP tcp = (TCP)ip.getPayload();
-                tcp.setSourcePort(srcPort);
-                tcp.setDestinationPort(dstPort);
+                tcp.setSourcePort(srcPort());
+                tcp.setDestinationPort(dstPort());
             } else if (proto == UDP.PROTOCOL_NUMBER) {
                 UDP udp = (UDP)ip.getPayload();
-                udp.setSourcePort(srcPort);
-                udp.setDestinationPort(dstPort);
+                udp.setSourcePort(srcPort());
+                udp.setDestinationPort(dstPort());
             } else if (proto == ICMP.PROTOCOL_NUMBER &&
-                       !ICMP.isError((byte)srcPort)) {
+                       !ICMP.isError((byte)srcPort())) {
                 ICMP icmp = (ICMP)ip.getPayload();
-                icmp.setIdentifier(icmpId);
+                icmp.setIdentifier(icmpId());
             }
         }
     }
@@ -894,22 +1113,26 @@ public class FlowMatch {
         if (o == null || !(o instanceof FlowMatch)) return false;
 
         FlowMatch that = (FlowMatch) o;
-        for (Field f : fields) {
-            if (isUsed(f) && (!that.isUsed(f) || !f.equals(this, that)))
-                return false;
-        }
-        return true;
+        if ((usedFields & ~that.usedFields) != 0 ||
+            (usedFields & neverEqualFieldsMask) != 0)
+            return false;
+        if (!equalWords(words, that.words, usedMask))
+            return false;
+        if (isUsed(Field.VlanId) && !Field.VlanId.equals(this, that))
+            return false;
+        return !isUsed(Field.IcmpData) || Field.IcmpData.equals(this, that);
     }
 
     @Override
     public int hashCode() {
         if (hashCode == 0) {
-            int result = Longs.hashCode(usedFields);
-            for (Field f : fields) {
-                if (isUsed(f))
-                    result = 31 * result + f.hashCode(this);
-            }
-            hashCode = result;
+            long result = Longs.hashCode(usedFields);
+            result = 31 * result + hashWords(words, usedMask);
+            if (isUsed(Field.VlanId))
+                result = 31 * result + Field.VlanId.hashCode(this);
+            if (isUsed(Field.IcmpData))
+                result = 31 * result + Field.IcmpData.hashCode(this);
+            hashCode = finalizeHash(result);
         }
         return hashCode;
     }
@@ -922,16 +1145,9 @@ public class FlowMatch {
         if (connectionHash == 0) {
             int connHash;
             if (isFromTunnel()) {
-                connHash = Field.TunnelKey.hashCode(this);
-                connHash = 31 * connHash + Field.TunnelSrc.hashCode(this);
-                connHash = 31 * connHash + Field.TunnelDst.hashCode(this);
+                connHash = finalizeHash(hashWords(words, tunnelConnectionMask));
             } else if (highestLayer(usedFields) >= 4) {
-                connHash = Field.NetworkSrc.hashCode(this);
-                connHash = 31 * connHash + Field.NetworkDst.hashCode(this);
-                connHash = 31 * connHash + Field.NetworkProto.hashCode(this);
-                connHash = 31 * connHash + Field.SrcPort.hashCode(this);
-                connHash = 31 * connHash + Field.DstPort.hashCode(this);
-                connHash = 31 * connHash + Field.IcmpId.hashCode(this);
+                connHash = finalizeHash(hashWords(words, l4ConnectionMask));
             } else {
                 connHash = hashCode();
             }
@@ -993,8 +1209,8 @@ public class FlowMatch {
             case OpenVSwitch.FlowKey.Attr.Ethernet:
                 FlowKeyEthernet ethernet = as(flowKey,
                                               FlowKeyEthernet.class);
-                setEthSrc(MAC.fromAddress(ethernet.eth_src));
-                setEthDst(MAC.fromAddress(ethernet.eth_dst));
+                setEthSrc(MAC.bytesToLong(ethernet.eth_src));
+                setEthDst(MAC.bytesToLong(ethernet.eth_dst));
                 break;
 
             case OpenVSwitch.FlowKey.Attr.VLan:
@@ -1010,10 +1226,8 @@ public class FlowMatch {
 
             case OpenVSwitch.FlowKey.Attr.IPv4:
                 FlowKeyIPv4 ipv4 = as(flowKey, FlowKeyIPv4.class);
-                setNetworkSrc(
-                    IPv4Addr.fromInt(ipv4.ipv4_src));
-                setNetworkDst(
-                    IPv4Addr.fromInt(ipv4.ipv4_dst));
+                setNetworkSrc(ipv4.ipv4_src);
+                setNetworkDst(ipv4.ipv4_dst);
                 setNetworkProto(ipv4.ipv4_proto);
                 setIpFragmentType(IPFragmentType.fromByte(ipv4.ipv4_frag));
                 setNetworkTTL(ipv4.ipv4_ttl);
@@ -1062,8 +1276,8 @@ public class FlowMatch {
 
             case OpenVSwitch.FlowKey.Attr.ARP:
                 FlowKeyARP arp = as(flowKey, FlowKeyARP.class);
-                setNetworkSrc(IPv4Addr.fromInt(arp.arp_sip));
-                setNetworkDst(IPv4Addr.fromInt(arp.arp_tip));
+                setNetworkSrc(arp.arp_sip);
+                setNetworkDst(arp.arp_tip);
                 setEtherType(ARP.ETHERTYPE);
                 setNetworkProto((byte) arp.arp_op);
                 break;
@@ -1086,6 +1300,20 @@ public class FlowMatch {
         }
     }
 
+    private void setNetworkSrc(int addr) {
+        fieldUsed(Field.NetworkSrc);
+        setIPv4Words(NW_SRC_UPPER_WORD, NW_SRC_LOWER_WORD,
+                     NW_SRC_VERSION_SHIFT, addr);
+        this.networkSrc = null;
+    }
+
+    private void setNetworkDst(int addr) {
+        fieldUsed(Field.NetworkDst);
+        setIPv4Words(NW_DST_UPPER_WORD, NW_DST_LOWER_WORD,
+                     NW_DST_VERSION_SHIFT, addr);
+        this.networkDst = null;
+    }
+
     private static <Key extends FlowKey> Key as(FlowKey flowKey,
                                                 Class<Key> type) {
         return type.cast(flowKey);
@@ -222,4 +222,37 @@ sealed class OvsProtocol(pid: Int,
 
         message.finalize(pid)
     }
+
+    /**
+     * Encodes the actions attribute of a packet execute message, so that it
+     * can be reused for several packets with the same actions.
+     */
+    def preparePacketExecuteActions(actions: JList[FlowAction],
+                                    buf: ByteBuffer): Unit = {
+        import org.midonet.odp.OpenVSwitch.Packet.Attr
+
+        NetlinkMessage.writeAttrSeq(buf, Attr.Actions, actions,
+            FlowActions.writer)
+        buf.flip()
+    }
+
+    /**
+     * Prepares a packet execute message with an actions attribute previously
+     * encoded by preparePacketExecuteActions.
+     */
+    def preparePacketExecute(datapathId: Int, packet: Packet,
+                             encodedActions: Array[Byte],
+                             buf: ByteBuffer): Unit = {
+        import org.midonet.odp.OpenVSwitch.Packet.Attr
+
+        val message = messageFor(buf, datapathId, packetFamily.contextExec,
+            NLFlag.REQUEST)
+        NetlinkMessage.writeAttrSeq(buf, Attr.Key, packet.getMatch.getKeys,
+            FlowKeys.writer)
+        buf.put(encodedActions)
+        NetlinkMessage.writeRawAttribute(buf, Attr.Packet,
+            packet.getEthernet.serialize())
+
+        message.finalize(pid)
+    }
 }
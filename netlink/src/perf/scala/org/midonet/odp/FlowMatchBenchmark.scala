@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.odp
+
+import java.util.ArrayList
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.odp.flows.FlowKeys._
+import org.midonet.odp.flows.{FlowKey, IpProtocol}
+import org.midonet.packets._
+
+/**
+ * Measures the cost of the flow match operations performed for every packet:
+ * building the match from the flow keys of an upcall, copying the match,
+ * computing the hash code of a copy, and comparing two equal matches, for
+ * the common packet types.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+class FlowMatchBenchmark {
+
+    @Param(Array("arp", "tcp4", "udp4", "icmp4", "tcp6", "tunnel"))
+    var packetType: String = _
+
+    private var keys: ArrayList[FlowKey] = _
+    private var source: FlowMatch = _
+    private var other: FlowMatch = _
+    private val target = new FlowMatch()
+
+    private def l2(keys: ArrayList[FlowKey], ethType: Short): Unit = {
+        keys.add(inPort(1))
+        keys.add(ethernet(MAC.random().getAddress, MAC.random().getAddress))
+        keys.add(etherType(ethType))
+    }
+
+    private def flowKeys(packetType: String): ArrayList[FlowKey] = {
+        val keys = new ArrayList[FlowKey]
+        packetType match {
+            case "arp" =>
+                l2(keys, ARP.ETHERTYPE)
+                keys.add(arp(MAC.random().getAddress, MAC.random().getAddress,
+                             ARP.OP_REQUEST, IPv4Addr.random.toInt,
+                             IPv4Addr.random.toInt))
+            case "tcp4" =>
+                l2(keys, IPv4.ETHERTYPE)
+                keys.add(ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.TCP))
+                keys.add(tcp(10000, 80))
+            case "udp4" =>
+                l2(keys, IPv4.ETHERTYPE)
+                keys.add(ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.UDP))
+                keys.add(udp(10000, 53))
+            case "icmp4" =>
+                l2(keys, IPv4.ETHERTYPE)
+                keys.add(ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.ICMP))
+                keys.add(icmpEcho(ICMP.TYPE_ECHO_REQUEST, ICMP.CODE_NONE, 1))
+            case "tcp6" =>
+                l2(keys, IPv6.ETHERTYPE)
+                keys.add(ipv6(IPv6Addr.random, IPv6Addr.random, IpProtocol.TCP))
+                keys.add(tcp(10000, 80))
+            case "tunnel" =>
+                keys.add(tunnel(1000L, IPv4Addr.random.toInt,
+                                IPv4Addr.random.toInt, 0, 64))
+                keys.addAll(flowKeys("tcp4"))
+        }
+        keys
+    }
+
+    @JmhSetup
+    def setup(): Unit = {
+        keys = flowKeys(packetType)
+        source = new FlowMatch(keys)
+        other = new FlowMatch(keys)
+    }
+
+    @Benchmark
+    def build(): FlowMatch = {
+        target.clear()
+        target.addKeys(keys)
+        target
+    }
+
+    @Benchmark
+    def resetAndHash(): Int = {
+        target.reset(source)
+        target.hashCode()
+    }
+
+    @Benchmark
+    def resetAndConnectionHash(): Int = {
+        target.reset(source)
+        target.connectionHash()
+    }
+
+    @Benchmark
+    def equalMatches(): Boolean = {
+        source.equals(other)
+    }
+}
@@ -27,9 +27,12 @@ import org.midonet.odp.FlowMatch;
 import org.midonet.odp.FlowMatches;
 import org.midonet.packets.Ethernet;
 import org.midonet.packets.ICMP;
+import org.midonet.packets.IPFragmentType;
 import org.midonet.packets.IPv4;
 import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv6Addr;
 import org.midonet.packets.MAC;
+import org.midonet.packets.TCP;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -397,6 +400,130 @@ public class FlowMatchTest {
         assertTrue(m.containsKey(m2.getUsedFields()));
     }
 
+    @Test
+    public void testPackedFieldsEquality() {
+        FlowMatch m1 = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3", 40000, 50000, 0);
+        FlowMatch m2 = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3", 40000, 50000, 0);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+        assertEquals(m1.connectionHash(), m2.connectionHash());
+
+        m2.setDstPort(50001);
+        assertFalse(m1.equals(m2));
+        m2.setDstPort(50000);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+
+        m2.setEthSrc(MAC.fromString("02:aa:dd:dd:aa:02"));
+        assertFalse(m1.equals(m2));
+        assertEquals(m1.connectionHash(), m2.connectionHash());
+    }
+
+    @Test
+    public void testPackedNetworkAddresses() {
+        IPv6Addr ipv6 = IPv6Addr.fromString("::c0a8:6402");
+        IPv4Addr ipv4 = IPv4Addr.fromString("192.168.100.2");
+        FlowMatch m1 = new FlowMatch().setNetworkSrc(ipv4);
+        FlowMatch m2 = new FlowMatch().setNetworkSrc(ipv6);
+        assertFalse(m1.equals(m2));
+        assertFalse(m2.equals(m1));
+        assertEquals(ipv4, m1.getNetworkSrcIP());
+        assertEquals(ipv6, m2.getNetworkSrcIP());
+
+        m2.setNetworkSrc(ipv4);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+    }
+
+    @Test
+    public void testFieldsFromKeys() {
+        MAC srcMac = MAC.fromString("aa:bb:cc:dd:ee:ff");
+        MAC dstMac = MAC.fromString("ff:ee:dd:cc:bb:aa");
+        IPv4Addr srcIp = IPv4Addr.fromString("10.0.0.1");
+        IPv4Addr dstIp = IPv4Addr.fromString("10.0.0.2");
+        FlowMatch m = new FlowMatch();
+        m.addKey(FlowKeys.ethernet(srcMac, dstMac));
+        m.addKey(FlowKeys.etherType(IPv4.ETHERTYPE));
+        m.addKey(FlowKeys.ipv4(srcIp, dstIp, IpProtocol.TCP));
+        m.addKey(tcp(40000, 80));
+
+        assertEquals(srcMac, m.getEthSrc());
+        assertEquals(dstMac, m.getEthDst());
+        assertEquals(IPv4.ETHERTYPE, m.getEtherType());
+        assertEquals(srcIp, m.getNetworkSrcIP());
+        assertEquals(dstIp, m.getNetworkDstIP());
+        assertEquals(TCP.PROTOCOL_NUMBER, m.getNetworkProto());
+        assertEquals(40000, m.getSrcPort());
+        assertEquals(80, m.getDstPort());
+
+        FlowMatch expected = new FlowMatch()
+            .setEthSrc(srcMac).setEthDst(dstMac)
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(srcIp).setNetworkDst(dstIp)
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setNetworkTTL((byte) 0).setNetworkTOS((byte) 0)
+            .setIpFragmentType(IPFragmentType.None)
+            .setSrcPort(40000).setDstPort(80);
+        assertEquals(expected, m);
+        assertEquals(expected.hashCode(), m.hashCode());
+    }
+
+    @Test
+    public void testResetAndClear() {
+        FlowMatch m1 = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3", 40000, 50000, 0);
+        m1.addVlanId((short) 10);
+        m1.setIcmpData(new byte[] { 1, 2, 3 });
+        FlowMatch m2 = new FlowMatch();
+        m2.reset(m1);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+        assertEquals(m1.getUsedFields(), m2.getUsedFields());
+
+        m2.getVlanIds().set(0, (short) 11);
+        assertFalse(m1.equals(m2));
+
+        m2.clear();
+        assertThat(m2.getUsedFields(), is(0L));
+        assertEquals((short) FlowKeyEtherType.Type.ETH_P_NONE.value,
+                     m2.getEtherType());
+        assertEquals(null, m2.getEthSrc());
+        assertEquals(null, m2.getNetworkSrcIP());
+        assertEquals(new FlowMatch(), m2);
+    }
+
+    @Test
+    public void testUsedFieldsMaskTheWords() {
+        FlowMatch m1 = FlowMatches.tcpFlow(
+            "02:aa:dd:dd:aa:01", "02:bb:ee:ee:ff:01",
+            "192.168.100.2", "192.168.100.3", 40000, 50000, 0);
+        FlowMatch m2 = new FlowMatch();
+        m2.reset(m1);
+        m2.setDstPort(50001);
+
+        m1.fieldUnused(FlowMatch.Field.DstPort);
+        m2.fieldUnused(FlowMatch.Field.DstPort);
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+
+        m2.clear();
+        m2.setSrcPort(40000);
+        FlowMatch m3 = new FlowMatch().setSrcPort(40000);
+        assertEquals(m3, m2);
+        assertEquals(m3.hashCode(), m2.hashCode());
+
+        int hashCode = m1.hashCode();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(hashCode, m1.hashCode());
+            assertFalse(m1.equals(m3));
+        }
+    }
+
     @Test
     public void testHighestLayerUsed() {
         FlowMatch m = new FlowMatch();
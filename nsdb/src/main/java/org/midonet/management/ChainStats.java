@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The profiling statistics of a chain. The chain is traversed every time it
+ * is applied to a packet, either directly or as a jump target, and it is
+ * evaluated every time it is applied directly. The evaluation time includes
+ * the time spent in the jump targets, and the histogram counts the
+ * evaluations whose duration in nanoseconds falls in the interval
+ * [2^(i-1), 2^i) for the bucket i.
+ */
+public class ChainStats {
+    private final String chainId;
+    private final String name;
+    private final long traversals;
+    private final long evaluations;
+    private final long totalNanos;
+    private final long[] histogram;
+
+    @ConstructorProperties({"chainId", "name", "traversals", "evaluations",
+                            "totalNanos", "histogram"})
+    public ChainStats(String chainId, String name, long traversals,
+                      long evaluations, long totalNanos, long[] histogram) {
+        this.chainId = chainId;
+        this.name = name;
+        this.traversals = traversals;
+        this.evaluations = evaluations;
+        this.totalNanos = totalNanos;
+        this.histogram = histogram;
+    }
+
+    public String getChainId() {
+        return chainId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTraversals() {
+        return traversals;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long[] getHistogram() {
+        return histogram;
+    }
+}
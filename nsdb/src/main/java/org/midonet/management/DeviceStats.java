@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.management;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The profiling statistics of a simulated device. A device is visited every
+ * time a profiled packet enters the device, and the visit lasts until the
+ * packet enters the next device or the simulation completes, including the
+ * time spent evaluating the device chains. The histogram counts the visits
+ * whose duration in nanoseconds falls in the interval [2^(i-1), 2^i) for
+ * the bucket i.
+ */
+public class DeviceStats {
+    private final String deviceId;
+    private final String type;
+    private final long visits;
+    private final long totalNanos;
+    private final long[] histogram;
+
+    @ConstructorProperties({"deviceId", "type", "visits", "totalNanos",
+                            "histogram"})
+    public DeviceStats(String deviceId, String type, long visits,
+                       long totalNanos, long[] histogram) {
+        this.deviceId = deviceId;
+        this.type = type;
+        this.visits = visits;
+        this.totalNanos = totalNanos;
+        this.histogram = histogram;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getVisits() {
+        return visits;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long[] getHistogram() {
+        return histogram;
+    }
+}
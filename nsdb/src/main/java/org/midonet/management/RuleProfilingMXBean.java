@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management;
+
+public interface RuleProfilingMXBean {
+    static String NAME = "org.midonet.midolman:type=RuleProfiling";
+
+    /** Returns the rules with the highest number of hits, in descending
+     * order of hits. */
+    RuleStats[] getHottestRules(int count);
+
+    /** Returns the rules that have never been hit, in descending order of
+     * the number of evaluations. */
+    RuleStats[] getDeadRules();
+
+    /** Returns the evaluation statistics for all profiled chains. */
+    ChainStats[] getChainStats();
+}
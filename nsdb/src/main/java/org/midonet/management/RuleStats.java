@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The profiling statistics of a rule: the number of times the rule has been
+ * evaluated, and the number of times the rule condition matched the packet.
+ */
+public class RuleStats {
+    private final String ruleId;
+    private final String chainId;
+    private final long evaluations;
+    private final long hits;
+
+    @ConstructorProperties({"ruleId", "chainId", "evaluations", "hits"})
+    public RuleStats(String ruleId, String chainId, long evaluations,
+                     long hits) {
+        this.ruleId = ruleId;
+        this.chainId = chainId;
+        this.evaluations = evaluations;
+        this.hits = hits;
+    }
+
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    public String getChainId() {
+        return chainId;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleStats{" +
+            "ruleId=" + ruleId +
+            ", chainId=" + chainId +
+            ", evaluations=" + evaluations +
+            ", hits=" + hits +
+            '}';
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.management;
+
+public interface SimulationProfilingMXBean {
+    static String NAME = "org.midonet.midolman:type=SimulationProfiling";
+
+    /** Returns the sampling rate of the simulation profiler, such that one
+     * in every rate simulated packets is profiled, or 0 if the profiler is
+     * disabled. */
+    int getSampleRate();
+
+    /** Sets the sampling rate of the simulation profiler for all packet
+     * workers. A rate of 0 disables the profiler. */
+    void setSampleRate(int rate);
+
+    /** Returns the time spent by the profiled packets in each stage of the
+     * packet workflow. */
+    StageStats[] getStageStats();
+
+    /** Returns the time spent by the profiled packets in each simulated
+     * device. */
+    DeviceStats[] getDeviceStats();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.management;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The profiling statistics of a stage of the packet workflow. The packets
+ * count the profiled packets that went through the stage, and the total
+ * time is the sum of the time spent by these packets in the stage.
+ */
+public class StageStats {
+    private final String stage;
+    private final long packets;
+    private final long totalNanos;
+
+    @ConstructorProperties({"stage", "packets", "totalNanos"})
+    public StageStats(String stage, long packets, long totalNanos) {
+        this.stage = stage;
+        this.packets = packets;
+        this.totalNanos = totalNanos;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+}
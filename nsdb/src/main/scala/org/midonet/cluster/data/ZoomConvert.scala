@@ -15,6 +15,7 @@
  */
 package org.midonet.cluster.data
 
+import java.lang.invoke.{MethodHandle, MethodHandles, MethodType}
 import java.lang.reflect.{Array => JArray, _}
 import java.lang.{Byte => JByte}
 import java.util.{ArrayList => JArrayList, HashSet => JHashSet, List => JList, Set => JSet, UUID}
@@ -24,7 +25,8 @@ import scala.collection.JavaConversions._
 import scala.collection.concurrent.TrieMap
 
 import com.google.common.base.Defaults
-import com.google.protobuf.Descriptors.{EnumDescriptor, EnumValueDescriptor}
+import com.google.protobuf.Descriptors.{Descriptor, EnumDescriptor,
+                                       EnumValueDescriptor, FieldDescriptor}
 import com.google.protobuf.GeneratedMessage.Builder
 import com.google.protobuf.{ByteString, Descriptors, Message}
 
@@ -61,10 +63,140 @@ object ZoomConvert {
     private type ProtoBuilder = Builder[_ <: Builder[_ <: AnyRef]]
 
     private case class ConverterKey(clazz: Class[_], converter: Class[_])
-    private case class FieldInfo(field: Field, zoomField: ZoomField)
-    private case class ClassInfo(clazz: Class[_], zoomClass: ZoomClass,
-                                 zoomOneOf: ZoomOneOf,
-                                 fieldsInfo: Seq[FieldInfo])
+
+    private final val Lookup = MethodHandles.lookup()
+    private final val GetterType =
+        MethodType.methodType(classOf[Object], classOf[Object])
+    private final val SetterType =
+        MethodType.methodType(Void.TYPE, classOf[Object], classOf[Object])
+    private final val ConstructorType = MethodType.methodType(classOf[Object])
+    private final val FieldSetMethod = Lookup.findVirtual(
+        classOf[Field], "set", SetterType)
+
+    /**
+     * A field annotated with [[ZoomField]], with method handles to read and
+     * write the field of an object.
+     */
+    private final class FieldInfo(val field: Field, val zoomField: ZoomField) {
+        field.setAccessible(true)
+        val genericType = field.getGenericType
+        private val getter = Lookup.unreflectGetter(field).asType(GetterType)
+        private val setter =
+            try Lookup.unreflectSetter(field).asType(SetterType)
+            catch { case e: IllegalAccessException =>
+                // Final fields can only be written using reflection.
+                FieldSetMethod.bindTo(field)
+            }
+
+        def get(pojo: AnyRef): AnyRef = getter.invokeExact(pojo)
+
+        def set(pojo: AnyRef, value: AnyRef): Unit =
+            setter.invokeExact(pojo, value): Unit
+    }
+
+    /**
+     * The conversion information for a class in the inheritance hierarchy of
+     * a Java object, computed once per class: the annotations, the
+     * super class whose fields are converted as well, the annotated fields
+     * and the default constructor.
+     */
+    private final class ClassInfo(val clazz: Class[_]) {
+        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
+        val superClass: Class[_] =
+            if (clazz != classOf[ZoomObject] &&
+                clazz.getSuperclass != classOf[ZoomObject] &&
+                (zoomClass == null || !zoomClass.skipSuper))
+                clazz.getSuperclass
+            else null
+        val fieldsInfo: Array[FieldInfo] =
+            for (field <- clazz.getDeclaredFields;
+                 zoomField = field.getAnnotation(classOf[ZoomField])
+                 if zoomField ne null) yield new FieldInfo(field, zoomField)
+        val hasDefaultConstructor = getDefaultConstructor(clazz) ne null
+        private val constructor =
+            if (hasDefaultConstructor &&
+                !Modifier.isAbstract(clazz.getModifiers) && !clazz.isInterface)
+                Lookup.unreflectConstructor(getDefaultConstructor(clazz))
+                      .asType(ConstructorType)
+            else null
+        private val messages = new TrieMap[Descriptor, MessageInfo]
+
+        def newInstance(): AnyRef =
+            if (constructor ne null) constructor.invokeExact()
+            else clazz.newInstance().asInstanceOf[AnyRef]
+
+        /**
+         * Returns the binding of the fields of this class to the fields of
+         * the given message type, where the message type is the type at the
+         * level of the super class.
+         */
+        def messageInfo(descriptor: Descriptor): MessageInfo = {
+            var info = messages.getOrElse(descriptor, null)
+            if (info eq null) {
+                info = new MessageInfo(this, descriptor)
+                messages.putIfAbsent(descriptor, info)
+            }
+            info
+        }
+    }
+
+    /**
+     * The binding of the fields of a class to the fields of a message type,
+     * computed once per class and message type: the one-of field containing
+     * the message for the class, if any, and the message field and converter
+     * for every annotated field.
+     */
+    private final class MessageInfo(classInfo: ClassInfo,
+                                    superDescriptor: Descriptor) {
+        val oneOfField: FieldDescriptor =
+            if (classInfo.zoomOneOf ne null) {
+                val field =
+                    superDescriptor.findFieldByName(classInfo.zoomOneOf.name)
+                if (field eq null) {
+                    throw new ConvertException(
+                        s"Message ${superDescriptor.getName} does not have a " +
+                        s"one-of field ${classInfo.zoomOneOf.name}")
+                }
+                field
+            } else null
+        val descriptor =
+            if ((oneOfField ne null) &&
+                oneOfField.getJavaType == FieldDescriptor.JavaType.MESSAGE)
+                oneOfField.getMessageType
+            else superDescriptor
+        val protoFields: Array[FieldDescriptor] =
+            for (fieldInfo <- classInfo.fieldsInfo) yield {
+                val protoField =
+                    descriptor.findFieldByName(fieldInfo.zoomField.name)
+                if (protoField eq null) {
+                    throw new ConvertException(
+                        s"Message ${descriptor.getName} does not have a " +
+                        s"field with name ${fieldInfo.zoomField.name}")
+                }
+                protoField
+            }
+        private val converters =
+            new Array[Converter[_,_]](classInfo.fieldsInfo.length)
+
+        /* The converters are resolved on first use, since a field that is
+         * always null does not require a converter. */
+        def converter(index: Int): Converter[_,_] = {
+            var converter = converters(index)
+            if (converter eq null) {
+                val fieldInfo = classInfo.fieldsInfo(index)
+                converter = getConverter(fieldInfo.field.getType,
+                                         fieldInfo.genericType,
+                                         protoFields(index),
+                                         fieldInfo.zoomField)
+                converters(index) = converter
+            }
+            converter
+        }
+    }
+
+    private val classes = new TrieMap[Class[_], ClassInfo]
+    private val builders = new TrieMap[Class[_], MethodHandle]
 
     private val converters =
         new TrieMap[Class[_ <: Converter[_,_]], Converter[_,_]]
@@ -123,9 +255,9 @@ object ZoomConvert {
             return null
         }
         val clazz = newFactory(proto, pojoClass)
-        val defaultConstructor = getDefaultConstructor(clazz)
-        if (defaultConstructor ne null) {
-            val pojo = clazz.newInstance().asInstanceOf[T]
+        val classInfo = getClassInfo(clazz)
+        if (classInfo.hasDefaultConstructor) {
+            val pojo = classInfo.newInstance().asInstanceOf[T]
             from(proto, pojo, pojo.getClass)
             pojo.afterFromProto(proto)
             pojo
@@ -186,54 +318,36 @@ object ZoomConvert {
     private def to[T <: ZoomObject, U <: Message](
             pojo: T, clazz: Class[_], topBuilder: ProtoBuilder): ProtoBuilder = {
 
-        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+        val classInfo = getClassInfo(clazz)
         // Recursively iterate over all superclasses in the objects inheritance
         // hierarchy, and get the corresponding Protocol Buffers message.
         val superBuilder =
-            if (clazz != classOf[ZoomObject] &&
-                clazz.getSuperclass != classOf[ZoomObject] &&
-                (zoomClass == null || !zoomClass.skipSuper))
-                to(pojo, clazz.getSuperclass, topBuilder)
+            if (classInfo.superClass ne null)
+                to(pojo, classInfo.superClass, topBuilder)
             else topBuilder
 
+        val messageInfo =
+            classInfo.messageInfo(superBuilder.getDescriptorForType)
+
         // If the class has a one-of annotation, get the builder from the one-of
         // field.
-        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
-        val thisBuilder = if (zoomOneOf ne null) {
-            val superDescriptor = superBuilder.getDescriptorForType
-            val oneOfField = superDescriptor.findFieldByName(zoomOneOf.name)
-            if (oneOfField eq null) {
-                throw new ConvertException(
-                    s"Message ${superDescriptor.getName} does not have a " +
-                    s"one-of field ${zoomOneOf.name}")
-            }
-            superBuilder.getFieldBuilder(oneOfField).asInstanceOf[ProtoBuilder]
+        val thisBuilder = if (messageInfo.oneOfField ne null) {
+            superBuilder.getFieldBuilder(messageInfo.oneOfField)
+                        .asInstanceOf[ProtoBuilder]
         } else superBuilder
 
-        // Get the descriptor for the current builder.
-        val descriptor = thisBuilder.getDescriptorForType
-
-        for (pojoField <- clazz.getDeclaredFields;
-             zoomField = pojoField.getAnnotation(classOf[ZoomField])
-             if zoomField ne null) {
-            val protoField = descriptor.findFieldByName(zoomField.name)
-
-            // Verify the field exists.
-            if (protoField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"field with name ${zoomField.name}")
-            }
+        val fieldsInfo = classInfo.fieldsInfo
+        var index = 0
+        while (index < fieldsInfo.length) {
+            val fieldInfo = fieldsInfo(index)
+            val protoField = messageInfo.protoFields(index)
             try {
                 // Get the field value.
-                val pojoValue = pojo.getField(pojoField)
+                val pojoValue = fieldInfo.get(pojo)
                 // Ignore the null fields.
                 if (null != pojoValue) {
-                    val converter = getConverter(pojoField.getType,
-                                                 pojoField.getGenericType,
-                                                 protoField, zoomField)
-                    val protoValue = converter.to(pojoValue,
-                                                  pojoField.getGenericType)
+                    val protoValue = messageInfo.converter(index)
+                        .to(pojoValue, fieldInfo.genericType)
                     thisBuilder.setField(protoField, protoValue)
                 }
             } catch {
@@ -242,12 +356,13 @@ object ZoomConvert {
                           _ : IllegalArgumentException |
                           _ : ClassCastException) =>
                     val msg = s"Class $clazz failed to convert field " +
-                              s"${zoomField.name} from Java type " +
-                              s"${pojoField.getType} to Protocol Buffers " +
-                              s"type ${protoField.getType}"
+                              s"${fieldInfo.zoomField.name} from Java type " +
+                              s"${fieldInfo.field.getType} to Protocol " +
+                              s"Buffers type ${protoField.getType}"
                     log.error(msg, e)
                     throw new ConvertException(msg, e)
             }
+            index += 1
         }
 
         thisBuilder
@@ -269,75 +384,58 @@ object ZoomConvert {
      */
     private def from[T <: ZoomObject, U <: Message]
                     (proto: U, pojo: T, clazz: Class[_]): Message = {
-        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+        val classInfo = getClassInfo(clazz)
 
         // Recursively iterate over all superclasses in the objects inheritance
         // hierarchy, and get the corresponding Protocol Buffers message.
         var message =
-            if (clazz != classOf[ZoomObject] &&
-                clazz.getSuperclass != classOf[ZoomObject] &&
-                (zoomClass == null || !zoomClass.skipSuper))
-                from(proto, pojo, clazz.getSuperclass)
+            if (classInfo.superClass ne null)
+                from(proto, pojo, classInfo.superClass)
             else proto
 
-        // Get the descriptor for the current message.
-        var descriptor = message.getDescriptorForType
+        val messageInfo = classInfo.messageInfo(message.getDescriptorForType)
 
         // If the class has a one-of annotation, extract the message from
         // the one-of field.
-        val zoomOneOf = clazz.getAnnotation(classOf[ZoomOneOf])
-        if (zoomOneOf ne null) {
-            val oneOfField = descriptor.findFieldByName(zoomOneOf.name)
-            message = if (oneOfField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"one-of field ${zoomOneOf.name}")
-            } else message.getField(oneOfField) match {
-                case msg: Message =>
-                    descriptor = msg.getDescriptorForType
-                    msg
+        if (messageInfo.oneOfField ne null) {
+            message = message.getField(messageInfo.oneOfField) match {
+                case msg: Message => msg
                 case _ =>
                     throw new ConvertException(
-                        s"Message ${descriptor.getName} one-of field " +
-                        s"${zoomOneOf.name} is not a Protocol Buffers " +
-                        s"message")
+                        s"Message ${message.getDescriptorForType.getName} " +
+                        s"one-of field ${classInfo.zoomOneOf.name} is not a " +
+                        s"Protocol Buffers message")
             }
         }
 
-        for (pojoField <- clazz.getDeclaredFields;
-             zoomField = pojoField.getAnnotation(classOf[ZoomField])
-             if zoomField ne null) {
-            val protoField = descriptor.findFieldByName(zoomField.name)
-
-            // Verify the field exists.
-            if (protoField eq null) {
-                throw new ConvertException(
-                    s"Message ${descriptor.getName} does not have a " +
-                    s"field ${zoomField.name}")
-            } else if (protoField.isRepeated || protoField.hasDefaultValue ||
-                       message.hasField(protoField)) {
+        val fieldsInfo = classInfo.fieldsInfo
+        var index = 0
+        while (index < fieldsInfo.length) {
+            val fieldInfo = fieldsInfo(index)
+            val protoField = messageInfo.protoFields(index)
+            if (protoField.isRepeated || protoField.hasDefaultValue ||
+                message.hasField(protoField)) {
                 // We ignore unset message fields, and let the corresponding
                 // Java object field set to the its type-default value.
                 try {
                     val protoValue = message.getField(protoField)
-                    val converter = getConverter(pojoField.getType,
-                                                 pojoField.getGenericType,
-                                                 protoField, zoomField)
-                    val pojoValue = converter.from(protoValue,
-                                                   pojoField.getGenericType)
-                    pojo.setField(pojoField, pojoValue)
+                    val pojoValue = messageInfo.converter(index)
+                        .from(protoValue, fieldInfo.genericType)
+                    fieldInfo.set(pojo, pojoValue.asInstanceOf[AnyRef])
                 } catch {
                     case e @ (_ : InstantiationException |
                               _ : IllegalAccessException |
                               _ : IllegalArgumentException |
+                              _ : ClassCastException |
                               _ : NullPointerException) =>
                         throw new ConvertException(
                             s"Class ${pojo.getClass} failed to convert " +
-                            s"field ${zoomField.name} from Protocol Buffers " +
-                            s"type ${protoField.getType} to Java type " +
-                            s"${pojoField.getType}", e)
+                            s"field ${fieldInfo.zoomField.name} from " +
+                            s"Protocol Buffers type ${protoField.getType} " +
+                            s"to Java type ${fieldInfo.field.getType}", e)
                 }
             }
+            index += 1
         }
 
         message
@@ -417,8 +515,14 @@ object ZoomConvert {
      */
     private def newBuilder[U <: Message](clazz: Class[U]): ProtoBuilder = {
         try {
-            clazz.getMethod(ZoomConvert.BuilderMethod)
-                .invoke(null).asInstanceOf[ProtoBuilder]
+            var builder = builders.getOrElse(clazz, null)
+            if (builder eq null) {
+                builder = Lookup.unreflect(
+                    clazz.getMethod(ZoomConvert.BuilderMethod))
+                                .asType(ConstructorType)
+                builders.putIfAbsent(clazz, builder)
+            }
+            (builder.invokeExact(): AnyRef).asInstanceOf[ProtoBuilder]
         } catch {
             case e @ (_ : NoSuchMethodException |
                       _ : IllegalAccessException |
@@ -428,6 +532,19 @@ object ZoomConvert {
         }
     }
 
+    /**
+     * Returns the conversion information for the given class, computing it
+     * on first use.
+     */
+    private def getClassInfo(clazz: Class[_]): ClassInfo = {
+        var classInfo = classes.getOrElse(clazz, null)
+        if (classInfo eq null) {
+            classInfo = new ClassInfo(clazz)
+            classes.putIfAbsent(clazz, classInfo)
+        }
+        classInfo
+    }
+
     /**
      * Creates a Java object factory instance for the specified Protocol Buffers
      * message. The method traverses the object's inheritance hierarchy to
@@ -441,7 +558,7 @@ object ZoomConvert {
     private def newFactory[T <: ZoomObject, U <: Message]
                           (proto: U, clazz: Class[_]): Class[_] = {
         var factory = clazz
-        val zoomClass = clazz.getAnnotation(classOf[ZoomClass])
+        val zoomClass = getClassInfo(clazz).zoomClass
 
         if (null != zoomClass &&
             !zoomClass.factory().equals(classOf[DefaultFactory])) {
@@ -15,8 +15,6 @@
  */
 package org.midonet.cluster.data
 
-import java.lang.reflect.Field
-
 import com.google.protobuf.Message
 
 /**
@@ -54,14 +52,4 @@ abstract class ZoomObject {
      */
     protected[data] def afterToProto(builder: Message.Builder): Unit = {
     }
-
-    final protected[data] def getField(field: Field): Any = {
-        field setAccessible true
-        field get this
-    }
-
-    final protected[data] def setField(field: Field, value: Any): Unit = {
-        field setAccessible true
-        field.set(this, value)
-    }
 }
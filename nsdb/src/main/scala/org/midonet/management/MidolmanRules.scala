@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.management
+
+import javax.management.remote.{JMXConnectorFactory, JMXServiceURL}
+import javax.management.{JMX, ObjectName}
+
+import org.rogach.scallop._
+
+import scala.util.{Failure, Success, Try}
+
+object RulesCommand {
+    val SUCCESS = 0
+    val FAILURE = 1
+}
+
+trait RulesCommand {
+    def run(profilingProxy: RuleProfilingMXBean): Int
+
+    protected def printRules(rules: Array[RuleStats]): Unit = {
+        val ruleHeader = "rule"
+        val chainHeader = "chain"
+        val evaluationsHeader = "evaluations"
+        val hitsHeader = "hits"
+        System.out.println(f"$ruleHeader%-36s $chainHeader%-36s " +
+                           f"$evaluationsHeader%12s $hitsHeader%12s")
+        for (rule <- rules) {
+            System.out.println(
+                f"${rule.getRuleId}%-36s ${rule.getChainId}%-36s " +
+                f"${rule.getEvaluations}%12d ${rule.getHits}%12d")
+        }
+    }
+}
+
+object HottestRules extends Subcommand("top") with RulesCommand {
+    descr("list the rules with the highest number of hits")
+
+    val count = opt[Int]("count", short = 'n', default = Some(10),
+                         descr = "number of rules, defaults to 10")
+
+    override def run(profilingProxy: RuleProfilingMXBean): Int = {
+        printRules(profilingProxy.getHottestRules(count.get.getOrElse(10)))
+        RulesCommand.SUCCESS
+    }
+}
+
+object DeadRules extends Subcommand("dead") with RulesCommand {
+    descr("list the rules that have never been hit")
+
+    override def run(profilingProxy: RuleProfilingMXBean): Int = {
+        printRules(profilingProxy.getDeadRules)
+        RulesCommand.SUCCESS
+    }
+}
+
+object ChainCosts extends Subcommand("chains") with RulesCommand {
+    descr("list the evaluation time of the chains, in microseconds")
+
+    /** Returns the upper bound, in microseconds, of the histogram bucket that
+      * contains the specified percentile. */
+    private def percentile(chain: ChainStats, p: Double): Double = {
+        val histogram = chain.getHistogram
+        val threshold = Math.ceil(histogram.sum * p).toLong
+        var cumulative = 0L
+        var bucket = 0
+        while (bucket < histogram.length - 1 &&
+               cumulative + histogram(bucket) < threshold) {
+            cumulative += histogram(bucket)
+            bucket += 1
+        }
+        (1L << bucket) / 1000.0
+    }
+
+    override def run(profilingProxy: RuleProfilingMXBean): Int = {
+        val chainHeader = "chain"
+        val nameHeader = "name"
+        val traversalsHeader = "traversals"
+        val evaluationsHeader = "evaluations"
+        val meanHeader = "mean"
+        val p50Header = "p50"
+        val p99Header = "p99"
+        System.out.println(
+            f"$chainHeader%-36s $nameHeader%-20s $traversalsHeader%12s " +
+            f"$evaluationsHeader%12s $meanHeader%10s $p50Header%10s " +
+            f"$p99Header%10s")
+
+        val chains = profilingProxy.getChainStats.sortBy(-_.getTotalNanos)
+        for (chain <- chains) {
+            val mean =
+                if (chain.getEvaluations > 0)
+                    chain.getTotalNanos.toDouble / chain.getEvaluations / 1000.0
+                else 0.0
+            System.out.println(
+                f"${chain.getChainId}%-36s ${String.valueOf(chain.getName)}%-20.20s " +
+                f"${chain.getTraversals}%12d ${chain.getEvaluations}%12d " +
+                f"$mean%10.2f ${percentile(chain, 0.5)}%10.2f " +
+                f"${percentile(chain, 0.99)}%10.2f")
+        }
+        RulesCommand.SUCCESS
+    }
+}
+
+object MidolmanRules extends App {
+    System.setProperty("logback.configurationFile", "logback-disabled.xml")
+
+    private def getProfilingBean(host: String, port: Int)
+    : Try[RuleProfilingMXBean] = {
+        try {
+            val url = new JMXServiceURL(
+                s"service:jmx:rmi:///jndi/rmi://$host:$port/jmxrmi")
+            val jmxc = JMXConnectorFactory.connect(url, null)
+
+            val mbsc = jmxc.getMBeanServerConnection
+
+            val name = new ObjectName(RuleProfilingMXBean.NAME)
+            Success(JMX.newMXBeanProxy(mbsc, name, classOf[RuleProfilingMXBean],
+                                       true))
+        } catch {
+            case e: Exception =>
+                Failure(new Exception(
+                    "[mm-rules] Failed to connect to remote agent: " + e.getMessage))
+        }
+    }
+
+    val opts = new ScallopConf(args) {
+        val port = opt[Int]("port", short = 'p', default = Option(7200),
+                            descr = "JMX port",
+                            required = true)
+        val host = opt[String]("host", short = 'h', default = Option("localhost"),
+                               descr = "Host")
+
+        val top = HottestRules
+        val dead = DeadRules
+        val chains = ChainCosts
+
+        printedName = "mm-rules"
+        footer("Copyright (c) 2016 Midokura SARL, All Rights Reserved.")
+    }
+
+    val ret = (opts.subcommand flatMap {
+        case subcommand: RulesCommand =>
+            for {host <- opts.host.get
+                 port <- opts.port.get} yield { (subcommand, host, port) }
+        case _ =>
+            None
+    } match {
+        case Some((subcommand, host, port)) =>
+            getProfilingBean(host, port) map { bean => subcommand.run(bean) }
+        case _ =>
+            Failure(new Exception("[mm-rules] must specify a valid command"))
+    }) match {
+        case Success(retcode) =>
+            retcode
+        case Failure(e) =>
+            System.err.println("[mm-rules] Failed: " + e.getMessage)
+            1
+    }
+
+    System.exit(ret)
+}
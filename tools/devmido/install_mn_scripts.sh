@@ -46,6 +46,7 @@ chmod +x $MM_CTL $MM_DPCTL $MM_TRACE
 # Do the same for midonet-tools
 MN_CONF="/usr/local/bin/mn-conf"
 MM_METER="/usr/local/bin/mm-meter"
+MM_RULES="/usr/local/bin/mm-rules"
 TOOLS_HOME=$TOP_DIR/midonet-tools/src/share
 TOOLS_JAR=`find $TOP_DIR/midonet-tools/build/installShadow -name "midonet-tools-*-all.jar"`
 TOOLS_SCRIPT_DIR=$TOP_DIR/midonet-tools/src/bin
@@ -53,8 +54,8 @@ TOOLS_SCRIPT_DIR=$TOP_DIR/midonet-tools/src/bin
 sed -e "s@%MIDO_HOME%@$TOOLS_HOME@" \
     -e "s@%MIDO_JAR%@$TOOLS_JAR@" \
     -e "s@%SCRIPT_DIR%@$TOOLS_SCRIPT_DIR@" \
-    $DEVMIDO_DIR/binproxy | tee $MN_CONF $MM_METER
-chmod +x $MN_CONF $MM_METER
+    $DEVMIDO_DIR/binproxy | tee $MN_CONF $MM_METER $MM_RULES
+chmod +x $MN_CONF $MM_METER $MM_RULES
 
 # Do the same for minions-start
 MM_BIN_DIR="/usr/share/midolman"